@@ -0,0 +1,41 @@
+package com.taxi.config;
+
+import com.taxi.service.DriverGeoIndex;
+import com.taxi.service.DriverRedisService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+/**
+ * 司机内存网格索引初始化器
+ * 系统启动时从Redis恢复在线司机到内存索引，并输出附近查询实际使用的数据源
+ */
+@Slf4j
+@Component
+public class DriverGeoIndexInitializer implements ApplicationRunner {
+
+    @Autowired
+    private DriverRedisService driverRedisService;
+
+    @Autowired
+    private DriverGeoIndex driverGeoIndex;
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        log.info("系统启动，开始从Redis重建司机内存网格索引...");
+
+        try {
+            driverRedisService.rebuildGeoIndex();
+            log.info("司机内存网格索引重建完成");
+            if (driverGeoIndex.isAuthoritative()) {
+                log.info("附近司机查询使用内存网格索引（taxi.dispatch.geo-index.single-instance=true）");
+            } else {
+                log.info("附近司机查询使用Redis GEO；单实例部署可设置taxi.dispatch.geo-index.single-instance=true启用内存索引查询");
+            }
+        } catch (Exception e) {
+            log.error("重建司机内存网格索引失败", e);
+        }
+    }
+}
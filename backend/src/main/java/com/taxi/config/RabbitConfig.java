@@ -2,17 +2,45 @@ package com.taxi.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.taxi.dto.DriverOfferMessage;
+import com.taxi.dto.OrderEventMessage;
+import com.taxi.util.TypedMessageConverter;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Declarables;
+import org.springframework.amqp.core.ExchangeBuilder;
 import org.springframework.amqp.core.Queue;
 import org.springframework.amqp.core.QueueBuilder;
+import org.springframework.amqp.core.TopicExchange;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
-import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
 
 @Configuration
 public class RabbitConfig {
+
+    /** 司机通知topic交换机默认名称 */
+    public static final String DEFAULT_DRIVER_NOTIFICATION_EXCHANGE = "driver.notification";
+
+    /** 司机通知路由键前缀，完整格式为 driver.offer.{分区}.{网格} */
+    public static final String DRIVER_NOTIFICATION_ROUTING_PREFIX = "driver.offer.";
+
+    @Value("${taxi.notification.exchange:" + DEFAULT_DRIVER_NOTIFICATION_EXCHANGE + "}")
+    private String driverNotificationExchange;
+
+    @Value("${taxi.notification.partitions:8}")
+    private int driverNotificationPartitions;
+
+    // 虚拟线程模式：自定义的监听容器工厂不会被Spring Boot自动配置，需要在这里指定执行器
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
     
     /**
      * 订单等待队列 - 所有待分配的订单都在这里排队
@@ -23,13 +51,37 @@ public class RabbitConfig {
     }
     
     /**
-     * 司机通知队列 - 用于异步通知司机有新订单
+     * 司机通知队列 - 旧的单一通知队列，切换到分区路由后只用于消费存量消息
      */
     @Bean
     public Queue driverNotificationQueue() {
         return QueueBuilder.durable("driver_notification_queue").build();
     }
     
+    /**
+     * 司机通知分区拓扑 - topic交换机 + 每个分区一个队列
+     * 分区队列绑定 driver.offer.{分区}.#，需要把某个热点网格单独拆出时可以再绑定更具体的路由键
+     */
+    @Bean
+    public Declarables driverNotificationTopology() {
+        TopicExchange exchange = ExchangeBuilder.topicExchange(driverNotificationExchange).durable(true).build();
+        List<Declarable> declarables = new ArrayList<>();
+        declarables.add(exchange);
+        for (int i = 0; i < driverNotificationPartitions; i++) {
+            Queue queue = QueueBuilder.durable(driverNotificationQueueName(i)).build();
+            declarables.add(queue);
+            declarables.add(BindingBuilder.bind(queue).to(exchange).with(DRIVER_NOTIFICATION_ROUTING_PREFIX + i + ".#"));
+        }
+        return new Declarables(declarables);
+    }
+
+    /**
+     * 司机通知分区队列名
+     */
+    public static String driverNotificationQueueName(int partition) {
+        return "driver_notification_queue.p" + partition;
+    }
+    
     /**
      * 订单状态更新队列 - 用于处理订单状态变更
      */
@@ -58,11 +110,16 @@ public class RabbitConfig {
                 .build();
     }
     
+    /**
+     * 消息转换器 - 已注册的消息类型按类型头使用预构建的reader/writer编解码，其余消息使用JSON转换器
+     */
     @Bean
-    public MessageConverter jsonMessageConverter() {
+    public TypedMessageConverter jsonMessageConverter() {
         ObjectMapper objectMapper = new ObjectMapper();
         objectMapper.registerModule(new JavaTimeModule());
-        return new Jackson2JsonMessageConverter(objectMapper);
+        return new TypedMessageConverter(objectMapper, new Jackson2JsonMessageConverter(objectMapper))
+                .register(DriverOfferMessage.TYPE, DriverOfferMessage.VERSION, DriverOfferMessage.class)
+                .register(OrderEventMessage.TYPE, OrderEventMessage.VERSION, OrderEventMessage.class);
     }
     
     @Bean
@@ -90,6 +147,11 @@ public class RabbitConfig {
         factory.setConcurrentConsumers(1);
         factory.setMaxConcurrentConsumers(5);
         
+        // 虚拟线程模式下消费者线程使用虚拟线程，阻塞在数据库和Redis上时不占用平台线程
+        if (virtualThreads) {
+            factory.setTaskExecutor(new VirtualThreadTaskExecutor("rabbit-listener-"));
+        }
+        
         return factory;
     }
 } 
\ No newline at end of file
@@ -8,7 +8,7 @@ import org.springframework.scheduling.annotation.Scheduled;
 
 /**
  * 定时任务配置
- * 用于管理TCP连接心跳检查等定时任务
+ * 连接心跳超时由ConnectionLivenessTracker按到期时间处理，这里只保留统计输出等定时任务
  */
 @Configuration
 @EnableScheduling
@@ -17,19 +17,6 @@ public class ScheduleConfig {
     @Autowired
     private DriverLocationService driverLocationService;
 
-    /**
-     * 每30秒检查一次TCP连接心跳
-     * 清理超时的连接
-     */
-    @Scheduled(fixedRate = 30000)
-    public void checkDriverConnections() {
-        try {
-            driverLocationService.checkHeartbeat();
-        } catch (Exception e) {
-            System.err.println("检查司机连接心跳失败: " + e.getMessage());
-        }
-    }
-
     /**
      * 每5分钟输出一次系统统计信息
      */
@@ -13,6 +13,7 @@ import com.taxi.mapper.DriverMapper;
 import com.taxi.mapper.PassengerMapper;
 import com.taxi.entity.Driver;
 import com.taxi.entity.Passenger;
+import com.taxi.service.TripTrajectoryStore;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
@@ -41,6 +42,9 @@ public class ComplaintController {
     @Autowired
     private PassengerMapper passengerMapper;
 
+    @Autowired
+    private TripTrajectoryStore tripTrajectoryStore;
+
     /**
      * 创建投诉
      */
@@ -374,4 +378,30 @@ public class ComplaintController {
             return Result.error("获取订单投诉失败: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 获取订单行驶轨迹摘要（投诉处理时核对实际行驶距离和时间，完整轨迹见 /api/orders/{orderId}/trajectory）
+     */
+    @GetMapping("/order/{orderId}/trajectory")
+    public Result<Map<String, Object>> getOrderTrajectorySummary(@PathVariable Long orderId) {
+        try {
+            Order order = orderMapper.selectById(orderId);
+            if (order == null) {
+                return Result.error("订单不存在");
+            }
+            TripTrajectoryStore.TrajectorySummary summary = tripTrajectoryStore.summarize(orderId, Long.MIN_VALUE);
+            Map<String, Object> result = new HashMap<>();
+            result.put("orderId", orderId);
+            result.put("pointCount", summary.getPointCount());
+            result.put("trajectoryDistanceKm", summary.getDistanceMeters() / 1000);
+            result.put("startTime", summary.getStartTime());
+            result.put("endTime", summary.getEndTime());
+            result.put("estimatedDistance", order.getEstimatedDistance());
+            result.put("actualDistance", order.getActualDistance());
+            return Result.success(result);
+        } catch (Exception e) {
+            System.err.println("获取订单轨迹失败: " + e.getMessage());
+            return Result.error("获取订单轨迹失败: " + e.getMessage());
+        }
+    }
+}
@@ -7,9 +7,12 @@ import com.taxi.entity.User;
 import com.taxi.mapper.DriverMapper;
 import com.taxi.mapper.OrderMapper;
 import com.taxi.mapper.UserMapper;
+import com.taxi.service.DriverListenerService;
 import com.taxi.service.DriverRedisService;
 import com.taxi.service.OrderDispatchService;
 import com.taxi.service.DriverLocationService;
+import com.taxi.service.DriverLocationWriteBehind;
+import com.taxi.service.LocationUpdateFilter;
 import com.taxi.service.ScheduledOrderService;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -36,6 +39,9 @@ public class DriverController {
     @Autowired
     private UserMapper userMapper;
 
+    @Autowired
+    private DriverLocationWriteBehind driverLocationWriteBehind;
+
     @Autowired
     private DriverRedisService driverRedisService;
 
@@ -51,6 +57,9 @@ public class DriverController {
     @Autowired
     private ScheduledOrderService scheduledOrderService;
 
+    @Autowired
+    private DriverListenerService driverListenerService;
+
     /**
      * 司机上线
      */
@@ -122,7 +131,8 @@ public class DriverController {
                 // 1. 断开TCP长连接（模拟）
                 driverLocationService.closeConnection(driverId);
 
-                // 2. 从Redis缓存移除
+                // 2. 停止自动接单监听，并从Redis缓存移除
+                driverListenerService.stopListening(driverId);
                 driverRedisService.driverGoOffline(driverId);
                 System.out.println("司机 " + driverId + " 已断开TCP连接并从在线缓存移除");
             } catch (Exception e) {
@@ -137,6 +147,35 @@ public class DriverController {
         }
     }
 
+    /**
+     * 司机开启自动接单监听：附近的等待订单会直接分配给该司机
+     */
+    @PostMapping("/{driverId}/listening")
+    public Result<String> startListening(@PathVariable Long driverId) {
+        try {
+            if (!driverRedisService.isDriverOnlineAndFree(driverId)) {
+                return Result.error("司机不在线或正在服务中，无法开启自动接单");
+            }
+            driverListenerService.startListening(driverId);
+            return Result.success("已开启自动接单");
+        } catch (Exception e) {
+            return Result.error("开启自动接单失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 司机关闭自动接单监听
+     */
+    @PostMapping("/{driverId}/listening/stop")
+    public Result<String> stopListening(@PathVariable Long driverId) {
+        try {
+            driverListenerService.stopListening(driverId);
+            return Result.success("已关闭自动接单");
+        } catch (Exception e) {
+            return Result.error("关闭自动接单失败: " + e.getMessage());
+        }
+    }
+
     /**
      * 司机接单
      */
@@ -209,17 +248,25 @@ public class DriverController {
 
     /**
      * 司机位置上报（模拟TCP长连接每3-5秒上报一次）
+     * 返回本次位置是否被转发，以及建议的下次上报间隔（秒）
      */
     @PostMapping("/{driverId}/location")
-    public Result<String> reportLocation(@PathVariable Long driverId,
-                                         @RequestParam BigDecimal latitude,
-                                         @RequestParam BigDecimal longitude,
-                                         @RequestParam(required = false) String vehicleHeading) {
+    public Result<Map<String, Object>> reportLocation(@PathVariable Long driverId,
+                                                      @RequestParam BigDecimal latitude,
+                                                      @RequestParam BigDecimal longitude,
+                                                      @RequestParam(required = false) String vehicleHeading) {
         try {
             // 通过DriverLocationService处理位置上报
-            driverLocationService.handleLocationUpdate(driverId, latitude, longitude, vehicleHeading);
-
-            return Result.success("位置上报成功");
+            LocationUpdateFilter.Decision decision =
+                    driverLocationService.handleLocationUpdate(driverId, latitude, longitude, vehicleHeading);
+
+            Map<String, Object> data = new HashMap<>();
+            data.put("connected", decision != null);
+            if (decision != null) {
+                data.put("forwarded", decision.isForward());
+                data.put("nextIntervalSeconds", decision.getNextIntervalSeconds());
+            }
+            return Result.success(data);
         } catch (Exception e) {
             return Result.error("位置上报失败: " + e.getMessage());
         }
@@ -238,11 +285,8 @@ public class DriverController {
                 return Result.error("司机不存在");
             }
 
-            // 更新数据库中的司机位置
-            driver.setCurrentLatitude(latitude);
-            driver.setCurrentLongitude(longitude);
-            driver.setUpdatedAt(LocalDateTime.now());
-            driverMapper.updateById(driver);
+            // 更新数据库中的司机位置（经延迟写入缓冲合并后批量写库）
+            driverLocationWriteBehind.record(driverId, latitude, longitude);
 
             // 更新Redis缓存中的位置信息
             try {
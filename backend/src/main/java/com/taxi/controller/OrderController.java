@@ -15,9 +15,19 @@ import com.taxi.service.OrderService;
 import com.taxi.service.DriverRedisService;
 import com.taxi.service.WebSocketNotificationService;
 import com.taxi.service.OrderDispatchService;
+import com.taxi.service.OrderOutboxService;
+import com.taxi.service.TripTrajectoryStore;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.UUID;
@@ -50,9 +60,15 @@ public class OrderController {
     @Autowired
     private WebSocketNotificationService webSocketNotificationService;
 
+    @Autowired
+    private OrderOutboxService orderOutboxService;
+
     @Autowired
     private OrderDispatchService orderDispatchService;
 
+    @Autowired
+    private TripTrajectoryStore tripTrajectoryStore;
+
     @PostMapping("/create")
     public Result<Long> createOrder(@RequestBody CreateOrderRequest request) {
         System.out.println("=== 订单创建请求到达控制器 ===");
@@ -111,7 +127,7 @@ public class OrderController {
     @PostMapping("/{orderId}/accept")
     public Result<String> acceptOrder(@PathVariable Long orderId, @RequestParam Long driverId) {
         try {
-            // 查询订单
+            // 查询订单（快速失败，最终以接单时的条件更新为准）
             Order order = orderMapper.selectById(orderId);
             if (order == null) {
                 return Result.error("订单不存在");
@@ -140,12 +156,17 @@ public class OrderController {
                 return Result.error("司机正在处理其他订单");
             }
 
-            // 分配订单给司机
-            order.setDriverId(driverId);
-            order.setStatus("ASSIGNED");
-            orderMapper.updateById(order);
-
-            return Result.success("接单成功");
+            // 原子占用司机 + 订单条件更新，并发接单时只有一个司机成功
+            switch (orderDispatchService.tryAcceptOrder(orderId, driverId)) {
+                case ACCEPTED:
+                    return Result.success("接单成功");
+                case DRIVER_BUSY:
+                    return Result.error("司机正在处理其他订单");
+                case ORDER_TAKEN:
+                    return Result.error("订单已被接");
+                default:
+                    return Result.error("接单失败");
+            }
         } catch (Exception e) {
             return Result.error("接单失败: " + e.getMessage());
         }
@@ -234,11 +255,14 @@ public class OrderController {
                 return Result.error("订单已开始行程或已完成，无法取消");
             }
 
-            // 更新订单状态
-            order.setStatus("CANCELLED");
-            order.setCancelReason("乘客取消");
-            order.setUpdatedAt(LocalDateTime.now());
-            orderMapper.updateById(order);
+            // 条件更新订单状态，与接单的条件更新互斥；读取之后订单已开始或已取消时不释放司机
+            order = orderOutboxService.cancelIfNotStarted(orderId, "乘客取消", LocalDateTime.now());
+            if (order == null) {
+                return Result.error("订单已开始行程或已完成，无法取消");
+            }
+
+            // 取消待执行的派单重试
+            orderDispatchService.cleanOrderRetryInfo(orderId);
 
             // 如果订单已分配给司机，需要释放司机并通知
             if (order.getDriverId() != null) {
@@ -294,12 +318,15 @@ public class OrderController {
                 return Result.error("订单已开始行程或已完成，无法取消");
             }
 
-            // 更新订单状态为待重新分配
+            // 更新订单状态为待重新分配，读取之后订单状态已变化（如乘客已取消）时不再处理
+            String previousStatus = order.getStatus();
             order.setDriverId(null); // 清除司机分配
             order.setStatus("PENDING"); // 重新设为待分配状态
             order.setCancelReason("司机取消，重新分配中");
             order.setUpdatedAt(LocalDateTime.now());
-            orderMapper.updateById(order);
+            if (!orderOutboxService.updateOrder(order, previousStatus, OrderOutboxService.EVENT_DRIVER_CANCELLED)) {
+                return Result.error("订单状态已变更，请刷新后重试");
+            }
 
             // 释放司机状态
             driverRedisService.markDriverFree(driverId);
@@ -568,7 +595,9 @@ public class OrderController {
             order.setStatus("PICKUP");
             order.setPickupTime(LocalDateTime.now());
             order.setUpdatedAt(LocalDateTime.now());
-            orderMapper.updateById(order);
+            if (!orderOutboxService.updateOrder(order, "ASSIGNED", OrderOutboxService.EVENT_PICKUP)) {
+                return Result.error("订单状态已变更，请刷新后重试");
+            }
 
             // 推送确认到达状态给乘客
             if (order.getPassengerId() != null) {
@@ -601,7 +630,9 @@ public class OrderController {
 
             order.setStatus("IN_PROGRESS");
             order.setUpdatedAt(LocalDateTime.now());
-            orderMapper.updateById(order);
+            if (!orderOutboxService.updateOrder(order, "PICKUP", OrderOutboxService.EVENT_STARTED)) {
+                return Result.error("订单状态已变更，请刷新后重试");
+            }
 
             // 推送行程开始状态给乘客
             if (order.getPassengerId() != null) {
@@ -641,12 +672,20 @@ public class OrderController {
                 order.setPaymentStatus("UNPAID");
             }
 
+            // 按行驶轨迹计算实际距离（从上车时间开始），没有轨迹时保持原值
+            BigDecimal actualDistance = tripTrajectoryStore.actualDistanceKm(order);
+            if (actualDistance != null) {
+                order.setActualDistance(actualDistance);
+            }
+
             // 计算实际费用（这里简化处理，使用预估费用）
             if (order.getActualFare() == null) {
                 order.setActualFare(order.getEstimatedFare());
             }
 
-            orderMapper.updateById(order);
+            if (!orderOutboxService.updateOrder(order, "IN_PROGRESS", OrderOutboxService.EVENT_COMPLETED)) {
+                return Result.error("订单状态已变更，请刷新后重试");
+            }
 
             // 标记司机为空闲状态
             if (order.getDriverId() != null) {
@@ -669,6 +708,29 @@ public class OrderController {
         }
     }
 
+    /** 流式返回订单行驶轨迹：{"orderId":1,"points":[[纬度,经度,毫秒时间戳],...]} */
+    @GetMapping("/{orderId}/trajectory")
+    public ResponseEntity<StreamingResponseBody> streamTrajectory(@PathVariable Long orderId) {
+        if (!tripTrajectoryStore.hasTrajectory(orderId)) {
+            return ResponseEntity.notFound().build();
+        }
+        StreamingResponseBody body = out -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            writer.write("{\"orderId\":" + orderId + ",\"points\":[");
+            boolean[] first = {true};
+            tripTrajectoryStore.forEachPoint(orderId, (latitude, longitude, timestamp) -> {
+                if (!first[0]) {
+                    writer.write(',');
+                }
+                first[0] = false;
+                writer.write("[" + latitude + "," + longitude + "," + timestamp + "]");
+            });
+            writer.write("]}");
+            writer.flush();
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
     /** 获取待接单的订单列表 */
     @GetMapping("/pending")
     public Result<List<Order>> getPendingOrders() {
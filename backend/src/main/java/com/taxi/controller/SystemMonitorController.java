@@ -4,7 +4,25 @@ import com.taxi.common.Result;
 import com.taxi.entity.Driver;
 import com.taxi.entity.Order;
 import com.taxi.mapper.OrderMapper;
+import com.taxi.service.BatchMatchingService;
+import com.taxi.service.ConnectionLivenessTracker;
+import com.taxi.service.DispatchRetryWheel;
+import com.taxi.service.DriverListenerService;
+import com.taxi.service.DriverLocationService;
+import com.taxi.service.DriverLocationSink;
+import com.taxi.service.DriverLocationWriteBehind;
+import com.taxi.service.DriverNotificationRouter;
 import com.taxi.service.DriverRedisService;
+import com.taxi.service.EtaService;
+import com.taxi.service.LocationUpdateFilter;
+import com.taxi.service.OrderOutboxRelay;
+import com.taxi.service.OrderRetryScheduler;
+import com.taxi.service.RabbitPublisher;
+import com.taxi.service.SupplyDemandHeatmap;
+import com.taxi.service.TripBindingCache;
+import com.taxi.service.TripTrajectoryStore;
+import com.taxi.util.TypedMessageConverter;
+import com.taxi.service.VirtualThreadPinningMonitor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
@@ -21,11 +39,65 @@ import java.util.Map;
 @CrossOrigin(origins = "*")
 public class SystemMonitorController {
 
+    @Autowired
+    private TypedMessageConverter typedMessageConverter;
+
+    @Autowired
+    private OrderOutboxRelay orderOutboxRelay;
+
+    @Autowired
+    private RabbitPublisher rabbitPublisher;
+
+    @Autowired
+    private DriverNotificationRouter driverNotificationRouter;
+
+    @Autowired
+    private DriverListenerService driverListenerService;
+
+    @Autowired
+    private VirtualThreadPinningMonitor virtualThreadPinningMonitor;
+
     @Autowired
     private DriverRedisService driverRedisService;
     
     @Autowired
     private OrderMapper orderMapper;
+    
+    @Autowired
+    private BatchMatchingService batchMatchingService;
+    
+    @Autowired
+    private DispatchRetryWheel dispatchRetryWheel;
+    
+    @Autowired
+    private OrderRetryScheduler orderRetryScheduler;
+    
+    @Autowired
+    private EtaService etaService;
+    
+    @Autowired
+    private SupplyDemandHeatmap supplyDemandHeatmap;
+
+    @Autowired
+    private DriverLocationWriteBehind driverLocationWriteBehind;
+
+    @Autowired
+    private LocationUpdateFilter locationUpdateFilter;
+
+    @Autowired
+    private DriverLocationSink driverLocationSink;
+
+    @Autowired
+    private TripBindingCache tripBindingCache;
+
+    @Autowired
+    private TripTrajectoryStore tripTrajectoryStore;
+
+    @Autowired
+    private ConnectionLivenessTracker connectionLivenessTracker;
+
+    @Autowired
+    private DriverLocationService driverLocationService;
 
     /**
      * 获取系统整体状态
@@ -87,24 +159,34 @@ public class SystemMonitorController {
 
     /**
      * 获取指定区域的司机密度
+     * 热力图覆盖全集群（单实例部署）时由网格计数汇总，网格中心在半径内的网格计入，并附带忙碌司机数和待分配订单数；
+     * 多实例部署时热力图只有本实例的数据，仍按Redis中的在线司机统计
      */
     @GetMapping("/drivers/density")
     public Result<Map<String, Object>> getDriverDensity(@RequestParam Double latitude,
                                                        @RequestParam Double longitude,
                                                        @RequestParam(defaultValue = "5.0") Double radiusKm) {
         try {
-            List<Driver> nearbyDrivers = driverRedisService.getNearbyOnlineDrivers(
-                java.math.BigDecimal.valueOf(latitude),
-                java.math.BigDecimal.valueOf(longitude),
-                radiusKm
-            );
-            
             Map<String, Object> density = new HashMap<>();
             density.put("centerLatitude", latitude);
             density.put("centerLongitude", longitude);
             density.put("radiusKm", radiusKm);
-            density.put("driverCount", nearbyDrivers.size());
-            density.put("density", nearbyDrivers.size() / (Math.PI * radiusKm * radiusKm)); // 司机/平方公里
+
+            if (supplyDemandHeatmap.isClusterWide()) {
+                int[] counts = supplyDemandHeatmap.countWithin(latitude, longitude, radiusKm);
+                density.put("driverCount", counts[0]);
+                density.put("busyDriverCount", counts[1]);
+                density.put("openOrderCount", counts[2]);
+                density.put("density", counts[0] / (Math.PI * radiusKm * radiusKm)); // 司机/平方公里
+            } else {
+                List<Driver> nearbyDrivers = driverRedisService.getNearbyOnlineDrivers(
+                    java.math.BigDecimal.valueOf(latitude),
+                    java.math.BigDecimal.valueOf(longitude),
+                    radiusKm
+                );
+                density.put("driverCount", nearbyDrivers.size());
+                density.put("density", nearbyDrivers.size() / (Math.PI * radiusKm * radiusKm)); // 司机/平方公里
+            }
             
             return Result.success(density);
             
@@ -113,6 +195,32 @@ public class SystemMonitorController {
         }
     }
 
+    /**
+     * 获取供需热力图（按网格的空闲/忙碌司机数、待分配订单数和最近订单到达数）
+     */
+    @GetMapping("/heatmap")
+    public Result<Map<String, Object>> getHeatmap(@RequestParam(required = false) Double minLat,
+                                                 @RequestParam(required = false) Double maxLat,
+                                                 @RequestParam(required = false) Double minLng,
+                                                 @RequestParam(required = false) Double maxLng) {
+        try {
+            List<Map<String, Object>> cells = supplyDemandHeatmap.snapshot(minLat, maxLat, minLng, maxLng);
+            
+            Map<String, Object> heatmap = new HashMap<>();
+            heatmap.put("cellSizeDegrees", supplyDemandHeatmap.getCellSizeDegrees());
+            heatmap.put("trackedDrivers", supplyDemandHeatmap.getTrackedDrivers());
+            heatmap.put("trackedOrders", supplyDemandHeatmap.getTrackedOrders());
+            heatmap.put("scope", supplyDemandHeatmap.isClusterWide() ? "cluster" : "instance");
+            heatmap.put("cells", cells);
+            heatmap.put("timestamp", System.currentTimeMillis());
+            
+            return Result.success(heatmap);
+            
+        } catch (Exception e) {
+            return Result.error("获取供需热力图失败: " + e.getMessage());
+        }
+    }
+
     /**
      * 获取订单处理效率统计
      */
@@ -147,6 +255,202 @@ public class SystemMonitorController {
         }
     }
 
+    /**
+     * 获取批量匹配统计
+     */
+    @GetMapping("/dispatch/batch")
+    public Result<Map<String, Object>> getBatchMatchingStats() {
+        try {
+            return Result.success(batchMatchingService.getStats());
+        } catch (Exception e) {
+            return Result.error("获取批量匹配统计失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 获取派单重试统计（时间轮 / Redis延迟队列）
+     */
+    @GetMapping("/dispatch/retry")
+    public Result<Map<String, Object>> getRetryWheelStats() {
+        try {
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("mode", orderRetryScheduler.isEnabled() ? "redis" : "wheel");
+            stats.put("wheel", dispatchRetryWheel.getStats());
+            stats.put("redisQueue", orderRetryScheduler.getStats());
+            return Result.success(stats);
+        } catch (Exception e) {
+            return Result.error("获取派单重试统计失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 获取路网ETA引擎状态
+     */
+    @GetMapping("/routing")
+    public Result<Map<String, Object>> getRoutingStats() {
+        try {
+            return Result.success(etaService.getStats());
+        } catch (Exception e) {
+            return Result.error("获取路网ETA状态失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 获取司机位置延迟写入统计
+     */
+    @GetMapping("/location/write-behind")
+    public Result<Map<String, Object>> getLocationWriteBehindStats() {
+        try {
+            return Result.success(driverLocationWriteBehind.getStats());
+        } catch (Exception e) {
+            return Result.error("获取位置写入统计失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 获取位置上报过滤统计
+     */
+    @GetMapping("/location/filter")
+    public Result<Map<String, Object>> getLocationFilterStats() {
+        try {
+            return Result.success(locationUpdateFilter.getStats());
+        } catch (Exception e) {
+            return Result.error("获取位置过滤统计失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 获取位置批量写入Redis统计
+     */
+    @GetMapping("/location/sink")
+    public Result<Map<String, Object>> getLocationSinkStats() {
+        try {
+            return Result.success(driverLocationSink.getStats());
+        } catch (Exception e) {
+            return Result.error("获取位置批量写入统计失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 获取行程绑定缓存统计
+     */
+    @GetMapping("/location/trip-binding")
+    public Result<Map<String, Object>> getTripBindingStats() {
+        try {
+            return Result.success(tripBindingCache.getStats());
+        } catch (Exception e) {
+            return Result.error("获取行程绑定缓存统计失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 获取行程轨迹存储统计
+     */
+    @GetMapping("/trajectory")
+    public Result<Map<String, Object>> getTrajectoryStats() {
+        try {
+            return Result.success(tripTrajectoryStore.getStats());
+        } catch (Exception e) {
+            return Result.error("获取轨迹存储统计失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 获取司机连接存活跟踪统计
+     */
+    @GetMapping("/connections/liveness")
+    public Result<Map<String, Object>> getConnectionLivenessStats() {
+        try {
+            return Result.success(connectionLivenessTracker.getStats());
+        } catch (Exception e) {
+            return Result.error("获取连接存活统计失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 获取位置分道执行统计
+     */
+    @GetMapping("/location/lanes")
+    public Result<Map<String, Object>> getLocationLaneStats() {
+        try {
+            return Result.success(driverLocationService.getLocationLaneStats());
+        } catch (Exception e) {
+            return Result.error("获取位置分道执行统计失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 获取监听司机订单路由统计
+     */
+    @GetMapping("/listeners")
+    public Result<Map<String, Object>> getListenerStats() {
+        try {
+            return Result.success(driverListenerService.getStats());
+        } catch (Exception e) {
+            return Result.error("获取监听司机统计失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 获取司机通知分区路由统计
+     */
+    @GetMapping("/notification/partitions")
+    public Result<Map<String, Object>> getNotificationPartitionStats() {
+        try {
+            return Result.success(driverNotificationRouter.getStats());
+        } catch (Exception e) {
+            return Result.error("获取司机通知分区统计失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 获取RabbitMQ异步发送统计
+     */
+    @GetMapping("/rabbit/publisher")
+    public Result<Map<String, Object>> getRabbitPublisherStats() {
+        try {
+            return Result.success(rabbitPublisher.getStats());
+        } catch (Exception e) {
+            return Result.error("获取RabbitMQ发送统计失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 获取RabbitMQ消息编解码统计
+     */
+    @GetMapping("/rabbit/codec")
+    public Result<Map<String, Object>> getRabbitCodecStats() {
+        try {
+            return Result.success(typedMessageConverter.getStats());
+        } catch (Exception e) {
+            return Result.error("获取消息编解码统计失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 获取订单事件发件箱中继统计
+     */
+    @GetMapping("/outbox")
+    public Result<Map<String, Object>> getOutboxStats() {
+        try {
+            return Result.success(orderOutboxRelay.getStats());
+        } catch (Exception e) {
+            return Result.error("获取发件箱统计失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 获取虚拟线程固定诊断统计
+     */
+    @GetMapping("/virtual-threads")
+    public Result<Map<String, Object>> getVirtualThreadStats() {
+        try {
+            return Result.success(virtualThreadPinningMonitor.getStats());
+        } catch (Exception e) {
+            return Result.error("获取虚拟线程统计失败: " + e.getMessage());
+        }
+    }
+
     /**
      * 系统健康检查
      */
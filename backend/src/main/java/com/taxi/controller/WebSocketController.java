@@ -1,6 +1,9 @@
 package com.taxi.controller;
 
+import com.taxi.service.DriverLocationService;
+import com.taxi.service.LocationUpdateFilter;
 import com.taxi.service.OrderDispatchService;
+import com.taxi.util.DriverLocationFrame;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
@@ -23,6 +26,9 @@ public class WebSocketController {
     
     @Autowired
     private OrderDispatchService orderDispatchService;
+
+    @Autowired
+    private DriverLocationService driverLocationService;
     
     // 司机会话映射表，用于管理司机ID与WebSocket会话的关系
     private final Map<String, String> driverSessionMap = new ConcurrentHashMap<>();
@@ -190,6 +196,51 @@ public class WebSocketController {
         }
     }
 
+    /**
+     * 处理司机位置二进制帧（格式见 DriverLocationFrame，一条消息可携带多帧）
+     * 客户端以原生WebSocket连接 /ws/websocket，先发送 /app/driver/connect 绑定司机ID，
+     * 再以 content-type: application/octet-stream 向 /app/driver/location.bin 发送位置帧；
+     * 不逐条响应，建议上报间隔变化时推送到 /user/{driverId}/queue/location-interval。
+     * 帧中的司机ID必须与会话绑定的司机ID一致，坐标和朝向必须在合法范围内，否则丢弃。
+     */
+    @MessageMapping("/driver/location.bin")
+    public void handleDriverLocationFrame(@Payload byte[] frames, SimpMessageHeaderAccessor headerAccessor) {
+        Map<String, Object> attributes = headerAccessor.getSessionAttributes();
+        Object sessionDriverId = attributes != null ? attributes.get("driverId") : null;
+        int count = DriverLocationFrame.frameCount(frames);
+        if (sessionDriverId == null || count < 0) {
+            return;
+        }
+        try {
+            long driverId = Long.parseLong(sessionDriverId.toString());
+            for (int i = 0; i < count; i++) {
+                if (DriverLocationFrame.driverId(frames, i) != driverId) {
+                    continue;
+                }
+                if (!DriverLocationFrame.isValid(frames, i)) {
+                    continue;
+                }
+                LocationUpdateFilter.Decision decision = driverLocationService.handleLocationFrame(
+                    driverId,
+                    DriverLocationFrame.latitude(frames, i),
+                    DriverLocationFrame.longitude(frames, i),
+                    DriverLocationFrame.headingCentiDegrees(frames, i),
+                    DriverLocationFrame.timestamp(frames, i)
+                );
+                if (decision != null && decision.isIntervalChanged()) {
+                    // 建议上报间隔变化时才通知客户端
+                    messagingTemplate.convertAndSendToUser(
+                        sessionDriverId.toString(),
+                        "/queue/location-interval",
+                        Map.of("nextIntervalSeconds", decision.getNextIntervalSeconds())
+                    );
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("处理司机位置帧失败: " + e.getMessage());
+        }
+    }
+
     /**
      * 处理测试消息
      */
@@ -0,0 +1,38 @@
+package com.taxi.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * 司机新订单通知消息（driver_notification_queue.p*）
+ * 消息头 x-msg-type / x-msg-version 标识类型和版本，新增字段时递增版本号，旧字段保持兼容
+ *
+ * @param driverId           司机ID
+ * @param orderId            订单ID
+ * @param orderNumber        订单号
+ * @param orderType          订单类型
+ * @param pickupAddress      上车地址
+ * @param destinationAddress 目的地地址
+ * @param distance           司机到上车点距离（米），未知时为空
+ * @param estimatedFare      预估费用
+ * @param scheduledTime      预约时间
+ * @param timestamp          发送时间戳（毫秒）
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record DriverOfferMessage(
+        Long driverId,
+        Long orderId,
+        String orderNumber,
+        String orderType,
+        String pickupAddress,
+        String destinationAddress,
+        Double distance,
+        BigDecimal estimatedFare,
+        LocalDateTime scheduledTime,
+        long timestamp) {
+
+    public static final String TYPE = "driver.offer";
+    public static final int VERSION = 1;
+}
@@ -0,0 +1,36 @@
+package com.taxi.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * 订单生命周期事件消息（order_status_queue），由订单事件发件箱写入并发送
+ *
+ * @param eventId      发件箱事件ID，下游按此去重；写入发件箱时为空，发送时填入
+ * @param eventType    事件类型
+ * @param orderId      订单ID
+ * @param orderNumber  订单号
+ * @param driverId     司机ID
+ * @param passengerId  乘客ID
+ * @param status       事件发生后的订单状态
+ * @param cancelReason 取消原因
+ * @param timestamp    事件时间戳（毫秒）
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record OrderEventMessage(
+        Long eventId,
+        String eventType,
+        Long orderId,
+        String orderNumber,
+        Long driverId,
+        Long passengerId,
+        String status,
+        String cancelReason,
+        long timestamp) {
+
+    public static final String TYPE = "order.event";
+    public static final int VERSION = 1;
+
+    public OrderEventMessage withEventId(Long id) {
+        return new OrderEventMessage(id, eventType, orderId, orderNumber, driverId, passengerId, status, cancelReason, timestamp);
+    }
+}
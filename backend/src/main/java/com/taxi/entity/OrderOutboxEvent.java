@@ -0,0 +1,22 @@
+package com.taxi.entity;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 订单事件发件箱实体类
+ */
+@Data
+public class OrderOutboxEvent {
+    private Long id;
+    private Long orderId;
+    private String eventType;
+    private String destination;
+    private String payload;
+    private Integer attempts;
+    private String claimOwner;
+    private LocalDateTime claimUntil;
+    private LocalDateTime publishedAt;
+    private LocalDateTime createdAt;
+}
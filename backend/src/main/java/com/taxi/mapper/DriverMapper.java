@@ -27,6 +27,9 @@ public interface DriverMapper {
     /** 更新司机 */
     int updateById(Driver driver);
 
+    /** 批量更新司机位置（只写坐标和更新时间） */
+    int batchUpdateLocations(@Param("drivers") List<Driver> drivers);
+
     /** 删除司机 */
     int deleteById(@Param("id") Long id);
 
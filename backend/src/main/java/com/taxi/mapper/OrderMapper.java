@@ -31,6 +31,19 @@ public interface OrderMapper {
     /** 更新订单 */
     int updateById(Order order);
 
+    /** 条件更新订单：仅当订单状态仍为expectedStatus时写入，返回受影响行数 */
+    int updateByIdIfStatus(@Param("order") Order order, @Param("expectedStatus") String expectedStatus);
+
+    /** 条件分配订单：仅当订单仍为待分配状态时写入司机，返回受影响行数 */
+    int assignDriverIfPending(@Param("id") Long id,
+                              @Param("driverId") Long driverId,
+                              @Param("updatedAt") LocalDateTime updatedAt);
+
+    /** 条件取消订单：仅当订单尚未开始行程时取消，返回受影响行数 */
+    int cancelIfNotStarted(@Param("id") Long id,
+                           @Param("cancelReason") String cancelReason,
+                           @Param("updatedAt") LocalDateTime updatedAt);
+
     /** 删除订单 */
     int deleteById(@Param("id") Long id);
 
@@ -0,0 +1,51 @@
+package com.taxi.mapper;
+
+import com.taxi.entity.OrderOutboxEvent;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 订单事件发件箱Mapper接口
+ */
+@Mapper
+public interface OrderOutboxMapper {
+
+    /** 插入事件 */
+    int insert(OrderOutboxEvent event);
+
+    /** 按ID顺序占用一批各订单最早的未发送事件（未被占用或占用已过期、且失败次数未超限），返回占用行数 */
+    int claimBatch(@Param("owner") String owner,
+                   @Param("claimUntil") LocalDateTime claimUntil,
+                   @Param("now") LocalDateTime now,
+                   @Param("maxAttempts") int maxAttempts,
+                   @Param("limit") int limit);
+
+    /** 查询本实例已占用的未发送事件 */
+    List<OrderOutboxEvent> selectClaimed(@Param("owner") String owner, @Param("limit") int limit);
+
+    /** 将本实例占用的一段连续ID标记为已发送 */
+    int markPublishedRange(@Param("owner") String owner,
+                           @Param("fromId") Long fromId,
+                           @Param("toId") Long toId,
+                           @Param("publishedAt") LocalDateTime publishedAt);
+
+    /** 将本实例占用的指定事件标记为已发送 */
+    int markPublished(@Param("owner") String owner,
+                      @Param("ids") List<Long> ids,
+                      @Param("publishedAt") LocalDateTime publishedAt);
+
+    /** 释放本实例占用的发送失败事件并累加失败次数 */
+    int releaseFailed(@Param("owner") String owner, @Param("ids") List<Long> ids);
+
+    /** 删除早于指定时间已发送的事件 */
+    int deletePublishedBefore(@Param("before") LocalDateTime before, @Param("limit") int limit);
+
+    /** 统计未发送事件数 */
+    long countUnpublished();
+
+    /** 统计失败次数超限、不再重发的事件数（同订单之后的事件被阻塞） */
+    long countDeadLettered(@Param("maxAttempts") int maxAttempts);
+}
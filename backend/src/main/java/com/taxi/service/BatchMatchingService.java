@@ -0,0 +1,278 @@
+package com.taxi.service;
+
+import com.taxi.entity.Driver;
+import com.taxi.entity.Order;
+import com.taxi.util.GeoGridUtil;
+import com.taxi.util.HungarianAlgorithm;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * 批量订单匹配服务
+ * 在一个时间窗口内收集待分配订单，按区域分组后与空闲司机做全局最小代价指派（匈牙利算法），
+ * 每个司机在一个窗口内只收到一个最合适的订单，避免多个订单同时轰炸同一批司机。
+ * 未匹配上的订单继续走原有的重试机制。
+ */
+@Service
+public class BatchMatchingService {
+
+    @Autowired
+    private DriverRedisService driverRedisService;
+
+    @Value("${taxi.dispatch.batch.enabled:false}")
+    private boolean enabled;
+
+    @Value("${taxi.dispatch.batch.window-ms:1000}")
+    private long windowMs;
+
+    @Value("${taxi.dispatch.batch.region-size-degrees:0.05}")
+    private double regionSizeDegrees;
+
+    @Value("${taxi.dispatch.batch.max-pickup-km:5.0}")
+    private double maxPickupKm;
+
+    @Value("${taxi.dispatch.batch.max-orders-per-solve:400}")
+    private int maxOrdersPerSolve;
+
+    // 当前窗口收集到的订单
+    private final Queue<Order> windowOrders = new ConcurrentLinkedQueue<>();
+    private final Map<Long, Boolean> queuedOrderIds = new ConcurrentHashMap<>();
+
+    // 匹配结果的处理方式（由OrderDispatchService注册为通知司机）
+    private volatile BiConsumer<Driver, Order> offerHandler;
+
+    private ScheduledExecutorService windowScheduler;
+    private ExecutorService solverPool;
+
+    // 统计信息
+    private final AtomicLong totalBatches = new AtomicLong();
+    private final AtomicLong totalOrders = new AtomicLong();
+    private final AtomicLong totalMatched = new AtomicLong();
+    private volatile int lastBatchOrders;
+    private volatile int lastBatchMatched;
+    private volatile long lastBatchCostMillis;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        windowScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "batch-matching-window");
+            t.setDaemon(true);
+            return t;
+        });
+        solverPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread t = new Thread(r, "batch-matching-solver");
+            t.setDaemon(true);
+            return t;
+        });
+        windowScheduler.scheduleWithFixedDelay(this::runWindow, windowMs, windowMs, TimeUnit.MILLISECONDS);
+        System.out.println("批量订单匹配已启用，窗口: " + windowMs + "ms, 区域大小: " + regionSizeDegrees + "度");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (windowScheduler != null) {
+            windowScheduler.shutdown();
+        }
+        if (solverPool != null) {
+            solverPool.shutdown();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 注册匹配结果处理器
+     */
+    public void setOfferHandler(BiConsumer<Driver, Order> offerHandler) {
+        this.offerHandler = offerHandler;
+    }
+
+    /**
+     * 提交订单到当前匹配窗口
+     */
+    public void submit(Order order) {
+        if (order == null || order.getId() == null
+                || order.getPickupLatitude() == null || order.getPickupLongitude() == null) {
+            return;
+        }
+        if (queuedOrderIds.putIfAbsent(order.getId(), Boolean.TRUE) == null) {
+            windowOrders.add(order);
+        }
+    }
+
+    /**
+     * 处理一个时间窗口的订单
+     */
+    void runWindow() {
+        try {
+            List<Order> batch = new ArrayList<>();
+            Order order;
+            while ((order = windowOrders.poll()) != null) {
+                queuedOrderIds.remove(order.getId());
+                batch.add(order);
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            int matched = matchBatch(batch);
+
+            lastBatchOrders = batch.size();
+            lastBatchMatched = matched;
+            lastBatchCostMillis = System.currentTimeMillis() - start;
+            totalBatches.incrementAndGet();
+            totalOrders.addAndGet(batch.size());
+            totalMatched.addAndGet(matched);
+
+            System.out.println("批量匹配完成 - 订单: " + batch.size() + ", 匹配: " + matched
+                + ", 耗时: " + lastBatchCostMillis + "ms");
+        } catch (Exception e) {
+            System.err.println("批量匹配失败: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 按区域分组后并行求解，返回匹配成功的订单数
+     * 同一区域超过单次求解上限时按块依次求解，后面的块收集候选时排除前面块已分配的司机，
+     * 避免同区域的块在同一批司机上并行求解后互相抢占
+     */
+    private int matchBatch(List<Order> batch) throws Exception {
+        Map<Long, List<Order>> regions = new LinkedHashMap<>();
+        for (Order order : batch) {
+            long regionKey = GeoGridUtil.cellKey(
+                order.getPickupLatitude().doubleValue(),
+                order.getPickupLongitude().doubleValue(),
+                regionSizeDegrees
+            );
+            regions.computeIfAbsent(regionKey, k -> new ArrayList<>()).add(order);
+        }
+
+        // 同一窗口内已被分配的司机，区域边界上的司机只会被一个区域拿到（不同区域并行求解，冲突时先到先得）
+        Map<Long, Boolean> claimedDrivers = new ConcurrentHashMap<>();
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (List<Order> regionOrders : regions.values()) {
+            futures.add(solverPool.submit(() -> {
+                int regionMatched = 0;
+                for (int from = 0; from < regionOrders.size(); from += maxOrdersPerSolve) {
+                    List<Order> chunk = regionOrders.subList(from, Math.min(regionOrders.size(), from + maxOrdersPerSolve));
+                    regionMatched += matchRegion(chunk, claimedDrivers);
+                }
+                return regionMatched;
+            }));
+        }
+
+        int matched = 0;
+        for (Future<Integer> future : futures) {
+            matched += future.get();
+        }
+        return matched;
+    }
+
+    /**
+     * 对一个区域的订单求最小代价指派（代价为接驾直线距离）
+     */
+    private int matchRegion(List<Order> orders, Map<Long, Boolean> claimedDrivers) {
+        // 1. 收集区域内所有订单的候选司机
+        Map<Long, Integer> driverColumns = new HashMap<>();
+        List<Driver> drivers = new ArrayList<>();
+        for (Order order : orders) {
+            List<Driver> nearby = driverRedisService.getNearbyOnlineDrivers(
+                order.getPickupLatitude(), order.getPickupLongitude(), maxPickupKm);
+            for (Driver driver : nearby) {
+                if (driver.getCurrentLatitude() == null || driver.getCurrentLongitude() == null) {
+                    continue;
+                }
+                if (!driverColumns.containsKey(driver.getId()) && !claimedDrivers.containsKey(driver.getId())) {
+                    driverColumns.put(driver.getId(), drivers.size());
+                    drivers.add(driver);
+                }
+            }
+        }
+        if (drivers.isEmpty()) {
+            return 0;
+        }
+
+        // 2. 构建代价矩阵
+        int rows = orders.size();
+        int cols = drivers.size();
+        double[] driverLat = new double[cols];
+        double[] driverLng = new double[cols];
+        for (int c = 0; c < cols; c++) {
+            driverLat[c] = drivers.get(c).getCurrentLatitude().doubleValue();
+            driverLng[c] = drivers.get(c).getCurrentLongitude().doubleValue();
+        }
+        double maxMeters = maxPickupKm * 1000;
+        double[] cost = new double[rows * cols];
+        for (int r = 0; r < rows; r++) {
+            double orderLat = orders.get(r).getPickupLatitude().doubleValue();
+            double orderLng = orders.get(r).getPickupLongitude().doubleValue();
+            int base = r * cols;
+            for (int c = 0; c < cols; c++) {
+                double distance = GeoGridUtil.distanceMeters(orderLat, orderLng, driverLat[c], driverLng[c]);
+                cost[base + c] = distance <= maxMeters ? distance : HungarianAlgorithm.INFEASIBLE;
+            }
+        }
+
+        // 3. 求解并下发
+        int[] assignment = HungarianAlgorithm.solve(cost, rows, cols);
+        int matched = 0;
+        BiConsumer<Driver, Order> handler = offerHandler;
+        for (int r = 0; r < rows; r++) {
+            int c = assignment[r];
+            if (c < 0) {
+                continue;
+            }
+            Driver driver = drivers.get(c);
+            if (claimedDrivers.putIfAbsent(driver.getId(), Boolean.TRUE) != null) {
+                continue;
+            }
+            matched++;
+            if (handler != null) {
+                handler.accept(driver, orders.get(r));
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * 获取批量匹配统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("windowMs", windowMs);
+        stats.put("queuedOrders", queuedOrderIds.size());
+        stats.put("totalBatches", totalBatches.get());
+        stats.put("totalOrders", totalOrders.get());
+        stats.put("totalMatched", totalMatched.get());
+        stats.put("lastBatchOrders", lastBatchOrders);
+        stats.put("lastBatchMatched", lastBatchMatched);
+        stats.put("lastBatchCostMillis", lastBatchCostMillis);
+        return stats;
+    }
+}
@@ -0,0 +1,232 @@
+package com.taxi.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * 司机连接存活跟踪（按到期时间分桶）
+ * 每个连接只保存基本类型的最后心跳时间（System.nanoTime），心跳只写这个字段，不分配对象、不移动桶。
+ * 连接按到期tick放入环形桶数组，每个tick只处理到期的那个桶：确实超时的连接被移除并通知监听者，
+ * 期间有过心跳的连接按新的到期时间重新落桶。每个连接每个超时周期最多重新落桶一次，
+ * 扫描开销与到期数量成正比，与在线司机总数无关。
+ */
+@Component
+public class ConnectionLivenessTracker {
+
+    @Value("${taxi.connection.heartbeat-timeout-seconds:3000}")
+    private long timeoutSeconds;
+
+    @Value("${taxi.connection.tick-millis:1000}")
+    private long tickMillis;
+
+    /**
+     * 一个被跟踪的连接
+     */
+    private static final class Entry {
+        final long driverId;
+        volatile long lastSeenNanos;
+
+        Entry(long driverId, long lastSeenNanos) {
+            this.driverId = driverId;
+            this.lastSeenNanos = lastSeenNanos;
+        }
+    }
+
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+    private final List<LongConsumer> expirationListeners = new CopyOnWriteArrayList<>();
+
+    // 环形桶，只在wheelLock内访问
+    private List<Entry>[] buckets;
+    private int mask;
+    private long timeoutNanos;
+    private long tickNanos;
+    private long startNanos;
+    private long lastSweptTick;
+    private final Object wheelLock = new Object();
+
+    private ScheduledExecutorService sweepScheduler;
+
+    // 单调时间来源（纳秒）
+    private LongSupplier nanoClock = System::nanoTime;
+
+    // 统计信息
+    private final AtomicLong totalRegistered = new AtomicLong();
+    private final AtomicLong totalExpired = new AtomicLong();
+    private final AtomicLong totalRescheduled = new AtomicLong();
+    private final AtomicLong totalSweeps = new AtomicLong();
+    private volatile int lastSweepVisited;
+
+    @PostConstruct
+    public void init() {
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        timeoutNanos = TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        // 到期时间最多在当前tick之后timeoutTicks+1个tick，桶数需覆盖这个范围
+        long timeoutTicks = (timeoutNanos + tickNanos - 1) / tickNanos;
+        int size = 1;
+        while (size < timeoutTicks + 2) {
+            size <<= 1;
+        }
+        buckets = newBuckets(size);
+        mask = size - 1;
+        startNanos = nanoClock.getAsLong();
+        sweepScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-liveness-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        sweepScheduler.scheduleWithFixedDelay(this::sweep, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        System.out.println("连接存活跟踪已启用，超时: " + timeoutSeconds + "秒, tick: " + tickMillis + "ms, 桶数: " + size);
+    }
+
+    /**
+     * 创建环形桶数组（不能直接创建泛型数组，只有这一处未检查转换）
+     */
+    private static List<Entry>[] newBuckets(int size) {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        List<Entry>[] created = new List[size];
+        return created;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (sweepScheduler != null) {
+            sweepScheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * 注册连接到期监听者，参数为超时的司机ID；在扫描线程中调用
+     */
+    public void addExpirationListener(LongConsumer listener) {
+        expirationListeners.add(listener);
+    }
+
+    /**
+     * 开始跟踪连接（已存在时重置心跳）
+     */
+    public void register(long driverId) {
+        long now = nanoClock.getAsLong();
+        Entry entry = new Entry(driverId, now);
+        entries.put(driverId, entry);
+        synchronized (wheelLock) {
+            place(entry, now + timeoutNanos);
+        }
+        totalRegistered.incrementAndGet();
+    }
+
+    /**
+     * 记录心跳，只更新最后心跳时间
+     */
+    public void touch(long driverId) {
+        Entry entry = entries.get(driverId);
+        if (entry != null) {
+            entry.lastSeenNanos = nanoClock.getAsLong();
+        }
+    }
+
+    /**
+     * 停止跟踪连接（桶中的旧条目在到期时被跳过）
+     */
+    public void unregister(long driverId) {
+        entries.remove(driverId);
+    }
+
+    /**
+     * 处理到期的桶
+     */
+    void sweep() {
+        List<Long> expired = new ArrayList<>();
+        int visited = 0;
+        long now = nanoClock.getAsLong();
+        synchronized (wheelLock) {
+            long currentTick = (now - startNanos) / tickNanos;
+            // 扫描线程落后超过一圈时只需处理一圈
+            long fromTick = Math.max(lastSweptTick + 1, currentTick - mask);
+            for (long tick = fromTick; tick <= currentTick; tick++) {
+                // 先推进已扫描tick，重新落桶的条目不会回到正在处理的桶
+                lastSweptTick = tick;
+                int slot = (int) (tick & mask);
+                List<Entry> bucket = buckets[slot];
+                if (bucket == null) {
+                    continue;
+                }
+                buckets[slot] = null;
+                for (Entry entry : bucket) {
+                    visited++;
+                    if (entries.get(entry.driverId) != entry) {
+                        continue;
+                    }
+                    long deadline = entry.lastSeenNanos + timeoutNanos;
+                    if (deadline - now <= 0) {
+                        if (entries.remove(entry.driverId, entry)) {
+                            expired.add(entry.driverId);
+                        }
+                    } else {
+                        place(entry, deadline);
+                        totalRescheduled.incrementAndGet();
+                    }
+                }
+            }
+            lastSweptTick = Math.max(lastSweptTick, currentTick);
+        }
+        totalSweeps.incrementAndGet();
+        lastSweepVisited = visited;
+
+        for (long driverId : expired) {
+            totalExpired.incrementAndGet();
+            for (LongConsumer listener : expirationListeners) {
+                try {
+                    listener.accept(driverId);
+                } catch (Exception e) {
+                    System.err.println("处理连接超时失败，司机: " + driverId + ", " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * 放入到期时间所在tick的桶（不早于下一个待扫描的tick）
+     */
+    private void place(Entry entry, long deadlineNanos) {
+        long tick = (deadlineNanos - startNanos + tickNanos - 1) / tickNanos;
+        tick = Math.max(tick, lastSweptTick + 1);
+        int slot = (int) (tick & mask);
+        List<Entry> bucket = buckets[slot];
+        if (bucket == null) {
+            bucket = new ArrayList<>();
+            buckets[slot] = bucket;
+        }
+        bucket.add(entry);
+    }
+
+    /**
+     * 获取存活跟踪统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("trackedConnections", entries.size());
+        stats.put("timeoutSeconds", timeoutSeconds);
+        stats.put("tickMillis", tickMillis);
+        stats.put("totalRegistered", totalRegistered.get());
+        stats.put("totalExpired", totalExpired.get());
+        stats.put("totalRescheduled", totalRescheduled.get());
+        stats.put("totalSweeps", totalSweeps.get());
+        stats.put("lastSweepVisited", lastSweepVisited);
+        return stats;
+    }
+}
@@ -0,0 +1,107 @@
+package com.taxi.service;
+
+import com.taxi.util.HashedTimingWheel;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 派单重试时间轮
+ * 每个订单同一时刻只保留一个待执行的重试任务，订单离开PENDING状态时按订单ID直接取消。
+ * 重试任务在独立的线程池中执行，不与心跳检测、预约单等定时任务争抢调度线程。
+ */
+@Component
+public class DispatchRetryWheel {
+
+    @Value("${taxi.dispatch.retry-wheel.tick-ms:100}")
+    private long tickMillis;
+
+    @Value("${taxi.dispatch.retry-wheel.wheel-size:4096}")
+    private int wheelSize;
+
+    @Value("${taxi.dispatch.retry-wheel.worker-threads:4}")
+    private int workerThreads;
+
+    private HashedTimingWheel wheel;
+    private ExecutorService retryExecutor;
+
+    // 订单ID -> 当前待执行的重试任务
+    private final Map<Long, HashedTimingWheel.Timeout> orderTimeouts = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        retryExecutor = Executors.newFixedThreadPool(workerThreads, r -> {
+            Thread t = new Thread(r, "dispatch-retry-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        wheel = new HashedTimingWheel("dispatch-retry", tickMillis, TimeUnit.MILLISECONDS, wheelSize, retryExecutor);
+        System.out.println("派单重试时间轮已启动，tick: " + tickMillis + "ms, 槽数: " + wheel.getWheelSize());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        wheel.stop();
+        retryExecutor.shutdown();
+    }
+
+    /**
+     * 为订单安排一次重试，已有的未执行重试会被替换
+     */
+    public void schedule(Long orderId, long delaySeconds, Runnable task) {
+        HashedTimingWheel.Timeout[] holder = new HashedTimingWheel.Timeout[1];
+        holder[0] = wheel.schedule(() -> {
+            // 执行前移除自己的登记，不影响之后重新安排的任务
+            orderTimeouts.remove(orderId, holder[0]);
+            task.run();
+        }, delaySeconds, TimeUnit.SECONDS);
+
+        HashedTimingWheel.Timeout previous = orderTimeouts.put(orderId, holder[0]);
+        if (previous != null) {
+            previous.cancel();
+        }
+    }
+
+    /**
+     * 取消订单待执行的重试（订单被接单、取消时调用）
+     */
+    public boolean cancel(Long orderId) {
+        HashedTimingWheel.Timeout timeout = orderTimeouts.remove(orderId);
+        return timeout != null && timeout.cancel();
+    }
+
+    /**
+     * 订单是否有待执行的重试
+     */
+    public boolean hasPendingRetry(Long orderId) {
+        HashedTimingWheel.Timeout timeout = orderTimeouts.get(orderId);
+        return timeout != null && !timeout.isCancelled() && !timeout.isExpired();
+    }
+
+    /**
+     * 获取时间轮统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("queueDepth", wheel.getPendingTimeouts());
+        stats.put("trackedOrders", orderTimeouts.size());
+        stats.put("totalScheduled", wheel.getTotalScheduled());
+        stats.put("totalExpired", wheel.getTotalExpired());
+        stats.put("totalCancelled", wheel.getTotalCancelled());
+        stats.put("lastTickLagMillis", wheel.getLastTickLagMillis());
+        stats.put("maxTickLagMillis", wheel.getMaxTickLagMillis());
+        stats.put("tickMillis", wheel.getTickMillis());
+        stats.put("wheelSize", wheel.getWheelSize());
+        return stats;
+    }
+}
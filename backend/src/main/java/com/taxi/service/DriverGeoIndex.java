@@ -0,0 +1,493 @@
+package com.taxi.service;
+
+import com.taxi.entity.Driver;
+import com.taxi.util.GeoGridUtil;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 司机内存网格索引
+ * 在JVM内按经纬度网格维护在线司机的位置和状态，附近司机查询直接在内存中完成；
+ * 网格中只存放在线空闲的司机，忙碌司机只保留槽位，不参与附近查询。
+ * Redis仍然是持久化副本，本索引由DriverRedisService在写Redis的同时同步维护。
+ * 索引只反映本实例上发生的上线、下线和忙闲变化，只有单实例部署（single-instance=true）时才作为附近查询的权威来源；
+ * 多实例部署时附近查询走Redis，本索引只用于本实例的辅助判断。
+ * 网格按编码哈希分段加锁，不同网格的写入互不阻塞。
+ */
+@Component
+public class DriverGeoIndex {
+
+    /** 状态位：在线 */
+    public static final int STATUS_ONLINE = 1;
+
+    /** 状态位：忙碌 */
+    public static final int STATUS_BUSY = 2;
+
+    @Value("${taxi.dispatch.geo-index.enabled:true}")
+    private boolean enabled;
+
+    @Value("${taxi.dispatch.geo-index.cell-size-degrees:0.01}")
+    private double cellSizeDegrees;
+
+    @Value("${taxi.dispatch.geo-index.stripes:64}")
+    private int stripeCount;
+
+    // 是否单实例部署，只有单实例时索引才包含全部司机的最新状态
+    @Value("${taxi.dispatch.geo-index.single-instance:false}")
+    private boolean singleInstance;
+
+    // 司机ID -> 槽位
+    private final Map<Long, DriverSlot> drivers = new ConcurrentHashMap<>();
+
+    private Stripe[] stripes;
+    private int stripeMask;
+
+    // 查询统计
+    private final AtomicLong totalSearches = new AtomicLong();
+    private final AtomicLong totalRingsScanned = new AtomicLong();
+
+    // 启动时从Redis预热完成后才对外提供查询
+    private volatile boolean ready = false;
+
+    /**
+     * 司机槽位，坐标和状态以基本类型保存
+     * 字段只在所属网格分段的写锁内修改，读取时持有读锁
+     */
+    static final class DriverSlot {
+        final long driverId;
+        double latitude;
+        double longitude;
+        int status;
+        long cellKey;
+        long updatedAt;
+        Driver profile;
+        boolean inCell;
+        boolean removed;
+
+        DriverSlot(long driverId) {
+            this.driverId = driverId;
+        }
+    }
+
+    /**
+     * 单个网格单元中的司机列表
+     */
+    static final class Cell {
+        DriverSlot[] slots = new DriverSlot[8];
+        int size;
+
+        void add(DriverSlot slot) {
+            if (size == slots.length) {
+                DriverSlot[] grown = new DriverSlot[size << 1];
+                System.arraycopy(slots, 0, grown, 0, size);
+                slots = grown;
+            }
+            slots[size++] = slot;
+        }
+
+        void remove(DriverSlot slot) {
+            for (int i = 0; i < size; i++) {
+                if (slots[i] == slot) {
+                    slots[i] = slots[--size];
+                    slots[size] = null;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 网格分段，每段一把读写锁
+     */
+    static final class Stripe {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        final Map<Long, Cell> cells = new HashMap<>();
+    }
+
+    @PostConstruct
+    public void init() {
+        int size = 1;
+        while (size < stripeCount) {
+            size <<= 1;
+        }
+        stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Stripe();
+        }
+        stripeMask = size - 1;
+        System.out.println("司机内存网格索引初始化 - 启用: " + enabled + ", 网格大小: " + cellSizeDegrees + "度, 分段数: " + size);
+    }
+
+    /**
+     * 索引是否可用于查询
+     */
+    public boolean isReady() {
+        return enabled && ready;
+    }
+
+    /**
+     * 标记预热完成
+     */
+    public void markReady() {
+        this.ready = true;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 索引是否可作为附近查询的权威来源（已就绪且为单实例部署）
+     */
+    public boolean isAuthoritative() {
+        return isReady() && singleInstance;
+    }
+
+    public double getCellSizeDegrees() {
+        return cellSizeDegrees;
+    }
+
+    /**
+     * 司机上线：加入索引，状态为在线且空闲
+     */
+    public void driverOnline(Driver profile, double latitude, double longitude) {
+        if (!enabled || profile == null || profile.getId() == null) {
+            return;
+        }
+        DriverSlot slot = drivers.computeIfAbsent(profile.getId(), DriverSlot::new);
+        upsert(slot, latitude, longitude, STATUS_ONLINE, profile);
+    }
+
+    /**
+     * 从Redis预热时按已有状态加入索引
+     */
+    public void restoreDriver(Driver profile, double latitude, double longitude, boolean online, boolean busy) {
+        if (!enabled || profile == null || profile.getId() == null || !online) {
+            return;
+        }
+        DriverSlot slot = drivers.computeIfAbsent(profile.getId(), DriverSlot::new);
+        upsert(slot, latitude, longitude, STATUS_ONLINE | (busy ? STATUS_BUSY : 0), profile);
+    }
+
+    /**
+     * 更新司机位置，不在索引中的司机忽略
+     */
+    public void updateLocation(long driverId, double latitude, double longitude) {
+        if (!enabled) {
+            return;
+        }
+        DriverSlot slot = drivers.get(driverId);
+        if (slot != null) {
+            upsert(slot, latitude, longitude, -1, null);
+        }
+    }
+
+    /**
+     * 设置司机忙碌/空闲
+     * 忙碌司机移出网格，不再参与附近查询；恢复空闲时按原网格重新加入
+     */
+    public void markBusy(long driverId, boolean busy) {
+        if (!enabled) {
+            return;
+        }
+        DriverSlot slot = drivers.get(driverId);
+        if (slot == null) {
+            return;
+        }
+        while (true) {
+            long cellKey = slot.cellKey;
+            Stripe stripe = stripeOf(cellKey);
+            stripe.lock.writeLock().lock();
+            try {
+                if (slot.cellKey != cellKey) {
+                    continue;
+                }
+                if (slot.removed) {
+                    return;
+                }
+                slot.status = busy ? (slot.status | STATUS_BUSY) : (slot.status & ~STATUS_BUSY);
+                boolean searchable = isSearchable(slot.status);
+                if (slot.inCell && !searchable) {
+                    removeFromCell(stripe, cellKey, slot);
+                    slot.inCell = false;
+                } else if (!slot.inCell && searchable) {
+                    stripe.cells.computeIfAbsent(cellKey, k -> new Cell()).add(slot);
+                    slot.inCell = true;
+                }
+                slot.updatedAt = System.currentTimeMillis();
+                return;
+            } finally {
+                stripe.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * 司机下线：从索引移除
+     */
+    public void driverOffline(long driverId) {
+        if (!enabled) {
+            return;
+        }
+        DriverSlot slot = drivers.remove(driverId);
+        if (slot == null) {
+            return;
+        }
+        while (true) {
+            long cellKey = slot.cellKey;
+            Stripe stripe = stripeOf(cellKey);
+            stripe.lock.writeLock().lock();
+            try {
+                if (slot.cellKey != cellKey) {
+                    continue;
+                }
+                if (slot.inCell) {
+                    removeFromCell(stripe, cellKey, slot);
+                    slot.inCell = false;
+                }
+                slot.removed = true;
+                slot.status = 0;
+                return;
+            } finally {
+                stripe.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * 查询指定范围内在线且空闲的司机，按距离升序，最多返回limit个
+     * 从查询点所在网格开始逐环向外扩展，已凑满limit个且下一环不可能更近时立即停止
+     */
+    public List<Driver> findNearbyFreeDrivers(double latitude, double longitude, double radiusKm, int limit) {
+        List<Driver> result = new ArrayList<>();
+        if (!isReady() || limit <= 0) {
+            return result;
+        }
+
+        double radiusMeters = radiusKm * 1000;
+        double latSpan = GeoGridUtil.latDegreesForKm(radiusKm);
+        int centerLat = GeoGridUtil.latIndex(latitude, cellSizeDegrees);
+        int centerLng = GeoGridUtil.lngIndex(longitude, cellSizeDegrees);
+        // 单个网格的最小边长（米），按搜索范围内纬度最高处的经度方向计算，保证环距下界不被高估
+        double edgeLatitude = Math.min(89.0, Math.abs(latitude) + latSpan);
+        double ringMeters = cellSizeDegrees * GeoGridUtil.KM_PER_DEGREE * 1000
+            * Math.max(0.01, Math.cos(Math.toRadians(edgeLatitude)));
+        int maxRing = (int) Math.ceil(radiusMeters / ringMeters) + 1;
+
+        // 距离升序的前limit个候选
+        DriverSlot[] topSlots = new DriverSlot[limit];
+        double[] topDistances = new double[limit];
+        double[] topLatitudes = new double[limit];
+        double[] topLongitudes = new double[limit];
+        int count = 0;
+
+        int ring = 0;
+        for (; ring <= maxRing; ring++) {
+            // 第ring环中的点距查询点至少 (ring-1) 个网格边长
+            double ringMinMeters = (ring - 1) * ringMeters;
+            if (ringMinMeters > radiusMeters || (count == limit && ringMinMeters > topDistances[limit - 1])) {
+                break;
+            }
+            for (int dLat = -ring; dLat <= ring; dLat++) {
+                // 首尾两行扫描整行，中间各行只扫描左右两端的网格
+                int step = (dLat == -ring || dLat == ring) ? 1 : 2 * ring;
+                for (int dLng = -ring; dLng <= ring; dLng += step) {
+                    long cellKey = GeoGridUtil.cellKey(centerLat + dLat, centerLng + dLng);
+                    Stripe stripe = stripeOf(cellKey);
+                    stripe.lock.readLock().lock();
+                    try {
+                        Cell cell = stripe.cells.get(cellKey);
+                        if (cell == null) {
+                            continue;
+                        }
+                        for (int i = 0; i < cell.size; i++) {
+                            DriverSlot slot = cell.slots[i];
+                            double distance = GeoGridUtil.distanceMeters(latitude, longitude, slot.latitude, slot.longitude);
+                            if (distance > radiusMeters) {
+                                continue;
+                            }
+                            if (count == limit && distance >= topDistances[limit - 1]) {
+                                continue;
+                            }
+                            // 插入排序，保持前limit个有序
+                            int pos = count < limit ? count++ : limit - 1;
+                            while (pos > 0 && topDistances[pos - 1] > distance) {
+                                topSlots[pos] = topSlots[pos - 1];
+                                topDistances[pos] = topDistances[pos - 1];
+                                topLatitudes[pos] = topLatitudes[pos - 1];
+                                topLongitudes[pos] = topLongitudes[pos - 1];
+                                pos--;
+                            }
+                            topSlots[pos] = slot;
+                            topDistances[pos] = distance;
+                            topLatitudes[pos] = slot.latitude;
+                            topLongitudes[pos] = slot.longitude;
+                        }
+                    } finally {
+                        stripe.lock.readLock().unlock();
+                    }
+                }
+            }
+        }
+        totalSearches.incrementAndGet();
+        totalRingsScanned.addAndGet(ring);
+
+        for (int i = 0; i < count; i++) {
+            Driver profile = topSlots[i].profile;
+            if (profile != null) {
+                result.add(materialize(profile, topLatitudes[i], topLongitudes[i]));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 司机是否在索引中且在线空闲
+     */
+    public boolean isOnlineAndFree(long driverId) {
+        DriverSlot slot = drivers.get(driverId);
+        return slot != null && isSearchable(slot.status);
+    }
+
+    /**
+     * 司机是否在索引中且处于忙碌状态
+     */
+    public boolean isBusy(long driverId) {
+        DriverSlot slot = drivers.get(driverId);
+        return slot != null && (slot.status & STATUS_BUSY) != 0;
+    }
+
+    /**
+     * 索引中的司机数量
+     */
+    public int size() {
+        return drivers.size();
+    }
+
+    /**
+     * 索引统计信息
+     */
+    public Map<String, Object> getStats() {
+        int cells = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.readLock().lock();
+            try {
+                cells += stripe.cells.size();
+            } finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("ready", ready);
+        stats.put("singleInstance", singleInstance);
+        stats.put("drivers", drivers.size());
+        stats.put("cells", cells);
+        stats.put("stripes", stripes.length);
+        stats.put("cellSizeDegrees", cellSizeDegrees);
+        long searches = totalSearches.get();
+        stats.put("totalSearches", searches);
+        stats.put("avgRingsScanned", searches == 0 ? 0 : (double) totalRingsScanned.get() / searches);
+        return stats;
+    }
+
+    /**
+     * 写入位置/状态，必要时把司机从旧网格迁移到新网格
+     * newStatus为-1表示保持原状态，newProfile为null表示保持原资料
+     */
+    private void upsert(DriverSlot slot, double latitude, double longitude, int newStatus, Driver newProfile) {
+        long newCellKey = GeoGridUtil.cellKey(latitude, longitude, cellSizeDegrees);
+        int newIndex = indexOfKey(newCellKey);
+        while (true) {
+            long oldCellKey = slot.cellKey;
+            int oldIndex = indexOfKey(oldCellKey);
+            Stripe first = stripes[Math.min(oldIndex, newIndex)];
+            Stripe second = stripes[Math.max(oldIndex, newIndex)];
+            first.lock.writeLock().lock();
+            if (second != first) {
+                second.lock.writeLock().lock();
+            }
+            try {
+                if (slot.cellKey != oldCellKey) {
+                    continue;
+                }
+                if (slot.removed) {
+                    return;
+                }
+                int status = newStatus >= 0 ? newStatus : slot.status;
+                boolean searchable = isSearchable(status);
+                // 网格中只保留在线空闲的司机
+                if (slot.inCell && (!searchable || oldCellKey != newCellKey)) {
+                    removeFromCell(stripes[oldIndex], oldCellKey, slot);
+                    slot.inCell = false;
+                }
+                if (searchable && !slot.inCell) {
+                    stripes[newIndex].cells.computeIfAbsent(newCellKey, k -> new Cell()).add(slot);
+                    slot.inCell = true;
+                }
+                slot.cellKey = newCellKey;
+                slot.latitude = latitude;
+                slot.longitude = longitude;
+                if (newStatus >= 0) {
+                    slot.status = newStatus;
+                }
+                if (newProfile != null) {
+                    slot.profile = newProfile;
+                }
+                slot.updatedAt = System.currentTimeMillis();
+                return;
+            } finally {
+                if (second != first) {
+                    second.lock.writeLock().unlock();
+                }
+                first.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private static void removeFromCell(Stripe stripe, long cellKey, DriverSlot slot) {
+        Cell cell = stripe.cells.get(cellKey);
+        if (cell != null) {
+            cell.remove(slot);
+            if (cell.size == 0) {
+                stripe.cells.remove(cellKey);
+            }
+        }
+    }
+
+    private static boolean isSearchable(int status) {
+        return (status & (STATUS_ONLINE | STATUS_BUSY)) == STATUS_ONLINE;
+    }
+
+    private Stripe stripeOf(long cellKey) {
+        return stripes[indexOfKey(cellKey)];
+    }
+
+    private int indexOfKey(long cellKey) {
+        int h = Long.hashCode(cellKey);
+        h ^= (h >>> 16);
+        return (h * 0x9E3779B9) >>> 16 & stripeMask;
+    }
+
+    /**
+     * 按索引中的坐标生成返回给调用方的司机对象副本
+     */
+    private Driver materialize(Driver profile, double latitude, double longitude) {
+        Driver driver = new Driver();
+        BeanUtils.copyProperties(profile, driver);
+        driver.setCurrentLatitude(BigDecimal.valueOf(latitude));
+        driver.setCurrentLongitude(BigDecimal.valueOf(longitude));
+        return driver;
+    }
+}
@@ -4,14 +4,21 @@ import com.taxi.entity.Driver;
 import com.taxi.entity.Order;
 import com.taxi.mapper.DriverMapper;
 import com.taxi.mapper.OrderMapper;
+import com.taxi.util.DriverLocationFrame;
+import com.taxi.util.StripedLaneExecutor;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 司机位置服务
@@ -33,39 +40,142 @@ public class DriverLocationService {
     @Autowired
     private WebSocketNotificationService webSocketNotificationService;
 
+    @Autowired
+    private DriverLocationWriteBehind driverLocationWriteBehind;
+
+    @Autowired
+    private LocationUpdateFilter locationUpdateFilter;
+
+    @Autowired
+    private DriverGeoIndex driverGeoIndex;
+
+    @Autowired
+    private TripBindingCache tripBindingCache;
+
+    @Autowired
+    private TripTrajectoryStore tripTrajectoryStore;
+
+    @Autowired
+    private ConnectionLivenessTracker connectionLivenessTracker;
+
+    // 位置下游处理按司机分道执行，同一司机的位置按顺序处理
+    @Value("${taxi.location.lanes.enabled:true}")
+    private boolean lanesEnabled;
+
+    // 道数，0表示按CPU核数
+    @Value("${taxi.location.lanes.count:0}")
+    private int laneCount;
+
+    // 每条道最多待处理的司机数，超过后丢弃新司机的位置
+    @Value("${taxi.location.lanes.capacity:4096}")
+    private int laneCapacity;
+
+    private StripedLaneExecutor<LocationTask> locationLanes;
+
     // 模拟TCP连接状态管理
     private final Map<Long, DriverConnectionInfo> activeConnections = new ConcurrentHashMap<>();
+
+    /**
+     * 一条待处理的位置（过滤结果已在上报线程中得出）
+     */
+    private static final class LocationTask {
+        final Long driverId;
+        final BigDecimal latitude;
+        final BigDecimal longitude;
+        final int headingCentiDegrees;
+        final long timestamp;
+        final boolean busy;
+        final boolean forward;
+
+        LocationTask(Long driverId, BigDecimal latitude, BigDecimal longitude, int headingCentiDegrees,
+                     long timestamp, boolean busy, boolean forward) {
+            this.driverId = driverId;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.headingCentiDegrees = headingCentiDegrees;
+            this.timestamp = timestamp;
+            this.busy = busy;
+            this.forward = forward;
+        }
+
+        /**
+         * 同一司机尚未处理的旧位置被新位置覆盖；旧位置需要转发时新位置也要转发，避免Redis漏掉这次更新
+         */
+        static LocationTask merge(LocationTask older, LocationTask newer) {
+            if (!older.forward || newer.forward) {
+                return newer;
+            }
+            return new LocationTask(newer.driverId, newer.latitude, newer.longitude, newer.headingCentiDegrees,
+                newer.timestamp, newer.busy, true);
+        }
+    }
     
     /**
      * 司机连接状态信息
      */
     public static class DriverConnectionInfo {
         private Long driverId;
-        private LocalDateTime lastHeartbeat;
+        private volatile long lastHeartbeatMillis; // 最后心跳（毫秒时间戳），只用于展示，超时判断由ConnectionLivenessTracker负责
         private boolean isOnline;
         private BigDecimal lastLatitude;
         private BigDecimal lastLongitude;
         private String vehicleHeading; // 车头朝向
+        private int headingCentiDegrees = DriverLocationFrame.HEADING_UNKNOWN; // 二进制通道上报的车头朝向（百分之一度）
+        private long lastSampleTime; // 二进制通道已接收的最新采样时间
         
         // 构造函数和getter/setter
         public DriverConnectionInfo(Long driverId) {
             this.driverId = driverId;
-            this.lastHeartbeat = LocalDateTime.now();
+            this.lastHeartbeatMillis = System.currentTimeMillis();
             this.isOnline = true;
         }
         
         // Getters and Setters
         public Long getDriverId() { return driverId; }
-        public LocalDateTime getLastHeartbeat() { return lastHeartbeat; }
-        public void setLastHeartbeat(LocalDateTime lastHeartbeat) { this.lastHeartbeat = lastHeartbeat; }
+        public LocalDateTime getLastHeartbeat() {
+            return LocalDateTime.ofInstant(Instant.ofEpochMilli(lastHeartbeatMillis), ZoneId.systemDefault());
+        }
+        public long getLastHeartbeatMillis() { return lastHeartbeatMillis; }
+        public void setLastHeartbeatMillis(long lastHeartbeatMillis) { this.lastHeartbeatMillis = lastHeartbeatMillis; }
         public boolean isOnline() { return isOnline; }
         public void setOnline(boolean online) { isOnline = online; }
         public BigDecimal getLastLatitude() { return lastLatitude; }
         public void setLastLatitude(BigDecimal lastLatitude) { this.lastLatitude = lastLatitude; }
         public BigDecimal getLastLongitude() { return lastLongitude; }
         public void setLastLongitude(BigDecimal lastLongitude) { this.lastLongitude = lastLongitude; }
-        public String getVehicleHeading() { return vehicleHeading; }
+        public String getVehicleHeading() {
+            if (vehicleHeading == null && headingCentiDegrees != DriverLocationFrame.HEADING_UNKNOWN) {
+                return String.valueOf(headingCentiDegrees / 100.0);
+            }
+            return vehicleHeading;
+        }
         public void setVehicleHeading(String vehicleHeading) { this.vehicleHeading = vehicleHeading; }
+        public int getHeadingCentiDegrees() { return headingCentiDegrees; }
+        public void setHeadingCentiDegrees(int headingCentiDegrees) { this.headingCentiDegrees = headingCentiDegrees; }
+        public long getLastSampleTime() { return lastSampleTime; }
+        public void setLastSampleTime(long lastSampleTime) { this.lastSampleTime = lastSampleTime; }
+    }
+
+    @PostConstruct
+    public void init() {
+        // 心跳超时的连接由存活跟踪器通知，按正常断开处理（同步数据库和Redis在线状态）
+        connectionLivenessTracker.addExpirationListener(driverId -> {
+            System.out.println("司机 " + driverId + " 连接超时，自动断开");
+            closeConnection(driverId);
+        });
+        if (lanesEnabled) {
+            int lanes = laneCount > 0 ? laneCount : Runtime.getRuntime().availableProcessors();
+            locationLanes = new StripedLaneExecutor<>("driver-location", lanes, laneCapacity,
+                this::processLocation, LocationTask::merge);
+            System.out.println("司机位置分道执行已启用，道数: " + lanes + ", 每道容量: " + laneCapacity);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (locationLanes != null) {
+            locationLanes.shutdown(2, TimeUnit.SECONDS);
+        }
     }
 
     /**
@@ -76,11 +186,13 @@ public class DriverLocationService {
         
         DriverConnectionInfo connectionInfo = new DriverConnectionInfo(driverId);
         activeConnections.put(driverId, connectionInfo);
+        connectionLivenessTracker.register(driverId);
         
         // 更新司机在线状态
         try {
             Driver driver = driverMapper.selectById(driverId);
             if (driver != null) {
+                driverLocationWriteBehind.applyPending(driver);
                 driver.setIsOnline(true);
                 driver.setUpdatedAt(LocalDateTime.now());
                 driverMapper.updateById(driver);
@@ -105,14 +217,19 @@ public class DriverLocationService {
         if (connectionInfo != null) {
             connectionInfo.setOnline(false);
         }
+        connectionLivenessTracker.unregister(driverId);
+        locationUpdateFilter.forget(driverId);
         
         // 更新司机离线状态
         try {
             Driver driver = driverMapper.selectById(driverId);
             if (driver != null) {
+                driverLocationWriteBehind.applyPending(driver);
                 driver.setIsOnline(false);
                 driver.setUpdatedAt(LocalDateTime.now());
                 driverMapper.updateById(driver);
+                // 下线司机不再保留缓冲条目（尚未写库的位置刷新后再移除）
+                driverLocationWriteBehind.forget(driverId);
                 
                 // 从Redis缓存移除
                 driverRedisService.driverGoOffline(driverId);
@@ -124,37 +241,118 @@ public class DriverLocationService {
 
     /**
      * 处理司机位置上报（每3-5秒一次）
+     * 先经过移动死区过滤，只有需要转发的位置才写入Redis和推送给乘客；
+     * 返回过滤结果（含建议的下次上报间隔），司机未建立连接时返回null
      */
-    @Async
-    public void handleLocationUpdate(Long driverId, BigDecimal latitude, BigDecimal longitude, String vehicleHeading) {
+    public LocationUpdateFilter.Decision handleLocationUpdate(Long driverId, BigDecimal latitude, BigDecimal longitude, String vehicleHeading) {
         System.out.println("收到司机 " + driverId + " 位置上报: " + latitude + "," + longitude + " 朝向:" + vehicleHeading);
         
         DriverConnectionInfo connectionInfo = activeConnections.get(driverId);
         if (connectionInfo == null) {
             System.out.println("司机 " + driverId + " 未建立连接，忽略位置上报");
-            return;
+            return null;
         }
         
-        // 更新连接信息
-        connectionInfo.setLastHeartbeat(LocalDateTime.now());
+        // 更新连接信息（心跳只在内存中刷新）
+        connectionInfo.setLastHeartbeatMillis(System.currentTimeMillis());
+        connectionLivenessTracker.touch(driverId);
         connectionInfo.setLastLatitude(latitude);
         connectionInfo.setLastLongitude(longitude);
         connectionInfo.setVehicleHeading(vehicleHeading);
+        connectionInfo.setHeadingCentiDegrees(DriverLocationFrame.HEADING_UNKNOWN);
         
+        return applyLocation(driverId, latitude, longitude, parseHeading(vehicleHeading), System.currentTimeMillis());
+    }
+
+    /**
+     * 处理二进制通道上报的位置帧
+     * 在WebSocket入站线程中同步执行，不逐条打印日志；
+     * 司机未建立连接、或采样时间不晚于已接收的最新位置（乱序/重复帧）时丢弃，返回null
+     */
+    public LocationUpdateFilter.Decision handleLocationFrame(long driverId, double latitude, double longitude,
+                                                             int headingCentiDegrees, long timestamp) {
+        DriverConnectionInfo connectionInfo = activeConnections.get(driverId);
+        if (connectionInfo == null) {
+            return null;
+        }
+        BigDecimal lat = BigDecimal.valueOf(latitude);
+        BigDecimal lng = BigDecimal.valueOf(longitude);
+        synchronized (connectionInfo) {
+            if (timestamp <= connectionInfo.getLastSampleTime()) {
+                return null;
+            }
+            connectionInfo.setLastSampleTime(timestamp);
+            connectionInfo.setLastHeartbeatMillis(System.currentTimeMillis());
+            connectionInfo.setLastLatitude(lat);
+            connectionInfo.setLastLongitude(lng);
+            connectionInfo.setVehicleHeading(null);
+            connectionInfo.setHeadingCentiDegrees(headingCentiDegrees);
+        }
+        connectionLivenessTracker.touch(driverId);
+        return applyLocation(driverId, lat, lng, headingCentiDegrees, timestamp);
+    }
+
+    /**
+     * 位置过滤在上报线程中完成（返回建议上报间隔），下游写入交给该司机所在的道按顺序执行；
+     * 道积压时同一司机只保留最新位置。道已满丢弃任务时不提交过滤状态，下一次上报重新与Redis中的旧位置比较
+     */
+    private LocationUpdateFilter.Decision applyLocation(Long driverId, BigDecimal latitude, BigDecimal longitude,
+                                                        int headingCentiDegrees, long timestamp) {
+        boolean busy = isDriverBusyHint(driverId);
+        LocationUpdateFilter.Decision decision = locationUpdateFilter.evaluate(driverId,
+            latitude.doubleValue(), longitude.doubleValue(), headingCentiDegrees, busy);
+        LocationTask task = new LocationTask(driverId, latitude, longitude, headingCentiDegrees, timestamp,
+            busy, decision.isForward());
+        if (locationLanes == null) {
+            processLocation(task);
+        } else if (!locationLanes.submit(driverId, task)) {
+            System.err.println("司机位置处理积压，丢弃司机 " + driverId + " 的位置");
+            return decision;
+        }
+        locationUpdateFilter.markForwarded(driverId, decision);
+        return decision;
+    }
+
+    /**
+     * 司机是否忙碌（只读内存，不在上报线程上访问Redis）：内存索引为权威来源（单实例部署）时直接读索引；
+     * 多实例部署时按行程绑定缓存判断，绑定在各实例间广播，接单后即可见
+     */
+    private boolean isDriverBusyHint(Long driverId) {
+        if (driverGeoIndex.isAuthoritative()) {
+            return driverGeoIndex.isBusy(driverId);
+        }
+        return tripBindingCache.isBound(driverId);
+    }
+
+    /**
+     * 位置写入下游：数据库延迟写入（始终记录最新位置），执行订单中的司机每个点都记入行程轨迹，
+     * 通过过滤的位置再写入Redis缓存并推送给乘客
+     */
+    private void processLocation(LocationTask task) {
+        Long driverId = task.driverId;
+        double lat = task.latitude.doubleValue();
+        double lng = task.longitude.doubleValue();
         try {
-            // 更新数据库
-            Driver driver = driverMapper.selectById(driverId);
-            if (driver != null) {
-                driver.setCurrentLatitude(latitude);
-                driver.setCurrentLongitude(longitude);
-                driver.setUpdatedAt(LocalDateTime.now());
-                driverMapper.updateById(driver);
-                
-                // 更新Redis缓存
-                driverRedisService.updateDriverLocation(driverId, latitude, longitude);
+            // 数据库只需最新位置，写入延迟写入缓冲，由后台批量写库
+            driverLocationWriteBehind.record(driverId, lat, lng);
+            
+            // 司机当前行程：忙碌或缓存已过期时回源Redis和数据库；本实例启动前接单的司机没有收到绑定广播，
+            // 在其转发的位置上（已经过死区过滤，频率有限）回源一次，都在道线程上执行
+            TripBindingCache.Binding binding = tripBindingCache.get(driverId,
+                task.busy || task.forward ? this::loadTripBinding : null);
+            if (binding != null) {
+                // 轨迹只入队，由后台线程写入段文件
+                tripTrajectoryStore.append(binding.getOrderId(), lat, lng, task.timestamp);
+            }
+            
+            if (task.forward) {
+                // 更新Redis缓存（批量合并写入）
+                driverRedisService.submitDriverLocation(driverId, task.latitude, task.longitude, task.headingCentiDegrees);
                 
                 // 🚀 新增：如果司机正在执行订单，推送位置给对应的乘客
-                pushLocationToPassengerIfNeeded(driverId, latitude.doubleValue(), longitude.doubleValue());
+                if (binding != null) {
+                    pushLocationToPassenger(binding, driverId, lat, lng);
+                }
             }
             
         } catch (Exception e) {
@@ -163,34 +361,63 @@ public class DriverLocationService {
     }
 
     /**
-     * 如果司机正在执行订单，推送位置给对应的乘客
+     * 获取位置分道执行统计（各道队列深度和排队延迟）
+     */
+    public Map<String, Object> getLocationLaneStats() {
+        if (locationLanes == null) {
+            return Map.of("enabled", false);
+        }
+        Map<String, Object> stats = locationLanes.getStats();
+        stats.put("enabled", true);
+        return stats;
+    }
+
+    /**
+     * 解析REST上报的朝向（度），无法解析时视为未知
      */
-    private void pushLocationToPassengerIfNeeded(Long driverId, Double latitude, Double longitude) {
+    private static int parseHeading(String vehicleHeading) {
+        if (vehicleHeading == null || vehicleHeading.isEmpty()) {
+            return DriverLocationFrame.HEADING_UNKNOWN;
+        }
         try {
-            // 检查司机是否正在执行订单
-            if (driverRedisService.isDriverBusy(driverId)) {
-                // 获取司机当前执行的订单
-                Long currentOrderId = driverRedisService.getDriverCurrentOrder(driverId);
-                if (currentOrderId != null) {
-                    // 获取订单信息，找到对应的乘客
-                    Order order = orderMapper.selectById(currentOrderId);
-                    if (order != null && order.getPassengerId() != null) {
-                        // 推送司机位置给乘客
-                        webSocketNotificationService.pushDriverLocationToPassenger(
-                            order.getPassengerId(), 
-                            driverId, 
-                            latitude, 
-                            longitude
-                        );
-                        System.out.println("✅ 已推送司机 " + driverId + " 位置给乘客 " + order.getPassengerId());
-                    }
-                }
-            }
+            double degrees = Double.parseDouble(vehicleHeading);
+            return (int) Math.round(((degrees % 360) + 360) % 360 * 100) % 36000;
+        } catch (NumberFormatException e) {
+            return DriverLocationFrame.HEADING_UNKNOWN;
+        }
+    }
+
+    /**
+     * 推送司机位置给行程绑定的乘客
+     */
+    private void pushLocationToPassenger(TripBindingCache.Binding binding, Long driverId, Double latitude, Double longitude) {
+        try {
+            webSocketNotificationService.pushDriverLocationToPassenger(
+                binding.getPassengerId(), 
+                driverId, 
+                latitude, 
+                longitude
+            );
         } catch (Exception e) {
             System.err.println("❌ 推送司机位置给乘客失败: " + e.getMessage());
         }
     }
 
+    /**
+     * 缓存未命中时从Redis当前订单和数据库加载行程绑定
+     */
+    private TripBindingCache.Binding loadTripBinding(long driverId) {
+        Long currentOrderId = driverRedisService.getDriverCurrentOrder(driverId);
+        if (currentOrderId == null) {
+            return null;
+        }
+        Order order = orderMapper.selectById(currentOrderId);
+        if (order == null || order.getPassengerId() == null) {
+            return null;
+        }
+        return new TripBindingCache.Binding(currentOrderId, order.getPassengerId());
+    }
+
     /**
      * 向司机推送订单消息（通过TCP长连接）
      */
@@ -214,24 +441,6 @@ public class DriverLocationService {
         }
     }
 
-    /**
-     * 检查连接心跳，清理超时连接
-     */
-    public void checkHeartbeat() {
-        LocalDateTime now = LocalDateTime.now();
-        
-        activeConnections.entrySet().removeIf(entry -> {
-            DriverConnectionInfo info = entry.getValue();
-            // 如果超过30秒没有心跳，认为连接断开
-            if (info.getLastHeartbeat().plusSeconds(3000).isBefore(now)) {
-                System.out.println("司机 " + entry.getKey() + " 连接超时，自动断开");
-                closeConnection(entry.getKey());
-                return true;
-            }
-            return false;
-        });
-    }
-
     /**
      * 获取在线司机连接数
      */
@@ -0,0 +1,307 @@
+package com.taxi.service;
+
+import com.taxi.util.DriverLocationFrame;
+import com.taxi.util.GeoGridUtil;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 司机位置批量写入Redis
+ * 各请求线程把位置更新放入以司机ID为键的待写入表，同一司机在写入前只保留最新位置（待写入条数不超过在线司机数），
+ * 后台线程每隔几毫秒取出一批，用一个Lua脚本一次往返完成多成员GEOADD、空闲司机集合维护和可变状态哈希的字段写入，
+ * 不读取也不反序列化司机资料。
+ * 调用方拿到的CompletableFuture在所在批次写入完成后结束，被后到位置覆盖的更新随覆盖它的位置一起结束。
+ */
+@Component
+public class DriverLocationSink {
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${taxi.location.sink.enabled:true}")
+    private boolean enabled;
+
+    @Value("${taxi.location.sink.drain-interval-ms:5}")
+    private long drainIntervalMs;
+
+    @Value("${taxi.location.sink.max-batch:500}")
+    private int maxBatch;
+
+    // Lua unpack参数个数有上限，每个司机占3个GEOADD参数
+    private static final int MAX_SCRIPT_BATCH = 2000;
+
+    /**
+     * 批量位置写入脚本
+     * 只处理在线（可变状态online为1）的司机：一次GEOADD写入这些司机的位置，逐个用HSET写入可变状态哈希的坐标、
+     * 朝向和lastUpdate并刷新过期时间，空闲的批量写入空闲司机GEO集合，忙碌的从中移除；
+     * 不在线的司机（已下线、可变状态已删除或过期）从两个GEO集合中移除且不写可变状态，
+     * 避免下线后才写入的位置把司机重新加回GEO，并留下没有过期时间的可变状态
+     * 注意：脚本内访问了未声明在KEYS中的状态key，仅适用于单节点/主从Redis
+     * KEYS[1]=司机GEO KEYS[2]=空闲司机GEO ARGV[1]=可变状态key前缀 ARGV[2]=时间戳 ARGV[3]=可变状态过期秒数
+     * ARGV[4..]=按(经度, 纬度, GEO成员, 朝向)依次排列，朝向未知时为空字符串
+     * 返回写入位置的司机数
+     */
+    private static final RedisScript<Long> BATCH_LOCATION_SCRIPT = new DefaultRedisScript<>(
+        "local prefix = ARGV[1] " +
+        "local geo = {} " +
+        "local free = {} " +
+        "for i = 4, #ARGV, 4 do " +
+        "  local key = prefix .. (string.gsub(ARGV[i + 2], '\"', '')) " +
+        "  local status = redis.call('HMGET', key, 'online', 'busy') " +
+        "  if status[1] == '1' then " +
+        "    if ARGV[i + 3] ~= '' then " +
+        "      redis.call('HSET', key, 'lat', ARGV[i + 1], 'lng', ARGV[i], 'heading', ARGV[i + 3], 'lastUpdate', ARGV[2]) " +
+        "    else " +
+        "      redis.call('HSET', key, 'lat', ARGV[i + 1], 'lng', ARGV[i], 'lastUpdate', ARGV[2]) " +
+        "    end " +
+        "    redis.call('EXPIRE', key, ARGV[3]) " +
+        "    geo[#geo + 1] = ARGV[i] " +
+        "    geo[#geo + 1] = ARGV[i + 1] " +
+        "    geo[#geo + 1] = ARGV[i + 2] " +
+        "    if status[2] ~= '1' then " +
+        "      free[#free + 1] = ARGV[i] " +
+        "      free[#free + 1] = ARGV[i + 1] " +
+        "      free[#free + 1] = ARGV[i + 2] " +
+        "    else " +
+        "      redis.call('ZREM', KEYS[2], ARGV[i + 2]) " +
+        "    end " +
+        "  else " +
+        "    redis.call('ZREM', KEYS[1], ARGV[i + 2]) " +
+        "    redis.call('ZREM', KEYS[2], ARGV[i + 2]) " +
+        "  end " +
+        "end " +
+        "if #geo > 0 then redis.call('GEOADD', KEYS[1], unpack(geo)) end " +
+        "if #free > 0 then redis.call('GEOADD', KEYS[2], unpack(free)) end " +
+        "return #geo / 3",
+        Long.class
+    );
+
+    /**
+     * 一条待写入的位置
+     */
+    private static final class LocationUpdate {
+        final long driverId;
+        final double latitude;
+        final double longitude;
+        final int headingCentiDegrees;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        // 被本条覆盖的更早位置，随本条一起结束
+        LocationUpdate superseded;
+
+        LocationUpdate(long driverId, double latitude, double longitude, int headingCentiDegrees) {
+            this.driverId = driverId;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.headingCentiDegrees = headingCentiDegrees;
+        }
+
+        void complete(Exception error) {
+            for (LocationUpdate update = this; update != null; update = update.superseded) {
+                if (error == null) {
+                    update.future.complete(null);
+                } else {
+                    update.future.completeExceptionally(error);
+                }
+            }
+        }
+    }
+
+    // 待写入表：司机ID -> 最新位置
+    private final ConcurrentHashMap<Long, LocationUpdate> pending = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService drainScheduler;
+
+    // 统计信息
+    private final AtomicLong totalSubmitted = new AtomicLong();
+    private final AtomicLong totalRejected = new AtomicLong();
+    private final AtomicLong totalInvalid = new AtomicLong();
+    private final AtomicLong totalSkippedOffline = new AtomicLong();
+    private final AtomicLong totalWritten = new AtomicLong();
+    private final AtomicLong totalCoalesced = new AtomicLong();
+    private final AtomicLong totalBatches = new AtomicLong();
+    private final AtomicLong totalFailures = new AtomicLong();
+    private volatile int largestBatch;
+    private volatile long lastBatchMillis;
+
+    @PostConstruct
+    public void init() {
+        maxBatch = Math.max(1, Math.min(maxBatch, MAX_SCRIPT_BATCH));
+        if (!enabled) {
+            return;
+        }
+        drainScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "driver-location-sink");
+            t.setDaemon(true);
+            return t;
+        });
+        drainScheduler.scheduleWithFixedDelay(this::drain, drainIntervalMs, drainIntervalMs, TimeUnit.MILLISECONDS);
+        System.out.println("司机位置批量写入已启用，间隔: " + drainIntervalMs + "ms, 单批上限: " + maxBatch);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (drainScheduler == null) {
+            return;
+        }
+        drainScheduler.shutdown();
+        try {
+            drainScheduler.awaitTermination(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        drain();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 提交一条位置更新，返回写入完成的future；未启用或已关闭时返回null，由调用方直接写入
+     * 同一司机已有待写入位置时直接覆盖，不绕过待写入表单独写入，避免较旧的排队位置覆盖较新的位置
+     * headingCentiDegrees 为百分之一度，未知时传 DriverLocationFrame.HEADING_UNKNOWN
+     * 坐标超出Redis GEO范围的更新不入队（否则整批GEOADD失败），直接返回失败的future
+     */
+    public CompletableFuture<Void> submit(long driverId, double latitude, double longitude, int headingCentiDegrees) {
+        if (!GeoGridUtil.isValidGeoCoordinate(latitude, longitude)) {
+            totalInvalid.incrementAndGet();
+            return CompletableFuture.failedFuture(new IllegalArgumentException("坐标超出范围: " + latitude + "," + longitude));
+        }
+        if (!enabled || drainScheduler.isShutdown()) {
+            totalRejected.incrementAndGet();
+            return null;
+        }
+        LocationUpdate update = new LocationUpdate(driverId, latitude, longitude, headingCentiDegrees);
+        pending.compute(driverId, (id, previous) -> {
+            if (previous != null) {
+                update.superseded = previous;
+                totalCoalesced.incrementAndGet();
+            }
+            return update;
+        });
+        totalSubmitted.incrementAndGet();
+        return update.future;
+    }
+
+    /**
+     * 取空待写入表，按批写入
+     * 单个后台线程写入，同一司机先取出的位置总是先写完，之后提交的位置进入下一批
+     */
+    void drain() {
+        try {
+            List<LocationUpdate> batch = new ArrayList<>();
+            Iterator<Long> drivers = pending.keySet().iterator();
+            while (drivers.hasNext()) {
+                LocationUpdate update = pending.remove(drivers.next());
+                if (update != null) {
+                    batch.add(update);
+                }
+                if (batch.size() >= maxBatch) {
+                    writeBatch(batch);
+                    batch = new ArrayList<>();
+                }
+            }
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+            }
+        } catch (Exception e) {
+            System.err.println("批量写入司机位置失败: " + e.getMessage());
+        }
+    }
+
+    private void writeBatch(List<LocationUpdate> batch) {
+        long start = System.currentTimeMillis();
+        try {
+            long written = writeToRedis(batch);
+            for (LocationUpdate update : batch) {
+                update.complete(null);
+            }
+            totalWritten.addAndGet(written);
+            totalSkippedOffline.addAndGet(batch.size() - written);
+            totalBatches.incrementAndGet();
+            largestBatch = Math.max(largestBatch, batch.size());
+        } catch (Exception e) {
+            totalFailures.incrementAndGet();
+            for (LocationUpdate update : batch) {
+                update.complete(e);
+            }
+            System.err.println("批量写入司机位置失败，本批 " + batch.size() + " 条: " + e.getMessage());
+        } finally {
+            lastBatchMillis = System.currentTimeMillis() - start;
+        }
+    }
+
+    /**
+     * 返回实际写入位置的司机数（不在线的司机被脚本跳过）
+     * 脚本按SHA执行（EVALSHA），Redis中没有缓存时自动回退为EVAL并加载
+     */
+    private long writeToRedis(List<LocationUpdate> updates) {
+        int n = updates.size();
+
+        // 脚本参数：状态前缀 + 时间戳 + 过期秒数 + 每个司机4个参数
+        Object[] args = new Object[3 + n * 4];
+        args[0] = DriverRedisService.DRIVER_HOT_KEY;
+        args[1] = String.valueOf(System.currentTimeMillis());
+        args[2] = DriverRedisService.hotTtlSeconds();
+        for (int i = 0; i < n; i++) {
+            LocationUpdate update = updates.get(i);
+            int base = 3 + i * 4;
+            args[base] = String.valueOf(update.longitude);
+            args[base + 1] = String.valueOf(update.latitude);
+            args[base + 2] = DriverRedisService.geoMember(update.driverId);
+            args[base + 3] = update.headingCentiDegrees == DriverLocationFrame.HEADING_UNKNOWN
+                ? "" : String.valueOf(update.headingCentiDegrees);
+        }
+
+        Long written = stringRedisTemplate.execute(
+            BATCH_LOCATION_SCRIPT,
+            Arrays.asList(DriverRedisService.DRIVER_GEO_KEY, DriverRedisService.DRIVER_GEO_FREE_KEY),
+            args
+        );
+        if (written == null) {
+            throw new IllegalStateException("批量位置脚本未返回写入数");
+        }
+        return written;
+    }
+
+    /**
+     * 获取批量写入统计
+     */
+    public Map<String, Object> getStats() {
+        long batches = totalBatches.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("queueDepth", pending.size());
+        stats.put("totalSubmitted", totalSubmitted.get());
+        stats.put("totalRejected", totalRejected.get());
+        stats.put("totalInvalid", totalInvalid.get());
+        stats.put("totalSkippedOffline", totalSkippedOffline.get());
+        stats.put("totalWritten", totalWritten.get());
+        stats.put("totalCoalesced", totalCoalesced.get());
+        stats.put("totalBatches", batches);
+        stats.put("totalFailures", totalFailures.get());
+        stats.put("avgBatchSize", batches == 0 ? 0 : (double) (totalWritten.get() + totalSkippedOffline.get()) / batches);
+        stats.put("largestBatch", largestBatch);
+        stats.put("lastBatchMillis", lastBatchMillis);
+        return stats;
+    }
+}
@@ -0,0 +1,536 @@
+package com.taxi.service;
+
+import com.taxi.entity.Driver;
+import com.taxi.mapper.DriverMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 司机位置延迟写入缓冲
+ * 位置上报只写入内存，每个司机只保留最新一次位置；后台按固定间隔把有变化的司机
+ * 用一条 UPDATE ... CASE 批量写回数据库。
+ * 缓冲按司机ID分段加锁，每段是以司机ID为键的开放寻址表，坐标和时间以基本类型数组保存。
+ * 写库失败的司机保留脏标记，下一轮重试；应用关闭时做最后一次刷新。
+ * 已写库且超过idle-evict-ms没有新位置的司机、以及下线时已写库的司机从缓冲中移除，缓冲大小跟随活跃司机数。
+ */
+@Component
+public class DriverLocationWriteBehind {
+
+    @Autowired
+    private DriverMapper driverMapper;
+
+    @Value("${taxi.location.write-behind.enabled:true}")
+    private boolean enabled;
+
+    @Value("${taxi.location.write-behind.flush-interval-ms:1000}")
+    private long flushIntervalMs;
+
+    @Value("${taxi.location.write-behind.batch-size:500}")
+    private int batchSize;
+
+    // 未刷新的司机数达到该值时立即触发一次刷新
+    @Value("${taxi.location.write-behind.max-pending:5000}")
+    private int maxPending;
+
+    @Value("${taxi.location.write-behind.stripes:16}")
+    private int stripeCount;
+
+    // 已写库的司机超过该时长没有新位置时移出缓冲
+    @Value("${taxi.location.write-behind.idle-evict-ms:60000}")
+    private long idleEvictMs;
+
+    private Stripe[] stripes;
+    private int stripeMask;
+
+    private ScheduledExecutorService flushScheduler;
+    private final AtomicBoolean flushing = new AtomicBoolean(false);
+    private final AtomicInteger pending = new AtomicInteger();
+
+    // 统计信息
+    private final AtomicLong totalRecorded = new AtomicLong();
+    private final AtomicLong totalCoalesced = new AtomicLong();
+    private final AtomicLong totalFlushedRows = new AtomicLong();
+    private final AtomicLong totalFlushes = new AtomicLong();
+    private final AtomicLong totalFailures = new AtomicLong();
+    private final AtomicLong totalEvicted = new AtomicLong();
+    private volatile long lastFlushTime;
+    private volatile long lastFlushMillis;
+    private volatile long maxStalenessMillis;
+
+    /**
+     * 缓冲分段：以司机ID为键的开放寻址表（ID为0表示空位，司机ID从1开始）
+     */
+    static final class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        long[] keys = new long[64];
+        double[] latitudes = new double[64];
+        double[] longitudes = new double[64];
+        long[] updatedAt = new long[64];
+        // 首次变脏的时间，0表示已刷新
+        long[] dirtySince = new long[64];
+        int size;
+        // 脏条目在表中的位置
+        int[] dirty = new int[16];
+        int dirtyCount;
+
+        int find(long key) {
+            int mask = keys.length - 1;
+            int pos = mix(key) & mask;
+            while (keys[pos] != 0) {
+                if (keys[pos] == key) {
+                    return pos;
+                }
+                pos = (pos + 1) & mask;
+            }
+            return -1 - pos;
+        }
+
+        int insert(long key) {
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+            }
+            int pos = find(key);
+            if (pos >= 0) {
+                return pos;
+            }
+            pos = -1 - pos;
+            keys[pos] = key;
+            size++;
+            return pos;
+        }
+
+        /**
+         * 删除干净条目（脏条目仍在dirty列表中，不能删除）
+         * 线性探测表不能直接置空：把后面探测链上的条目前移填补空位，保证之后的查找不会提前结束
+         */
+        void removeAt(int pos) {
+            int mask = keys.length - 1;
+            int hole = pos;
+            int next = (pos + 1) & mask;
+            while (keys[next] != 0) {
+                int home = mix(keys[next]) & mask;
+                // 起始位置不在 (hole, next] 区间内的条目可以前移到空位
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    move(next, hole);
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            keys[hole] = 0;
+            dirtySince[hole] = 0;
+            size--;
+        }
+
+        /**
+         * 移除已写库且在idleBefore之后没有新位置的条目，返回移除数量
+         * 先收集键再逐个删除，删除时条目会前移
+         */
+        int evictIdle(long idleBefore) {
+            long[] idle = null;
+            int count = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0 && dirtySince[i] == 0 && updatedAt[i] <= idleBefore) {
+                    if (idle == null) {
+                        idle = new long[16];
+                    } else if (count == idle.length) {
+                        long[] grown = new long[count << 1];
+                        System.arraycopy(idle, 0, grown, 0, count);
+                        idle = grown;
+                    }
+                    idle[count++] = keys[i];
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                int pos = find(idle[i]);
+                if (pos >= 0) {
+                    removeAt(pos);
+                }
+            }
+            return count;
+        }
+
+        private void move(int from, int to) {
+            keys[to] = keys[from];
+            latitudes[to] = latitudes[from];
+            longitudes[to] = longitudes[from];
+            updatedAt[to] = updatedAt[from];
+            dirtySince[to] = dirtySince[from];
+            if (dirtySince[from] != 0) {
+                for (int i = 0; i < dirtyCount; i++) {
+                    if (dirty[i] == from) {
+                        dirty[i] = to;
+                        break;
+                    }
+                }
+            }
+        }
+
+        void markDirty(int pos, long since) {
+            if (dirtySince[pos] != 0) {
+                return;
+            }
+            dirtySince[pos] = since;
+            if (dirtyCount == dirty.length) {
+                int[] grown = new int[dirtyCount << 1];
+                System.arraycopy(dirty, 0, grown, 0, dirtyCount);
+                dirty = grown;
+            }
+            dirty[dirtyCount++] = pos;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            double[] oldLatitudes = latitudes;
+            double[] oldLongitudes = longitudes;
+            long[] oldUpdatedAt = updatedAt;
+            long[] oldDirtySince = dirtySince;
+            int capacity = oldKeys.length << 1;
+            keys = new long[capacity];
+            latitudes = new double[capacity];
+            longitudes = new double[capacity];
+            updatedAt = new long[capacity];
+            dirtySince = new long[capacity];
+            dirtyCount = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == 0) {
+                    continue;
+                }
+                int pos = -1 - find(oldKeys[i]);
+                keys[pos] = oldKeys[i];
+                latitudes[pos] = oldLatitudes[i];
+                longitudes[pos] = oldLongitudes[i];
+                updatedAt[pos] = oldUpdatedAt[i];
+                if (oldDirtySince[i] != 0) {
+                    markDirty(pos, oldDirtySince[i]);
+                }
+            }
+        }
+
+        static int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    /**
+     * 一批待写库的位置
+     */
+    private static final class Batch {
+        final long[] ids;
+        final double[] latitudes;
+        final double[] longitudes;
+        final long[] updatedAt;
+        final long[] dirtySince;
+        int size;
+
+        Batch(int capacity) {
+            ids = new long[capacity];
+            latitudes = new double[capacity];
+            longitudes = new double[capacity];
+            updatedAt = new long[capacity];
+            dirtySince = new long[capacity];
+        }
+
+        void add(long id, double latitude, double longitude, long updated, long since) {
+            ids[size] = id;
+            latitudes[size] = latitude;
+            longitudes[size] = longitude;
+            updatedAt[size] = updated;
+            dirtySince[size] = since;
+            size++;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        int size = 1;
+        while (size < stripeCount) {
+            size <<= 1;
+        }
+        stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Stripe();
+        }
+        stripeMask = size - 1;
+        if (!enabled) {
+            return;
+        }
+        flushScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "driver-location-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flushScheduler.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        System.out.println("司机位置延迟写入已启用，刷新间隔: " + flushIntervalMs + "ms, 批量: " + batchSize);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (flushScheduler == null) {
+            return;
+        }
+        flushScheduler.shutdown();
+        try {
+            flushScheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 关闭前把剩余位置全部写回
+        flush();
+        System.out.println("司机位置延迟写入已关闭，剩余未写入: " + pending.get());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 记录司机最新位置，等待批量写库
+     * 未启用延迟写入时直接按行更新
+     */
+    public void record(long driverId, BigDecimal latitude, BigDecimal longitude) {
+        record(driverId, latitude.doubleValue(), longitude.doubleValue());
+    }
+
+    public void record(long driverId, double latitude, double longitude) {
+        long now = System.currentTimeMillis();
+        if (!enabled) {
+            driverMapper.batchUpdateLocations(List.of(toDriver(driverId, latitude, longitude, now)));
+            return;
+        }
+        Stripe stripe = stripeOf(driverId);
+        boolean newlyDirty;
+        stripe.lock.lock();
+        try {
+            int pos = stripe.insert(driverId);
+            stripe.latitudes[pos] = latitude;
+            stripe.longitudes[pos] = longitude;
+            stripe.updatedAt[pos] = now;
+            newlyDirty = stripe.dirtySince[pos] == 0;
+            stripe.markDirty(pos, now);
+        } finally {
+            stripe.lock.unlock();
+        }
+        totalRecorded.incrementAndGet();
+        if (!newlyDirty) {
+            totalCoalesced.incrementAndGet();
+        } else if (pending.incrementAndGet() >= maxPending && !flushing.get() && !flushScheduler.isShutdown()) {
+            flushScheduler.execute(this::flush);
+        }
+    }
+
+    /**
+     * 用缓冲中尚未写库的最新位置覆盖司机对象的坐标（整行更新司机前调用，避免写回旧位置）
+     */
+    public void applyPending(Driver driver) {
+        if (!enabled || driver == null || driver.getId() == null) {
+            return;
+        }
+        Stripe stripe = stripeOf(driver.getId());
+        stripe.lock.lock();
+        try {
+            int pos = stripe.find(driver.getId());
+            if (pos >= 0) {
+                driver.setCurrentLatitude(BigDecimal.valueOf(stripe.latitudes[pos]));
+                driver.setCurrentLongitude(BigDecimal.valueOf(stripe.longitudes[pos]));
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * 司机下线：已写库的位置立即移出缓冲；还未写库的位置照常刷新，之后按空闲条目移除
+     */
+    public void forget(long driverId) {
+        if (!enabled) {
+            return;
+        }
+        Stripe stripe = stripeOf(driverId);
+        stripe.lock.lock();
+        try {
+            int pos = stripe.find(driverId);
+            if (pos >= 0 && stripe.dirtySince[pos] == 0) {
+                stripe.removeAt(pos);
+                totalEvicted.incrementAndGet();
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * 把所有有变化的位置写回数据库，并移除长时间没有新位置的已写库条目
+     */
+    public void flush() {
+        if (!flushing.compareAndSet(false, true)) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            // 逐段在锁内取出脏条目并清除标记，写库在锁外进行
+            // 干净条目都已由之前的刷新写库（失败的会重新标脏），在取出本轮脏条目前移除其中的空闲条目
+            long idleBefore = start - idleEvictMs;
+            List<Batch> drainedStripes = new ArrayList<>();
+            int total = 0;
+            for (Stripe stripe : stripes) {
+                stripe.lock.lock();
+                try {
+                    totalEvicted.addAndGet(stripe.evictIdle(idleBefore));
+                    if (stripe.dirtyCount == 0) {
+                        continue;
+                    }
+                    Batch drained = new Batch(stripe.dirtyCount);
+                    for (int i = 0; i < stripe.dirtyCount; i++) {
+                        int pos = stripe.dirty[i];
+                        drained.add(stripe.keys[pos], stripe.latitudes[pos], stripe.longitudes[pos],
+                            stripe.updatedAt[pos], stripe.dirtySince[pos]);
+                        stripe.dirtySince[pos] = 0;
+                    }
+                    stripe.dirtyCount = 0;
+                    drainedStripes.add(drained);
+                    total += drained.size;
+                } finally {
+                    stripe.lock.unlock();
+                }
+            }
+            if (total == 0) {
+                return;
+            }
+            Batch all = new Batch(total);
+            for (Batch drained : drainedStripes) {
+                for (int i = 0; i < drained.size; i++) {
+                    all.add(drained.ids[i], drained.latitudes[i], drained.longitudes[i],
+                        drained.updatedAt[i], drained.dirtySince[i]);
+                }
+            }
+            for (int from = 0; from < all.size; from += batchSize) {
+                write(all, from, Math.min(all.size, from + batchSize));
+            }
+            totalFlushes.incrementAndGet();
+        } catch (Exception e) {
+            System.err.println("刷新司机位置失败: " + e.getMessage());
+        } finally {
+            lastFlushTime = System.currentTimeMillis();
+            lastFlushMillis = lastFlushTime - start;
+            flushing.set(false);
+        }
+    }
+
+    /**
+     * 写入一批位置 [from, to)；失败时把这些司机重新标记为脏，下一轮重试
+     */
+    private void write(Batch batch, int from, int to) {
+        long now = System.currentTimeMillis();
+        long oldest = now;
+        List<Driver> rows = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            rows.add(toDriver(batch.ids[i], batch.latitudes[i], batch.longitudes[i], batch.updatedAt[i]));
+            oldest = Math.min(oldest, batch.dirtySince[i]);
+        }
+        try {
+            driverMapper.batchUpdateLocations(rows);
+            totalFlushedRows.addAndGet(to - from);
+            pending.addAndGet(from - to);
+            maxStalenessMillis = Math.max(maxStalenessMillis, now - oldest);
+        } catch (Exception e) {
+            totalFailures.incrementAndGet();
+            System.err.println("批量写入司机位置失败，" + (to - from) + " 条下一轮重试: " + e.getMessage());
+            requeue(batch, from, to);
+        }
+    }
+
+    /**
+     * 恢复写库失败的司机的脏标记；表中保存的已是最新位置，无需回写坐标
+     */
+    private void requeue(Batch batch, int from, int to) {
+        for (int i = from; i < to; i++) {
+            Stripe stripe = stripeOf(batch.ids[i]);
+            stripe.lock.lock();
+            try {
+                int pos = stripe.find(batch.ids[i]);
+                if (pos < 0) {
+                    continue;
+                }
+                if (stripe.dirtySince[pos] == 0) {
+                    stripe.markDirty(pos, batch.dirtySince[i]);
+                } else {
+                    // 写库期间又收到新位置，已重新计入待刷新，保留更早的变脏时间
+                    stripe.dirtySince[pos] = Math.min(stripe.dirtySince[pos], batch.dirtySince[i]);
+                    pending.decrementAndGet();
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    private Driver toDriver(long driverId, double latitude, double longitude, long updatedAt) {
+        Driver driver = new Driver();
+        driver.setId(driverId);
+        driver.setCurrentLatitude(BigDecimal.valueOf(latitude));
+        driver.setCurrentLongitude(BigDecimal.valueOf(longitude));
+        driver.setUpdatedAt(LocalDateTime.ofInstant(Instant.ofEpochMilli(updatedAt), ZoneId.systemDefault()));
+        return driver;
+    }
+
+    private int tracked() {
+        if (stripes == null) {
+            return 0;
+        }
+        int tracked = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                tracked += stripe.size;
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return tracked;
+    }
+
+    private Stripe stripeOf(long driverId) {
+        return stripes[Stripe.mix(driverId) >>> 16 & stripeMask];
+    }
+
+    /**
+     * 获取延迟写入统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("flushIntervalMs", flushIntervalMs);
+        stats.put("pending", pending.get());
+        stats.put("totalRecorded", totalRecorded.get());
+        stats.put("totalCoalesced", totalCoalesced.get());
+        stats.put("totalFlushedRows", totalFlushedRows.get());
+        stats.put("totalFlushes", totalFlushes.get());
+        stats.put("totalFailures", totalFailures.get());
+        stats.put("totalEvicted", totalEvicted.get());
+        stats.put("tracked", tracked());
+        stats.put("lastFlushTime", lastFlushTime);
+        stats.put("lastFlushMillis", lastFlushMillis);
+        stats.put("maxStalenessMillis", maxStalenessMillis);
+        return stats;
+    }
+}
@@ -1,222 +1,150 @@
 package com.taxi.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.taxi.dto.OrderNotificationDto;
+import com.taxi.dto.DriverOfferMessage;
+import com.taxi.util.TypedMessageConverter;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.annotation.RabbitListenerConfigurer;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerEndpoint;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistrar;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 /**
  * 司机通知消费者
- * 处理发送给司机的通知消息
+ * 处理发送给司机的通知消息。每个地理分区队列注册一个独立的监听容器，并发数按分区配置，
+ * 各分区互不阻塞；旧的单一通知队列保留一个监听，用于消费切换前的存量消息。
+ * 分区队列的消息统一解码为DriverOfferMessage，类型未知的消息在转换器中直接拒绝；
+ * 旧队列还可能有切换前OrderDispatchService发送的HashMap通知（__TypeId__=java.util.HashMap），按字段转换为DriverOfferMessage；
+ * 以及DriverListenerService发送的纯文本通知（"司机{ID}，您有新订单：{订单号}"），单独按文本处理。
  */
 @Component
-public class DriverNotificationConsumer {
+public class DriverNotificationConsumer implements RabbitListenerConfigurer {
+
+    @Autowired
+    private MessageConverter messageConverter;
+
+    @Autowired
+    private DriverNotificationRouter driverNotificationRouter;
 
     @Autowired
     private ObjectMapper objectMapper;
 
-    @RabbitListener(queues = "driver_notification_queue")
-    public void handleDriverNotification(java.util.Map<String, Object> notification) {
-        System.out.println("=== 司机通知 ===");
-        System.out.println("收到Map通知，内容: " + notification);
-        
-        try {
-            // 直接处理Map类型的通知
-            handleMapNotification(notification);
-            
-        } catch (Exception e) {
-            System.err.println("处理司机通知失败: " + e.getMessage());
-            e.printStackTrace();
+    // 每个分区队列的消费者数（最小-最大）
+    @Value("${taxi.notification.concurrency:1-4}")
+    private String partitionConcurrency;
+
+    // 旧版纯文本通知的格式
+    private static final Pattern LEGACY_TEXT = Pattern.compile("^司机(\\d+)，您有新订单：(.*)$");
+
+    @Override
+    public void configureRabbitListeners(RabbitListenerEndpointRegistrar registrar) {
+        for (String queueName : driverNotificationRouter.queueNames()) {
+            SimpleRabbitListenerEndpoint endpoint = new SimpleRabbitListenerEndpoint();
+            endpoint.setId("driver-notification-" + queueName);
+            endpoint.setQueueNames(queueName);
+            endpoint.setConcurrency(partitionConcurrency);
+            endpoint.setMessageListener(message -> {
+                Object payload = messageConverter.fromMessage(message);
+                if (!(payload instanceof DriverOfferMessage)) {
+                    throw new MessageConversionException("司机通知队列收到非DriverOfferMessage消息: "
+                        + (payload == null ? "null" : payload.getClass().getName()));
+                }
+                handleDriverOffer((DriverOfferMessage) payload);
+            });
+            registrar.registerEndpoint(endpoint);
         }
     }
-    
+
     /**
-     * 处理JSON内容
+     * 旧通知队列的存量消息
+     * 带类型头的按类型解码；没有类型头的是切换前的旧格式：text/plain直接取文本，JSON交给默认转换器按__TypeId__解码，
+     * 得到的HashMap按字段名转换为DriverOfferMessage，字符串按旧文本格式处理
      */
-    private void handleJsonContent(String jsonContent) {
-        try {
-            // 尝试解析为OrderNotificationDto
-            OrderNotificationDto orderNotification = objectMapper.readValue(jsonContent, OrderNotificationDto.class);
-            handleOrderNotification(orderNotification);
-            
-        } catch (Exception e) {
-            System.err.println("解析JSON为OrderNotificationDto失败: " + e.getMessage());
-            
-            // 尝试解析为通用Map
-            try {
-                @SuppressWarnings("unchecked")
-                java.util.Map<String, Object> messageMap = objectMapper.readValue(jsonContent, java.util.Map.class);
-                handleMapNotification(messageMap);
-                
-            } catch (Exception ex) {
-                System.err.println("解析JSON为Map也失败: " + ex.getMessage());
-                System.err.println("原始JSON内容: " + jsonContent);
-                
-                // 作为字符串处理
-                handleStringNotification(jsonContent);
-            }
+    @RabbitListener(queues = "driver_notification_queue")
+    public void handleLegacyNotification(Message message) {
+        MessageProperties properties = message.getMessageProperties();
+        Object payload;
+        if (properties.getHeader(TypedMessageConverter.TYPE_HEADER) == null
+                && MessageProperties.CONTENT_TYPE_TEXT_PLAIN.equals(properties.getContentType())) {
+            payload = new String(message.getBody(), StandardCharsets.UTF_8);
+        } else {
+            payload = messageConverter.fromMessage(message);
         }
-    }
-    
-    /**
-     * 处理Map类型的通知
-     */
-    private void handleMapNotification(java.util.Map<String, Object> messageMap) {
-        System.out.println("=== 处理Map通知 ===");
-        System.out.println("消息内容: " + messageMap);
-        
-        // 尝试提取订单信息
-        Object orderIdObj = messageMap.get("orderId");
-        Object orderNumberObj = messageMap.get("orderNumber");
-        Object driverIdObj = messageMap.get("driverId");
-        
-        if (orderIdObj != null && driverIdObj != null) {
-            System.out.println("检测到订单通知:");
-            System.out.println("  订单ID: " + orderIdObj);
-            System.out.println("  订单号: " + orderNumberObj);
-            System.out.println("  司机ID: " + driverIdObj);
-            System.out.println("  上车地址: " + messageMap.get("pickupAddress"));
-            System.out.println("  目的地: " + messageMap.get("destinationAddress"));
-            System.out.println("  距离: " + messageMap.get("distance"));
-            System.out.println("  预估费用: " + messageMap.get("estimatedFare"));
-            
-            // 构建通知消息
-            String message = String.format(
-                "新订单通知：从%s到%s",
-                messageMap.get("pickupAddress"),
-                messageMap.get("destinationAddress")
-            );
-            
-            System.out.println("通知消息: " + message);
-            
-            // 发送通知
-            Long driverId = Long.valueOf(driverIdObj.toString());
-            sendNotificationToDriverSimple(driverId, message, messageMap);
+        if (payload instanceof DriverOfferMessage) {
+            handleDriverOffer((DriverOfferMessage) payload);
+        } else if (payload instanceof Map) {
+            handleDriverOffer(fromLegacyMap((Map<?, ?>) payload));
+        } else if (payload instanceof String) {
+            handleLegacyText((String) payload);
         } else {
-            handleGenericNotification(messageMap);
+            throw new MessageConversionException("旧司机通知队列收到无法识别的消息: "
+                + (payload == null ? "null" : payload.getClass().getName()));
         }
     }
-    
+
     /**
-     * 发送简单通知给司机
+     * 旧版HashMap通知的字段名与DriverOfferMessage一致，预约时间是JavaTimeModule写出的数组格式
      */
-    private void sendNotificationToDriverSimple(Long driverId, String message, java.util.Map<String, Object> orderInfo) {
-        System.out.println("=== 发送通知给司机 " + driverId + " ===");
-        System.out.println("消息: " + message);
-        System.out.println("订单信息: " + orderInfo);
-        System.out.println("通知发送完成");
+    private DriverOfferMessage fromLegacyMap(Map<?, ?> legacy) {
+        try {
+            return objectMapper.convertValue(legacy, DriverOfferMessage.class);
+        } catch (IllegalArgumentException e) {
+            throw new MessageConversionException("旧格式司机通知转换失败: " + legacy, e);
+        }
     }
-    
+
     /**
-     * 处理字符串类型的通知
+     * 处理旧版纯文本通知，只有司机ID和订单号
      */
-    private void handleStringNotification(String notification) {
-        System.out.println("处理字符串通知: " + notification);
-        
-        // 这里可以集成：
-        // 1. WebSocket推送给司机端
-        // 2. 短信通知
-        // 3. App推送通知
-        // 4. 邮件通知等
+    void handleLegacyText(String text) {
+        Matcher matcher = LEGACY_TEXT.matcher(text);
+        if (!matcher.matches()) {
+            System.out.println("无法识别的旧格式司机通知，忽略: " + text);
+            return;
+        }
+        System.out.println("=== 发送通知给司机 " + matcher.group(1) + " ===");
+        System.out.println("订单: " + matcher.group(2) + "（旧格式通知）");
     }
-    
+
     /**
-     * 处理对象类型的通知（如订单分配）
+     * 处理司机新订单通知
      */
-    private void handleObjectNotification(Object notification) {
-        System.out.println("处理对象通知: " + notification);
-        
+    public void handleDriverOffer(DriverOfferMessage offer) {
         try {
-            // 尝试将对象转换为JSON字符串，然后解析为OrderNotificationDto
-            String jsonString;
-            if (notification instanceof String) {
-                jsonString = (String) notification;
-            } else {
-                jsonString = objectMapper.writeValueAsString(notification);
+            if (offer.driverId() == null || offer.orderId() == null) {
+                System.out.println("司机通知缺少司机或订单信息，忽略: " + offer);
+                return;
             }
-            
-            System.out.println("JSON字符串: " + jsonString);
-            
-            // 尝试解析为订单通知DTO
-            OrderNotificationDto orderNotification = objectMapper.readValue(jsonString, OrderNotificationDto.class);
-            handleOrderNotification(orderNotification);
-            
+
+            // 构建通知消息
+            String message = String.format(
+                "新订单通知：从%s到%s",
+                offer.pickupAddress(),
+                offer.destinationAddress()
+            );
+
+            System.out.println("=== 发送通知给司机 " + offer.driverId() + " ===");
+            System.out.println("订单: " + offer.orderNumber() + " (" + offer.orderId() + "), " + message
+                + ", 距离: " + offer.distance() + ", 预估费用: " + offer.estimatedFare());
+
+            // 这里可以集成多种通知方式：
+            // 1. WebSocket实时推送（派单时已直接推送，此处为备用通道）
+            // 2. 短信通知（紧急情况）
+            // 3. App推送通知
         } catch (Exception e) {
-            System.err.println("解析订单通知失败: " + e.getMessage());
-            System.err.println("原始通知内容: " + notification);
-            
-            // 如果解析失败，作为普通通知处理
-            handleGenericNotification(notification);
+            System.err.println("处理司机通知失败: " + e.getMessage());
+            e.printStackTrace();
         }
     }
-    
-    /**
-     * 处理订单通知
-     */
-    private void handleOrderNotification(OrderNotificationDto orderNotification) {
-        System.out.println("=== 处理订单通知 ===");
-        System.out.println("订单ID: " + orderNotification.getOrderId());
-        System.out.println("订单号: " + orderNotification.getOrderNumber());
-        System.out.println("司机ID: " + orderNotification.getDriverId());
-        System.out.println("上车地址: " + orderNotification.getPickupAddress());
-        System.out.println("目的地: " + orderNotification.getDestinationAddress());
-        System.out.println("距离: " + orderNotification.getDistance() + "公里");
-        System.out.println("预估费用: " + orderNotification.getEstimatedFare());
-        
-        // 这里可以实现具体的通知逻辑：
-        // 1. 通过WebSocket推送给司机端
-        // 2. 发送短信通知
-        // 3. App推送通知
-        // 4. 更新司机端界面等
-        
-        // 示例：构建通知消息
-        String message = String.format(
-            "新订单通知：从%s到%s，距离%.1f公里，预估费用%.2f元",
-            orderNotification.getPickupAddress(),
-            orderNotification.getDestinationAddress(),
-            orderNotification.getDistance(),
-            orderNotification.getEstimatedFare()
-        );
-        
-        System.out.println("通知消息: " + message);
-        
-        // TODO: 实现实际的通知发送逻辑
-        sendNotificationToDriver(orderNotification.getDriverId(), message, orderNotification);
-    }
-    
-    /**
-     * 处理通用通知
-     */
-    private void handleGenericNotification(Object notification) {
-        System.out.println("=== 处理通用通知 ===");
-        System.out.println("通知内容: " + notification);
-        
-        // 对于无法解析的通知，进行基本处理
-        // TODO: 实现通用通知处理逻辑
-    }
-    
-    /**
-     * 发送通知给司机
-     */
-    private void sendNotificationToDriver(Long driverId, String message, OrderNotificationDto orderNotification) {
-        System.out.println("=== 发送通知给司机 " + driverId + " ===");
-        System.out.println("消息: " + message);
-        
-        // 这里可以集成多种通知方式：
-        
-        // 1. WebSocket实时推送
-        // webSocketService.sendToDriver(driverId, message, orderNotification);
-        
-        // 2. 短信通知（紧急情况）
-        // smsService.sendOrderNotification(driverId, message);
-        
-        // 3. App推送通知
-        // pushNotificationService.sendToDriver(driverId, "新订单", message);
-        
-        // 4. 邮件通知（备用）
-        // emailService.sendOrderNotification(driverId, orderNotification);
-        
-        System.out.println("通知发送完成");
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,110 @@
+package com.taxi.service;
+
+import com.taxi.config.RabbitConfig;
+import com.taxi.dto.DriverOfferMessage;
+import com.taxi.util.GeoGridUtil;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 司机通知按地理分区路由
+ * 按上车点所在网格计算路由键 driver.offer.{分区}.{网格}，网格哈希到固定数量的分区，
+ * 每个分区一个队列、各自的消费者，热点区域的积压不会拖慢其他区域的通知。
+ * 没有上车点的通知按司机ID分区。
+ */
+@Component
+public class DriverNotificationRouter {
+
+    @Autowired
+    private RabbitPublisher rabbitPublisher;
+
+    @Value("${taxi.notification.exchange:" + RabbitConfig.DEFAULT_DRIVER_NOTIFICATION_EXCHANGE + "}")
+    private String exchange;
+
+    @Value("${taxi.notification.partitions:8}")
+    private int partitions;
+
+    @Value("${taxi.notification.cell-size-degrees:0.05}")
+    private double cellSizeDegrees;
+
+    // 各分区已发送数
+    private AtomicLongArray published;
+
+    @PostConstruct
+    public void init() {
+        if (partitions <= 0) {
+            throw new IllegalStateException("taxi.notification.partitions必须大于0");
+        }
+        published = new AtomicLongArray(partitions);
+    }
+
+    /**
+     * 发送司机通知到上车点所在分区
+     */
+    public void send(DriverOfferMessage message, BigDecimal pickupLat, BigDecimal pickupLng) {
+        int partition = partitionOf(pickupLat, pickupLng, message.driverId());
+        String routingKey = RabbitConfig.DRIVER_NOTIFICATION_ROUTING_PREFIX + partition + "." + cellLabel(pickupLat, pickupLng);
+        rabbitPublisher.publish(exchange, routingKey, message);
+        published.incrementAndGet(partition);
+    }
+
+    /**
+     * 计算分区：有上车点时按网格，否则按司机ID
+     */
+    int partitionOf(BigDecimal pickupLat, BigDecimal pickupLng, Long driverId) {
+        long key;
+        if (pickupLat != null && pickupLng != null) {
+            key = GeoGridUtil.cellKey(pickupLat.doubleValue(), pickupLng.doubleValue(), cellSizeDegrees);
+        } else {
+            key = driverId != null ? driverId : 0L;
+        }
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) ((h >>> 32) % partitions);
+    }
+
+    private String cellLabel(BigDecimal pickupLat, BigDecimal pickupLng) {
+        if (pickupLat == null || pickupLng == null) {
+            return "none";
+        }
+        return GeoGridUtil.latIndex(pickupLat.doubleValue(), cellSizeDegrees) + "_"
+            + GeoGridUtil.lngIndex(pickupLng.doubleValue(), cellSizeDegrees);
+    }
+
+    /**
+     * 所有分区队列名，供消费者注册
+     */
+    public String[] queueNames() {
+        String[] names = new String[partitions];
+        for (int i = 0; i < partitions; i++) {
+            names[i] = RabbitConfig.driverNotificationQueueName(i);
+        }
+        return names;
+    }
+
+    /**
+     * 获取各分区发送统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Long> perPartition = new HashMap<>();
+        long total = 0;
+        for (int i = 0; i < partitions; i++) {
+            long n = published.get(i);
+            perPartition.put(RabbitConfig.driverNotificationQueueName(i), n);
+            total += n;
+        }
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("exchange", exchange);
+        stats.put("partitions", partitions);
+        stats.put("cellSizeDegrees", cellSizeDegrees);
+        stats.put("totalPublished", total);
+        stats.put("publishedByQueue", perPartition);
+        return stats;
+    }
+}
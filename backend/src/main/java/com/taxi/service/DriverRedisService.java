@@ -1,12 +1,22 @@
 package com.taxi.service;
 
 import com.taxi.entity.Driver;
+import com.taxi.util.DriverLocationFrame;
+import com.taxi.util.GeoGridUtil;
+import com.taxi.util.RedisScriptUtil;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -19,11 +29,192 @@ public class DriverRedisService {
     @Autowired
     private RedisTemplate<String, Object> redisTemplate;
 
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private TripBindingCache tripBindingCache;
+
+    @Autowired
+    private DriverGeoIndex driverGeoIndex;
+    
+    @Autowired
+    private SupplyDemandHeatmap supplyDemandHeatmap;
+
+    @Autowired
+    private DriverLocationSink driverLocationSink;
+
+    // 内存索引查询为空时是否回退到Redis
+    @Value("${taxi.dispatch.geo-index.redis-fallback:true}")
+    private boolean geoIndexRedisFallback;
+
+    // 是否使用Lua脚本一次往返获取附近司机
+    @Value("${taxi.dispatch.lua-candidate-fetch:true}")
+    private boolean luaCandidateFetchEnabled;
+
+    // Redis是否支持GEOSEARCH（首次执行失败后置为false）
+    private volatile boolean luaCandidateFetchSupported = true;
+
     // Redis key前缀
-    private static final String DRIVER_GEO_KEY = "driver_geo"; // GEO地理位置
-    private static final String DRIVER_STATUS_KEY = "driver_status:"; // 司机状态 Hash
-    private static final String ORDER_LOCK_KEY = "order_lock:"; // 订单分布式锁
-    private static final String DRIVER_INFO_KEY = "driver_info:"; // 司机详细信息
+    static final String DRIVER_GEO_KEY = "driver_geo"; // GEO地理位置
+    static final String DRIVER_GEO_FREE_KEY = "driver_geo_free"; // 在线空闲司机GEO位置（附近查询只搜索该集合）
+    static final String DRIVER_HOT_KEY = "driver_hot:"; // 司机可变状态 Hash（纯字符串字段）
+    static final String DRIVER_INFO_KEY = "driver_info:"; // 司机静态资料（只在上线时写入）
+
+    // 旧版本的状态和当前订单key，仅在启动重建时迁移
+    private static final String LEGACY_DRIVER_STATUS_KEY = "driver_status:";
+    private static final String LEGACY_DRIVER_CURRENT_ORDER_KEY = "driver_current_order:";
+
+    // 司机可变状态字段：online/busy为"1"/"0"，坐标为十进制字符串，heading为百分之一度
+    static final String HOT_ONLINE = "online";
+    static final String HOT_BUSY = "busy";
+    static final String HOT_LATITUDE = "lat";
+    static final String HOT_LONGITUDE = "lng";
+    static final String HOT_HEADING = "heading";
+    static final String HOT_LAST_UPDATE = "lastUpdate";
+    static final String HOT_CURRENT_ORDER = "currentOrder";
+
+    private static final long DRIVER_HOT_TTL_HOURS = 24;
+
+    // 司机静态资料缓存时间（资料不随位置变化，可以缓存较长时间）
+    @Value("${taxi.driver.profile-ttl-hours:72}")
+    private long profileTtlHours;
+
+    // 附近司机查询的最大返回数量
+    private static final int NEARBY_DRIVER_LIMIT = 50;
+
+    // Lua附近查询的起始半径，候选不足时逐步翻倍直到查询半径
+    @Value("${taxi.dispatch.nearby-search.initial-radius-km:1.0}")
+    private double nearbyInitialRadiusKm;
+
+    /**
+     * 接单时占用司机：在线且空闲则标记忙碌并写入当前订单、刷新过期时间，同时移出空闲司机GEO集合；
+     * 不在线（可变状态不存在或online不为1）的司机不能占用，不会重建没有online和坐标的可变状态
+     * KEYS[1]=司机可变状态 KEYS[2]=空闲司机GEO ARGV[1]=时间戳 ARGV[2]=订单ID ARGV[3]=GEO成员 ARGV[4]=过期秒数
+     */
+    private static final RedisScript<Long> CLAIM_DRIVER_SCRIPT = new DefaultRedisScript<>(
+        "local status = redis.call('HMGET', KEYS[1], 'online', 'busy') " +
+        "if status[1] ~= '1' or status[2] == '1' then return 0 end " +
+        "redis.call('HSET', KEYS[1], 'busy', '1', 'lastUpdate', ARGV[1], 'currentOrder', ARGV[2]) " +
+        "redis.call('EXPIRE', KEYS[1], ARGV[4]) " +
+        "redis.call('ZREM', KEYS[2], ARGV[3]) " +
+        "return 1",
+        Long.class
+    );
+
+    /**
+     * 回滚司机占用：当前订单仍为该订单时恢复空闲、清除当前订单、刷新过期时间，并按最新位置放回空闲司机GEO集合
+     * KEYS[1]=司机可变状态 KEYS[2]=司机GEO KEYS[3]=空闲司机GEO ARGV[1]=时间戳 ARGV[2]=订单ID ARGV[3]=GEO成员
+     * ARGV[4]=过期秒数
+     */
+    private static final RedisScript<Long> RELEASE_DRIVER_SCRIPT = new DefaultRedisScript<>(
+        "if redis.call('HGET', KEYS[1], 'currentOrder') ~= ARGV[2] then return 0 end " +
+        "redis.call('HSET', KEYS[1], 'busy', '0', 'lastUpdate', ARGV[1]) " +
+        "redis.call('EXPIRE', KEYS[1], ARGV[4]) " +
+        "redis.call('HDEL', KEYS[1], 'currentOrder') " +
+        "local pos = redis.call('GEOPOS', KEYS[2], ARGV[3])[1] " +
+        "if pos then redis.call('GEOADD', KEYS[3], pos[1], pos[2], ARGV[3]) end " +
+        "return 1",
+        Long.class
+    );
+
+    /**
+     * 司机恢复空闲：清除当前订单；仅当可变状态存在且online为1时写入busy=0，并按司机GEO中的最新位置加入空闲司机GEO集合，
+     * 已下线（可变状态已删除或过期）的司机不重建只有busy字段、没有online和坐标的可变状态
+     * KEYS[1]=司机可变状态 KEYS[2]=司机GEO KEYS[3]=空闲司机GEO ARGV[1]=时间戳 ARGV[2]=GEO成员 ARGV[3]=过期秒数
+     * 返回：1=已加入空闲集合 0=在线但没有位置 -1=不在线
+     */
+    private static final RedisScript<Long> MARK_DRIVER_FREE_SCRIPT = new DefaultRedisScript<>(
+        "redis.call('HDEL', KEYS[1], 'currentOrder') " +
+        "if redis.call('HGET', KEYS[1], 'online') ~= '1' then return -1 end " +
+        "redis.call('HSET', KEYS[1], 'busy', '0', 'lastUpdate', ARGV[1]) " +
+        "redis.call('EXPIRE', KEYS[1], ARGV[3]) " +
+        "local pos = redis.call('GEOPOS', KEYS[2], ARGV[2])[1] " +
+        "if not pos then return 0 end " +
+        "redis.call('GEOADD', KEYS[3], pos[1], pos[2], ARGV[2]) " +
+        "return 1",
+        Long.class
+    );
+
+    /**
+     * 司机标记为忙碌：移出空闲司机GEO集合；仅当可变状态存在且online为1时写入busy=1并刷新过期时间，
+     * 已下线的司机不重建只有busy字段、没有过期时间的可变状态
+     * KEYS[1]=司机可变状态 KEYS[2]=空闲司机GEO ARGV[1]=时间戳 ARGV[2]=GEO成员 ARGV[3]=过期秒数
+     * 返回：1=已标记忙碌 -1=不在线
+     */
+    private static final RedisScript<Long> MARK_DRIVER_BUSY_SCRIPT = new DefaultRedisScript<>(
+        "redis.call('ZREM', KEYS[2], ARGV[2]) " +
+        "if redis.call('HGET', KEYS[1], 'online') ~= '1' then return -1 end " +
+        "redis.call('HSET', KEYS[1], 'busy', '1', 'lastUpdate', ARGV[1]) " +
+        "redis.call('EXPIRE', KEYS[1], ARGV[3]) " +
+        "return 1",
+        Long.class
+    );
+
+    /**
+     * 更新司机位置：在线司机写入司机GEO和可变状态中的坐标、朝向并刷新过期时间，空闲的同时写入空闲司机GEO集合，否则从中移除；
+     * 不在线（可变状态不存在或online不为1）的司机不写入任何位置，避免下线后迟到的位置把司机重新加回GEO
+     * 并留下没有过期时间的可变状态
+     * KEYS[1]=司机GEO KEYS[2]=空闲司机GEO KEYS[3]=司机可变状态
+     * ARGV[1]=经度 ARGV[2]=纬度 ARGV[3]=GEO成员 ARGV[4]=时间戳 ARGV[5]=朝向（未知时为空字符串） ARGV[6]=过期秒数
+     * 返回：1=在线空闲 0=在线忙碌 -1=不在线
+     */
+    private static final RedisScript<Long> UPDATE_LOCATION_SCRIPT = new DefaultRedisScript<>(
+        "local status = redis.call('HMGET', KEYS[3], 'online', 'busy') " +
+        "if status[1] ~= '1' then " +
+        "  redis.call('ZREM', KEYS[1], ARGV[3]) " +
+        "  redis.call('ZREM', KEYS[2], ARGV[3]) " +
+        "  return -1 " +
+        "end " +
+        "redis.call('GEOADD', KEYS[1], ARGV[1], ARGV[2], ARGV[3]) " +
+        "redis.call('HSET', KEYS[3], 'lat', ARGV[2], 'lng', ARGV[1], 'lastUpdate', ARGV[4]) " +
+        "if ARGV[5] ~= '' then redis.call('HSET', KEYS[3], 'heading', ARGV[5]) end " +
+        "redis.call('EXPIRE', KEYS[3], ARGV[6]) " +
+        "if status[2] ~= '1' then " +
+        "  redis.call('GEOADD', KEYS[2], ARGV[1], ARGV[2], ARGV[3]) " +
+        "  return 1 " +
+        "end " +
+        "redis.call('ZREM', KEYS[2], ARGV[3]) " +
+        "return 0",
+        Long.class
+    );
+
+    /**
+     * 附近候选司机查询脚本
+     * 在空闲司机GEO集合中从起始半径开始搜索，不足ARGV[4]个时半径翻倍，直到凑满或达到查询半径；
+     * 集合中只有空闲司机，状态过滤只用于兜底。
+     * GEO成员由Jackson序列化为带引号的字符串；可变状态字段为纯字符串，online/busy为"1"/"0"
+     * 注意：脚本内访问了未声明在KEYS中的状态和资料key，仅适用于单节点/主从Redis
+     * KEYS[1]=空闲司机GEO ARGV[1]=经度 ARGV[2]=纬度 ARGV[3]=查询半径 ARGV[4]=数量
+     * ARGV[5]=可变状态key前缀 ARGV[6]=资料key前缀 ARGV[7]=起始半径
+     */
+    private static final RedisScript<List<String>> NEARBY_CANDIDATES_SCRIPT = RedisScriptUtil.listScript(
+        "local maxRadius = tonumber(ARGV[3]) " +
+        "local limit = tonumber(ARGV[4]) " +
+        "local radius = math.min(maxRadius, tonumber(ARGV[7])) " +
+        "local hits " +
+        "while true do " +
+        "  hits = redis.call('GEOSEARCH', KEYS[1], 'FROMLONLAT', ARGV[1], ARGV[2], " +
+        "    'BYRADIUS', radius, 'km', 'ASC', 'COUNT', limit, 'WITHCOORD') " +
+        "  if #hits >= limit or radius >= maxRadius then break end " +
+        "  radius = math.min(maxRadius, radius * 2) " +
+        "end " +
+        "local result = {} " +
+        "for _, hit in ipairs(hits) do " +
+        "  local id = (string.gsub(hit[1], '\"', '')) " +
+        "  local status = redis.call('HMGET', ARGV[5] .. id, 'online', 'busy') " +
+        "  if status[1] == '1' and status[2] ~= '1' then " +
+        "    local info = redis.call('GET', ARGV[6] .. id) " +
+        "    if info then " +
+        "      result[#result + 1] = id " +
+        "      result[#result + 1] = hit[2][1] " +
+        "      result[#result + 1] = hit[2][2] " +
+        "      result[#result + 1] = info " +
+        "    end " +
+        "  end " +
+        "end " +
+        "return result"
+    );
 
     /**
      * 司机上线，加入Redis缓存
@@ -32,6 +223,10 @@ public class DriverRedisService {
         try {
             Long driverId = driver.getId();
             
+            // 修正并通过范围校验后的坐标，同时用于GEO和可变状态；无有效坐标时为null
+            BigDecimal hotLatitude = null;
+            BigDecimal hotLongitude = null;
+
             // 1. 使用Redis GEO添加司机位置
             if (driver.getCurrentLatitude() != null && driver.getCurrentLongitude() != null) {
                 double storedLatitude = driver.getCurrentLatitude().doubleValue();
@@ -58,40 +253,58 @@ public class DriverRedisService {
                 
                 System.out.println("  传给Redis的Point(经度, 纬度): (" + longitude + ", " + latitude + ")");
                 
-                // 验证坐标范围
+                // 验证坐标范围，超出范围时不写入位置，资料和在线状态照常写入
                 if (longitude < -180 || longitude > 180) {
                     System.err.println("❌ 经度超出范围: " + longitude + " (应该在-180到180之间)");
-                    return;
-                }
-                if (latitude < -85.05112878 || latitude > 85.05112878) {
+                } else if (latitude < -85.05112878 || latitude > 85.05112878) {
                     System.err.println("❌ 纬度超出范围: " + latitude + " (应该在-85到85之间)");
-                    return;
+                } else {
+                    hotLatitude = BigDecimal.valueOf(latitude);
+                    hotLongitude = BigDecimal.valueOf(longitude);
                 }
-                
+            }
+
+            if (hotLatitude != null) {
+                double latitude = hotLatitude.doubleValue();
+                double longitude = hotLongitude.doubleValue();
                 redisTemplate.opsForGeo().add(
                     DRIVER_GEO_KEY,
                     new org.springframework.data.geo.Point(longitude, latitude),
                     driverId.toString()
                 );
+                // 上线时为空闲状态，同时加入空闲司机集合
+                redisTemplate.opsForGeo().add(
+                    DRIVER_GEO_FREE_KEY,
+                    new org.springframework.data.geo.Point(longitude, latitude),
+                    driverId.toString()
+                );
                 
                 System.out.println("✅ Redis GEO 存储成功");
+
+                // 同步写入内存网格索引
+                driverGeoIndex.driverOnline(driver, latitude, longitude);
+                supplyDemandHeatmap.driverOnline(driverId, latitude, longitude);
             }
             
-            // 2. 存储司机详细信息
+            // 2. 存储司机静态资料（位置等可变状态不再写入资料）
             redisTemplate.opsForValue().set(
                 DRIVER_INFO_KEY + driverId, 
                 driver, 
-                24, TimeUnit.HOURS
+                profileTtlHours, TimeUnit.HOURS
             );
             
-            // 3. 设置司机状态为在线且空闲
-            Map<String, Object> status = new HashMap<>();
-            status.put("online", true);
-            status.put("busy", false);
-            status.put("lastUpdate", System.currentTimeMillis());
+            // 3. 设置司机可变状态为在线且空闲
+            Map<String, String> hot = new HashMap<>();
+            hot.put(HOT_ONLINE, "1");
+            hot.put(HOT_BUSY, "0");
+            hot.put(HOT_LAST_UPDATE, String.valueOf(System.currentTimeMillis()));
+            if (hotLatitude != null) {
+                hot.put(HOT_LATITUDE, hotLatitude.toPlainString());
+                hot.put(HOT_LONGITUDE, hotLongitude.toPlainString());
+            }
             
-            redisTemplate.opsForHash().putAll(DRIVER_STATUS_KEY + driverId, status);
-            redisTemplate.expire(DRIVER_STATUS_KEY + driverId, 24, TimeUnit.HOURS);
+            stringRedisTemplate.opsForHash().putAll(DRIVER_HOT_KEY + driverId, hot);
+            stringRedisTemplate.expire(DRIVER_HOT_KEY + driverId, DRIVER_HOT_TTL_HOURS, TimeUnit.HOURS);
             
             System.out.println("司机 " + driverId + " 已上线并加入GEO索引");
             
@@ -108,12 +321,17 @@ public class DriverRedisService {
         try {
             // 1. 从GEO索引中移除司机位置
             redisTemplate.opsForGeo().remove(DRIVER_GEO_KEY, driverId.toString());
+            redisTemplate.opsForGeo().remove(DRIVER_GEO_FREE_KEY, driverId.toString());
             
             // 2. 删除司机详细信息
             redisTemplate.delete(DRIVER_INFO_KEY + driverId);
             
-            // 3. 删除司机状态信息
-            redisTemplate.delete(DRIVER_STATUS_KEY + driverId);
+            // 3. 删除司机可变状态
+            stringRedisTemplate.delete(DRIVER_HOT_KEY + driverId);
+            
+            // 4. 从内存网格索引移除
+            driverGeoIndex.driverOffline(driverId);
+            supplyDemandHeatmap.driverOffline(driverId);
             
             System.out.println("司机 " + driverId + " 已从在线缓存移除");
             
@@ -123,33 +341,59 @@ public class DriverRedisService {
         }
     }
 
+    /**
+     * 提交司机位置更新（位置上报热路径）
+     * 内存索引和热力图立即更新，Redis写入交给批量写入器合并后流水线执行；
+     * 批量写入器未启用或已关闭时退回到单条同步写入
+     */
+    public CompletableFuture<Void> submitDriverLocation(Long driverId, BigDecimal latitude, BigDecimal longitude,
+                                                        int headingCentiDegrees) {
+        if (!GeoGridUtil.isValidGeoCoordinate(latitude.doubleValue(), longitude.doubleValue())) {
+            System.err.println("丢弃超出范围的司机位置 - ID: " + driverId + ", 纬度: " + latitude + ", 经度: " + longitude);
+            return CompletableFuture.failedFuture(new IllegalArgumentException("坐标超出范围: " + latitude + "," + longitude));
+        }
+        CompletableFuture<Void> future = driverLocationSink.submit(driverId, latitude.doubleValue(), longitude.doubleValue(),
+            headingCentiDegrees);
+        if (future == null) {
+            updateDriverLocation(driverId, latitude, longitude, headingCentiDegrees);
+            return CompletableFuture.completedFuture(null);
+        }
+        driverGeoIndex.updateLocation(driverId, latitude.doubleValue(), longitude.doubleValue());
+        supplyDemandHeatmap.driverLocation(driverId, latitude.doubleValue(), longitude.doubleValue());
+        return future;
+    }
+
     /**
      * 更新司机位置
      */
     public void updateDriverLocation(Long driverId, BigDecimal latitude, BigDecimal longitude) {
+        updateDriverLocation(driverId, latitude, longitude, DriverLocationFrame.HEADING_UNKNOWN);
+    }
+
+    /**
+     * 更新司机位置和车头朝向（百分之一度，未知时传 DriverLocationFrame.HEADING_UNKNOWN）
+     */
+    public void updateDriverLocation(Long driverId, BigDecimal latitude, BigDecimal longitude, int headingCentiDegrees) {
         try {
             System.out.println("更新司机位置 - ID: " + driverId + ", 纬度: " + latitude + ", 经度: " + longitude);
-            
-            // 1. 更新GEO位置 (Redis GEO使用 longitude, latitude 顺序)
-            redisTemplate.opsForGeo().add(
-                DRIVER_GEO_KEY,
-                new org.springframework.data.geo.Point(
-                    longitude.doubleValue(),  // 经度在前
-                    latitude.doubleValue()    // 纬度在后
-                ),
-                driverId.toString()
-            );
-            
-            // 2. 更新司机详细信息中的位置
-            Driver driver = (Driver) redisTemplate.opsForValue().get(DRIVER_INFO_KEY + driverId);
-            if (driver != null) {
-                driver.setCurrentLatitude(latitude);
-                driver.setCurrentLongitude(longitude);
-                redisTemplate.opsForValue().set(DRIVER_INFO_KEY + driverId, driver, 24, TimeUnit.HOURS);
+            if (!GeoGridUtil.isValidGeoCoordinate(latitude.doubleValue(), longitude.doubleValue())) {
+                System.err.println("❌ 坐标超出范围，不更新缓存: " + latitude + "," + longitude);
+                return;
             }
             
-            // 3. 更新状态时间戳
-            redisTemplate.opsForHash().put(DRIVER_STATUS_KEY + driverId, "lastUpdate", System.currentTimeMillis());
+            // 更新GEO位置和可变状态中的坐标，空闲司机同步更新空闲集合 (Redis GEO使用 longitude, latitude 顺序)
+            stringRedisTemplate.execute(
+                UPDATE_LOCATION_SCRIPT,
+                Arrays.asList(DRIVER_GEO_KEY, DRIVER_GEO_FREE_KEY, DRIVER_HOT_KEY + driverId),
+                longitude.toPlainString(),  // 经度在前
+                latitude.toPlainString(),   // 纬度在后
+                geoMember(driverId),
+                String.valueOf(System.currentTimeMillis()),
+                headingCentiDegrees == DriverLocationFrame.HEADING_UNKNOWN ? "" : String.valueOf(headingCentiDegrees),
+                hotTtlSeconds()
+            );
+            driverGeoIndex.updateLocation(driverId, latitude.doubleValue(), longitude.doubleValue());
+            supplyDemandHeatmap.driverLocation(driverId, latitude.doubleValue(), longitude.doubleValue());
             
         } catch (Exception e) {
             System.err.println("更新司机位置缓存失败: " + e.getMessage());
@@ -158,9 +402,83 @@ public class DriverRedisService {
     }
 
     /**
-     * 使用Redis GEO获取指定范围内的在线司机
+     * 获取指定范围内的在线空闲司机
+     * 单实例部署时优先查询内存网格索引，索引未就绪或无结果时使用Redis GEO；
+     * 多实例部署时其他实例上线的司机和忙闲变化不会进入本实例索引，始终以Redis空闲司机集合为准
      */
     public List<Driver> getNearbyOnlineDrivers(BigDecimal centerLat, BigDecimal centerLng, double radiusKm) {
+        if (driverGeoIndex.isAuthoritative()) {
+            List<Driver> indexed = driverGeoIndex.findNearbyFreeDrivers(
+                centerLat.doubleValue(), centerLng.doubleValue(), radiusKm, NEARBY_DRIVER_LIMIT);
+            if (!indexed.isEmpty() || !geoIndexRedisFallback) {
+                return indexed;
+            }
+        }
+        return getNearbyOnlineDriversFromRedis(centerLat, centerLng, radiusKm);
+    }
+
+    /**
+     * 使用Redis获取指定范围内的在线司机
+     * 优先用Lua脚本一次往返完成GEO搜索、状态过滤和司机信息读取，Redis不支持GEOSEARCH时回退到逐个查询
+     */
+    public List<Driver> getNearbyOnlineDriversFromRedis(BigDecimal centerLat, BigDecimal centerLng, double radiusKm) {
+        if (luaCandidateFetchEnabled && luaCandidateFetchSupported) {
+            try {
+                return fetchNearbyCandidatesByScript(centerLat.doubleValue(), centerLng.doubleValue(), radiusKm);
+            } catch (Exception e) {
+                String message = String.valueOf(e.getMessage()) + String.valueOf(e.getCause());
+                if (message.contains("unknown command") || message.contains("Unknown Redis command")) {
+                    // Redis版本低于6.2，没有GEOSEARCH命令，之后一直走逐个查询
+                    luaCandidateFetchSupported = false;
+                    System.err.println("Redis不支持GEOSEARCH，附近司机查询回退到逐个查询方式");
+                } else {
+                    System.err.println("Lua脚本查询附近司机失败，本次回退到逐个查询: " + e.getMessage());
+                }
+            }
+        }
+        return getNearbyOnlineDriversLegacy(centerLat, centerLng, radiusKm);
+    }
+
+    /**
+     * 通过Lua脚本一次往返获取附近在线空闲司机
+     * 脚本返回扁平数组：[司机ID, 经度, 纬度, 司机信息JSON, ...]，已按距离升序
+     */
+    private List<Driver> fetchNearbyCandidatesByScript(double centerLat, double centerLng, double radiusKm) {
+        List<String> reply = stringRedisTemplate.execute(
+            NEARBY_CANDIDATES_SCRIPT,
+            Collections.singletonList(DRIVER_GEO_FREE_KEY),
+            String.valueOf(centerLng),
+            String.valueOf(centerLat),
+            String.valueOf(radiusKm),
+            String.valueOf(NEARBY_DRIVER_LIMIT),
+            DRIVER_HOT_KEY,
+            DRIVER_INFO_KEY,
+            String.valueOf(nearbyInitialRadiusKm)
+        );
+
+        List<Driver> nearbyDrivers = new ArrayList<>();
+        if (reply == null) {
+            return nearbyDrivers;
+        }
+        RedisSerializer<?> valueSerializer = redisTemplate.getValueSerializer();
+        for (int i = 0; i + 3 < reply.size(); i += 4) {
+            Object info = valueSerializer.deserialize(reply.get(i + 3).getBytes(StandardCharsets.UTF_8));
+            if (!(info instanceof Driver)) {
+                continue;
+            }
+            Driver driver = (Driver) info;
+            // 使用GEO中的实时坐标
+            driver.setCurrentLongitude(new BigDecimal(reply.get(i + 1)));
+            driver.setCurrentLatitude(new BigDecimal(reply.get(i + 2)));
+            nearbyDrivers.add(driver);
+        }
+        return nearbyDrivers;
+    }
+
+    /**
+     * 使用Redis GEO获取指定范围内的在线司机（逐个读取状态和信息）
+     */
+    public List<Driver> getNearbyOnlineDriversLegacy(BigDecimal centerLat, BigDecimal centerLng, double radiusKm) {
         List<Driver> nearbyDrivers = new ArrayList<>();
         
         try {
@@ -177,10 +495,10 @@ public class DriverRedisService {
                     .includeDistance()
                     .includeCoordinates()
                     .sortAscending()
-                    .limit(50); // 限制最多返回50个司机
+                    .limit(NEARBY_DRIVER_LIMIT); // 限制最多返回50个司机
             
             org.springframework.data.geo.GeoResults<org.springframework.data.redis.connection.RedisGeoCommands.GeoLocation<Object>> results = 
-                redisTemplate.opsForGeo().radius(DRIVER_GEO_KEY, circle, args);
+                redisTemplate.opsForGeo().radius(DRIVER_GEO_FREE_KEY, circle, args);
             
             if (results != null) {
                 for (org.springframework.data.geo.GeoResult<org.springframework.data.redis.connection.RedisGeoCommands.GeoLocation<Object>> result : results) {
@@ -209,12 +527,23 @@ public class DriverRedisService {
     }
 
     /**
-     * 标记司机为忙碌状态
+     * 标记司机为忙碌状态（已下线的司机只移出空闲集合）
      */
     public void markDriverBusy(Long driverId) {
         try {
-            redisTemplate.opsForHash().put(DRIVER_STATUS_KEY + driverId, "busy", true);
-            redisTemplate.opsForHash().put(DRIVER_STATUS_KEY + driverId, "lastUpdate", System.currentTimeMillis());
+            Long result = stringRedisTemplate.execute(
+                MARK_DRIVER_BUSY_SCRIPT,
+                Arrays.asList(DRIVER_HOT_KEY + driverId, DRIVER_GEO_FREE_KEY),
+                String.valueOf(System.currentTimeMillis()),
+                geoMember(driverId),
+                hotTtlSeconds()
+            );
+            if (result != null && result < 0) {
+                System.out.println("司机 " + driverId + " 已下线，不标记忙碌");
+                return;
+            }
+            driverGeoIndex.markBusy(driverId, true);
+            supplyDemandHeatmap.driverBusy(driverId, true);
             System.out.println("司机 " + driverId + " 已标记为忙碌");
         } catch (Exception e) {
             System.err.println("标记司机忙碌失败: " + e.getMessage());
@@ -226,14 +555,26 @@ public class DriverRedisService {
      */
     public void markDriverFree(Long driverId) {
         try {
-            // 设置司机为空闲状态
-            redisTemplate.opsForHash().put(DRIVER_STATUS_KEY + driverId, "busy", false);
-            redisTemplate.opsForHash().put(DRIVER_STATUS_KEY + driverId, "lastUpdate", System.currentTimeMillis());
+            // 设置司机为空闲状态并清除当前订单（已下线的司机只清除当前订单）
+            Long result = stringRedisTemplate.execute(
+                MARK_DRIVER_FREE_SCRIPT,
+                Arrays.asList(DRIVER_HOT_KEY + driverId, DRIVER_GEO_KEY, DRIVER_GEO_FREE_KEY),
+                String.valueOf(System.currentTimeMillis()),
+                geoMember(driverId),
+                hotTtlSeconds()
+            );
+            boolean online = result == null || result >= 0;
+            if (online) {
+                driverGeoIndex.markBusy(driverId, false);
+                supplyDemandHeatmap.driverBusy(driverId, false);
+            }
             
             // 🔧 关键修复：清除司机的当前订单，停止位置推送
-            setDriverCurrentOrder(driverId, null);
+            tripBindingCache.unbind(driverId);
             
-            System.out.println("✅ 司机 " + driverId + " 已标记为空闲，当前订单已清除");
+            System.out.println(online
+                ? "✅ 司机 " + driverId + " 已标记为空闲，当前订单已清除"
+                : "司机 " + driverId + " 已下线，仅清除当前订单");
         } catch (Exception e) {
             System.err.println("❌ 标记司机空闲失败: " + e.getMessage());
         }
@@ -244,8 +585,8 @@ public class DriverRedisService {
      */
     public boolean isDriverBusy(Long driverId) {
         try {
-            Object busy = redisTemplate.opsForHash().get(DRIVER_STATUS_KEY + driverId, "busy");
-            return busy != null && (Boolean) busy;
+            Object busy = stringRedisTemplate.opsForHash().get(DRIVER_HOT_KEY + driverId, HOT_BUSY);
+            return "1".equals(busy);
         } catch (Exception e) {
             System.err.println("检查司机忙碌状态失败: " + e.getMessage());
             return false;
@@ -257,15 +598,9 @@ public class DriverRedisService {
      */
     public boolean isDriverOnlineAndFree(Long driverId) {
         try {
-            Map<Object, Object> status = redisTemplate.opsForHash().entries(DRIVER_STATUS_KEY + driverId);
-            if (status.isEmpty()) {
-                return false;
-            }
-            
-            Boolean online = (Boolean) status.get("online");
-            Boolean busy = (Boolean) status.get("busy");
-            
-            return online != null && online && (busy == null || !busy);
+            List<Object> status = stringRedisTemplate.opsForHash()
+                .multiGet(DRIVER_HOT_KEY + driverId, Arrays.asList(HOT_ONLINE, HOT_BUSY));
+            return "1".equals(status.get(0)) && !"1".equals(status.get(1));
         } catch (Exception e) {
             System.err.println("检查司机在线状态失败: " + e.getMessage());
             return false;
@@ -273,11 +608,20 @@ public class DriverRedisService {
     }
 
     /**
-     * 获取司机详细信息
+     * 获取司机详细信息（静态资料 + 可变状态中的最新坐标）
      */
     public Driver getDriverInfo(Long driverId) {
         try {
-            return (Driver) redisTemplate.opsForValue().get(DRIVER_INFO_KEY + driverId);
+            Driver driver = (Driver) redisTemplate.opsForValue().get(DRIVER_INFO_KEY + driverId);
+            if (driver != null) {
+                List<Object> position = stringRedisTemplate.opsForHash()
+                    .multiGet(DRIVER_HOT_KEY + driverId, Arrays.asList(HOT_LATITUDE, HOT_LONGITUDE));
+                if (position.get(0) != null && position.get(1) != null) {
+                    driver.setCurrentLatitude(new BigDecimal(position.get(0).toString()));
+                    driver.setCurrentLongitude(new BigDecimal(position.get(1).toString()));
+                }
+            }
+            return driver;
         } catch (Exception e) {
             System.err.println("获取司机信息失败: " + e.getMessage());
             return null;
@@ -339,48 +683,134 @@ public class DriverRedisService {
     }
 
     /**
-     * 尝试获取订单分布式锁
+     * 从Redis重建内存网格索引（应用启动时调用），同时补齐空闲司机GEO集合
      */
-    public boolean tryLockOrder(Long orderId, Long driverId, int expireSeconds) {
+    public void rebuildGeoIndex() {
+        int restored = 0;
         try {
-            String lockKey = ORDER_LOCK_KEY + orderId;
-            String lockValue = driverId.toString();
-            
-            // 使用SETNX实现分布式锁
-            Boolean success = redisTemplate.opsForValue().setIfAbsent(lockKey, lockValue, expireSeconds, TimeUnit.SECONDS);
-            
-            if (success != null && success) {
-                System.out.println("司机 " + driverId + " 成功获取订单 " + orderId + " 的锁");
+            Set<Object> members = redisTemplate.opsForZSet().range(DRIVER_GEO_KEY, 0, -1);
+            if (members != null) {
+                for (Object member : members) {
+                    Long driverId = Long.valueOf(member.toString());
+                    List<org.springframework.data.geo.Point> positions = redisTemplate.opsForGeo()
+                        .position(DRIVER_GEO_KEY, member);
+                    if (positions == null || positions.isEmpty() || positions.get(0) == null) {
+                        continue;
+                    }
+                    Map<Object, Object> status = stringRedisTemplate.opsForHash().entries(DRIVER_HOT_KEY + driverId);
+                    if (status.isEmpty()) {
+                        status = migrateLegacyStatus(driverId);
+                    }
+                    Driver driver = getDriverInfo(driverId);
+                    if (driver == null || status.isEmpty()) {
+                        continue;
+                    }
+                    boolean online = "1".equals(status.get(HOT_ONLINE));
+                    boolean busy = "1".equals(status.get(HOT_BUSY));
+                    org.springframework.data.geo.Point point = positions.get(0);
+                    if (online && !busy) {
+                        redisTemplate.opsForGeo().add(DRIVER_GEO_FREE_KEY, point, member);
+                    } else {
+                        redisTemplate.opsForGeo().remove(DRIVER_GEO_FREE_KEY, member);
+                    }
+                    driverGeoIndex.restoreDriver(driver, point.getY(), point.getX(), online, busy);
+                    if (online) {
+                        supplyDemandHeatmap.restoreDriver(driverId, point.getY(), point.getX(), busy);
+                    }
+                    restored++;
+                }
+            }
+            System.out.println("内存网格索引重建完成，恢复司机数: " + restored);
+        } catch (Exception e) {
+            System.err.println("从Redis重建内存网格索引失败: " + e.getMessage());
+        } finally {
+            driverGeoIndex.markReady();
+        }
+    }
+
+    /**
+     * 把旧版本的状态哈希和当前订单key迁移为司机可变状态，没有旧数据时返回空Map
+     */
+    private Map<Object, Object> migrateLegacyStatus(Long driverId) {
+        Map<Object, Object> legacy = redisTemplate.opsForHash().entries(LEGACY_DRIVER_STATUS_KEY + driverId);
+        if (legacy.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> hot = new HashMap<>();
+        hot.put(HOT_ONLINE, Boolean.TRUE.equals(legacy.get("online")) ? "1" : "0");
+        hot.put(HOT_BUSY, Boolean.TRUE.equals(legacy.get("busy")) ? "1" : "0");
+        hot.put(HOT_LAST_UPDATE, String.valueOf(System.currentTimeMillis()));
+        Object currentOrder = redisTemplate.opsForValue().get(LEGACY_DRIVER_CURRENT_ORDER_KEY + driverId);
+        if (currentOrder != null) {
+            hot.put(HOT_CURRENT_ORDER, currentOrder.toString());
+        }
+        stringRedisTemplate.opsForHash().putAll(DRIVER_HOT_KEY + driverId, hot);
+        stringRedisTemplate.expire(DRIVER_HOT_KEY + driverId, DRIVER_HOT_TTL_HOURS, TimeUnit.HOURS);
+        redisTemplate.delete(Arrays.asList(LEGACY_DRIVER_STATUS_KEY + driverId, LEGACY_DRIVER_CURRENT_ORDER_KEY + driverId));
+        return new HashMap<>(hot);
+    }
+
+    /**
+     * 原子地占用司机接单：司机空闲时标记为忙碌并写入当前订单，返回是否占用成功
+     */
+    public boolean tryClaimDriverForOrder(Long driverId, Long orderId) {
+        try {
+            Long claimed = stringRedisTemplate.execute(
+                CLAIM_DRIVER_SCRIPT,
+                Arrays.asList(DRIVER_HOT_KEY + driverId, DRIVER_GEO_FREE_KEY),
+                String.valueOf(System.currentTimeMillis()),
+                orderId.toString(),
+                geoMember(driverId),
+                hotTtlSeconds()
+            );
+            if (claimed != null && claimed == 1L) {
+                driverGeoIndex.markBusy(driverId, true);
+                supplyDemandHeatmap.driverBusy(driverId, true);
                 return true;
-            } else {
-                System.out.println("司机 " + driverId + " 获取订单 " + orderId + " 的锁失败");
-                return false;
             }
+            return false;
         } catch (Exception e) {
-            System.err.println("获取订单锁失败: " + e.getMessage());
+            System.err.println("占用司机接单失败: " + e.getMessage());
             return false;
         }
     }
 
     /**
-     * 释放订单分布式锁
+     * 回滚司机占用（订单条件更新失败时调用），仅当当前订单仍是该订单时才释放
      */
-    public void releaseLockOrder(Long orderId, Long driverId) {
+    public void releaseDriverClaim(Long driverId, Long orderId) {
         try {
-            String lockKey = ORDER_LOCK_KEY + orderId;
-            String lockValue = driverId.toString();
-            
-            // 只有锁的持有者才能释放锁
-            String currentValue = (String) redisTemplate.opsForValue().get(lockKey);
-            if (lockValue.equals(currentValue)) {
-                redisTemplate.delete(lockKey);
-                System.out.println("司机 " + driverId + " 释放订单 " + orderId + " 的锁");
+            Long released = stringRedisTemplate.execute(
+                RELEASE_DRIVER_SCRIPT,
+                Arrays.asList(DRIVER_HOT_KEY + driverId, DRIVER_GEO_KEY, DRIVER_GEO_FREE_KEY),
+                String.valueOf(System.currentTimeMillis()),
+                orderId.toString(),
+                geoMember(driverId),
+                hotTtlSeconds()
+            );
+            if (released != null && released == 1L) {
+                driverGeoIndex.markBusy(driverId, false);
+                supplyDemandHeatmap.driverBusy(driverId, false);
             }
         } catch (Exception e) {
-            System.err.println("释放订单锁失败: " + e.getMessage());
+            System.err.println("释放司机占用失败: " + e.getMessage());
         }
     }
 
+    /**
+     * 可变状态的过期秒数，每次写入可变状态时刷新，长时间没有任何写入的司机状态自动过期
+     */
+    static String hotTtlSeconds() {
+        return String.valueOf(TimeUnit.HOURS.toSeconds(DRIVER_HOT_TTL_HOURS));
+    }
+
+    /**
+     * GEO成员格式与RedisTemplate写入的一致（JSON字符串，带引号），供StringRedisTemplate执行脚本时使用
+     */
+    static String geoMember(Long driverId) {
+        return "\"" + driverId + "\"";
+    }
+
     /**
      * 计算两点间距离（米）
      */
@@ -399,8 +829,7 @@ public class DriverRedisService {
      */
     public Long getDriverCurrentOrder(Long driverId) {
         try {
-            String currentOrderKey = "driver_current_order:" + driverId;
-            Object orderId = redisTemplate.opsForValue().get(currentOrderKey);
+            Object orderId = stringRedisTemplate.opsForHash().get(DRIVER_HOT_KEY + driverId, HOT_CURRENT_ORDER);
             return orderId != null ? Long.valueOf(orderId.toString()) : null;
         } catch (Exception e) {
             System.err.println("获取司机当前订单失败: " + e.getMessage());
@@ -413,12 +842,13 @@ public class DriverRedisService {
      */
     public void setDriverCurrentOrder(Long driverId, Long orderId) {
         try {
-            String currentOrderKey = "driver_current_order:" + driverId;
+            String hotKey = DRIVER_HOT_KEY + driverId;
             if (orderId != null) {
-                redisTemplate.opsForValue().set(currentOrderKey, orderId.toString(), 24, TimeUnit.HOURS);
+                stringRedisTemplate.opsForHash().put(hotKey, HOT_CURRENT_ORDER, orderId.toString());
+                stringRedisTemplate.expire(hotKey, DRIVER_HOT_TTL_HOURS, TimeUnit.HOURS);
                 System.out.println("已设置司机 " + driverId + " 当前订单: " + orderId);
             } else {
-                redisTemplate.delete(currentOrderKey);
+                stringRedisTemplate.opsForHash().delete(hotKey, HOT_CURRENT_ORDER);
                 System.out.println("已清除司机 " + driverId + " 当前订单");
             }
         } catch (Exception e) {
@@ -0,0 +1,206 @@
+package com.taxi.service;
+
+import com.taxi.entity.Driver;
+import com.taxi.util.ContractionHierarchy;
+import com.taxi.util.GeoGridUtil;
+import com.taxi.util.RoadGraph;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * 路网ETA服务
+ * 启动时从本地路网文件构建收缩层次，离线计算司机到上车点的通行时间，用于候选司机排序。
+ * 路网文件不存在或未构建完成时不做任何处理，调用方保持原有的直线距离排序。
+ */
+@Service
+public class EtaService {
+
+    @Value("${taxi.routing.enabled:true}")
+    private boolean enabled;
+
+    @Value("${taxi.routing.graph-file:data/road_graph.txt}")
+    private String graphFile;
+
+    @Value("${taxi.routing.snap-max-meters:500}")
+    private double snapMaxMeters;
+
+    // 吸附到路网节点前后的步行/低速接驳速度（米/秒）
+    @Value("${taxi.routing.access-speed-mps:5.0}")
+    private double accessSpeedMps;
+
+    private volatile RoadGraph graph;
+    private volatile ContractionHierarchy hierarchy;
+    private volatile long buildMillis;
+
+    // 查询对象池：每个查询对象持有4个节点数大小的数组，请求线程（可能是用完即弃的虚拟线程）借用后归还，
+    // 最多保留CPU核数个，池空时临时创建，池满时归还的对象丢弃
+    private final BlockingQueue<ContractionHierarchy.Query> queryPool =
+        new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        Path path = Paths.get(graphFile);
+        if (!Files.isRegularFile(path)) {
+            System.out.println("未找到路网文件 " + path.toAbsolutePath() + "，候选司机按直线距离排序");
+            return;
+        }
+        // 预处理耗时较长，放到后台线程，完成前调用方按直线距离排序
+        Thread builder = new Thread(() -> build(path), "road-graph-builder");
+        builder.setDaemon(true);
+        builder.start();
+    }
+
+    private void build(Path path) {
+        try {
+            long start = System.currentTimeMillis();
+            RoadGraph loaded = RoadGraph.load(path);
+            ContractionHierarchy built = ContractionHierarchy.build(loaded);
+            graph = loaded;
+            hierarchy = built;
+            buildMillis = System.currentTimeMillis() - start;
+            System.out.println("路网ETA引擎已就绪 - 节点: " + loaded.getNodeCount() + ", 边: " + loaded.getEdgeCount()
+                + ", 捷径: " + built.getShortcutCount() + ", 耗时: " + buildMillis + "ms");
+        } catch (Exception e) {
+            System.err.println("加载路网失败: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    public boolean isReady() {
+        return hierarchy != null;
+    }
+
+    /**
+     * 计算多个司机到上车点的预计通行时间（秒），无法到达的为 Double.POSITIVE_INFINITY
+     */
+    public double[] etaSecondsToPickup(double pickupLat, double pickupLng, double[] driverLats, double[] driverLngs) {
+        double[] etas = new double[driverLats.length];
+        ContractionHierarchy ch = hierarchy;
+        RoadGraph g = graph;
+        if (ch == null) {
+            Arrays.fill(etas, Double.POSITIVE_INFINITY);
+            return etas;
+        }
+
+        int target = g.nearestNode(pickupLat, pickupLng, snapMaxMeters);
+        if (target < 0) {
+            Arrays.fill(etas, Double.POSITIVE_INFINITY);
+            return etas;
+        }
+        double targetAccess = GeoGridUtil.distanceMeters(pickupLat, pickupLng,
+            g.getLatitude(target), g.getLongitude(target)) / accessSpeedMps;
+
+        int[] sources = new int[driverLats.length];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = Double.isNaN(driverLats[i]) || Double.isNaN(driverLngs[i])
+                ? -1
+                : g.nearestNode(driverLats[i], driverLngs[i], snapMaxMeters);
+        }
+
+        int[] millis;
+        ContractionHierarchy.Query query = borrowQuery(ch);
+        try {
+            millis = query.manyToOne(sources, target);
+        } finally {
+            queryPool.offer(query);
+        }
+        for (int i = 0; i < sources.length; i++) {
+            if (sources[i] < 0 || millis[i] == ContractionHierarchy.UNREACHABLE) {
+                etas[i] = Double.POSITIVE_INFINITY;
+                continue;
+            }
+            double sourceAccess = GeoGridUtil.distanceMeters(driverLats[i], driverLngs[i],
+                g.getLatitude(sources[i]), g.getLongitude(sources[i])) / accessSpeedMps;
+            etas[i] = millis[i] / 1000.0 + sourceAccess + targetAccess;
+        }
+        return etas;
+    }
+
+    /**
+     * 计算司机列表到上车点的预计通行时间（秒），顺序与drivers一致；引擎未就绪时返回null
+     */
+    public double[] etaSecondsToPickup(BigDecimal pickupLat, BigDecimal pickupLng, List<Driver> drivers) {
+        if (!isReady() || pickupLat == null || pickupLng == null) {
+            return null;
+        }
+        double[] lats = new double[drivers.size()];
+        double[] lngs = new double[drivers.size()];
+        for (int i = 0; i < drivers.size(); i++) {
+            Driver driver = drivers.get(i);
+            if (driver.getCurrentLatitude() == null || driver.getCurrentLongitude() == null) {
+                lats[i] = Double.NaN;
+                lngs[i] = Double.NaN;
+            } else {
+                lats[i] = driver.getCurrentLatitude().doubleValue();
+                lngs[i] = driver.getCurrentLongitude().doubleValue();
+            }
+        }
+        return etaSecondsToPickup(pickupLat.doubleValue(), pickupLng.doubleValue(), lats, lngs);
+    }
+
+    /**
+     * 按到上车点的预计通行时间对司机排序（稳定排序，不可达的排在最后）；引擎未就绪时原样返回
+     */
+    public List<Driver> rankByEta(BigDecimal pickupLat, BigDecimal pickupLng, List<Driver> drivers) {
+        if (drivers == null || drivers.size() < 2) {
+            return drivers;
+        }
+        double[] etas = etaSecondsToPickup(pickupLat, pickupLng, drivers);
+        if (etas == null) {
+            return drivers;
+        }
+        Integer[] order = new Integer[drivers.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(etas[a], etas[b]));
+        List<Driver> ranked = new ArrayList<>(drivers.size());
+        for (Integer index : order) {
+            ranked.add(drivers.get(index));
+        }
+        return ranked;
+    }
+
+    private ContractionHierarchy.Query borrowQuery(ContractionHierarchy ch) {
+        ContractionHierarchy.Query query = queryPool.poll();
+        if (query == null || query.hierarchy() != ch) {
+            query = ch.newQuery();
+        }
+        return query;
+    }
+
+    /**
+     * 获取ETA引擎状态
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("ready", isReady());
+        stats.put("graphFile", graphFile);
+        RoadGraph g = graph;
+        ContractionHierarchy ch = hierarchy;
+        if (g != null && ch != null) {
+            stats.put("nodes", g.getNodeCount());
+            stats.put("edges", g.getEdgeCount());
+            stats.put("shortcuts", ch.getShortcutCount());
+            stats.put("buildMillis", buildMillis);
+        }
+        return stats;
+    }
+}
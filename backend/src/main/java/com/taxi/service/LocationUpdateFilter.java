@@ -0,0 +1,224 @@
+package com.taxi.service;
+
+import com.taxi.util.DriverLocationFrame;
+import com.taxi.util.GeoGridUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 司机位置上报过滤器（移动死区 + 自适应上报频率）
+ * 位于Redis位置写入之前：相对上次转发的位置移动距离和朝向变化都低于阈值时不转发，
+ * 只由调用方刷新内存中的心跳；距上次转发超过最长静默时间时强制转发一次，保证Redis中的位置不会过旧。
+ * 同时根据估算速度和忙闲状态给出客户端下次上报的建议间隔：停车的空闲司机降到低频，行驶中和载客中保持高频。
+ * 评估和提交分两步：evaluate只给出是否转发，调用方确认位置已交给下游（分道执行器接收）后再调用markForwarded
+ * 记录"上次转发的位置"；下游丢弃时不提交，下一次上报仍与Redis中实际的旧位置比较，不会被死区误过滤到最长静默时间。
+ */
+@Component
+public class LocationUpdateFilter {
+
+    @Value("${taxi.location.filter.enabled:true}")
+    private boolean enabled;
+
+    // 空闲司机的移动死区（米）
+    @Value("${taxi.location.filter.min-distance-meters:20}")
+    private double minDistanceMeters;
+
+    // 载客中司机的移动死区（米），乘客端需要更平滑的轨迹
+    @Value("${taxi.location.filter.busy-min-distance-meters:5}")
+    private double busyMinDistanceMeters;
+
+    // 朝向变化阈值（度）
+    @Value("${taxi.location.filter.min-heading-degrees:25}")
+    private double minHeadingDegrees;
+
+    // 最长静默时间：超过该时间即使没有移动也转发一次
+    @Value("${taxi.location.filter.max-silence-seconds:60}")
+    private long maxSilenceSeconds;
+
+    // 建议上报间隔按"每行驶该距离上报一次"计算
+    @Value("${taxi.location.filter.meters-per-report:50}")
+    private double metersPerReport;
+
+    @Value("${taxi.location.filter.min-interval-seconds:2}")
+    private int minIntervalSeconds;
+
+    @Value("${taxi.location.filter.idle-interval-seconds:30}")
+    private int idleIntervalSeconds;
+
+    @Value("${taxi.location.filter.busy-max-interval-seconds:5}")
+    private int busyMaxIntervalSeconds;
+
+    // 低于该速度（米/秒）视为停车
+    private static final double STATIONARY_SPEED_MPS = 0.5;
+
+    // 速度指数平滑系数
+    private static final double SPEED_SMOOTHING = 0.5;
+
+    private final Map<Long, State> states = new ConcurrentHashMap<>();
+
+    // 统计信息
+    private final AtomicLong totalReports = new AtomicLong();
+    private final AtomicLong totalForwarded = new AtomicLong();
+
+    /**
+     * 单个司机的过滤状态
+     */
+    private static final class State {
+        // 上次转发的位置
+        double forwardedLatitude;
+        double forwardedLongitude;
+        int forwardedHeading = DriverLocationFrame.HEADING_UNKNOWN;
+        long forwardedAt;
+        // 上次收到的原始位置
+        double lastLatitude;
+        double lastLongitude;
+        long lastSeenAt;
+        double speedMps;
+        int suggestedInterval;
+    }
+
+    /**
+     * 过滤结果
+     */
+    public static final class Decision {
+        private final boolean forward;
+        private final int nextIntervalSeconds;
+        private final boolean intervalChanged;
+        // 本次评估的位置和时间，提交转发时写入过滤状态
+        private final double latitude;
+        private final double longitude;
+        private final int headingCentiDegrees;
+        private final long evaluatedAt;
+
+        Decision(boolean forward, int nextIntervalSeconds, boolean intervalChanged,
+                 double latitude, double longitude, int headingCentiDegrees, long evaluatedAt) {
+            this.forward = forward;
+            this.nextIntervalSeconds = nextIntervalSeconds;
+            this.intervalChanged = intervalChanged;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.headingCentiDegrees = headingCentiDegrees;
+            this.evaluatedAt = evaluatedAt;
+        }
+
+        /** 是否需要写入Redis等下游 */
+        public boolean isForward() { return forward; }
+
+        /** 建议客户端下次上报的间隔（秒） */
+        public int getNextIntervalSeconds() { return nextIntervalSeconds; }
+
+        /** 建议间隔是否与上次不同 */
+        public boolean isIntervalChanged() { return intervalChanged; }
+    }
+
+    /**
+     * 评估一次位置上报，需要转发时由调用方在下游接收后调用markForwarded
+     * headingCentiDegrees 为百分之一度，未知时传 DriverLocationFrame.HEADING_UNKNOWN
+     */
+    public Decision evaluate(long driverId, double latitude, double longitude, int headingCentiDegrees, boolean busy) {
+        return evaluate(driverId, latitude, longitude, headingCentiDegrees, busy, System.currentTimeMillis());
+    }
+
+    Decision evaluate(long driverId, double latitude, double longitude, int headingCentiDegrees, boolean busy, long now) {
+        totalReports.incrementAndGet();
+        State state = states.computeIfAbsent(driverId, id -> new State());
+        synchronized (state) {
+            boolean first = state.forwardedAt == 0;
+            if (state.lastSeenAt != 0) {
+                double elapsed = (now - state.lastSeenAt) / 1000.0;
+                if (elapsed > 0) {
+                    double moved = GeoGridUtil.distanceMeters(state.lastLatitude, state.lastLongitude, latitude, longitude);
+                    state.speedMps = SPEED_SMOOTHING * (moved / elapsed) + (1 - SPEED_SMOOTHING) * state.speedMps;
+                }
+            }
+            state.lastLatitude = latitude;
+            state.lastLongitude = longitude;
+            state.lastSeenAt = now;
+
+            boolean forward = !enabled || first || shouldForward(state, latitude, longitude, headingCentiDegrees, busy, now);
+
+            int interval = suggestInterval(state.speedMps, busy);
+            boolean changed = interval != state.suggestedInterval;
+            state.suggestedInterval = interval;
+            return new Decision(forward, interval, changed, latitude, longitude, headingCentiDegrees, now);
+        }
+    }
+
+    /**
+     * 记录已转发的位置（下游已接收）；比已记录的转发更早的评估结果不覆盖
+     */
+    public void markForwarded(long driverId, Decision decision) {
+        if (!decision.forward) {
+            return;
+        }
+        State state = states.get(driverId);
+        if (state == null) {
+            // 期间司机已下线
+            return;
+        }
+        synchronized (state) {
+            if (decision.evaluatedAt < state.forwardedAt) {
+                return;
+            }
+            state.forwardedLatitude = decision.latitude;
+            state.forwardedLongitude = decision.longitude;
+            state.forwardedHeading = decision.headingCentiDegrees;
+            state.forwardedAt = decision.evaluatedAt;
+        }
+        totalForwarded.incrementAndGet();
+    }
+
+    /**
+     * 司机下线时清除过滤状态
+     */
+    public void forget(long driverId) {
+        states.remove(driverId);
+    }
+
+    private boolean shouldForward(State state, double latitude, double longitude, int heading, boolean busy, long now) {
+        if (now - state.forwardedAt >= maxSilenceSeconds * 1000L) {
+            return true;
+        }
+        double threshold = busy ? busyMinDistanceMeters : minDistanceMeters;
+        if (GeoGridUtil.distanceMeters(state.forwardedLatitude, state.forwardedLongitude, latitude, longitude) >= threshold) {
+            return true;
+        }
+        if (heading != DriverLocationFrame.HEADING_UNKNOWN && state.forwardedHeading != DriverLocationFrame.HEADING_UNKNOWN) {
+            int diff = Math.abs(heading - state.forwardedHeading) % 36000;
+            if (diff > 18000) {
+                diff = 36000 - diff;
+            }
+            return diff / 100.0 >= minHeadingDegrees;
+        }
+        return false;
+    }
+
+    private int suggestInterval(double speedMps, boolean busy) {
+        int max = busy ? busyMaxIntervalSeconds : idleIntervalSeconds;
+        if (speedMps < STATIONARY_SPEED_MPS) {
+            return max;
+        }
+        int interval = (int) Math.round(metersPerReport / speedMps);
+        return Math.max(minIntervalSeconds, Math.min(max, interval));
+    }
+
+    /**
+     * 获取过滤统计
+     */
+    public Map<String, Object> getStats() {
+        long reports = totalReports.get();
+        long forwarded = totalForwarded.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("trackedDrivers", states.size());
+        stats.put("totalReports", reports);
+        stats.put("totalForwarded", forwarded);
+        stats.put("suppressedRatio", reports == 0 ? 0 : (double) (reports - forwarded) / reports);
+        return stats;
+    }
+}
@@ -1,16 +1,18 @@
 package com.taxi.service;
 
+import com.taxi.dto.DriverOfferMessage;
 import com.taxi.entity.Order;
 import com.taxi.entity.Driver;
 import com.taxi.entity.User;
 import com.taxi.mapper.OrderMapper;
 import com.taxi.mapper.DriverMapper;
 import com.taxi.mapper.UserMapper;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 
+import jakarta.annotation.PostConstruct;
+import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.List;
@@ -21,7 +23,7 @@ import java.util.Map;
  * 1. 订单进入队列等待
  * 2. 从Redis GEO查找附近司机
  * 3. 通过RabbitMQ异步通知司机
- * 4. 使用Redis分布式锁防止重复接单
+ * 4. 使用Redis原子占用司机 + 数据库条件更新防止重复接单
  */
 @Service
 public class OrderDispatchService {
@@ -38,8 +40,6 @@ public class OrderDispatchService {
     @Autowired
     private DriverRedisService driverRedisService;
     
-    @Autowired
-    private RabbitTemplate rabbitTemplate;
     
     @Autowired
     private WebSocketNotificationService webSocketNotificationService;
@@ -54,7 +54,28 @@ public class OrderDispatchService {
     private RedisTemplate<String, Object> redisTemplate;
     
     @Autowired
-    private org.springframework.scheduling.TaskScheduler taskScheduler;
+    private DispatchRetryWheel dispatchRetryWheel;
+    
+    @Autowired
+    private OrderRetryScheduler orderRetryScheduler;
+    
+    @Autowired
+    private EtaService etaService;
+    
+    @Autowired
+    private BatchMatchingService batchMatchingService;
+
+    @Autowired
+    private TripBindingCache tripBindingCache;
+
+    @Autowired
+    private DriverNotificationRouter driverNotificationRouter;
+
+    @Autowired
+    private OrderOutboxService orderOutboxService;
+
+    @Autowired
+    private TripTrajectoryStore tripTrajectoryStore;
 
     // 搜索半径（公里）
     private static final double SEARCH_RADIUS_KM = 5.0;
@@ -62,9 +83,6 @@ public class OrderDispatchService {
     // 最大通知司机数量
     private static final int MAX_NOTIFY_DRIVERS = 5;
     
-    // 订单锁过期时间（秒）
-    private static final int ORDER_LOCK_EXPIRE_SECONDS = 30;
-    
     // Redis key前缀
     private static final String ORDER_NOTIFIED_DRIVERS_KEY = "order_notified_drivers:"; // 订单已通知的司机列表
     private static final String DRIVER_REJECT_COUNT_KEY = "driver_reject_count:"; // 司机拒单次数
@@ -75,6 +93,14 @@ public class OrderDispatchService {
     private static final double[] RETRY_RADIUS_MULTIPLIERS = {1.0, 1.5, 2.0, 3.0}; // 搜索半径倍数
     private static final int[] RETRY_MAX_DRIVERS = {3, 5, 8, 10}; // 每轮最大通知司机数
 
+    @PostConstruct
+    public void registerBatchOfferHandler() {
+        // 批量匹配的结果沿用原有的通知方式下发给司机
+        batchMatchingService.setOfferHandler(this::notifyDriver);
+        // Redis重试队列领取到的任务沿用原有的重试逻辑
+        orderRetryScheduler.setRetryHandler(this::executeOrderRetry);
+    }
+
     /**
      * 为新订单寻找并通知附近的司机
      */
@@ -101,17 +127,26 @@ public class OrderDispatchService {
             }
             
             // 3. 将订单加入持久化待分配队列（确保后续上线的司机也能看到）
-            pendingOrderService.addPendingOrder(orderId);
+            pendingOrderService.addPendingOrder(order);
             
             // 4. 初始化订单重试信息
             initOrderRetryInfo(orderId);
             
+            // 开启批量匹配时，订单进入当前匹配窗口统一指派，未匹配上的由重试机制兜底
+            if (batchMatchingService.isEnabled()) {
+                batchMatchingService.submit(order);
+                System.out.println("订单 " + orderId + " 已加入批量匹配窗口");
+                return;
+            }
+            
             // 4. 从Redis查找附近的在线司机
             List<Driver> nearbyDrivers = driverRedisService.getNearbyOnlineDrivers(
                 order.getPickupLatitude(), 
                 order.getPickupLongitude(), 
                 SEARCH_RADIUS_KM
             );
+            // 路网ETA引擎就绪时按预计接驾时间排序
+            nearbyDrivers = etaService.rankByEta(order.getPickupLatitude(), order.getPickupLongitude(), nearbyDrivers);
             
             if (nearbyDrivers.isEmpty()) {
                 System.out.println("没有找到附近的在线司机，订单已加入待分配队列");
@@ -137,74 +172,81 @@ public class OrderDispatchService {
     }
 
     /**
-     * 司机接单（使用分布式锁防止重复接单）
+     * 接单结果
+     */
+    public enum AcceptResult {
+        /** 接单成功 */
+        ACCEPTED,
+        /** 司机忙碌，占用失败 */
+        DRIVER_BUSY,
+        /** 订单已被其他司机接单或已离开待分配状态 */
+        ORDER_TAKEN,
+        /** 接单过程出错，司机占用已回滚 */
+        FAILED
+    }
+
+    /**
+     * 司机接单（无锁：Redis原子占用司机 + 数据库条件更新订单）
      */
     public boolean acceptOrder(Long orderId, Long driverId) {
+        return tryAcceptOrder(orderId, driverId) == AcceptResult.ACCEPTED;
+    }
+
+    /**
+     * 司机接单并返回失败原因，同一订单并发接单时只有一个司机得到ACCEPTED
+     */
+    public AcceptResult tryAcceptOrder(Long orderId, Long driverId) {
         System.out.println("司机 " + driverId + " 尝试接单 " + orderId);
         
-        // 1. 尝试获取订单分布式锁
-        if (!driverRedisService.tryLockOrder(orderId, driverId, ORDER_LOCK_EXPIRE_SECONDS)) {
-            System.out.println("司机 " + driverId + " 获取订单 " + orderId + " 锁失败，可能已被其他司机接单");
-            return false;
+        // 1. 原子地检查司机空闲并标记忙碌、写入当前订单
+        if (!driverRedisService.tryClaimDriverForOrder(driverId, orderId)) {
+            System.out.println("司机 " + driverId + " 正在忙碌中");
+            return AcceptResult.DRIVER_BUSY;
         }
         
+        boolean assigned = false;
         try {
-            // 2. 检查司机状态
-            if (driverRedisService.isDriverBusy(driverId)) {
-                System.out.println("司机 " + driverId + " 正在忙碌中");
-                return false;
+            // 2. 条件更新订单并在同一事务中写入接单事件，只有仍为待分配状态的订单才能被分配，同一订单只有一个司机成功
+            assigned = orderOutboxService.assignDriverIfPending(orderId, driverId, LocalDateTime.now());
+            if (!assigned) {
+                System.out.println("订单 " + orderId + " 已被其他司机接单或状态已变更");
+                return AcceptResult.ORDER_TAKEN;
             }
             
-            // 3. 查询订单
-            Order order = orderMapper.selectById(orderId);
-            if (order == null) {
-                System.out.println("订单不存在: " + orderId);
-                return false;
-            }
-            
-            // 4. 再次检查订单状态（双重检查）
-            if (!"PENDING".equals(order.getStatus())&&!"SCHEDULED".equals(order.getStatus())) {
-                System.out.println("订单已被其他司机接单，当前状态: " + order.getStatus());
-                return false;
-            }
+            // 订单已离开PENDING状态，取消待执行的重试并移出待分配订单池
+            clearPendingState(orderId);
             
-            // 5. 分配订单
-            order.setDriverId(driverId);
-            order.setStatus("ASSIGNED");
-            order.setUpdatedAt(LocalDateTime.now());
-            orderMapper.updateById(order);
-            
-            // 6. 标记司机为忙碌状态
-            driverRedisService.markDriverBusy(driverId);
+            // 3. 查询分配后的订单用于通知
+            Order order = orderMapper.selectById(orderId);
             
             System.out.println("订单接单成功 - 订单: " + order.getOrderNumber() + ", 司机: " + driverId);
             
-            // 7. 通知乘客订单已被接受（包含司机详细信息）
+            // 绑定司机与乘客，实时位置推送直接查内存
+            tripBindingCache.bind(driverId, orderId, order.getPassengerId());
+            
+            // 4. 通知乘客订单已被接受（包含司机详细信息）
             Driver driver = driverMapper.selectById(driverId);
             if (driver != null) {
                 // 获取司机的用户信息
                 User driverUser = userMapper.selectById(driver.getUserId());
                 webSocketNotificationService.notifyPassengerOrderAssigned(order.getPassengerId(), order, driver, driverUser);
-                
-                // 设置司机当前执行的订单
-                driverRedisService.setDriverCurrentOrder(driverId, order.getId());
             } else {
                 // 备用通知方式
                 notifyPassengerOrderAccepted(order);
             }
             
-            // 8. 发送接单成功消息到队列（用于其他业务处理）
-            sendOrderAssignedMessage(order, driverId);
-            
-            return true;
+            return AcceptResult.ACCEPTED;
             
         } catch (Exception e) {
             System.err.println("接单失败: " + e.getMessage());
             e.printStackTrace();
-            return false;
+            // 订单条件更新成功后的通知失败不影响接单结果
+            return assigned ? AcceptResult.ACCEPTED : AcceptResult.FAILED;
         } finally {
-            // 9. 释放分布式锁
-            driverRedisService.releaseLockOrder(orderId, driverId);
+            // 5. 订单未分配成功时回滚司机占用
+            if (!assigned) {
+                driverRedisService.releaseDriverClaim(driverId, orderId);
+            }
         }
     }
 
@@ -216,10 +258,19 @@ public class OrderDispatchService {
             // 1. 更新订单状态
             Order order = orderMapper.selectById(orderId);
             if (order != null) {
+                String previousStatus = order.getStatus();
                 order.setStatus("COMPLETED");
                 order.setCompletionTime(LocalDateTime.now());
                 order.setUpdatedAt(LocalDateTime.now());
-                orderMapper.updateById(order);
+                BigDecimal actualDistance = tripTrajectoryStore.actualDistanceKm(order);
+                if (actualDistance != null) {
+                    order.setActualDistance(actualDistance);
+                }
+                // 读取之后订单已被取消或完成时不覆盖，司机状态由对应操作处理
+                if (!orderOutboxService.updateOrder(order, previousStatus, OrderOutboxService.EVENT_COMPLETED)) {
+                    System.out.println("订单 " + orderId + " 状态已变更，不再标记完成");
+                    return;
+                }
             }
             
             // 2. 标记司机为空闲状态
@@ -262,20 +313,21 @@ public class OrderDispatchService {
             webSocketNotificationService.notifyDriverNewOrder(driver.getId(), order, distance);
             
             // 2. 构建RabbitMQ消息（作为备用通知机制）
-            Map<String, Object> rabbitMessage = new HashMap<>();
-            rabbitMessage.put("driverId", driver.getId());
-            rabbitMessage.put("orderId", order.getId());
-            rabbitMessage.put("orderNumber", order.getOrderNumber());
-            rabbitMessage.put("orderType", order.getOrderType()); // 添加订单类型
-            rabbitMessage.put("pickupAddress", order.getPickupAddress());
-            rabbitMessage.put("destinationAddress", order.getDestinationAddress());
-            rabbitMessage.put("distance", distance);
-            rabbitMessage.put("estimatedFare", order.getEstimatedFare());
-            rabbitMessage.put("scheduledTime", order.getScheduledTime()); // 添加预约时间
-            rabbitMessage.put("timestamp", System.currentTimeMillis());
-            
-            // 发送到司机通知队列
-            rabbitTemplate.convertAndSend("driver_notification_queue", rabbitMessage);
+            DriverOfferMessage offer = new DriverOfferMessage(
+                driver.getId(),
+                order.getId(),
+                order.getOrderNumber(),
+                order.getOrderType(),
+                order.getPickupAddress(),
+                order.getDestinationAddress(),
+                distance,
+                order.getEstimatedFare(),
+                order.getScheduledTime(),
+                System.currentTimeMillis()
+            );
+            
+            // 按上车点所在网格发送到对应的司机通知分区
+            driverNotificationRouter.send(offer, order.getPickupLatitude(), order.getPickupLongitude());
             
             // 3. 记录已通知的司机
             recordDriverNotification(order.getId(), driver.getId());
@@ -328,26 +380,6 @@ public class OrderDispatchService {
         }
     }
 
-    /**
-     * 发送接单成功消息到队列
-     */
-    private void sendOrderAssignedMessage(Order order, Long driverId) {
-        try {
-            Map<String, Object> message = new HashMap<>();
-            message.put("orderId", order.getId());
-            message.put("orderNumber", order.getOrderNumber());
-            message.put("driverId", driverId);
-            message.put("status", "ASSIGNED");
-            message.put("timestamp", System.currentTimeMillis());
-            
-            rabbitTemplate.convertAndSend("order_status_queue", message);
-            System.out.println("已发送订单分配消息到队列");
-            
-        } catch (Exception e) {
-            System.err.println("发送订单分配消息失败: " + e.getMessage());
-        }
-    }
-
     /**
      * 处理司机上线时的待分配订单
      * 当司机上线时，检查是否有等待的订单需要分配
@@ -363,34 +395,23 @@ public class OrderDispatchService {
                 return;
             }
             
-            // 查询所有PENDING状态的订单
-            List<Order> pendingOrders = orderMapper.selectByStatus("PENDING");
-            if (pendingOrders == null || pendingOrders.isEmpty()) {
+            // 从待分配订单池按半径查询附近订单（不再全表扫描）
+            List<Order> pendingOrders = pendingOrderService.getPendingOrdersNearby(
+                driver.getCurrentLatitude().doubleValue(),
+                driver.getCurrentLongitude().doubleValue(),
+                SEARCH_RADIUS_KM
+            );
+            if (pendingOrders.isEmpty()) {
                 System.out.println("没有待分配的订单");
                 return;
             }
             
-            System.out.println("找到 " + pendingOrders.size() + " 个待分配订单");
+            System.out.println("找到 " + pendingOrders.size() + " 个附近待分配订单");
             
-            // 为每个订单检查是否在司机服务范围内
+            // 通知司机服务范围内的订单
             for (Order order : pendingOrders) {
-                if (order.getPickupLatitude() == null || order.getPickupLongitude() == null) {
-                    continue;
-                }
-                
-                // 计算距离
-                double distance = calculateDistance(
-                    order.getPickupLatitude().doubleValue(),
-                    order.getPickupLongitude().doubleValue(),
-                    driver.getCurrentLatitude().doubleValue(),
-                    driver.getCurrentLongitude().doubleValue()
-                );
-                
-                // 如果在服务范围内，通知司机
-                if (distance <= SEARCH_RADIUS_KM * 1000) {
-                    notifyDriver(driver, order);
-                    System.out.println("已通知司机 " + driverId + " 待分配订单 " + order.getId());
-                }
+                notifyDriver(driver, order);
+                System.out.println("已通知司机 " + driverId + " 待分配订单 " + order.getId());
             }
             
         } catch (Exception e) {
@@ -419,6 +440,8 @@ public class OrderDispatchService {
                 order.getPickupLongitude(), 
                 largerRadius
             );
+            // 路网ETA引擎就绪时按预计接驾时间排序
+            nearbyDrivers = etaService.rankByEta(order.getPickupLatitude(), order.getPickupLongitude(), nearbyDrivers);
             
             if (!nearbyDrivers.isEmpty()) {
                 System.out.println("扩大搜索范围后找到 " + nearbyDrivers.size() + " 个司机");
@@ -513,6 +536,8 @@ public class OrderDispatchService {
                 order.getPickupLongitude(), 
                 SEARCH_RADIUS_KM
             );
+            // 路网ETA引擎就绪时按预计接驾时间排序
+            nearbyDrivers = etaService.rankByEta(order.getPickupLatitude(), order.getPickupLongitude(), nearbyDrivers);
             
             if (nearbyDrivers.isEmpty()) {
                 System.out.println("没有找到附近的司机，尝试扩大搜索范围");
@@ -628,10 +653,15 @@ public class OrderDispatchService {
         try {
             int delaySeconds = RETRY_INTERVALS[retryRound];
             
-            // 使用TaskScheduler安排延迟任务
-            taskScheduler.schedule(() -> {
-                executeOrderRetry(orderId, retryRound);
-            }, new java.util.Date(System.currentTimeMillis() + delaySeconds * 1000L));
+            if (orderRetryScheduler.isEnabled()) {
+                // 使用Redis延迟队列，重启不丢失且可由多个实例分担
+                orderRetryScheduler.schedule(orderId, retryRound, delaySeconds);
+            } else {
+                // 使用派单重试时间轮安排延迟任务（同一订单只保留一个待执行的重试）
+                dispatchRetryWheel.schedule(orderId, delaySeconds, () -> {
+                    executeOrderRetry(orderId, retryRound);
+                });
+            }
             
             System.out.println("订单 " + orderId + " 已安排第 " + (retryRound + 1) + " 轮重试，" + delaySeconds + " 秒后执行");
             
@@ -675,6 +705,8 @@ public class OrderDispatchService {
                 order.getPickupLongitude(), 
                 searchRadius
             );
+            // 路网ETA引擎就绪时按预计接驾时间排序
+            nearbyDrivers = etaService.rankByEta(order.getPickupLatitude(), order.getPickupLongitude(), nearbyDrivers);
             
             if (nearbyDrivers.isEmpty()) {
                 System.out.println("第 " + (retryRound + 1) + " 轮重试未找到司机，安排下一轮重试");
@@ -734,6 +766,7 @@ public class OrderDispatchService {
      * 清理订单重试信息（订单完成或取消时调用）
      */
     public void cleanOrderRetryInfo(Long orderId) {
+        clearPendingState(orderId);
         try {
             String key = ORDER_RETRY_INFO_KEY + orderId;
             redisTemplate.delete(key);
@@ -743,6 +776,17 @@ public class OrderDispatchService {
         }
     }
 
+    /**
+     * 订单离开PENDING状态时清理：取消待执行的重试（时间轮和Redis队列），移出待分配订单池
+     */
+    private void clearPendingState(Long orderId) {
+        dispatchRetryWheel.cancel(orderId);
+        if (orderRetryScheduler.isEnabled()) {
+            orderRetryScheduler.cancel(orderId);
+        }
+        pendingOrderService.removePendingOrder(orderId);
+    }
+
     /**
      * 获取订单重试信息
      */
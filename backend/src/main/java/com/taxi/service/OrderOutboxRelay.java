@@ -0,0 +1,315 @@
+package com.taxi.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.taxi.dto.OrderEventMessage;
+import com.taxi.entity.OrderOutboxEvent;
+import com.taxi.mapper.OrderOutboxMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 订单事件发件箱中继
+ * 后台线程按ID顺序占用一批未发送的事件（占用带租约，多个实例不会同时发送同一事件，实例宕机后租约过期由其他实例接手），
+ * 在同一个通道上连续发送，等待整批broker确认后按ID区间标记为已发送；未确认的事件释放占用并累加失败次数，下一轮重发。
+ * 同一订单的事件按ID顺序送达：每个订单只有最早的未发送事件可以被占用，它确认之前同订单之后的事件不会被任何实例发送；
+ * 失败次数超限的事件留在表中，同订单之后的事件一直阻塞到人工处理。
+ * 标记前宕机会导致重复发送，消息带 messageId 和 eventId，下游按事件ID去重。
+ */
+@Component
+public class OrderOutboxRelay {
+
+    @Autowired
+    private OrderOutboxMapper orderOutboxMapper;
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${taxi.outbox.enabled:true}")
+    private boolean enabled;
+
+    @Value("${taxi.outbox.poll-interval-ms:200}")
+    private long pollIntervalMs;
+
+    @Value("${taxi.outbox.batch-size:500}")
+    private int batchSize;
+
+    @Value("${taxi.outbox.lease-seconds:30}")
+    private long leaseSeconds;
+
+    @Value("${taxi.outbox.confirm-timeout-ms:5000}")
+    private long confirmTimeoutMs;
+
+    // 超过该失败次数的事件不再重发，留在表中人工处理
+    @Value("${taxi.outbox.max-attempts:10}")
+    private int maxAttempts;
+
+    @Value("${taxi.outbox.retention-hours:72}")
+    private long retentionHours;
+
+    // 清理已发送事件的间隔
+    private static final long CLEANUP_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final String owner = ManagementFactory.getRuntimeMXBean().getName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition wakeUp = lock.newCondition();
+    private boolean signalled;
+    private Thread worker;
+    private volatile boolean running;
+    private boolean confirms;
+    private ObjectReader eventReader;
+    private long lastCleanupMillis;
+
+    // 统计信息
+    private final AtomicLong totalPublished = new AtomicLong();
+    private final AtomicLong totalFailed = new AtomicLong();
+    private final AtomicLong totalBatches = new AtomicLong();
+    private final AtomicLong totalErrors = new AtomicLong();
+    private final AtomicLong totalCleaned = new AtomicLong();
+    private volatile int lastBatchSize;
+    private volatile long lastBatchMillis;
+    private volatile long lastRelayLagMillis;
+
+    @PostConstruct
+    public void init() {
+        eventReader = objectMapper.readerFor(OrderEventMessage.class);
+        if (!enabled) {
+            return;
+        }
+        confirms = rabbitTemplate.getConnectionFactory().isPublisherConfirms();
+        running = true;
+        worker = new Thread(this::run, "order-outbox-relay");
+        worker.setDaemon(true);
+        worker.start();
+        System.out.println("订单事件发件箱中继已启用，实例: " + owner + ", 批大小: " + batchSize + ", 发送确认: " + confirms);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (worker != null) {
+            wakeUp();
+            try {
+                worker.join(confirmTimeoutMs + 1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 有新事件提交时唤醒中继
+     */
+    public void wakeUp() {
+        lock.lock();
+        try {
+            signalled = true;
+            wakeUp.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            int relayed = 0;
+            try {
+                relayed = relayOnce();
+                cleanupIfDue();
+            } catch (Exception e) {
+                totalErrors.incrementAndGet();
+                System.err.println("订单事件中继失败: " + e.getMessage());
+            }
+            // 整批已满说明还有积压，立即继续
+            if (relayed < batchSize) {
+                awaitWork();
+            }
+        }
+    }
+
+    private void awaitWork() {
+        lock.lock();
+        try {
+            if (!signalled && running) {
+                wakeUp.await(pollIntervalMs, TimeUnit.MILLISECONDS);
+            }
+            signalled = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 占用并发送一批事件，返回本批事件数
+     */
+    int relayOnce() {
+        LocalDateTime now = LocalDateTime.now();
+        if (orderOutboxMapper.claimBatch(owner, now.plusSeconds(leaseSeconds), now, maxAttempts, batchSize) == 0) {
+            return 0;
+        }
+        List<OrderOutboxEvent> events = orderOutboxMapper.selectClaimed(owner, batchSize);
+        if (events.isEmpty()) {
+            return 0;
+        }
+
+        long start = System.currentTimeMillis();
+        Map<Long, CorrelationData> sent = send(events);
+        Set<Long> acked = awaitConfirms(sent);
+
+        List<Long> published = new ArrayList<>(events.size());
+        List<Long> failed = new ArrayList<>();
+        for (OrderOutboxEvent event : events) {
+            (acked.contains(event.getId()) ? published : failed).add(event.getId());
+        }
+        LocalDateTime publishedAt = LocalDateTime.now();
+        if (failed.isEmpty()) {
+            orderOutboxMapper.markPublishedRange(owner, events.get(0).getId(), events.get(events.size() - 1).getId(), publishedAt);
+        } else {
+            if (!published.isEmpty()) {
+                orderOutboxMapper.markPublished(owner, published, publishedAt);
+            }
+            orderOutboxMapper.releaseFailed(owner, failed);
+            totalFailed.addAndGet(failed.size());
+            System.err.println("订单事件发送未确认: " + failed.size() + " 条，下一轮重发");
+        }
+
+        totalPublished.addAndGet(published.size());
+        totalBatches.incrementAndGet();
+        lastBatchSize = events.size();
+        lastBatchMillis = System.currentTimeMillis() - start;
+        LocalDateTime oldest = events.get(0).getCreatedAt();
+        if (oldest != null) {
+            lastRelayLagMillis = Duration.between(oldest, publishedAt).toMillis();
+        }
+        return events.size();
+    }
+
+    /**
+     * 在同一个通道上发送一批事件，返回已发出事件的确认句柄（按ID顺序）
+     */
+    private Map<Long, CorrelationData> send(List<OrderOutboxEvent> events) {
+        Map<Long, CorrelationData> sent = new LinkedHashMap<>();
+        try {
+            rabbitTemplate.invoke(operations -> {
+                for (OrderOutboxEvent event : events) {
+                    Message message = toMessage(event);
+                    if (message == null) {
+                        continue;
+                    }
+                    CorrelationData correlation = new CorrelationData("order-outbox-" + event.getId());
+                    operations.send("", event.getDestination(), message, correlation);
+                    sent.put(event.getId(), correlation);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            System.err.println("订单事件批量发送失败: " + e.getMessage());
+        }
+        return sent;
+    }
+
+    private Message toMessage(OrderOutboxEvent event) {
+        try {
+            OrderEventMessage payload = eventReader.<OrderEventMessage>readValue(event.getPayload()).withEventId(event.getId());
+            MessageProperties properties = new MessageProperties();
+            properties.setMessageId("order-outbox-" + event.getId());
+            return rabbitTemplate.getMessageConverter().toMessage(payload, properties);
+        } catch (Exception e) {
+            System.err.println("订单事件 " + event.getId() + " 内容无法解析: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 等待整批确认，返回被broker确认的事件ID；未开启发送确认时发出即视为成功
+     */
+    private Set<Long> awaitConfirms(Map<Long, CorrelationData> sent) {
+        Set<Long> acked = new HashSet<>(sent.size() * 2);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(confirmTimeoutMs);
+        for (Map.Entry<Long, CorrelationData> entry : sent.entrySet()) {
+            if (!confirms) {
+                acked.add(entry.getKey());
+                continue;
+            }
+            try {
+                long remaining = Math.max(0, deadline - System.nanoTime());
+                CorrelationData.Confirm confirm = entry.getValue().getFuture().get(remaining, TimeUnit.NANOSECONDS);
+                if (confirm.isAck()) {
+                    acked.add(entry.getKey());
+                }
+            } catch (Exception e) {
+                // 超时或通道关闭，按未确认处理
+            }
+        }
+        return acked;
+    }
+
+    private void cleanupIfDue() {
+        long now = System.currentTimeMillis();
+        if (now - lastCleanupMillis < CLEANUP_INTERVAL_MILLIS) {
+            return;
+        }
+        lastCleanupMillis = now;
+        LocalDateTime before = LocalDateTime.now().minusHours(retentionHours);
+        int deleted;
+        do {
+            deleted = orderOutboxMapper.deletePublishedBefore(before, 5000);
+            totalCleaned.addAndGet(deleted);
+        } while (deleted == 5000 && running);
+    }
+
+    /**
+     * 获取中继统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("owner", owner);
+        stats.put("publisherConfirms", confirms);
+        stats.put("totalPublished", totalPublished.get());
+        stats.put("totalFailed", totalFailed.get());
+        stats.put("totalBatches", totalBatches.get());
+        stats.put("totalErrors", totalErrors.get());
+        stats.put("totalCleaned", totalCleaned.get());
+        stats.put("lastBatchSize", lastBatchSize);
+        stats.put("lastBatchMillis", lastBatchMillis);
+        stats.put("lastRelayLagMillis", lastRelayLagMillis);
+        try {
+            stats.put("unpublished", orderOutboxMapper.countUnpublished());
+            stats.put("deadLettered", orderOutboxMapper.countDeadLettered(maxAttempts));
+        } catch (Exception e) {
+            stats.put("unpublished", "查询失败: " + e.getMessage());
+        }
+        return stats;
+    }
+}
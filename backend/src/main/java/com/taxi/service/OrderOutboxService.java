@@ -0,0 +1,128 @@
+package com.taxi.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.taxi.dto.OrderEventMessage;
+import com.taxi.entity.Order;
+import com.taxi.entity.OrderOutboxEvent;
+import com.taxi.mapper.OrderMapper;
+import com.taxi.mapper.OrderOutboxMapper;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+/**
+ * 订单事件发件箱
+ * 订单状态更新和对应的事件在同一个数据库事务中写入，事务提交后由OrderOutboxRelay发送到RabbitMQ，
+ * 下游收到的事件与数据库中的订单状态一致：事务回滚则事件不存在，broker不可用时事件留在表中等待重发。
+ */
+@Service
+public class OrderOutboxService {
+
+    /** 订单生命周期事件的目标队列 */
+    public static final String ORDER_STATUS_QUEUE = "order_status_queue";
+
+    public static final String EVENT_ASSIGNED = "ORDER_ASSIGNED";
+    public static final String EVENT_PICKUP = "ORDER_PICKUP";
+    public static final String EVENT_STARTED = "ORDER_STARTED";
+    public static final String EVENT_COMPLETED = "ORDER_COMPLETED";
+    public static final String EVENT_CANCELLED = "ORDER_CANCELLED";
+    public static final String EVENT_DRIVER_CANCELLED = "ORDER_DRIVER_CANCELLED";
+
+    @Autowired
+    private OrderMapper orderMapper;
+
+    @Autowired
+    private OrderOutboxMapper orderOutboxMapper;
+
+    @Autowired
+    private OrderOutboxRelay orderOutboxRelay;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private ObjectWriter eventWriter;
+
+    @PostConstruct
+    public void init() {
+        eventWriter = objectMapper.writerFor(OrderEventMessage.class);
+    }
+
+    /**
+     * 条件分配订单并写入接单事件，订单已不是待分配状态时不写事件
+     */
+    @Transactional
+    public boolean assignDriverIfPending(Long orderId, Long driverId, LocalDateTime updatedAt) {
+        if (orderMapper.assignDriverIfPending(orderId, driverId, updatedAt) != 1) {
+            return false;
+        }
+        append(orderMapper.selectById(orderId), EVENT_ASSIGNED);
+        return true;
+    }
+
+    /**
+     * 条件取消尚未开始行程的订单并写入取消事件，返回取消后的订单；订单已开始、已完成或已取消时返回null
+     * 与接单的条件更新互斥：取消成功时返回的订单带有取消那一刻已分配的司机
+     */
+    @Transactional
+    public Order cancelIfNotStarted(Long orderId, String cancelReason, LocalDateTime updatedAt) {
+        if (orderMapper.cancelIfNotStarted(orderId, cancelReason, updatedAt) != 1) {
+            return null;
+        }
+        Order order = orderMapper.selectById(orderId);
+        append(order, EVENT_CANCELLED);
+        return order;
+    }
+
+    /**
+     * 条件更新订单并写入对应事件：仅当数据库中的订单状态仍为expectedStatus（调用方读到的状态）时写入，
+     * 期间订单已被接单、取消等并发操作改变时不写事件并返回false，由调用方按失败处理
+     */
+    @Transactional
+    public boolean updateOrder(Order order, String expectedStatus, String eventType) {
+        if (orderMapper.updateByIdIfStatus(order, expectedStatus) != 1) {
+            return false;
+        }
+        append(order, eventType);
+        return true;
+    }
+
+    private void append(Order order, String eventType) {
+        OrderEventMessage payload = new OrderEventMessage(
+            null,
+            eventType,
+            order.getId(),
+            order.getOrderNumber(),
+            order.getDriverId(),
+            order.getPassengerId(),
+            order.getStatus(),
+            order.getCancelReason(),
+            System.currentTimeMillis()
+        );
+
+        OrderOutboxEvent event = new OrderOutboxEvent();
+        event.setOrderId(order.getId());
+        event.setEventType(eventType);
+        event.setDestination(ORDER_STATUS_QUEUE);
+        try {
+            event.setPayload(eventWriter.writeValueAsString(payload));
+        } catch (Exception e) {
+            throw new IllegalStateException("序列化订单事件失败: " + e.getMessage(), e);
+        }
+        orderOutboxMapper.insert(event);
+
+        // 提交后立即唤醒中继，不必等到下一个轮询周期
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    orderOutboxRelay.wakeUp();
+                }
+            });
+        }
+    }
+}
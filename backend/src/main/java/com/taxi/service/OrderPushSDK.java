@@ -22,6 +22,9 @@ public class OrderPushSDK {
     
     @Autowired
     private WebSocketNotificationService webSocketNotificationService;
+    
+    @Autowired
+    private EtaService etaService;
 
     // 推送策略配置
     private static final double MAX_PUSH_RADIUS_KM = 5.0; // 最大推送半径
@@ -109,6 +112,18 @@ public class OrderPushSDK {
      * 按优先级排序司机
      */
     private List<Driver> sortDriversByPriority(List<Driver> drivers, Order order) {
+        // 路网ETA引擎就绪时按预计接驾时间计算距离分
+        double[] etas = etaService.etaSecondsToPickup(order.getPickupLatitude(), order.getPickupLongitude(), drivers);
+        if (etas != null) {
+            Map<Driver, Double> scores = new java.util.IdentityHashMap<>();
+            for (int i = 0; i < drivers.size(); i++) {
+                scores.put(drivers.get(i), calculateDriverScoreByEta(drivers.get(i), etas[i]));
+            }
+            return drivers.stream()
+                .sorted((d1, d2) -> Double.compare(scores.get(d2), scores.get(d1))) // 分数高的排前面
+                .toList();
+        }
+        
         return drivers.stream()
             .sorted((d1, d2) -> {
                 // 计算距离
@@ -145,6 +160,16 @@ public class OrderPushSDK {
         return distanceScore + ratingScore;
     }
 
+    /**
+     * 按预计接驾时间计算司机综合评分
+     */
+    private double calculateDriverScoreByEta(Driver driver, double etaSeconds) {
+        double etaScore = Double.isInfinite(etaSeconds) ? 0 : Math.max(0, 600 - etaSeconds) / 600 * 60; // 接驾时间分数(60%)，10分钟以上为0
+        double ratingScore = driver.getRating() != null ? driver.getRating().doubleValue() * 8 : 40; // 评分分数(40%)
+        
+        return etaScore + ratingScore;
+    }
+
     /**
      * 推送订单给指定司机
      */
@@ -1,5 +1,6 @@
 package com.taxi.service;
 
+import com.taxi.dto.OrderEventMessage;
 import com.taxi.entity.Order;
 import com.taxi.mapper.OrderMapper;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
@@ -23,6 +24,9 @@ public class OrderQueueConsumer {
     @Autowired
     private RabbitTemplate rabbitTemplate;
 
+    @Autowired
+    private DriverListenerService driverListenerService;
+
     /**
      * 处理订单等待队列中的订单
      * 从Redis GEO查找附近司机并通知
@@ -44,6 +48,11 @@ public class OrderQueueConsumer {
                 return;
             }
             
+            // 附近有正在监听的司机时直接分配给其中一个
+            if (driverListenerService.offerOrder(order)) {
+                return;
+            }
+            
             // 使用OrderDispatchService分配订单
             orderDispatchService.dispatchOrder(orderId);
             
@@ -60,8 +69,9 @@ public class OrderQueueConsumer {
      * 处理订单状态更新消息
      */
     @RabbitListener(queues = "order_status_queue")
-    public void handleOrderStatusUpdate(Object message) {
-        System.out.println("=== 处理订单状态更新: " + message + " ===");
+    public void handleOrderStatusUpdate(OrderEventMessage event) {
+        System.out.println("=== 处理订单状态更新: " + event.eventType() + ", 订单: " + event.orderId()
+            + ", 状态: " + event.status() + ", 事件ID: " + event.eventId() + " ===");
         
         try {
             // 这里可以处理订单状态变更的后续业务
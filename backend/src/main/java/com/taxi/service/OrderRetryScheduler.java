@@ -0,0 +1,298 @@
+package com.taxi.service;
+
+import com.taxi.util.RedisScriptUtil;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * 基于Redis有序集合的订单重试延迟队列
+ * 重试任务以订单ID为成员、到期时间为分数存入Redis，下一轮次记录在 order_retry_info: 哈希中，
+ * 服务重启不会丢失；多个实例各自用Lua脚本原子地批量领取到期任务，同一任务只会被一个实例领取。
+ * 领取后任务进入处理中集合并带有租约，执行期间定期续租，实例宕机导致租约过期的任务会被重新放回队列。
+ */
+@Service
+public class OrderRetryScheduler {
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Value("${taxi.dispatch.retry-mode:wheel}")
+    private String retryMode;
+
+    @Value("${taxi.dispatch.retry-queue.poll-interval-ms:1000}")
+    private long pollIntervalMs;
+
+    @Value("${taxi.dispatch.retry-queue.batch-size:100}")
+    private int batchSize;
+
+    @Value("${taxi.dispatch.retry-queue.lease-seconds:60}")
+    private long leaseSeconds;
+
+    @Value("${taxi.dispatch.retry-queue.worker-threads:4}")
+    private int workerThreads;
+
+    // Redis key
+    private static final String RETRY_QUEUE_KEY = "order_retry_queue";
+    private static final String RETRY_PROCESSING_KEY = "order_retry_processing";
+    private static final String ORDER_RETRY_INFO_KEY = "order_retry_info:";
+    private static final String NEXT_ROUND_FIELD = "nextRound";
+
+    /**
+     * 原子领取到期任务
+     * 1. 把租约已过期的处理中任务放回队列（立即到期）
+     * 2. 取出最多ARGV[3]个到期任务，移入处理中集合并设置租约到期时间
+     * KEYS[1]=队列 KEYS[2]=处理中 ARGV[1]=当前时间 ARGV[2]=租约到期时间 ARGV[3]=批量大小
+     */
+    private static final RedisScript<List<String>> CLAIM_SCRIPT = RedisScriptUtil.listScript(
+        "local expired = redis.call('ZRANGEBYSCORE', KEYS[2], '-inf', ARGV[1]) " +
+        "for i = 1, #expired do " +
+        "  redis.call('ZREM', KEYS[2], expired[i]) " +
+        "  redis.call('ZADD', KEYS[1], 'NX', ARGV[1], expired[i]) " +
+        "end " +
+        "local due = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, tonumber(ARGV[3])) " +
+        "for i = 1, #due do " +
+        "  redis.call('ZREM', KEYS[1], due[i]) " +
+        "  redis.call('ZADD', KEYS[2], ARGV[2], due[i]) " +
+        "end " +
+        "return due"
+    );
+
+    /**
+     * 为执行中的任务续租，只更新仍在处理中集合里的成员（已被取消或已完成的不会被放回）
+     * KEYS[1]=处理中 ARGV[1]=租约到期时间 ARGV[2..]=任务成员
+     */
+    private static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+        "local renewed = 0 " +
+        "for i = 2, #ARGV do " +
+        "  renewed = renewed + redis.call('ZADD', KEYS[1], 'XX', 'CH', ARGV[1], ARGV[i]) " +
+        "end " +
+        "return renewed",
+        Long.class
+    );
+
+    /**
+     * 取消订单的重试：移出待执行队列和处理中集合，并删除轮次信息
+     * KEYS[1]=队列 KEYS[2]=处理中 KEYS[3]=重试信息 ARGV[1]=任务成员
+     */
+    private static final RedisScript<Long> CANCEL_SCRIPT = new DefaultRedisScript<>(
+        "local removed = redis.call('ZREM', KEYS[1], ARGV[1]) + redis.call('ZREM', KEYS[2], ARGV[1]) " +
+        "redis.call('DEL', KEYS[3]) " +
+        "return removed",
+        Long.class
+    );
+
+    // 到期任务的处理方式（由OrderDispatchService注册为executeOrderRetry）
+    private volatile BiConsumer<Long, Integer> retryHandler;
+
+    private ScheduledExecutorService pollScheduler;
+    private ExecutorService retryExecutor;
+
+    // 到期时间和租约的时间来源
+    private Clock clock = Clock.systemUTC();
+
+    // 本实例正在执行的任务，定期续租
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    // 统计信息
+    private final AtomicLong totalScheduled = new AtomicLong();
+    private final AtomicLong totalClaimed = new AtomicLong();
+    private final AtomicLong totalFailed = new AtomicLong();
+    private final AtomicLong totalRenewed = new AtomicLong();
+    private volatile long lastPollTime;
+
+    @PostConstruct
+    public void init() {
+        if (!isEnabled()) {
+            return;
+        }
+        AtomicInteger threadIndex = new AtomicInteger();
+        retryExecutor = Executors.newFixedThreadPool(workerThreads, r -> {
+            Thread t = new Thread(r, "order-retry-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        pollScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "order-retry-poller");
+            t.setDaemon(true);
+            return t;
+        });
+        pollScheduler.scheduleWithFixedDelay(this::poll, pollIntervalMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+        // 每三分之一个租约续租一次，执行时间超过租约的任务不会被其他实例重新领取
+        long renewIntervalMs = Math.max(100, leaseSeconds * 1000L / 3);
+        pollScheduler.scheduleWithFixedDelay(this::renewLeases, renewIntervalMs, renewIntervalMs, TimeUnit.MILLISECONDS);
+        System.out.println("Redis订单重试队列已启用，轮询间隔: " + pollIntervalMs + "ms, 批量: " + batchSize);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (pollScheduler != null) {
+            pollScheduler.shutdown();
+        }
+        if (retryExecutor != null) {
+            retryExecutor.shutdown();
+        }
+    }
+
+    /**
+     * 是否使用Redis延迟队列（否则使用进程内时间轮）
+     */
+    public boolean isEnabled() {
+        return "redis".equalsIgnoreCase(retryMode);
+    }
+
+    /**
+     * 注册到期任务处理器
+     */
+    public void setRetryHandler(BiConsumer<Long, Integer> retryHandler) {
+        this.retryHandler = retryHandler;
+    }
+
+    /**
+     * 安排订单的下一轮重试，已有的未到期重试会被替换
+     */
+    public void schedule(Long orderId, int retryRound, long delaySeconds) {
+        long dueTime = clock.millis() + delaySeconds * 1000L;
+        redisTemplate.opsForHash().put(ORDER_RETRY_INFO_KEY + orderId, NEXT_ROUND_FIELD, retryRound);
+        stringRedisTemplate.opsForZSet().add(RETRY_QUEUE_KEY, orderId.toString(), dueTime);
+        totalScheduled.incrementAndGet();
+    }
+
+    /**
+     * 取消订单的重试：待执行和处理中的任务都会移除，轮次信息一并删除
+     * 正在执行的任务不会被中断，但之后不再续租，也不会因租约过期被重新放回队列
+     */
+    public void cancel(Long orderId) {
+        try {
+            stringRedisTemplate.execute(
+                CANCEL_SCRIPT,
+                Arrays.asList(RETRY_QUEUE_KEY, RETRY_PROCESSING_KEY, ORDER_RETRY_INFO_KEY + orderId),
+                orderId.toString()
+            );
+        } catch (Exception e) {
+            System.err.println("取消订单重试失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 领取并执行到期任务
+     * 每次轮询最多领取一批，且本实例领取未完成的任务（含在线程池中排队的）不超过一个批量：
+     * 积压的到期任务留在Redis中由各实例按处理能力分担，不会被一个实例全部领走后在本地排队直到租约过期
+     */
+    void poll() {
+        try {
+            lastPollTime = clock.millis();
+            int capacity = batchSize - inFlight.size();
+            if (capacity <= 0) {
+                return;
+            }
+            List<String> due = claimDue(lastPollTime, capacity);
+            totalClaimed.addAndGet(due.size());
+            for (String member : due) {
+                inFlight.add(member);
+                retryExecutor.execute(() -> runRetry(member));
+            }
+        } catch (Exception e) {
+            System.err.println("轮询订单重试队列失败: " + e.getMessage());
+        }
+    }
+
+    private List<String> claimDue(long now, int limit) {
+        List<String> result = stringRedisTemplate.execute(
+            CLAIM_SCRIPT,
+            Arrays.asList(RETRY_QUEUE_KEY, RETRY_PROCESSING_KEY),
+            String.valueOf(now),
+            String.valueOf(now + leaseSeconds * 1000L),
+            String.valueOf(limit)
+        );
+        return result != null ? result : Collections.emptyList();
+    }
+
+    /**
+     * 为本实例执行中的任务续租
+     */
+    void renewLeases() {
+        if (inFlight.isEmpty()) {
+            return;
+        }
+        try {
+            List<String> args = new ArrayList<>(inFlight.size() + 1);
+            args.add(String.valueOf(clock.millis() + leaseSeconds * 1000L));
+            args.addAll(inFlight);
+            Long renewed = stringRedisTemplate.execute(
+                RENEW_SCRIPT,
+                Collections.singletonList(RETRY_PROCESSING_KEY),
+                args.toArray()
+            );
+            if (renewed != null) {
+                totalRenewed.addAndGet(renewed);
+            }
+        } catch (Exception e) {
+            System.err.println("订单重试任务续租失败: " + e.getMessage());
+        }
+    }
+
+    private void runRetry(String member) {
+        Long orderId = Long.valueOf(member);
+        try {
+            Object round = redisTemplate.opsForHash().get(ORDER_RETRY_INFO_KEY + orderId, NEXT_ROUND_FIELD);
+            BiConsumer<Long, Integer> handler = retryHandler;
+            if (round != null && handler != null) {
+                handler.accept(orderId, Integer.parseInt(round.toString()));
+            }
+        } catch (Exception e) {
+            totalFailed.incrementAndGet();
+            System.err.println("执行订单 " + orderId + " 重试失败: " + e.getMessage());
+        } finally {
+            // 执行完成后释放租约
+            inFlight.remove(member);
+            stringRedisTemplate.opsForZSet().remove(RETRY_PROCESSING_KEY, member);
+        }
+    }
+
+    /**
+     * 获取重试队列统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", isEnabled());
+        stats.put("totalScheduled", totalScheduled.get());
+        stats.put("totalClaimed", totalClaimed.get());
+        stats.put("totalFailed", totalFailed.get());
+        stats.put("totalRenewed", totalRenewed.get());
+        stats.put("inFlight", inFlight.size());
+        stats.put("lastPollTime", lastPollTime);
+        if (isEnabled()) {
+            stats.put("queueDepth", stringRedisTemplate.opsForZSet().zCard(RETRY_QUEUE_KEY));
+            stats.put("processing", stringRedisTemplate.opsForZSet().zCard(RETRY_PROCESSING_KEY));
+            stats.put("dueNow", stringRedisTemplate.opsForZSet().count(RETRY_QUEUE_KEY, 0, clock.millis()));
+        }
+        return stats;
+    }
+}
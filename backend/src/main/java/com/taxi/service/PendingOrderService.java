@@ -2,11 +2,22 @@ package com.taxi.service;
 
 import com.taxi.entity.Order;
 import com.taxi.mapper.OrderMapper;
+import com.taxi.util.RedisScriptUtil;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.geo.Circle;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResult;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Metrics;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
@@ -14,6 +25,8 @@ import java.util.concurrent.TimeUnit;
 /**
  * 待分配订单管理服务
  * 使用Redis持久化存储待分配订单，确保后续上线的司机也能看到
+ * 订单同时写入按时间排序的有序集合、按上车点索引的GEO集合和订单摘要哈希，
+ * 查询附近待分配订单只需一次半径查询和一次批量读取摘要，不再逐个查询数据库
  */
 @Service
 public class PendingOrderService {
@@ -21,23 +34,69 @@ public class PendingOrderService {
     @Autowired
     private RedisTemplate<String, Object> redisTemplate;
     
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    
     @Autowired
     private OrderMapper orderMapper;
+    
+    @Autowired
+    private SupplyDemandHeatmap supplyDemandHeatmap;
 
     // Redis key
     private static final String PENDING_ORDERS_KEY = "pending_orders";
+    private static final String PENDING_ORDERS_GEO_KEY = "pending_orders_geo";
+    private static final String PENDING_ORDER_SUMMARY_KEY = "pending_order_summary";
     private static final String ORDER_EXPIRE_KEY = "order_expire:";
 
+    // 待分配订单保留时长（毫秒）
+    private static final long PENDING_EXPIRE_MILLIS = 30 * 60 * 1000L;
+
+    /**
+     * 按分数淘汰过期订单，同时从GEO集合和摘要哈希中移除，返回被淘汰的订单ID
+     * KEYS[1]=有序集合 KEYS[2]=GEO集合 KEYS[3]=摘要哈希 ARGV[1]=过期时间点
+     */
+    private static final RedisScript<List<String>> EVICT_EXPIRED_SCRIPT = RedisScriptUtil.listScript(
+        "local ids = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1]) " +
+        "for i = 1, #ids do " +
+        "  redis.call('ZREM', KEYS[1], ids[i]) " +
+        "  redis.call('ZREM', KEYS[2], ids[i]) " +
+        "  redis.call('HDEL', KEYS[3], ids[i]) " +
+        "end " +
+        "return ids"
+    );
+
     /**
      * 添加待分配订单到持久化队列
      */
     public void addPendingOrder(Long orderId) {
+        Order order = orderMapper.selectById(orderId);
+        if (order != null) {
+            addPendingOrder(order);
+        }
+    }
+
+    /**
+     * 添加待分配订单到持久化队列（调用方已持有订单时使用，避免再次查询数据库）
+     */
+    public void addPendingOrder(Order order) {
+        Long orderId = order.getId();
         try {
             // 1. 添加到Redis有序集合（按时间排序）
             long timestamp = System.currentTimeMillis();
             redisTemplate.opsForZSet().add(PENDING_ORDERS_KEY, orderId, timestamp);
             
-            // 2. 设置订单过期时间（30分钟后自动移除）
+            // 2. 按上车点加入GEO集合，并保存订单摘要
+            if (order.getPickupLatitude() != null && order.getPickupLongitude() != null) {
+                redisTemplate.opsForGeo().add(PENDING_ORDERS_GEO_KEY,
+                    new Point(order.getPickupLongitude().doubleValue(), order.getPickupLatitude().doubleValue()),
+                    orderId);
+                supplyDemandHeatmap.orderOpened(orderId,
+                    order.getPickupLatitude().doubleValue(), order.getPickupLongitude().doubleValue());
+            }
+            redisTemplate.opsForHash().put(PENDING_ORDER_SUMMARY_KEY, orderId.toString(), toSummary(order));
+            
+            // 3. 设置订单过期时间（30分钟后自动移除）
             redisTemplate.opsForValue().set(ORDER_EXPIRE_KEY + orderId, timestamp, 30, TimeUnit.MINUTES);
             
             System.out.println("订单 " + orderId + " 已加入待分配队列，时间戳: " + timestamp);
@@ -53,7 +112,10 @@ public class PendingOrderService {
     public void removePendingOrder(Long orderId) {
         try {
             redisTemplate.opsForZSet().remove(PENDING_ORDERS_KEY, orderId);
+            redisTemplate.opsForGeo().remove(PENDING_ORDERS_GEO_KEY, orderId);
+            redisTemplate.opsForHash().delete(PENDING_ORDER_SUMMARY_KEY, orderId.toString());
             redisTemplate.delete(ORDER_EXPIRE_KEY + orderId);
+            supplyDemandHeatmap.orderClosed(orderId);
             System.out.println("订单 " + orderId + " 已从待分配队列移除");
             
         } catch (Exception e) {
@@ -75,10 +137,19 @@ public class PendingOrderService {
             Set<Object> orderIds = redisTemplate.opsForZSet().range(PENDING_ORDERS_KEY, 0, -1);
             
             if (orderIds != null && !orderIds.isEmpty()) {
+                // 3. 批量读取订单摘要，缺少摘要的旧数据再回查数据库
+                List<Object> fields = new ArrayList<>(orderIds.size());
                 for (Object orderIdObj : orderIds) {
-                    Long orderId = Long.valueOf(orderIdObj.toString());
-                    
-                    // 3. 从数据库获取订单详情
+                    fields.add(orderIdObj.toString());
+                }
+                List<Object> summaries = redisTemplate.opsForHash().multiGet(PENDING_ORDER_SUMMARY_KEY, fields);
+                for (int i = 0; i < fields.size(); i++) {
+                    Object summary = summaries != null ? summaries.get(i) : null;
+                    if (summary instanceof Order) {
+                        pendingOrders.add((Order) summary);
+                        continue;
+                    }
+                    Long orderId = Long.valueOf(fields.get(i).toString());
                     Order order = orderMapper.selectById(orderId);
                     if (order != null && "PENDING".equals(order.getStatus())) {
                         pendingOrders.add(order);
@@ -99,24 +170,42 @@ public class PendingOrderService {
     }
 
     /**
-     * 获取指定区域的待分配订单
+     * 获取指定区域的待分配订单（按距离由近到远）
      */
     public List<Order> getPendingOrdersNearby(double latitude, double longitude, double radiusKm) {
-        List<Order> allPendingOrders = getAllPendingOrders();
         List<Order> nearbyOrders = new ArrayList<>();
         
-        for (Order order : allPendingOrders) {
-            if (order.getPickupLatitude() != null && order.getPickupLongitude() != null) {
-                double distance = calculateDistance(
-                    latitude, longitude,
-                    order.getPickupLatitude().doubleValue(),
-                    order.getPickupLongitude().doubleValue()
-                );
-                
-                if (distance <= radiusKm) {
-                    nearbyOrders.add(order);
+        try {
+            // 1. 清理过期订单
+            cleanExpiredOrders();
+            
+            // 2. 按上车点半径查询
+            Circle circle = new Circle(new Point(longitude, latitude), new Distance(radiusKm, Metrics.KILOMETERS));
+            RedisGeoCommands.GeoRadiusCommandArgs args = RedisGeoCommands.GeoRadiusCommandArgs
+                .newGeoRadiusArgs()
+                .sortAscending();
+            GeoResults<RedisGeoCommands.GeoLocation<Object>> results =
+                redisTemplate.opsForGeo().radius(PENDING_ORDERS_GEO_KEY, circle, args);
+            if (results == null || results.getContent().isEmpty()) {
+                return nearbyOrders;
+            }
+            
+            // 3. 批量读取订单摘要
+            List<Object> fields = new ArrayList<>(results.getContent().size());
+            for (GeoResult<RedisGeoCommands.GeoLocation<Object>> result : results) {
+                fields.add(result.getContent().getName().toString());
+            }
+            List<Object> summaries = redisTemplate.opsForHash().multiGet(PENDING_ORDER_SUMMARY_KEY, fields);
+            if (summaries != null) {
+                for (Object summary : summaries) {
+                    if (summary instanceof Order) {
+                        nearbyOrders.add((Order) summary);
+                    }
                 }
             }
+            
+        } catch (Exception e) {
+            System.err.println("获取附近待分配订单失败: " + e.getMessage());
         }
         
         System.out.println("在 " + radiusKm + "km 范围内找到 " + nearbyOrders.size() + " 个待分配订单");
@@ -129,13 +218,20 @@ public class PendingOrderService {
     private void cleanExpiredOrders() {
         try {
             long currentTime = System.currentTimeMillis();
-            long expireTime = currentTime - (30 * 60 * 1000); // 30分钟前
+            long expireTime = currentTime - PENDING_EXPIRE_MILLIS; // 30分钟前
             
-            // 移除30分钟前的订单
-            Long removedCount = redisTemplate.opsForZSet().removeRangeByScore(PENDING_ORDERS_KEY, 0, expireTime);
+            // 移除30分钟前的订单（同时清理GEO集合和摘要）
+            List<String> removedIds = stringRedisTemplate.execute(
+                EVICT_EXPIRED_SCRIPT,
+                Arrays.asList(PENDING_ORDERS_KEY, PENDING_ORDERS_GEO_KEY, PENDING_ORDER_SUMMARY_KEY),
+                String.valueOf(expireTime)
+            );
             
-            if (removedCount != null && removedCount > 0) {
-                System.out.println("清理了 " + removedCount + " 个过期的待分配订单");
+            if (removedIds != null && !removedIds.isEmpty()) {
+                for (String removedId : removedIds) {
+                    supplyDemandHeatmap.orderClosed(Long.parseLong(removedId));
+                }
+                System.out.println("清理了 " + removedIds.size() + " 个过期的待分配订单");
             }
             
         } catch (Exception e) {
@@ -144,17 +240,27 @@ public class PendingOrderService {
     }
 
     /**
-     * 计算两点间距离（公里）
+     * 构建订单摘要，只保留通知司机所需的字段
      */
-    private double calculateDistance(double lat1, double lng1, double lat2, double lng2) {
-        double R = 6371; // 地球半径（公里）
-        double dLat = Math.toRadians(lat2 - lat1);
-        double dLng = Math.toRadians(lng2 - lng1);
-        double a = Math.sin(dLat/2) * Math.sin(dLat/2) +
-                   Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
-                   Math.sin(dLng/2) * Math.sin(dLng/2);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1-a));
-        return R * c;
+    private Order toSummary(Order order) {
+        Order summary = new Order();
+        summary.setId(order.getId());
+        summary.setOrderNumber(order.getOrderNumber());
+        summary.setPassengerId(order.getPassengerId());
+        summary.setOrderType(order.getOrderType());
+        summary.setStatus(order.getStatus());
+        summary.setPickupAddress(order.getPickupAddress());
+        summary.setPickupLatitude(order.getPickupLatitude());
+        summary.setPickupLongitude(order.getPickupLongitude());
+        summary.setDestinationAddress(order.getDestinationAddress());
+        summary.setDestinationLatitude(order.getDestinationLatitude());
+        summary.setDestinationLongitude(order.getDestinationLongitude());
+        summary.setEstimatedDistance(order.getEstimatedDistance());
+        summary.setEstimatedDuration(order.getEstimatedDuration());
+        summary.setEstimatedFare(order.getEstimatedFare());
+        summary.setScheduledTime(order.getScheduledTime());
+        summary.setCreatedAt(order.getCreatedAt());
+        return summary;
     }
 
     /**
@@ -0,0 +1,313 @@
+package com.taxi.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RabbitMQ异步批量发送
+ * 业务线程只把消息放入有界环形缓冲（ArrayBlockingQueue）后返回，不等待broker；
+ * 后台发送线程每次取出一批，在同一个通道上连续发送，每条消息带CorrelationData等待broker确认。
+ * 被nack或超时未确认的消息重新入队重试，超过重试次数后记录失败；缓冲已满时由调用线程同步发送，不丢消息。
+ */
+@Component
+public class RabbitPublisher {
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Value("${taxi.rabbit.publisher.enabled:true}")
+    private boolean enabled;
+
+    @Value("${taxi.rabbit.publisher.capacity:65536}")
+    private int capacity;
+
+    @Value("${taxi.rabbit.publisher.batch-size:100}")
+    private int batchSize;
+
+    @Value("${taxi.rabbit.publisher.threads:2}")
+    private int threads;
+
+    @Value("${taxi.rabbit.publisher.max-retries:3}")
+    private int maxRetries;
+
+    @Value("${taxi.rabbit.publisher.confirm-timeout-ms:5000}")
+    private long confirmTimeoutMs;
+
+    /**
+     * 一条待发送的消息
+     */
+    private static final class Outgoing {
+        final String exchange;
+        final String routingKey;
+        final Object payload;
+        final long enqueueNanos;
+        // 发送线程递增，确认回调和超时线程读取
+        final AtomicInteger attempts = new AtomicInteger();
+        volatile long sentNanos;
+
+        Outgoing(String exchange, String routingKey, Object payload) {
+            this.exchange = exchange;
+            this.routingKey = routingKey;
+            this.payload = payload;
+            this.enqueueNanos = System.nanoTime();
+        }
+    }
+
+    private ArrayBlockingQueue<Outgoing> ring;
+    private final Map<String, Outgoing> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong correlationSequence = new AtomicLong();
+    private final List<Thread> senders = new ArrayList<>();
+    private ScheduledExecutorService timeoutScheduler;
+    private volatile boolean running;
+    // 连接工厂开启了correlated确认时才等待确认
+    private boolean confirms;
+
+    // 统计信息
+    private final AtomicLong totalEnqueued = new AtomicLong();
+    private final AtomicLong totalSent = new AtomicLong();
+    private final AtomicLong totalBatches = new AtomicLong();
+    private final AtomicLong totalConfirmed = new AtomicLong();
+    private final AtomicLong totalNacked = new AtomicLong();
+    private final AtomicLong totalTimedOut = new AtomicLong();
+    private final AtomicLong totalRetried = new AtomicLong();
+    private final AtomicLong totalFailed = new AtomicLong();
+    private final AtomicLong totalCallerRuns = new AtomicLong();
+    private final AtomicLong totalConfirmMicros = new AtomicLong();
+    private volatile long maxConfirmMicros;
+    private volatile long lastConfirmMicros;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            System.out.println("RabbitMQ异步发送已关闭，消息在调用线程同步发送");
+            return;
+        }
+        ring = new ArrayBlockingQueue<>(capacity);
+        confirms = rabbitTemplate.getConnectionFactory().isPublisherConfirms();
+        if (!confirms) {
+            System.err.println("⚠️ 未开启publisher-confirm-type: correlated，异步发送不等待broker确认");
+        }
+        running = true;
+        for (int i = 0; i < threads; i++) {
+            Thread sender = new Thread(this::sendLoop, "rabbit-publisher-" + i);
+            sender.setDaemon(true);
+            sender.start();
+            senders.add(sender);
+        }
+        timeoutScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "rabbit-publisher-confirm-timeout");
+            t.setDaemon(true);
+            return t;
+        });
+        long checkInterval = Math.max(100, confirmTimeoutMs / 2);
+        timeoutScheduler.scheduleWithFixedDelay(this::expireUnconfirmed, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+        System.out.println("RabbitMQ异步发送已启用，缓冲: " + capacity + ", 批大小: " + batchSize + ", 发送线程: " + threads
+            + ", 发送确认: " + confirms);
+    }
+
+    /**
+     * 停止接收新消息，等待发送线程发完缓冲中的消息
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        for (Thread sender : senders) {
+            try {
+                sender.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (timeoutScheduler != null) {
+            timeoutScheduler.shutdownNow();
+        }
+        if (!ring.isEmpty() || !inFlight.isEmpty()) {
+            System.err.println("RabbitMQ异步发送关闭时仍有未发送消息: " + ring.size() + ", 未确认消息: " + inFlight.size());
+        }
+    }
+
+    /**
+     * 发送到默认交换机（路由键即队列名）
+     */
+    public void publish(String queueName, Object payload) {
+        publish("", queueName, payload);
+    }
+
+    /**
+     * 异步发送消息，放入缓冲后立即返回
+     */
+    public void publish(String exchange, String routingKey, Object payload) {
+        if (!running) {
+            rabbitTemplate.convertAndSend(exchange, routingKey, payload);
+            return;
+        }
+        Outgoing message = new Outgoing(exchange, routingKey, payload);
+        if (ring.offer(message)) {
+            totalEnqueued.incrementAndGet();
+            return;
+        }
+        // 缓冲已满，由调用线程同步发送作为背压
+        totalCallerRuns.incrementAndGet();
+        rabbitTemplate.convertAndSend(exchange, routingKey, payload);
+    }
+
+    private void sendLoop() {
+        List<Outgoing> batch = new ArrayList<>(batchSize);
+        while (running || !ring.isEmpty()) {
+            try {
+                Outgoing first = ring.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                ring.drainTo(batch, batchSize - 1);
+                sendBatch(batch);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    break;
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 在同一个通道上发送一批消息
+     */
+    private void sendBatch(List<Outgoing> batch) {
+        int[] sent = {0};
+        try {
+            rabbitTemplate.invoke(operations -> {
+                for (Outgoing message : batch) {
+                    if (confirms) {
+                        operations.convertAndSend(message.exchange, message.routingKey, message.payload, track(message));
+                    } else {
+                        message.attempts.incrementAndGet();
+                        operations.convertAndSend(message.exchange, message.routingKey, message.payload);
+                    }
+                    sent[0]++;
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            System.err.println("RabbitMQ批量发送失败: " + e.getMessage());
+            // 通道异常时未发出的消息重试，已发出的等待确认结果或超时
+            for (int i = sent[0]; i < batch.size(); i++) {
+                Outgoing message = batch.get(i);
+                inFlight.values().remove(message);
+                retryOrFail(message, "发送异常: " + e.getMessage());
+            }
+        }
+        totalSent.addAndGet(sent[0]);
+        totalBatches.incrementAndGet();
+    }
+
+    /**
+     * 登记待确认消息，确认结果到达时处理
+     */
+    private CorrelationData track(Outgoing message) {
+        String id = Long.toString(correlationSequence.incrementAndGet());
+        CorrelationData correlation = new CorrelationData(id);
+        message.attempts.incrementAndGet();
+        message.sentNanos = System.nanoTime();
+        inFlight.put(id, message);
+        correlation.getFuture().whenComplete((confirm, error) -> {
+            Outgoing pending = inFlight.remove(id);
+            if (pending == null) {
+                // 已按超时处理
+                return;
+            }
+            if (error == null && confirm.isAck()) {
+                recordConfirm(pending);
+            } else {
+                totalNacked.incrementAndGet();
+                String reason = error != null ? error.getMessage() : confirm.getReason();
+                retryOrFail(pending, "broker拒绝: " + reason);
+            }
+        });
+        return correlation;
+    }
+
+    private void recordConfirm(Outgoing message) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - message.sentNanos);
+        totalConfirmed.incrementAndGet();
+        totalConfirmMicros.addAndGet(micros);
+        lastConfirmMicros = micros;
+        if (micros > maxConfirmMicros) {
+            maxConfirmMicros = micros;
+        }
+    }
+
+    private void retryOrFail(Outgoing message, String reason) {
+        int attempts = message.attempts.get();
+        if (attempts <= maxRetries && ring.offer(message)) {
+            totalRetried.incrementAndGet();
+            return;
+        }
+        totalFailed.incrementAndGet();
+        System.err.println("RabbitMQ消息发送失败，已放弃 - 交换机: '" + message.exchange + "', 路由键: " + message.routingKey
+            + ", 尝试次数: " + attempts + ", 原因: " + reason);
+    }
+
+    /**
+     * 超时未收到确认的消息按失败处理（连接断开时确认可能永远不会到达）
+     */
+    private void expireUnconfirmed() {
+        long deadline = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(confirmTimeoutMs);
+        for (Map.Entry<String, Outgoing> entry : inFlight.entrySet()) {
+            Outgoing message = entry.getValue();
+            if (message.sentNanos - deadline < 0 && inFlight.remove(entry.getKey(), message)) {
+                totalTimedOut.incrementAndGet();
+                retryOrFail(message, "确认超时");
+            }
+        }
+    }
+
+    /**
+     * 获取发送统计
+     */
+    public Map<String, Object> getStats() {
+        long confirmed = totalConfirmed.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("publisherConfirms", confirms);
+        stats.put("capacity", capacity);
+        stats.put("queued", ring != null ? ring.size() : 0);
+        stats.put("inFlight", inFlight.size());
+        stats.put("totalEnqueued", totalEnqueued.get());
+        stats.put("totalSent", totalSent.get());
+        stats.put("totalBatches", totalBatches.get());
+        stats.put("totalConfirmed", confirmed);
+        stats.put("totalNacked", totalNacked.get());
+        stats.put("totalTimedOut", totalTimedOut.get());
+        stats.put("totalRetried", totalRetried.get());
+        stats.put("totalFailed", totalFailed.get());
+        stats.put("totalCallerRuns", totalCallerRuns.get());
+        stats.put("avgConfirmMicros", confirmed == 0 ? 0 : totalConfirmMicros.get() / confirmed);
+        stats.put("lastConfirmMicros", lastConfirmMicros);
+        stats.put("maxConfirmMicros", maxConfirmMicros);
+        return stats;
+    }
+}
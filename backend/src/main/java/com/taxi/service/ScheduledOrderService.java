@@ -2,12 +2,15 @@ package com.taxi.service;
 
 import com.taxi.entity.Order;
 import com.taxi.mapper.OrderMapper;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -31,7 +34,34 @@ public class ScheduledOrderService {
     @Autowired
     private DriverRedisService driverRedisService;
     
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(10);
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    private ScheduledExecutorService scheduler;
+
+    // 虚拟线程模式下到期任务的执行器：定时只占用一个平台线程，激活/超时任务（阻塞在数据库上）各自在虚拟线程中执行
+    private ExecutorService taskExecutor;
+
+    @PostConstruct
+    public void initScheduler() {
+        if (virtualThreads) {
+            scheduler = Executors.newSingleThreadScheduledExecutor();
+            taskExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("scheduled-order-", 0).factory());
+        } else {
+            scheduler = Executors.newScheduledThreadPool(10);
+        }
+    }
+
+    /**
+     * 延迟执行任务
+     */
+    private void schedule(Runnable task, long delayMillis) {
+        if (taskExecutor != null) {
+            scheduler.schedule(() -> taskExecutor.execute(task), delayMillis, TimeUnit.MILLISECONDS);
+        } else {
+            scheduler.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
 
     /**
      * 创建预约单
@@ -112,13 +142,13 @@ public class ScheduledOrderService {
         
         long delayMillis = java.time.Duration.between(now, activationTime).toMillis();
         
-        scheduler.schedule(() -> {
+        schedule(() -> {
             try {
                 activateScheduledOrder(scheduledOrder.getId());
             } catch (Exception e) {
                 log.error("激活预约单失败: orderId={}", scheduledOrder.getId(), e);
             }
-        }, delayMillis, TimeUnit.MILLISECONDS);
+        }, delayMillis);
         
         log.info("已安排预约单激活任务: orderId={}, activationTime={}, delayMillis={}", 
                 scheduledOrder.getId(), activationTime, delayMillis);
@@ -189,7 +219,7 @@ public class ScheduledOrderService {
      * 设置预约单超时取消
      */
     private void scheduleOrderTimeout(Long orderId) {
-        scheduler.schedule(() -> {
+        schedule(() -> {
             try {
                 Order order = orderMapper.selectById(orderId);
                 if (order != null && "PENDING".equals(order.getStatus())) {
@@ -203,7 +233,7 @@ public class ScheduledOrderService {
             } catch (Exception e) {
                 log.error("处理预约单超时失败: orderId={}", orderId, e);
             }
-        }, 30, TimeUnit.MINUTES);
+        }, TimeUnit.MINUTES.toMillis(30));
     }
     
     /**
@@ -228,6 +258,9 @@ public class ScheduledOrderService {
         
         orderMapper.updateById(order);
         
+        // 取消待执行的派单重试
+        orderDispatchService.cleanOrderRetryInfo(orderId);
+        
         log.info("预约单取消成功: orderId={}, originalStatus={}, driverId={}", 
                 orderId, originalStatus, driverId);
         
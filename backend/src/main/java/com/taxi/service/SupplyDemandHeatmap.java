@@ -0,0 +1,395 @@
+package com.taxi.service;
+
+import com.taxi.util.GeoGridUtil;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 供需热力图聚合器
+ * 由司机上下线/位置/忙闲事件和订单进入/离开待分配池事件增量驱动，按网格维护：
+ * 空闲司机数、忙碌司机数、待分配订单数、最近5/15分钟的订单到达数（按分钟分桶的滑动窗口）。
+ * 计数全部保存在预分配的基本类型数组中，按坐标读取单个网格的计数为O(1)。
+ * 计数只来自本实例收到的事件：多实例部署（single-instance=false）时每个实例只看到连接在本实例上的司机
+ * 和由本实例派发的订单，读取结果是本实例的一部分供需，需要全局数据时汇总各实例的结果。
+ */
+@Component
+public class SupplyDemandHeatmap {
+
+    private static final int STATUS_FREE = 1;
+    private static final int STATUS_BUSY = 2;
+
+    /** 到达数滑动窗口的分钟桶数 */
+    private static final int ARRIVAL_BUCKETS = 15;
+
+    @Value("${taxi.heatmap.cell-size-degrees:0.01}")
+    private double cellSizeDegrees;
+
+    @Value("${taxi.heatmap.max-cells:65536}")
+    private int maxCells;
+
+    // 单实例部署时本实例的计数就是全局供需
+    @Value("${taxi.dispatch.geo-index.single-instance:false}")
+    private boolean singleInstance;
+
+    // 到达数按分钟分桶的时间来源
+    private Clock clock = Clock.systemDefaultZone();
+
+    // 网格编码 -> 槽位
+    private final Map<Long, Integer> cellSlots = new ConcurrentHashMap<>();
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    private long[] slotCellKeys;
+
+    private AtomicIntegerArray freeDrivers;
+    private AtomicIntegerArray busyDrivers;
+    private AtomicIntegerArray openOrders;
+    // 槽位 * ARRIVAL_BUCKETS + 分钟桶：高32位为桶所属分钟，低32位为该分钟的到达数
+    private AtomicLongArray arrivalBuckets;
+
+    // 司机当前所在槽位和状态：高32位槽位，低32位状态
+    private final Map<Long, Long> driverStates = new ConcurrentHashMap<>();
+    // 待分配订单所在槽位
+    private final Map<Long, Integer> orderSlots = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        slotCellKeys = new long[maxCells];
+        freeDrivers = new AtomicIntegerArray(maxCells);
+        busyDrivers = new AtomicIntegerArray(maxCells);
+        openOrders = new AtomicIntegerArray(maxCells);
+        arrivalBuckets = new AtomicLongArray(maxCells * ARRIVAL_BUCKETS);
+    }
+
+    // ==================== 事件入口 ====================
+
+    /**
+     * 司机上线（空闲）
+     */
+    public void driverOnline(long driverId, double latitude, double longitude) {
+        driverMoved(driverId, latitude, longitude, STATUS_FREE, true);
+    }
+
+    /**
+     * 恢复司机状态（启动时从Redis重建）
+     */
+    public void restoreDriver(long driverId, double latitude, double longitude, boolean busy) {
+        driverMoved(driverId, latitude, longitude, busy ? STATUS_BUSY : STATUS_FREE, true);
+    }
+
+    /**
+     * 司机位置更新，保持原有忙闲状态
+     */
+    public void driverLocation(long driverId, double latitude, double longitude) {
+        driverMoved(driverId, latitude, longitude, 0, false);
+    }
+
+    /**
+     * 司机忙闲状态变化
+     */
+    public void driverBusy(long driverId, boolean busy) {
+        int newStatus = busy ? STATUS_BUSY : STATUS_FREE;
+        driverStates.computeIfPresent(driverId, (id, state) -> {
+            int slot = slotOf(state);
+            int oldStatus = statusOf(state);
+            if (oldStatus != newStatus) {
+                counterFor(oldStatus).decrementAndGet(slot);
+                counterFor(newStatus).incrementAndGet(slot);
+            }
+            return pack(slot, newStatus);
+        });
+    }
+
+    /**
+     * 司机下线
+     */
+    public void driverOffline(long driverId) {
+        driverStates.computeIfPresent(driverId, (id, state) -> {
+            counterFor(statusOf(state)).decrementAndGet(slotOf(state));
+            return null;
+        });
+    }
+
+    /**
+     * 订单进入待分配池：待分配数+1，首次进入时记一次到达
+     * 同一订单会被多次派单（创建时、队列消费时、重试时），已在池中的订单只更新所在网格，不重复计到达
+     */
+    public void orderOpened(long orderId, double latitude, double longitude) {
+        int slot = slotFor(latitude, longitude);
+        if (slot < 0) {
+            return;
+        }
+        orderSlots.compute(orderId, (id, previous) -> {
+            if (previous != null) {
+                openOrders.decrementAndGet(previous);
+            } else {
+                recordArrival(slot);
+            }
+            openOrders.incrementAndGet(slot);
+            return slot;
+        });
+    }
+
+    /**
+     * 订单离开待分配池（被接单、取消或过期）
+     */
+    public void orderClosed(long orderId) {
+        orderSlots.computeIfPresent(orderId, (id, slot) -> {
+            openOrders.decrementAndGet(slot);
+            return null;
+        });
+    }
+
+    // ==================== O(1) 读取 ====================
+
+    public int getFreeDrivers(double latitude, double longitude) {
+        int slot = existingSlot(latitude, longitude);
+        return slot < 0 ? 0 : freeDrivers.get(slot);
+    }
+
+    public int getBusyDrivers(double latitude, double longitude) {
+        int slot = existingSlot(latitude, longitude);
+        return slot < 0 ? 0 : busyDrivers.get(slot);
+    }
+
+    public int getOpenOrders(double latitude, double longitude) {
+        int slot = existingSlot(latitude, longitude);
+        return slot < 0 ? 0 : openOrders.get(slot);
+    }
+
+    /**
+     * 最近minutes分钟（最多15分钟）的订单到达数
+     */
+    public int getArrivals(double latitude, double longitude, int minutes) {
+        int slot = existingSlot(latitude, longitude);
+        return slot < 0 ? 0 : sumArrivals(slot, minutes, currentMinute());
+    }
+
+    /**
+     * 供需比（空闲司机数 / 待分配订单数），没有待分配订单时返回空闲司机数
+     */
+    public double getSupplyDemandRatio(double latitude, double longitude) {
+        int slot = existingSlot(latitude, longitude);
+        if (slot < 0) {
+            return 0;
+        }
+        int orders = openOrders.get(slot);
+        int free = freeDrivers.get(slot);
+        return orders == 0 ? free : (double) free / orders;
+    }
+
+    /**
+     * 统计网格中心在半径范围内的计数，返回 [空闲司机数, 忙碌司机数, 待分配订单数]
+     * 按外接矩形逐个网格查槽位，矩形内网格数超过已用槽位数时改为扫描已用槽位
+     */
+    public int[] countWithin(double latitude, double longitude, double radiusKm) {
+        int[] counts = new int[3];
+        double radiusMeters = radiusKm * 1000;
+        double latSpan = GeoGridUtil.latDegreesForKm(radiusKm);
+        double lngSpan = GeoGridUtil.lngDegreesForKm(radiusKm, latitude);
+        int minLatIndex = GeoGridUtil.latIndex(latitude - latSpan, cellSizeDegrees);
+        int maxLatIndex = GeoGridUtil.latIndex(latitude + latSpan, cellSizeDegrees);
+        int minLngIndex = GeoGridUtil.lngIndex(longitude - lngSpan, cellSizeDegrees);
+        int maxLngIndex = GeoGridUtil.lngIndex(longitude + lngSpan, cellSizeDegrees);
+        int used = Math.min(nextSlot.get(), maxCells);
+        long boxCells = (long) (maxLatIndex - minLatIndex + 1) * (maxLngIndex - minLngIndex + 1);
+        if (boxCells > used) {
+            for (int slot = 0; slot < used; slot++) {
+                addIfWithin(counts, slot, latitude, longitude, radiusMeters);
+            }
+            return counts;
+        }
+        for (int latIndex = minLatIndex; latIndex <= maxLatIndex; latIndex++) {
+            for (int lngIndex = minLngIndex; lngIndex <= maxLngIndex; lngIndex++) {
+                Integer slot = cellSlots.get(GeoGridUtil.cellKey(latIndex, lngIndex));
+                if (slot != null && slot >= 0) {
+                    addIfWithin(counts, slot, latitude, longitude, radiusMeters);
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 计数是否覆盖全部实例（单实例部署），否则只是本实例看到的部分
+     */
+    public boolean isClusterWide() {
+        return singleInstance;
+    }
+
+    /**
+     * 获取热力图快照，可按经纬度范围过滤；只返回有数据的网格
+     */
+    public List<Map<String, Object>> snapshot(Double minLat, Double maxLat, Double minLng, Double maxLng) {
+        List<Map<String, Object>> cells = new ArrayList<>();
+        long minute = currentMinute();
+        int used = Math.min(nextSlot.get(), maxCells);
+        for (int slot = 0; slot < used; slot++) {
+            int free = freeDrivers.get(slot);
+            int busy = busyDrivers.get(slot);
+            int orders = openOrders.get(slot);
+            int arrivals15 = sumArrivals(slot, 15, minute);
+            if (free == 0 && busy == 0 && orders == 0 && arrivals15 == 0) {
+                continue;
+            }
+            double centerLat = GeoGridUtil.cellCenterLatitude(slotCellKeys[slot], cellSizeDegrees);
+            double centerLng = GeoGridUtil.cellCenterLongitude(slotCellKeys[slot], cellSizeDegrees);
+            if ((minLat != null && centerLat < minLat) || (maxLat != null && centerLat > maxLat)
+                    || (minLng != null && centerLng < minLng) || (maxLng != null && centerLng > maxLng)) {
+                continue;
+            }
+            Map<String, Object> cell = new HashMap<>();
+            cell.put("latitude", centerLat);
+            cell.put("longitude", centerLng);
+            cell.put("freeDrivers", free);
+            cell.put("busyDrivers", busy);
+            cell.put("openOrders", orders);
+            cell.put("arrivals5m", sumArrivals(slot, 5, minute));
+            cell.put("arrivals15m", arrivals15);
+            cells.add(cell);
+        }
+        return cells;
+    }
+
+    public double getCellSizeDegrees() {
+        return cellSizeDegrees;
+    }
+
+    public int getTrackedDrivers() {
+        return driverStates.size();
+    }
+
+    public int getTrackedOrders() {
+        return orderSlots.size();
+    }
+
+    // ==================== 内部实现 ====================
+
+    private void driverMoved(long driverId, double latitude, double longitude, int status, boolean upsert) {
+        int slot = slotFor(latitude, longitude);
+        if (slot < 0) {
+            return;
+        }
+        if (upsert) {
+            driverStates.compute(driverId, (id, state) -> {
+                if (state != null) {
+                    counterFor(statusOf(state)).decrementAndGet(slotOf(state));
+                }
+                counterFor(status).incrementAndGet(slot);
+                return pack(slot, status);
+            });
+        } else {
+            driverStates.computeIfPresent(driverId, (id, state) -> {
+                int oldSlot = slotOf(state);
+                int currentStatus = statusOf(state);
+                if (oldSlot == slot) {
+                    return state;
+                }
+                AtomicIntegerArray counter = counterFor(currentStatus);
+                counter.decrementAndGet(oldSlot);
+                counter.incrementAndGet(slot);
+                return pack(slot, currentStatus);
+            });
+        }
+    }
+
+    private void recordArrival(int slot) {
+        long minute = currentMinute();
+        int index = slot * ARRIVAL_BUCKETS + (int) (minute % ARRIVAL_BUCKETS);
+        // 分钟和计数在同一个long里一次CAS更新：桶属于旧的分钟时直接换成(当前分钟, 1)，不会丢失或串到相邻分钟
+        while (true) {
+            long bucket = arrivalBuckets.get(index);
+            long next = bucketMinute(bucket) == minute ? bucket + 1 : packArrival(minute, 1);
+            if (arrivalBuckets.compareAndSet(index, bucket, next)) {
+                return;
+            }
+        }
+    }
+
+    private int sumArrivals(int slot, int minutes, long currentMinute) {
+        int window = Math.max(1, Math.min(minutes, ARRIVAL_BUCKETS));
+        int sum = 0;
+        int base = slot * ARRIVAL_BUCKETS;
+        for (int i = 0; i < ARRIVAL_BUCKETS; i++) {
+            long bucket = arrivalBuckets.get(base + i);
+            if (currentMinute - bucketMinute(bucket) < window) {
+                sum += arrivalCount(bucket);
+            }
+        }
+        return sum;
+    }
+
+    private void addIfWithin(int[] counts, int slot, double latitude, double longitude, double radiusMeters) {
+        long cellKey = slotCellKeys[slot];
+        double distance = GeoGridUtil.distanceMeters(latitude, longitude,
+            GeoGridUtil.cellCenterLatitude(cellKey, cellSizeDegrees), GeoGridUtil.cellCenterLongitude(cellKey, cellSizeDegrees));
+        if (distance <= radiusMeters) {
+            counts[0] += freeDrivers.get(slot);
+            counts[1] += busyDrivers.get(slot);
+            counts[2] += openOrders.get(slot);
+        }
+    }
+
+    private int slotFor(double latitude, double longitude) {
+        long cellKey = GeoGridUtil.cellKey(latitude, longitude, cellSizeDegrees);
+        Integer slot = cellSlots.get(cellKey);
+        if (slot != null) {
+            return slot;
+        }
+        slot = cellSlots.computeIfAbsent(cellKey, key -> {
+            int allocated = nextSlot.getAndIncrement();
+            if (allocated >= maxCells) {
+                return -1;
+            }
+            slotCellKeys[allocated] = key;
+            return allocated;
+        });
+        return slot;
+    }
+
+    private int existingSlot(double latitude, double longitude) {
+        Integer slot = cellSlots.get(GeoGridUtil.cellKey(latitude, longitude, cellSizeDegrees));
+        return slot == null ? -1 : slot;
+    }
+
+    private AtomicIntegerArray counterFor(int status) {
+        return status == STATUS_BUSY ? busyDrivers : freeDrivers;
+    }
+
+    private long currentMinute() {
+        return clock.millis() / 60000;
+    }
+
+    private static long pack(int slot, int status) {
+        return ((long) slot << 32) | status;
+    }
+
+    private static int slotOf(long state) {
+        return (int) (state >>> 32);
+    }
+
+    private static int statusOf(long state) {
+        return (int) state;
+    }
+
+    private static long packArrival(long minute, int count) {
+        return (minute << 32) | count;
+    }
+
+    private static long bucketMinute(long bucket) {
+        return bucket >>> 32;
+    }
+
+    private static int arrivalCount(long bucket) {
+        return (int) bucket;
+    }
+}
@@ -0,0 +1,226 @@
+package com.taxi.service;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+
+/**
+ * 司机行程绑定缓存（司机ID → 订单ID、乘客ID）
+ * 接单成功时写入，司机恢复空闲（完成、取消）时清除，位置推送给乘客时直接查内存，不再访问Redis和数据库。
+ * 多实例之间通过Redis发布订阅同步：本实例的绑定和解绑都会广播，其他实例收到后更新自己的缓存。
+ * 未命中时由调用方从Redis/数据库加载一次并回填；加载期间如果发生过解绑，回填结果作废，避免把已结束的行程写回缓存。
+ * 绑定超过有效期未刷新（绑定、收到绑定广播或重新加载）即视为过期：读取时按未命中重新加载，定时清理兜底，
+ * 解绑消息丢失（如订阅连接断开）时，已结束的行程最多保留一个有效期。
+ */
+@Component
+public class TripBindingCache implements MessageListener {
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${taxi.location.trip-binding.channel:taxi:trip-binding}")
+    private String channel;
+
+    // 绑定有效期（秒），过期后重新从Redis/数据库加载
+    @Value("${taxi.location.trip-binding.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    // 消息格式：B|实例ID|司机ID|订单ID|乘客ID 或 U|实例ID|司机ID
+    private static final String BIND = "B";
+    private static final String UNBIND = "U";
+
+    private final String instanceId = UUID.randomUUID().toString();
+
+    private final Map<Long, Binding> bindings = new ConcurrentHashMap<>();
+
+    // 解绑计数，用于判断未命中加载期间是否发生过解绑
+    private final AtomicLong unbindEpoch = new AtomicLong();
+
+    // 统计信息
+    private final AtomicLong totalHits = new AtomicLong();
+    private final AtomicLong totalMisses = new AtomicLong();
+    private final AtomicLong totalLoads = new AtomicLong();
+    private final AtomicLong totalStaleLoads = new AtomicLong();
+    private final AtomicLong totalExpired = new AtomicLong();
+    private final AtomicLong totalPublished = new AtomicLong();
+    private final AtomicLong totalReceived = new AtomicLong();
+
+    /**
+     * 一条行程绑定
+     */
+    public static final class Binding {
+        private final long orderId;
+        private final long passengerId;
+        // 最近一次刷新时间，由缓存写入时设置
+        private long refreshedAt;
+
+        public Binding(long orderId, long passengerId) {
+            this.orderId = orderId;
+            this.passengerId = passengerId;
+        }
+
+        public long getOrderId() { return orderId; }
+
+        public long getPassengerId() { return passengerId; }
+    }
+
+    @PostConstruct
+    public void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(channel));
+        System.out.println("行程绑定缓存已订阅频道: " + channel);
+    }
+
+    /**
+     * 接单成功后绑定司机与行程，并通知其他实例
+     */
+    public void bind(Long driverId, Long orderId, Long passengerId) {
+        if (driverId == null || orderId == null || passengerId == null) {
+            return;
+        }
+        put(driverId, new Binding(orderId, passengerId));
+        publish(BIND + "|" + instanceId + "|" + driverId + "|" + orderId + "|" + passengerId);
+    }
+
+    /**
+     * 司机恢复空闲后解除绑定，并通知其他实例
+     */
+    public void unbind(Long driverId) {
+        if (driverId == null) {
+            return;
+        }
+        removeLocal(driverId);
+        publish(UNBIND + "|" + instanceId + "|" + driverId);
+    }
+
+    /**
+     * 查询司机当前行程，未命中时调用loader加载（返回null表示没有行程）并回填
+     */
+    public Binding get(long driverId, LongFunction<Binding> loader) {
+        Binding binding = bindings.get(driverId);
+        if (binding != null && !isExpired(binding, System.currentTimeMillis())) {
+            totalHits.incrementAndGet();
+            return binding;
+        }
+        if (binding != null && bindings.remove(driverId, binding)) {
+            totalExpired.incrementAndGet();
+        }
+        totalMisses.incrementAndGet();
+        if (loader == null) {
+            return null;
+        }
+        long epoch = unbindEpoch.get();
+        binding = loader.apply(driverId);
+        totalLoads.incrementAndGet();
+        if (binding == null) {
+            return null;
+        }
+        if (unbindEpoch.get() != epoch) {
+            // 加载期间发生过解绑，结果可能已过期，本次使用但不回填
+            totalStaleLoads.incrementAndGet();
+            return binding;
+        }
+        binding.refreshedAt = System.currentTimeMillis();
+        bindings.putIfAbsent(driverId, binding);
+        return binding;
+    }
+
+    /**
+     * 是否有该司机的绑定（包括已过期待重新加载的），只读内存，不计入命中统计
+     */
+    public boolean isBound(long driverId) {
+        return bindings.containsKey(driverId);
+    }
+
+    /**
+     * 定时清理过期绑定（没有读取的司机不会在读取时过期）
+     */
+    @Scheduled(fixedDelayString = "${taxi.location.trip-binding.sweep-interval-ms:60000}")
+    public void sweep() {
+        long now = System.currentTimeMillis();
+        bindings.forEach((driverId, binding) -> {
+            if (isExpired(binding, now) && bindings.remove(driverId, binding)) {
+                totalExpired.incrementAndGet();
+            }
+        });
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split("\\|");
+            if (parts.length < 3 || instanceId.equals(parts[1])) {
+                return;
+            }
+            totalReceived.incrementAndGet();
+            long driverId = Long.parseLong(parts[2]);
+            if (BIND.equals(parts[0]) && parts.length == 5) {
+                put(driverId, new Binding(Long.parseLong(parts[3]), Long.parseLong(parts[4])));
+            } else if (UNBIND.equals(parts[0])) {
+                removeLocal(driverId);
+            }
+        } catch (Exception e) {
+            System.err.println("处理行程绑定消息失败: " + e.getMessage());
+        }
+    }
+
+    private void put(long driverId, Binding binding) {
+        binding.refreshedAt = System.currentTimeMillis();
+        bindings.put(driverId, binding);
+    }
+
+    private boolean isExpired(Binding binding, long now) {
+        return now - binding.refreshedAt > ttlSeconds * 1000L;
+    }
+
+    private void removeLocal(long driverId) {
+        unbindEpoch.incrementAndGet();
+        bindings.remove(driverId);
+    }
+
+    private void publish(String payload) {
+        try {
+            stringRedisTemplate.convertAndSend(channel, payload);
+            totalPublished.incrementAndGet();
+        } catch (Exception e) {
+            System.err.println("广播行程绑定消息失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 获取缓存统计
+     */
+    public Map<String, Object> getStats() {
+        long hits = totalHits.get();
+        long lookups = hits + totalMisses.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("instanceId", instanceId);
+        stats.put("bindings", bindings.size());
+        stats.put("totalHits", hits);
+        stats.put("totalMisses", totalMisses.get());
+        stats.put("hitRatio", lookups == 0 ? 0 : (double) hits / lookups);
+        stats.put("totalLoads", totalLoads.get());
+        stats.put("totalStaleLoads", totalStaleLoads.get());
+        stats.put("totalExpired", totalExpired.get());
+        stats.put("totalPublished", totalPublished.get());
+        stats.put("totalReceived", totalReceived.get());
+        return stats;
+    }
+}
@@ -0,0 +1,660 @@
+package com.taxi.service;
+
+import com.taxi.entity.Order;
+import com.taxi.util.GeoGridUtil;
+import com.taxi.util.TrajectoryCodec;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 行程轨迹存储（只追加）
+ * 载客司机的每个位置点由位置上报线程放入无锁队列后立即返回，后台线程定时取出，按订单分组编码为轨迹块
+ * （差值 + varint定点编码，见 TrajectoryCodec），追加写入内存映射的段文件。段文件按天滚动，写满后同一天开新段，
+ * 超过保留天数的段在启动和跨天时删除。
+ * 内存中按订单记录各轨迹块的位置，读取一个订单的轨迹只需按顺序解码它的几个块；启动时扫描已有段文件重建索引，
+ * 当天最后一个段还有空间时继续写入该段。
+ * 读取时如果该订单还有未写入的点，唤醒写入线程并等待它完成一次刷新，读取线程自己不做IO写入。
+ * 段文件在本实例的本地目录：轨迹只记录在接收该司机位置上报的实例上。多实例部署时，在其他实例上读取轨迹
+ * （完成订单时计算实际里程、轨迹接口、投诉核对）得不到数据，实际里程保留预估值；需要跨实例读取时
+ * 把 taxi.trajectory.directory 配置到共享存储并保证同一时刻只有一个实例写入，或按司机连接做会话粘滞。
+ * <pre>
+ * 段文件 = { 块长度(4字节，大端) 块内容 }*，块长度为0表示段内已写数据结束
+ * </pre>
+ */
+@Component
+public class TripTrajectoryStore {
+
+    @Value("${taxi.trajectory.enabled:true}")
+    private boolean enabled;
+
+    @Value("${taxi.trajectory.directory:data/trajectory}")
+    private String directory;
+
+    @Value("${taxi.trajectory.segment-size-mb:64}")
+    private int segmentSizeMb;
+
+    @Value("${taxi.trajectory.flush-interval-ms:500}")
+    private long flushIntervalMs;
+
+    // 队列积压超过该值时丢弃新点，保证上报线程不被阻塞
+    @Value("${taxi.trajectory.max-queue:100000}")
+    private int maxQueue;
+
+    @Value("${taxi.trajectory.retention-days:30}")
+    private int retentionDays;
+
+    private static final String SEGMENT_PREFIX = "trajectory-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+
+    private static final int BLOCK_HEADER_BYTES = 4;
+
+    // 单个块最多点数，避免一个块过大
+    private static final int MAX_POINTS_PER_BLOCK = 4096;
+
+    // 读取时等待写入线程刷新的最长时间（毫秒），超时后只读取已写入的块
+    private static final long READ_FLUSH_WAIT_MS = 2000;
+
+    // 计算距离时忽略隐含速度超过该值（米/秒）的跳点
+    private static final double MAX_PLAUSIBLE_SPEED_MPS = 70;
+
+    /**
+     * 轨迹点访问器
+     */
+    @FunctionalInterface
+    public interface PointVisitor {
+        void visit(double latitude, double longitude, long timestamp) throws IOException;
+    }
+
+    /**
+     * 一个待写入的轨迹点
+     */
+    private static final class Point {
+        final long orderId;
+        final int latitude;
+        final int longitude;
+        final long timestamp;
+
+        Point(long orderId, int latitude, int longitude, long timestamp) {
+            this.orderId = orderId;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * 一个段文件
+     */
+    private static final class Segment {
+        final int id;
+        final String day;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int writePosition;
+
+        Segment(int id, String day, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.day = day;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * 一个订单的轨迹块位置：高32位段ID，低32位段内偏移
+     */
+    private static final class BlockList {
+        private long[] refs = new long[4];
+        private int size;
+
+        synchronized void add(long ref) {
+            if (size == refs.length) {
+                refs = Arrays.copyOf(refs, size * 2);
+            }
+            refs[size++] = ref;
+        }
+
+        synchronized long[] snapshot() {
+            return Arrays.copyOf(refs, size);
+        }
+
+        synchronized boolean retainSegments(Map<Integer, Segment> live) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (live.containsKey((int) (refs[i] >>> 32))) {
+                    refs[kept++] = refs[i];
+                }
+            }
+            size = kept;
+            return size > 0;
+        }
+    }
+
+    /**
+     * 轨迹摘要
+     */
+    public static final class TrajectorySummary {
+        private final int pointCount;
+        private final double distanceMeters;
+        private final long startTime;
+        private final long endTime;
+
+        TrajectorySummary(int pointCount, double distanceMeters, long startTime, long endTime) {
+            this.pointCount = pointCount;
+            this.distanceMeters = distanceMeters;
+            this.startTime = startTime;
+            this.endTime = endTime;
+        }
+
+        public int getPointCount() { return pointCount; }
+
+        public double getDistanceMeters() { return distanceMeters; }
+
+        public long getStartTime() { return startTime; }
+
+        public long getEndTime() { return endTime; }
+    }
+
+    private final ConcurrentLinkedQueue<Point> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    // 订单 -> 已入队未写入的点数，判断订单是否有未写入的点不必扫描队列
+    private final Map<Long, Integer> pendingPoints = new ConcurrentHashMap<>();
+
+    // 刷新序号：flushesStarted在开始取队列时加1，flushesCompleted在写完后置为该次的序号
+    private final AtomicLong flushesStarted = new AtomicLong();
+    private final AtomicLong flushesCompleted = new AtomicLong();
+    private final ReentrantLock flushSignalLock = new ReentrantLock();
+    private final Condition flushed = flushSignalLock.newCondition();
+    // 已提交给写入线程但尚未开始的刷新请求，多个读取同时到达时只提交一次
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private final Map<Integer, Segment> segments = new ConcurrentHashMap<>();
+    private final Map<Long, BlockList> index = new ConcurrentHashMap<>();
+    private int nextSegmentId;
+    // 当前写入段，只在writeLock内访问
+    private Segment current;
+    private final Object writeLock = new Object();
+
+    private ByteBuffer scratch = ByteBuffer.allocate(64 * 1024);
+    // 段文件按该时钟的日期滚动和清理
+    private Clock clock = Clock.systemDefaultZone();
+    private ScheduledExecutorService flushScheduler;
+
+    // 统计信息
+    private final AtomicLong totalAppended = new AtomicLong();
+    private final AtomicLong totalDropped = new AtomicLong();
+    private final AtomicLong totalPointsWritten = new AtomicLong();
+    private final AtomicLong totalBlocks = new AtomicLong();
+    private final AtomicLong totalBytesWritten = new AtomicLong();
+    private final AtomicLong totalFailures = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Files.createDirectories(Paths.get(directory));
+            loadSegments();
+        } catch (IOException e) {
+            System.err.println("初始化轨迹存储失败，轨迹记录已关闭: " + e.getMessage());
+            enabled = false;
+            return;
+        }
+        flushScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "trip-trajectory-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        flushScheduler.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        System.out.println("轨迹存储已启用，目录: " + directory + ", 已有段: " + segments.size()
+            + ", 已索引订单: " + index.size());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (flushScheduler == null) {
+            return;
+        }
+        flushScheduler.shutdown();
+        try {
+            flushScheduler.awaitTermination(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        synchronized (writeLock) {
+            for (Segment segment : segments.values()) {
+                closeSegment(segment);
+            }
+        }
+    }
+
+    /**
+     * 记录一个轨迹点（只入队，不做任何IO）
+     */
+    public void append(long orderId, double latitude, double longitude, long timestamp) {
+        if (!enabled || queued.get() >= maxQueue) {
+            totalDropped.incrementAndGet();
+            return;
+        }
+        // 先记待写入数再入队，写入线程扣减时该点一定已经计入
+        pendingPoints.merge(orderId, 1, Integer::sum);
+        queue.offer(new Point(orderId, TrajectoryCodec.toFixed(latitude), TrajectoryCodec.toFixed(longitude), timestamp));
+        queued.incrementAndGet();
+        totalAppended.incrementAndGet();
+    }
+
+    /**
+     * 把队列中的点写入段文件（由写入线程定时调用，关闭时调用一次）
+     */
+    public void flush() {
+        if (!enabled) {
+            return;
+        }
+        long sequence;
+        synchronized (writeLock) {
+            sequence = flushesStarted.incrementAndGet();
+            Map<Long, List<Point>> byOrder = new LinkedHashMap<>();
+            try {
+                Point point;
+                int drained = 0;
+                while ((point = queue.poll()) != null) {
+                    byOrder.computeIfAbsent(point.orderId, id -> new ArrayList<>()).add(point);
+                    drained++;
+                }
+                queued.addAndGet(-drained);
+                for (Map.Entry<Long, List<Point>> entry : byOrder.entrySet()) {
+                    List<Point> points = entry.getValue();
+                    for (int from = 0; from < points.size(); from += MAX_POINTS_PER_BLOCK) {
+                        writeBlock(entry.getKey(), points.subList(from, Math.min(points.size(), from + MAX_POINTS_PER_BLOCK)));
+                    }
+                }
+            } catch (Exception e) {
+                totalFailures.incrementAndGet();
+                System.err.println("写入轨迹失败: " + e.getMessage());
+            } finally {
+                for (Map.Entry<Long, List<Point>> entry : byOrder.entrySet()) {
+                    int written = entry.getValue().size();
+                    pendingPoints.computeIfPresent(entry.getKey(), (id, count) -> count > written ? count - written : null);
+                }
+                flushesCompleted.set(sequence);
+            }
+        }
+        flushSignalLock.lock();
+        try {
+            flushed.signalAll();
+        } finally {
+            flushSignalLock.unlock();
+        }
+    }
+
+    /**
+     * 订单是否有轨迹（已写入或等待写入）
+     */
+    public boolean hasTrajectory(long orderId) {
+        return index.containsKey(orderId) || pendingPoints.containsKey(orderId);
+    }
+
+    /**
+     * 按时间顺序遍历订单的轨迹点，订单还有未写入的点时先等待写入线程完成一次刷新
+     */
+    public void forEachPoint(long orderId, PointVisitor visitor) throws IOException {
+        awaitPendingPoints(orderId);
+        BlockList blocks = index.get(orderId);
+        if (blocks == null) {
+            return;
+        }
+        for (long ref : blocks.snapshot()) {
+            Segment segment = segments.get((int) (ref >>> 32));
+            if (segment == null) {
+                continue;
+            }
+            int offset = (int) ref;
+            ByteBuffer block = segment.buffer.duplicate();
+            int length = block.getInt(offset);
+            block.limit(offset + BLOCK_HEADER_BYTES + length);
+            block.position(offset + BLOCK_HEADER_BYTES);
+            decodeBlock(block, visitor);
+        }
+    }
+
+    /**
+     * 汇总订单轨迹：点数、距离和起止时间，只统计时间不早于fromTime的点
+     */
+    public TrajectorySummary summarize(long orderId, long fromTime) throws IOException {
+        double[] last = new double[2];
+        long[] lastTime = {Long.MIN_VALUE};
+        long[] startTime = {0};
+        int[] count = {0};
+        double[] distance = {0};
+        forEachPoint(orderId, (latitude, longitude, timestamp) -> {
+            if (timestamp < fromTime) {
+                return;
+            }
+            if (count[0] == 0) {
+                startTime[0] = timestamp;
+            } else {
+                double meters = GeoGridUtil.distanceMeters(last[0], last[1], latitude, longitude);
+                double seconds = (timestamp - lastTime[0]) / 1000.0;
+                if (seconds > 0 && meters / seconds > MAX_PLAUSIBLE_SPEED_MPS) {
+                    // 定位漂移，丢弃该点
+                    return;
+                }
+                distance[0] += meters;
+            }
+            last[0] = latitude;
+            last[1] = longitude;
+            lastTime[0] = timestamp;
+            count[0]++;
+        });
+        return new TrajectorySummary(count[0], distance[0], startTime[0], count[0] == 0 ? 0 : lastTime[0]);
+    }
+
+    /**
+     * 按轨迹计算订单实际距离（公里），从上车时间开始统计；轨迹不足两个点时返回null
+     */
+    public BigDecimal actualDistanceKm(Order order) {
+        if (!enabled || order == null || order.getId() == null) {
+            return null;
+        }
+        try {
+            long fromTime = order.getPickupTime() == null
+                ? Long.MIN_VALUE
+                : order.getPickupTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            TrajectorySummary summary = summarize(order.getId(), fromTime);
+            if (summary.getPointCount() < 2) {
+                return null;
+            }
+            return BigDecimal.valueOf(summary.getDistanceMeters() / 1000).setScale(2, RoundingMode.HALF_UP);
+        } catch (Exception e) {
+            System.err.println("计算订单轨迹距离失败: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 订单有未写入的点时唤醒写入线程，等待在此之后开始的一次刷新完成
+     * 在调用之后开始的刷新一定会取走调用之前入队的点
+     */
+    private void awaitPendingPoints(long orderId) {
+        if (!enabled || flushScheduler == null || !pendingPoints.containsKey(orderId)) {
+            return;
+        }
+        long target = flushesStarted.get() + 1;
+        if (flushRequested.compareAndSet(false, true)) {
+            try {
+                flushScheduler.execute(() -> {
+                    flushRequested.set(false);
+                    flush();
+                });
+            } catch (RejectedExecutionException e) {
+                // 正在关闭，关闭流程会做最后一次刷新
+                flushRequested.set(false);
+                return;
+            }
+        }
+        long remaining = TimeUnit.MILLISECONDS.toNanos(READ_FLUSH_WAIT_MS);
+        flushSignalLock.lock();
+        try {
+            while (flushesCompleted.get() < target && remaining > 0) {
+                remaining = flushed.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            flushSignalLock.unlock();
+        }
+    }
+
+    // ==================== 写入 ====================
+
+    private void writeBlock(long orderId, List<Point> points) throws IOException {
+        ByteBuffer payload = encodeBlock(orderId, points);
+        int length = payload.remaining();
+        Segment segment = segmentFor(BLOCK_HEADER_BYTES + length);
+        int offset = segment.writePosition;
+        // 先写内容再写长度，长度非0即表示块完整
+        segment.buffer.put(offset + BLOCK_HEADER_BYTES, payload.array(), 0, length);
+        segment.buffer.putInt(offset, length);
+        segment.writePosition = offset + BLOCK_HEADER_BYTES + length;
+        index.computeIfAbsent(orderId, id -> new BlockList()).add(((long) segment.id << 32) | offset);
+
+        totalBlocks.incrementAndGet();
+        totalPointsWritten.addAndGet(points.size());
+        totalBytesWritten.addAndGet(BLOCK_HEADER_BYTES + length);
+    }
+
+    private ByteBuffer encodeBlock(long orderId, List<Point> points) {
+        int maxLength = (points.size() * 3 + 2) * TrajectoryCodec.MAX_VARINT_BYTES;
+        if (scratch.capacity() < maxLength) {
+            scratch = ByteBuffer.allocate(maxLength);
+        }
+        ByteBuffer buffer = scratch;
+        buffer.clear();
+        TrajectoryCodec.writeVarLong(buffer, orderId);
+        TrajectoryCodec.writeVarLong(buffer, points.size());
+        Point previous = null;
+        for (Point point : points) {
+            if (previous == null) {
+                TrajectoryCodec.writeSignedVarLong(buffer, point.latitude);
+                TrajectoryCodec.writeSignedVarLong(buffer, point.longitude);
+                TrajectoryCodec.writeSignedVarLong(buffer, point.timestamp);
+            } else {
+                TrajectoryCodec.writeSignedVarLong(buffer, point.latitude - previous.latitude);
+                TrajectoryCodec.writeSignedVarLong(buffer, point.longitude - previous.longitude);
+                TrajectoryCodec.writeSignedVarLong(buffer, point.timestamp - previous.timestamp);
+            }
+            previous = point;
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 返回能容纳指定字节数的当前段，跨天或写满时滚动到新段
+     */
+    private Segment segmentFor(int bytes) throws IOException {
+        String today = LocalDate.now(clock).format(DAY_FORMAT);
+        if (current != null && current.day.equals(today)
+                && current.writePosition + bytes + BLOCK_HEADER_BYTES <= current.buffer.capacity()) {
+            return current;
+        }
+        boolean newDay = current == null || !current.day.equals(today);
+        if (current != null) {
+            current.buffer.force();
+        }
+        current = createSegment(today, Math.max(bytes + BLOCK_HEADER_BYTES, segmentSizeMb * 1024 * 1024));
+        if (newDay) {
+            deleteExpiredSegments();
+        }
+        return current;
+    }
+
+    private Segment createSegment(String day, int capacity) throws IOException {
+        int sequence = 0;
+        Path path;
+        do {
+            path = Paths.get(directory, SEGMENT_PREFIX + day + "-" + String.format("%03d", sequence++) + SEGMENT_SUFFIX);
+        } while (Files.exists(path));
+        FileChannel channel = FileChannel.open(path,
+            StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        Segment segment = new Segment(nextSegmentId++, day, path, channel, buffer);
+        segments.put(segment.id, segment);
+        System.out.println("创建轨迹段文件: " + path);
+        return segment;
+    }
+
+    // ==================== 启动加载和清理 ====================
+
+    private void loadSegments() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(directory),
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                paths.add(path);
+            }
+        }
+        paths.sort(null);
+        String oldest = oldestRetainedDay();
+        String today = LocalDate.now(clock).format(DAY_FORMAT);
+        for (int i = 0; i < paths.size(); i++) {
+            Path path = paths.get(i);
+            String day = dayOf(path);
+            if (day == null || day.compareTo(oldest) < 0) {
+                Files.deleteIfExists(path);
+                continue;
+            }
+            // 当天最后一个段读写加载，继续追加；其余段只读
+            boolean reuse = i == paths.size() - 1 && today.equals(day);
+            FileChannel channel = reuse
+                ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(path, StandardOpenOption.READ);
+            MappedByteBuffer buffer = channel.map(
+                reuse ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            Segment segment = new Segment(nextSegmentId++, day, path, channel, buffer);
+            segment.writePosition = indexSegment(segment);
+            segments.put(segment.id, segment);
+            if (reuse) {
+                current = segment;
+                System.out.println("继续写入轨迹段文件: " + path + ", 已写: " + segment.writePosition + " 字节");
+            }
+        }
+    }
+
+    /**
+     * 扫描段内的块，重建订单索引，返回已写数据末尾位置
+     */
+    private int indexSegment(Segment segment) {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int offset = 0;
+        while (offset + BLOCK_HEADER_BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || offset + BLOCK_HEADER_BYTES + length > buffer.capacity()) {
+                break;
+            }
+            buffer.limit(offset + BLOCK_HEADER_BYTES + length);
+            buffer.position(offset + BLOCK_HEADER_BYTES);
+            long orderId = TrajectoryCodec.readVarLong(buffer);
+            index.computeIfAbsent(orderId, id -> new BlockList()).add(((long) segment.id << 32) | offset);
+            buffer.limit(buffer.capacity());
+            offset += BLOCK_HEADER_BYTES + length;
+        }
+        return offset;
+    }
+
+    private void deleteExpiredSegments() {
+        String oldest = oldestRetainedDay();
+        boolean removed = segments.values().removeIf(segment -> {
+            if (segment.day.compareTo(oldest) >= 0) {
+                return false;
+            }
+            closeSegment(segment);
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                System.err.println("删除过期轨迹段失败: " + segment.path + ", " + e.getMessage());
+            }
+            return true;
+        });
+        if (removed) {
+            index.values().removeIf(blocks -> !blocks.retainSegments(segments));
+        }
+    }
+
+    private String oldestRetainedDay() {
+        return LocalDate.now(clock).minusDays(retentionDays).format(DAY_FORMAT);
+    }
+
+    private static String dayOf(Path path) {
+        String name = path.getFileName().toString();
+        if (name.length() < SEGMENT_PREFIX.length() + 8) {
+            return null;
+        }
+        return name.substring(SEGMENT_PREFIX.length(), SEGMENT_PREFIX.length() + 8);
+    }
+
+    private static void closeSegment(Segment segment) {
+        try {
+            if (!segment.buffer.isReadOnly()) {
+                segment.buffer.force();
+            }
+            segment.channel.close();
+        } catch (Exception e) {
+            System.err.println("关闭轨迹段失败: " + segment.path + ", " + e.getMessage());
+        }
+    }
+
+    private static void decodeBlock(ByteBuffer block, PointVisitor visitor) throws IOException {
+        TrajectoryCodec.readVarLong(block); // 订单ID
+        long count = TrajectoryCodec.readVarLong(block);
+        long latitude = 0;
+        long longitude = 0;
+        long timestamp = 0;
+        for (long i = 0; i < count; i++) {
+            latitude += TrajectoryCodec.readSignedVarLong(block);
+            longitude += TrajectoryCodec.readSignedVarLong(block);
+            timestamp += TrajectoryCodec.readSignedVarLong(block);
+            visitor.visit(TrajectoryCodec.fromFixed(latitude), TrajectoryCodec.fromFixed(longitude), timestamp);
+        }
+    }
+
+    /**
+     * 获取轨迹存储统计
+     */
+    public Map<String, Object> getStats() {
+        long points = totalPointsWritten.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("queueDepth", queued.get());
+        stats.put("segments", segments.size());
+        stats.put("indexedOrders", index.size());
+        stats.put("totalAppended", totalAppended.get());
+        stats.put("totalDropped", totalDropped.get());
+        stats.put("totalPointsWritten", points);
+        stats.put("totalBlocks", totalBlocks.get());
+        stats.put("totalBytesWritten", totalBytesWritten.get());
+        stats.put("bytesPerPoint", points == 0 ? 0 : (double) totalBytesWritten.get() / points);
+        stats.put("totalFailures", totalFailures.get());
+        return stats;
+    }
+}
@@ -0,0 +1,150 @@
+package com.taxi.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * 虚拟线程固定（pinning）诊断
+ * 虚拟线程在synchronized块或本地方法中阻塞时无法从载体线程卸载，会占住一个平台线程。
+ * 虚拟线程模式下通过JFR事件流订阅 jdk.VirtualThreadPinned，按发生位置（第一个应用代码栈帧）汇总次数和耗时，
+ * 每个位置首次出现时打印调用栈，便于把对应的synchronized改为ReentrantLock。
+ */
+@Component
+public class VirtualThreadPinningMonitor {
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    // 应用代码包名前缀，用于定位固定发生的位置
+    private static final String APP_PACKAGE = "com.taxi.";
+
+    // 最多记录的位置数
+    private static final int MAX_SITES = 200;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Value("${taxi.virtual-threads.pinning-monitor.enabled:true}")
+    private boolean enabled;
+
+    // 固定时间超过该值才记录（毫秒）
+    @Value("${taxi.virtual-threads.pinning-monitor.threshold-ms:20}")
+    private long thresholdMillis;
+
+    private RecordingStream stream;
+
+    private final Map<String, AtomicLong> siteCounts = new ConcurrentHashMap<>();
+    private final AtomicLong totalEvents = new AtomicLong();
+    private final AtomicLong totalPinnedNanos = new AtomicLong();
+    private volatile long maxPinnedNanos;
+
+    @PostConstruct
+    public void init() {
+        if (!virtualThreads || !enabled) {
+            return;
+        }
+        try {
+            stream = new RecordingStream();
+            stream.enable(PINNED_EVENT).withThreshold(Duration.ofMillis(thresholdMillis)).withStackTrace();
+            stream.onEvent(PINNED_EVENT, this::onPinned);
+            stream.startAsync();
+            System.out.println("虚拟线程固定诊断已启用，阈值: " + thresholdMillis + "ms");
+        } catch (Exception e) {
+            System.err.println("启动虚拟线程固定诊断失败: " + e.getMessage());
+            stream = null;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (stream != null) {
+            stream.close();
+        }
+    }
+
+    private void onPinned(RecordedEvent event) {
+        long nanos = event.getDuration().toNanos();
+        totalEvents.incrementAndGet();
+        totalPinnedNanos.addAndGet(nanos);
+        if (nanos > maxPinnedNanos) {
+            maxPinnedNanos = nanos;
+        }
+
+        String site = siteOf(event.getStackTrace());
+        AtomicLong count = siteCounts.get(site);
+        if (count == null) {
+            if (siteCounts.size() >= MAX_SITES) {
+                site = "(其他)";
+            }
+            count = siteCounts.computeIfAbsent(site, s -> new AtomicLong());
+            if (count.get() == 0) {
+                System.err.println("⚠️ 虚拟线程被固定 " + Duration.ofNanos(nanos).toMillis() + "ms，位置: " + site
+                    + "\n" + formatStack(event.getStackTrace()));
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    private static String siteOf(RecordedStackTrace stackTrace) {
+        if (stackTrace == null) {
+            return "(未知)";
+        }
+        for (RecordedFrame frame : stackTrace.getFrames()) {
+            String type = frame.getMethod().getType().getName();
+            if (type.startsWith(APP_PACKAGE)) {
+                return type + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+            }
+        }
+        List<RecordedFrame> frames = stackTrace.getFrames();
+        if (frames.isEmpty()) {
+            return "(未知)";
+        }
+        RecordedFrame top = frames.get(0);
+        return top.getMethod().getType().getName() + "." + top.getMethod().getName();
+    }
+
+    private static String formatStack(RecordedStackTrace stackTrace) {
+        if (stackTrace == null) {
+            return "";
+        }
+        return stackTrace.getFrames().stream()
+            .limit(20)
+            .map(f -> "    at " + f.getMethod().getType().getName() + "." + f.getMethod().getName() + ":" + f.getLineNumber())
+            .collect(Collectors.joining("\n"));
+    }
+
+    /**
+     * 获取固定统计，位置按次数从多到少排列
+     */
+    public Map<String, Object> getStats() {
+        long events = totalEvents.get();
+        Map<String, Long> sites = new LinkedHashMap<>();
+        siteCounts.entrySet().stream()
+            .sorted((a, b) -> Long.compare(b.getValue().get(), a.getValue().get()))
+            .limit(20)
+            .forEach(e -> sites.put(e.getKey(), e.getValue().get()));
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("virtualThreads", virtualThreads);
+        stats.put("monitoring", stream != null);
+        stats.put("thresholdMillis", thresholdMillis);
+        stats.put("totalEvents", events);
+        stats.put("avgPinnedMillis", events == 0 ? 0 : totalPinnedNanos.get() / 1e6 / events);
+        stats.put("maxPinnedMillis", maxPinnedNanos / 1e6);
+        stats.put("topSites", sites);
+        return stats;
+    }
+}
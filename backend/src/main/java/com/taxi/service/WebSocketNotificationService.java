@@ -334,6 +334,42 @@ public class WebSocketNotificationService {
         }
     }
 
+    /**
+     * 通知司机订单已自动分配给他（监听中的司机由系统直接派单，不需要再接单）
+     */
+    public void notifyDriverOrderAssigned(Long driverId, Order order) {
+        try {
+            Map<String, Object> notification = new HashMap<>();
+            notification.put("type", "ORDER_ASSIGNED");
+            notification.put("orderId", order.getId());
+            notification.put("orderNumber", order.getOrderNumber());
+            notification.put("orderType", order.getOrderType());
+            notification.put("pickupAddress", order.getPickupAddress());
+            notification.put("destinationAddress", order.getDestinationAddress());
+            notification.put("pickupLatitude", order.getPickupLatitude());
+            notification.put("pickupLongitude", order.getPickupLongitude());
+            notification.put("destinationLatitude", order.getDestinationLatitude());
+            notification.put("destinationLongitude", order.getDestinationLongitude());
+            notification.put("passengerId", order.getPassengerId());
+            notification.put("estimatedFare", order.getEstimatedFare());
+            notification.put("scheduledTime", order.getScheduledTime());
+            notification.put("message", "系统已为您分配订单，请前往上车点");
+            notification.put("timestamp", System.currentTimeMillis());
+            
+            messagingTemplate.convertAndSendToUser(
+                driverId.toString(), 
+                "/queue/orders", 
+                notification
+            );
+            
+            System.out.println("已通过WebSocket通知司机 " + driverId + " 订单 " + order.getId() + " 已分配");
+            
+        } catch (Exception e) {
+            System.err.println("WebSocket通知司机订单分配失败: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
     /**
      * 广播系统消息
      */
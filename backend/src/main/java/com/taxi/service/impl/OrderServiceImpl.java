@@ -4,7 +4,7 @@ import com.taxi.entity.Order;
 import com.taxi.mapper.OrderMapper;
 import com.taxi.service.OrderService;
 import com.taxi.service.OrderDispatchService;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import com.taxi.service.RabbitPublisher;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -15,7 +15,7 @@ public class OrderServiceImpl implements OrderService {
     private OrderMapper orderMapper;
 
     @Autowired
-    private RabbitTemplate rabbitTemplate;
+    private RabbitPublisher rabbitPublisher;
     
     @Autowired
     private OrderDispatchService orderDispatchService;
@@ -34,8 +34,8 @@ public class OrderServiceImpl implements OrderService {
             // 1. 立即尝试分配（如果有在线司机）
             orderDispatchService.dispatchOrder(order.getId());
             
-            // 2. 同时发送到等待队列（确保后续上线的司机也能看到）
-            rabbitTemplate.convertAndSend("order_waiting_queue", order.getId());
+            // 2. 同时发送到等待队列（确保后续上线的司机也能看到），异步发送并等待broker确认
+            rabbitPublisher.publish("order_waiting_queue", order.getId());
             
             System.out.println("订单已创建并发送到分配系统，订单ID: " + order.getId());
         } catch (Exception e) {
@@ -44,7 +44,7 @@ public class OrderServiceImpl implements OrderService {
             
             // 即使立即分配失败，也要确保订单进入等待队列
             try {
-                rabbitTemplate.convertAndSend("order_waiting_queue", order.getId());
+                rabbitPublisher.publish("order_waiting_queue", order.getId());
                 System.out.println("订单已发送到等待队列作为备用");
             } catch (Exception queueException) {
                 System.err.println("发送到等待队列也失败: " + queueException.getMessage());
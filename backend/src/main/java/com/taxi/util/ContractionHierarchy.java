@@ -0,0 +1,557 @@
+package com.taxi.util;
+
+import java.util.Arrays;
+
+/**
+ * 收缩层次（Contraction Hierarchies）
+ * 预处理阶段按重要度依次收缩节点并添加捷径边，查询时只需沿"向上"的边做双向搜索。
+ * 预处理结果以CSR数组保存：
+ * up   - 节点u指向更高层节点的出边（正向搜索）
+ * down - 从更高层节点指向u的入边，按u存放（反向搜索）
+ * 查询对象不是线程安全的，每个线程使用各自的 {@link Query}。
+ */
+public final class ContractionHierarchy {
+
+    /** 不可达 */
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    /** 见证搜索的最大扫描节点数，超出后认为没有见证路径（只会多加捷径，不影响正确性） */
+    private static final int WITNESS_SETTLE_LIMIT = 200;
+
+    private final int nodeCount;
+    private final int[] rank;
+
+    private final int[] upFirst;
+    private final int[] upHead;
+    private final int[] upWeight;
+
+    private final int[] downFirst;
+    private final int[] downHead;
+    private final int[] downWeight;
+
+    private final int shortcutCount;
+
+    private ContractionHierarchy(int nodeCount, int[] rank,
+                                 int[] upFirst, int[] upHead, int[] upWeight,
+                                 int[] downFirst, int[] downHead, int[] downWeight,
+                                 int shortcutCount) {
+        this.nodeCount = nodeCount;
+        this.rank = rank;
+        this.upFirst = upFirst;
+        this.upHead = upHead;
+        this.upWeight = upWeight;
+        this.downFirst = downFirst;
+        this.downHead = downHead;
+        this.downWeight = downWeight;
+        this.shortcutCount = shortcutCount;
+    }
+
+    /**
+     * 对路网做收缩层次预处理
+     */
+    public static ContractionHierarchy build(RoadGraph graph) {
+        return new Builder(graph).build();
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getShortcutCount() {
+        return shortcutCount;
+    }
+
+    public int getRank(int node) {
+        return rank[node];
+    }
+
+    /**
+     * 创建查询对象
+     */
+    public Query newQuery() {
+        return new Query();
+    }
+
+    /**
+     * 查询对象，内部的距离数组按版本号复用，避免每次查询清零
+     */
+    public final class Query {
+        private final int[] forwardDist = new int[nodeCount];
+        private final int[] forwardVersion = new int[nodeCount];
+        private final int[] backwardDist = new int[nodeCount];
+        private final int[] backwardVersion = new int[nodeCount];
+        private final IntMinHeap heap = new IntMinHeap(64);
+        private int forwardRun;
+        private int backwardRun;
+
+        private Query() {
+        }
+
+        /**
+         * 查询对象所属的收缩层次
+         */
+        public ContractionHierarchy hierarchy() {
+            return ContractionHierarchy.this;
+        }
+
+        /**
+         * 多对一查询：计算每个起点到终点的最短通行时间（毫秒），不可达为 {@link #UNREACHABLE}
+         */
+        public int[] manyToOne(int[] sources, int target) {
+            int[] result = new int[sources.length];
+            searchBackward(target);
+            for (int i = 0; i < sources.length; i++) {
+                result[i] = sources[i] < 0 ? UNREACHABLE : searchForward(sources[i]);
+            }
+            return result;
+        }
+
+        /**
+         * 从终点沿down边做完整的反向搜索，记录反向搜索空间内各节点的距离
+         */
+        private void searchBackward(int target) {
+            nextBackwardRun();
+            heap.clear();
+            backwardVersion[target] = backwardRun;
+            backwardDist[target] = 0;
+            heap.push(target, 0);
+            while (!heap.isEmpty()) {
+                int d = heap.peekKey();
+                int u = heap.pop();
+                if (d > backwardDist[u]) {
+                    continue;
+                }
+                for (int e = downFirst[u]; e < downFirst[u + 1]; e++) {
+                    int x = downHead[e];
+                    int nd = d + downWeight[e];
+                    if (backwardVersion[x] != backwardRun || nd < backwardDist[x]) {
+                        backwardVersion[x] = backwardRun;
+                        backwardDist[x] = nd;
+                        heap.push(x, nd);
+                    }
+                }
+            }
+        }
+
+        /**
+         * 从起点沿up边做正向搜索，与反向搜索空间相遇处取最小值
+         */
+        private int searchForward(int source) {
+            nextForwardRun();
+            heap.clear();
+            forwardVersion[source] = forwardRun;
+            forwardDist[source] = 0;
+            heap.push(source, 0);
+            long best = UNREACHABLE;
+            while (!heap.isEmpty()) {
+                int d = heap.peekKey();
+                if (d >= best) {
+                    break;
+                }
+                int u = heap.pop();
+                if (d > forwardDist[u]) {
+                    continue;
+                }
+                if (backwardVersion[u] == backwardRun) {
+                    best = Math.min(best, (long) d + backwardDist[u]);
+                }
+                for (int e = upFirst[u]; e < upFirst[u + 1]; e++) {
+                    int x = upHead[e];
+                    int nd = d + upWeight[e];
+                    if (forwardVersion[x] != forwardRun || nd < forwardDist[x]) {
+                        forwardVersion[x] = forwardRun;
+                        forwardDist[x] = nd;
+                        heap.push(x, nd);
+                    }
+                }
+            }
+            return (int) Math.min(best, UNREACHABLE);
+        }
+
+        private void nextForwardRun() {
+            if (++forwardRun == Integer.MAX_VALUE) {
+                Arrays.fill(forwardVersion, 0);
+                forwardRun = 1;
+            }
+        }
+
+        private void nextBackwardRun() {
+            if (++backwardRun == Integer.MAX_VALUE) {
+                Arrays.fill(backwardVersion, 0);
+                backwardRun = 1;
+            }
+        }
+    }
+
+    /**
+     * 预处理构建器
+     */
+    private static final class Builder {
+        private final int n;
+
+        // 收缩过程中的动态邻接表（只保留未收缩节点之间的边）
+        private final int[][] outHead;
+        private final int[][] outWeight;
+        private final int[] outSize;
+        private final int[][] inHead;
+        private final int[][] inWeight;
+        private final int[] inSize;
+
+        private final boolean[] contracted;
+        private final int[] deletedNeighbors;
+        private final int[] priority;
+        private final int[] rank;
+
+        // 结果边
+        private final IntEdgeList upEdges = new IntEdgeList();
+        private final IntEdgeList downEdges = new IntEdgeList();
+        private int shortcutCount;
+
+        // 见证搜索
+        private final int[] witnessDist;
+        private final int[] witnessVersion;
+        private int witnessRun;
+        private final IntMinHeap witnessHeap = new IntMinHeap(64);
+
+        Builder(RoadGraph graph) {
+            n = graph.getNodeCount();
+            outHead = new int[n][];
+            outWeight = new int[n][];
+            outSize = new int[n];
+            inHead = new int[n][];
+            inWeight = new int[n][];
+            inSize = new int[n];
+            contracted = new boolean[n];
+            deletedNeighbors = new int[n];
+            priority = new int[n];
+            rank = new int[n];
+            witnessDist = new int[n];
+            witnessVersion = new int[n];
+
+            for (int u = 0; u < n; u++) {
+                int degree = Math.max(2, graph.endOut(u) - graph.firstOut(u));
+                outHead[u] = new int[degree];
+                outWeight[u] = new int[degree];
+                inHead[u] = new int[4];
+                inWeight[u] = new int[4];
+            }
+            for (int u = 0; u < n; u++) {
+                for (int e = graph.firstOut(u); e < graph.endOut(u); e++) {
+                    int v = graph.head(e);
+                    if (v != u) {
+                        addOrImproveEdge(u, v, graph.weight(e));
+                    }
+                }
+            }
+        }
+
+        ContractionHierarchy build() {
+            IntMinHeap queue = new IntMinHeap(n);
+            for (int v = 0; v < n; v++) {
+                priority[v] = computePriority(v);
+                queue.push(v, priority[v]);
+            }
+
+            int order = 0;
+            while (!queue.isEmpty()) {
+                int key = queue.peekKey();
+                int v = queue.pop();
+                if (contracted[v] || key != priority[v]) {
+                    continue;
+                }
+                // 惰性更新：重新计算优先级，变大则放回队列
+                int updated = computePriority(v);
+                if (!queue.isEmpty() && updated > queue.peekKey()) {
+                    priority[v] = updated;
+                    queue.push(v, updated);
+                    continue;
+                }
+                contract(v);
+                rank[v] = order++;
+            }
+            return assemble();
+        }
+
+        /**
+         * 优先级 = 边差（新增捷径数 - 删除的边数）+ 已收缩的邻居数
+         */
+        private int computePriority(int v) {
+            int shortcuts = processShortcuts(v, false);
+            int removed = 0;
+            for (int i = 0; i < outSize[v]; i++) {
+                if (!contracted[outHead[v][i]]) {
+                    removed++;
+                }
+            }
+            for (int i = 0; i < inSize[v]; i++) {
+                if (!contracted[inHead[v][i]]) {
+                    removed++;
+                }
+            }
+            return shortcuts - removed + deletedNeighbors[v];
+        }
+
+        private void contract(int v) {
+            processShortcuts(v, true);
+
+            // v的剩余邻居层级都更高，v的边即为最终的上行/下行边
+            for (int i = 0; i < outSize[v]; i++) {
+                int x = outHead[v][i];
+                if (!contracted[x]) {
+                    upEdges.add(v, x, outWeight[v][i]);
+                    deletedNeighbors[x]++;
+                }
+            }
+            for (int i = 0; i < inSize[v]; i++) {
+                int u = inHead[v][i];
+                if (!contracted[u]) {
+                    downEdges.add(v, u, inWeight[v][i]);
+                    deletedNeighbors[u]++;
+                }
+            }
+            contracted[v] = true;
+        }
+
+        /**
+         * 统计（或添加）收缩v所需的捷径，返回捷径数量
+         */
+        private int processShortcuts(int v, boolean apply) {
+            int count = 0;
+            int maxOut = 0;
+            for (int j = 0; j < outSize[v]; j++) {
+                if (!contracted[outHead[v][j]]) {
+                    maxOut = Math.max(maxOut, outWeight[v][j]);
+                }
+            }
+            for (int i = 0; i < inSize[v]; i++) {
+                int u = inHead[v][i];
+                if (contracted[u]) {
+                    continue;
+                }
+                int inW = inWeight[v][i];
+                witnessSearch(u, v, (long) inW + maxOut);
+                for (int j = 0; j < outSize[v]; j++) {
+                    int x = outHead[v][j];
+                    if (x == u || contracted[x]) {
+                        continue;
+                    }
+                    long viaV = (long) inW + outWeight[v][j];
+                    if (viaV >= UNREACHABLE) {
+                        continue;
+                    }
+                    boolean hasWitness = witnessVersion[x] == witnessRun && witnessDist[x] <= viaV;
+                    if (!hasWitness) {
+                        count++;
+                        if (apply) {
+                            if (addOrImproveEdge(u, x, (int) viaV)) {
+                                shortcutCount++;
+                            }
+                        }
+                    }
+                }
+            }
+            return count;
+        }
+
+        /**
+         * 从u出发、不经过v的受限Dijkstra
+         */
+        private void witnessSearch(int source, int excluded, long maxCost) {
+            if (++witnessRun == Integer.MAX_VALUE) {
+                Arrays.fill(witnessVersion, 0);
+                witnessRun = 1;
+            }
+            witnessHeap.clear();
+            witnessVersion[source] = witnessRun;
+            witnessDist[source] = 0;
+            witnessHeap.push(source, 0);
+            int settled = 0;
+            while (!witnessHeap.isEmpty() && settled < WITNESS_SETTLE_LIMIT) {
+                int d = witnessHeap.peekKey();
+                if (d > maxCost) {
+                    break;
+                }
+                int u = witnessHeap.pop();
+                if (d > witnessDist[u]) {
+                    continue;
+                }
+                settled++;
+                for (int i = 0; i < outSize[u]; i++) {
+                    int x = outHead[u][i];
+                    if (x == excluded || contracted[x]) {
+                        continue;
+                    }
+                    long nd = (long) d + outWeight[u][i];
+                    if (nd > maxCost) {
+                        continue;
+                    }
+                    if (witnessVersion[x] != witnessRun || nd < witnessDist[x]) {
+                        witnessVersion[x] = witnessRun;
+                        witnessDist[x] = (int) nd;
+                        witnessHeap.push(x, (int) nd);
+                    }
+                }
+            }
+        }
+
+        /**
+         * 添加边u->v，已存在时保留较小的权重；返回是否新增了边
+         */
+        private boolean addOrImproveEdge(int u, int v, int w) {
+            for (int i = 0; i < outSize[u]; i++) {
+                if (outHead[u][i] == v) {
+                    if (w < outWeight[u][i]) {
+                        outWeight[u][i] = w;
+                        for (int j = 0; j < inSize[v]; j++) {
+                            if (inHead[v][j] == u) {
+                                inWeight[v][j] = w;
+                                break;
+                            }
+                        }
+                    }
+                    return false;
+                }
+            }
+            if (outSize[u] == outHead[u].length) {
+                outHead[u] = Arrays.copyOf(outHead[u], outSize[u] * 2);
+                outWeight[u] = Arrays.copyOf(outWeight[u], outSize[u] * 2);
+            }
+            outHead[u][outSize[u]] = v;
+            outWeight[u][outSize[u]] = w;
+            outSize[u]++;
+            if (inSize[v] == inHead[v].length) {
+                inHead[v] = Arrays.copyOf(inHead[v], inSize[v] * 2);
+                inWeight[v] = Arrays.copyOf(inWeight[v], inSize[v] * 2);
+            }
+            inHead[v][inSize[v]] = u;
+            inWeight[v][inSize[v]] = w;
+            inSize[v]++;
+            return true;
+        }
+
+        private ContractionHierarchy assemble() {
+            int[] upFirst = new int[n + 1];
+            int[] upHead = new int[upEdges.size];
+            int[] upWeight = new int[upEdges.size];
+            upEdges.toCsr(n, upFirst, upHead, upWeight);
+
+            int[] downFirst = new int[n + 1];
+            int[] downHead = new int[downEdges.size];
+            int[] downWeight = new int[downEdges.size];
+            downEdges.toCsr(n, downFirst, downHead, downWeight);
+
+            return new ContractionHierarchy(n, rank, upFirst, upHead, upWeight,
+                downFirst, downHead, downWeight, shortcutCount);
+        }
+    }
+
+    /**
+     * 基本类型边列表
+     */
+    private static final class IntEdgeList {
+        private int[] from = new int[1024];
+        private int[] to = new int[1024];
+        private int[] weight = new int[1024];
+        private int size;
+
+        void add(int u, int v, int w) {
+            if (size == from.length) {
+                from = Arrays.copyOf(from, size * 2);
+                to = Arrays.copyOf(to, size * 2);
+                weight = Arrays.copyOf(weight, size * 2);
+            }
+            from[size] = u;
+            to[size] = v;
+            weight[size] = w;
+            size++;
+        }
+
+        void toCsr(int n, int[] first, int[] head, int[] w) {
+            for (int i = 0; i < size; i++) {
+                first[from[i] + 1]++;
+            }
+            for (int u = 0; u < n; u++) {
+                first[u + 1] += first[u];
+            }
+            int[] cursor = Arrays.copyOf(first, n);
+            for (int i = 0; i < size; i++) {
+                int pos = cursor[from[i]]++;
+                head[pos] = to[i];
+                w[pos] = weight[i];
+            }
+        }
+    }
+
+    /**
+     * 基本类型二叉堆（允许重复入堆，出堆时由调用方跳过过期项）
+     */
+    private static final class IntMinHeap {
+        private int[] nodes;
+        private int[] keys;
+        private int size;
+
+        IntMinHeap(int capacity) {
+            nodes = new int[Math.max(16, capacity)];
+            keys = new int[nodes.length];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        int peekKey() {
+            return keys[0];
+        }
+
+        void push(int node, int key) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (keys[parent] <= key) {
+                    break;
+                }
+                nodes[i] = nodes[parent];
+                keys[i] = keys[parent];
+                i = parent;
+            }
+            nodes[i] = node;
+            keys[i] = key;
+        }
+
+        int pop() {
+            int result = nodes[0];
+            size--;
+            if (size > 0) {
+                int node = nodes[size];
+                int key = keys[size];
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && keys[child + 1] < keys[child]) {
+                        child++;
+                    }
+                    if (keys[child] >= key) {
+                        break;
+                    }
+                    nodes[i] = nodes[child];
+                    keys[i] = keys[child];
+                    i = child;
+                }
+                nodes[i] = node;
+                keys[i] = key;
+            }
+            return result;
+        }
+    }
+}
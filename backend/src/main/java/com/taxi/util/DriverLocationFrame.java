@@ -0,0 +1,123 @@
+package com.taxi.util;
+
+/**
+ * 司机位置二进制帧编解码
+ * 每帧固定24字节，大端序：
+ * <pre>
+ * 偏移  长度  字段
+ * 0     8     司机ID（有符号64位）
+ * 8     4     纬度 × 10^7（有符号32位）
+ * 12    4     经度 × 10^7（有符号32位）
+ * 16    2     车头朝向 × 100（无符号16位，0~35999，0xFFFF表示未知）
+ * 18    6     采样时间（毫秒时间戳，无符号48位）
+ * </pre>
+ * 一条消息可以连续携带多帧。解码直接按偏移读取字节数组，不创建任何对象。
+ * 解码方读取字段前应先用 isValid 校验，坐标超出Redis GEO范围或朝向越界的帧整帧丢弃。
+ */
+public final class DriverLocationFrame {
+
+    /** 单帧字节数 */
+    public static final int FRAME_SIZE = 24;
+
+    /** 坐标定点缩放系数（约1厘米精度） */
+    public static final double COORDINATE_SCALE = 1e7;
+
+    /** 朝向未知 */
+    public static final int HEADING_UNKNOWN = 0xFFFF;
+
+    /** 朝向最大值（359.99度） */
+    public static final int MAX_HEADING = 35999;
+
+    private DriverLocationFrame() {
+    }
+
+    /**
+     * 消息中包含的完整帧数，长度不是帧大小整数倍时返回-1
+     */
+    public static int frameCount(byte[] data) {
+        if (data == null || data.length == 0 || data.length % FRAME_SIZE != 0) {
+            return -1;
+        }
+        return data.length / FRAME_SIZE;
+    }
+
+    /**
+     * 帧中的坐标和朝向是否在合法范围内
+     */
+    public static boolean isValid(byte[] data, int frame) {
+        int heading = headingCentiDegrees(data, frame);
+        if (heading > MAX_HEADING && heading != HEADING_UNKNOWN) {
+            return false;
+        }
+        return GeoGridUtil.isValidGeoCoordinate(latitude(data, frame), longitude(data, frame));
+    }
+
+    public static long driverId(byte[] data, int frame) {
+        return readLong(data, frame * FRAME_SIZE, 8);
+    }
+
+    public static double latitude(byte[] data, int frame) {
+        return readInt(data, frame * FRAME_SIZE + 8) / COORDINATE_SCALE;
+    }
+
+    public static double longitude(byte[] data, int frame) {
+        return readInt(data, frame * FRAME_SIZE + 12) / COORDINATE_SCALE;
+    }
+
+    /**
+     * 车头朝向（百分之一度），未知时返回 HEADING_UNKNOWN
+     */
+    public static int headingCentiDegrees(byte[] data, int frame) {
+        int offset = frame * FRAME_SIZE + 16;
+        return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    }
+
+    public static long timestamp(byte[] data, int frame) {
+        return readLong(data, frame * FRAME_SIZE + 18, 6);
+    }
+
+    /**
+     * 编码一帧（供客户端SDK和压测工具使用）
+     */
+    public static void encode(byte[] data, int frame, long driverId, double latitude, double longitude,
+                              int headingCentiDegrees, long timestamp) {
+        if (headingCentiDegrees < 0 || (headingCentiDegrees > MAX_HEADING && headingCentiDegrees != HEADING_UNKNOWN)) {
+            throw new IllegalArgumentException("朝向超出范围: " + headingCentiDegrees);
+        }
+        // 按量化后的值校验，保证编码成功的帧解码后一定通过 isValid
+        long scaledLatitude = Math.round(latitude * COORDINATE_SCALE);
+        long scaledLongitude = Math.round(longitude * COORDINATE_SCALE);
+        if (Double.isNaN(latitude) || Double.isNaN(longitude)
+            || !GeoGridUtil.isValidGeoCoordinate(scaledLatitude / COORDINATE_SCALE, scaledLongitude / COORDINATE_SCALE)) {
+            throw new IllegalArgumentException("坐标超出范围: " + latitude + "," + longitude);
+        }
+        int offset = frame * FRAME_SIZE;
+        writeLong(data, offset, 8, driverId);
+        writeLong(data, offset + 8, 4, scaledLatitude);
+        writeLong(data, offset + 12, 4, scaledLongitude);
+        writeLong(data, offset + 16, 2, headingCentiDegrees);
+        writeLong(data, offset + 18, 6, timestamp);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24)
+            | ((data[offset + 1] & 0xFF) << 16)
+            | ((data[offset + 2] & 0xFF) << 8)
+            | (data[offset + 3] & 0xFF);
+    }
+
+    private static long readLong(byte[] data, int offset, int length) {
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            value = (value << 8) | (data[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static void writeLong(byte[] data, int offset, int length, long value) {
+        for (int i = length - 1; i >= 0; i--) {
+            data[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.taxi.util;
+
+/**
+ * 地理网格工具类
+ * 将经纬度按固定角度切分为网格单元，单元用一个long编码（高32位纬度索引，低32位经度索引）
+ */
+public final class GeoGridUtil {
+
+    /** 地球半径（米） */
+    public static final double EARTH_RADIUS_METERS = 6378137.0;
+
+    /** 每度纬度对应的公里数（近似值） */
+    public static final double KM_PER_DEGREE = 111.32;
+
+    /** Redis GEO可存储的纬度上限（Web墨卡托投影边界） */
+    public static final double MAX_GEO_LATITUDE = 85.05112878;
+
+    /** 经度上限 */
+    public static final double MAX_LONGITUDE = 180.0;
+
+    private GeoGridUtil() {
+    }
+
+    /**
+     * 坐标是否可以写入Redis GEO（NaN视为无效）
+     */
+    public static boolean isValidGeoCoordinate(double latitude, double longitude) {
+        return latitude >= -MAX_GEO_LATITUDE && latitude <= MAX_GEO_LATITUDE
+            && longitude >= -MAX_LONGITUDE && longitude <= MAX_LONGITUDE;
+    }
+
+    /**
+     * 计算纬度方向的网格索引
+     */
+    public static int latIndex(double latitude, double cellSizeDegrees) {
+        return (int) Math.floor((latitude + 90.0) / cellSizeDegrees);
+    }
+
+    /**
+     * 计算经度方向的网格索引
+     */
+    public static int lngIndex(double longitude, double cellSizeDegrees) {
+        return (int) Math.floor((longitude + 180.0) / cellSizeDegrees);
+    }
+
+    /**
+     * 由网格索引组合出网格编码
+     */
+    public static long cellKey(int latIndex, int lngIndex) {
+        return ((long) latIndex << 32) | (lngIndex & 0xffffffffL);
+    }
+
+    /**
+     * 计算坐标所在的网格编码
+     */
+    public static long cellKey(double latitude, double longitude, double cellSizeDegrees) {
+        return cellKey(latIndex(latitude, cellSizeDegrees), lngIndex(longitude, cellSizeDegrees));
+    }
+
+    /**
+     * 从网格编码中取出纬度索引
+     */
+    public static int latIndexOf(long cellKey) {
+        return (int) (cellKey >> 32);
+    }
+
+    /**
+     * 从网格编码中取出经度索引
+     */
+    public static int lngIndexOf(long cellKey) {
+        return (int) cellKey;
+    }
+
+    /**
+     * 网格中心点纬度
+     */
+    public static double cellCenterLatitude(long cellKey, double cellSizeDegrees) {
+        return (latIndexOf(cellKey) + 0.5) * cellSizeDegrees - 90.0;
+    }
+
+    /**
+     * 网格中心点经度
+     */
+    public static double cellCenterLongitude(long cellKey, double cellSizeDegrees) {
+        return (lngIndexOf(cellKey) + 0.5) * cellSizeDegrees - 180.0;
+    }
+
+    /**
+     * 半径（公里）对应的纬度跨度（度）
+     */
+    public static double latDegreesForKm(double radiusKm) {
+        return radiusKm / KM_PER_DEGREE;
+    }
+
+    /**
+     * 半径（公里）在指定纬度处对应的经度跨度（度）
+     */
+    public static double lngDegreesForKm(double radiusKm, double latitude) {
+        double cos = Math.cos(Math.toRadians(latitude));
+        if (cos < 0.01) {
+            return 180.0;
+        }
+        return radiusKm / (KM_PER_DEGREE * cos);
+    }
+
+    /**
+     * 计算两点间距离（米），与各服务中的calculateDistance公式一致
+     */
+    public static double distanceMeters(double lat1, double lng1, double lat2, double lng2) {
+        double radLat1 = Math.toRadians(lat1);
+        double radLat2 = Math.toRadians(lat2);
+        double a = radLat1 - radLat2;
+        double b = Math.toRadians(lng1) - Math.toRadians(lng2);
+        double sinA = Math.sin(a / 2);
+        double sinB = Math.sin(b / 2);
+        double s = 2 * Math.asin(Math.sqrt(sinA * sinA + Math.cos(radLat1) * Math.cos(radLat2) * sinB * sinB));
+        return s * EARTH_RADIUS_METERS;
+    }
+}
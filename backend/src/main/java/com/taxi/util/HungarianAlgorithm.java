@@ -0,0 +1,120 @@
+package com.taxi.util;
+
+import java.util.Arrays;
+
+/**
+ * 匈牙利算法（带势能的最短增广路实现）
+ * 求解矩形代价矩阵的最小代价指派，代价矩阵按行优先存放在一维数组中
+ */
+public final class HungarianAlgorithm {
+
+    /** 不可行指派的代价，结果中代价不小于该值的指派视为未匹配 */
+    public static final double INFEASIBLE = 1e12;
+
+    private HungarianAlgorithm() {
+    }
+
+    /**
+     * 求解指派问题
+     *
+     * @param cost 代价矩阵，cost[r * cols + c] 为第r行指派给第c列的代价
+     * @param rows 行数
+     * @param cols 列数
+     * @return 每一行指派到的列下标，未指派为-1
+     */
+    public static int[] solve(double[] cost, int rows, int cols) {
+        int[] rowAssignment = new int[rows];
+        Arrays.fill(rowAssignment, -1);
+        if (rows == 0 || cols == 0) {
+            return rowAssignment;
+        }
+
+        if (rows <= cols) {
+            int[] colOfRow = solveRowsNotMoreThanCols(cost, rows, cols, false);
+            for (int r = 0; r < rows; r++) {
+                int c = colOfRow[r];
+                if (c >= 0 && cost[r * cols + c] < INFEASIBLE) {
+                    rowAssignment[r] = c;
+                }
+            }
+        } else {
+            // 行多于列时按转置矩阵求解
+            int[] rowOfCol = solveRowsNotMoreThanCols(cost, cols, rows, true);
+            for (int c = 0; c < cols; c++) {
+                int r = rowOfCol[c];
+                if (r >= 0 && cost[r * cols + c] < INFEASIBLE) {
+                    rowAssignment[r] = c;
+                }
+            }
+        }
+        return rowAssignment;
+    }
+
+    /**
+     * n <= m 时的求解，transposed为true表示按转置方式读取代价矩阵
+     * 返回每一行（1..n 映射到 0..n-1）指派的列
+     */
+    private static int[] solveRowsNotMoreThanCols(double[] cost, int n, int m, boolean transposed) {
+        // 下标从1开始，0号列作为虚拟列
+        double[] u = new double[n + 1];
+        double[] v = new double[m + 1];
+        int[] p = new int[m + 1];
+        int[] way = new int[m + 1];
+        double[] minv = new double[m + 1];
+        boolean[] used = new boolean[m + 1];
+        int originalCols = transposed ? n : m;
+
+        for (int i = 1; i <= n; i++) {
+            p[0] = i;
+            int j0 = 0;
+            Arrays.fill(minv, Double.POSITIVE_INFINITY);
+            Arrays.fill(used, false);
+            do {
+                used[j0] = true;
+                int i0 = p[j0];
+                double delta = Double.POSITIVE_INFINITY;
+                int j1 = 0;
+                for (int j = 1; j <= m; j++) {
+                    if (used[j]) {
+                        continue;
+                    }
+                    double c = transposed
+                        ? cost[(j - 1) * originalCols + (i0 - 1)]
+                        : cost[(i0 - 1) * originalCols + (j - 1)];
+                    double cur = c - u[i0] - v[j];
+                    if (cur < minv[j]) {
+                        minv[j] = cur;
+                        way[j] = j0;
+                    }
+                    if (minv[j] < delta) {
+                        delta = minv[j];
+                        j1 = j;
+                    }
+                }
+                for (int j = 0; j <= m; j++) {
+                    if (used[j]) {
+                        u[p[j]] += delta;
+                        v[j] -= delta;
+                    } else {
+                        minv[j] -= delta;
+                    }
+                }
+                j0 = j1;
+            } while (p[j0] != 0);
+            do {
+                int j1 = way[j0];
+                p[j0] = p[j1];
+                j0 = j1;
+            } while (j0 != 0);
+        }
+
+        int[] colOfRow = new int[n];
+        Arrays.fill(colOfRow, -1);
+        for (int j = 1; j <= m; j++) {
+            if (p[j] != 0) {
+                colOfRow[p[j] - 1] = j - 1;
+            }
+        }
+        return colOfRow;
+    }
+}
@@ -0,0 +1,25 @@
+package com.taxi.util;
+
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.List;
+
+/**
+ * Redis Lua脚本工具
+ * 返回数组的脚本结果类型只能用List.class声明，这里集中做一次泛型转换，调用方拿到带类型的脚本
+ */
+public final class RedisScriptUtil {
+
+    private RedisScriptUtil() {
+    }
+
+    /**
+     * 创建返回数组的脚本，数组元素由执行时的结果序列化器反序列化为E
+     */
+    public static <E> RedisScript<List<E>> listScript(String script) {
+        @SuppressWarnings("unchecked")
+        Class<List<E>> resultType = (Class<List<E>>) (Class<?>) List.class;
+        return new DefaultRedisScript<>(script, resultType);
+    }
+}
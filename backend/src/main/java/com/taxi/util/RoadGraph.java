@@ -0,0 +1,226 @@
+package com.taxi.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 路网图（CSR压缩邻接数组）
+ * 从本地路网文件（由OSM数据导出）加载，节点和边全部存放在基本类型数组中。
+ *
+ * 文件格式（按行，空行和#开头的行忽略）：
+ * <pre>
+ * v 节点ID 纬度 经度
+ * e 起点ID 终点ID 通行秒数 [oneway]
+ * </pre>
+ * 边默认双向，第五列为1时表示单行道；边必须出现在其两端节点之后。
+ */
+public final class RoadGraph {
+
+    /** 节点吸附网格大小（度） */
+    private static final double SNAP_CELL_DEGREES = 0.01;
+
+    private final int nodeCount;
+    private final double[] latitudes;
+    private final double[] longitudes;
+
+    // CSR：节点u的出边为 [firstOut[u], firstOut[u+1])
+    private final int[] firstOut;
+    private final int[] head;
+    private final int[] weight;
+
+    // 节点吸附网格：网格编码 -> 节点下标
+    private final Map<Long, int[]> snapCells;
+
+    private RoadGraph(double[] latitudes, double[] longitudes, int[] firstOut, int[] head, int[] weight) {
+        this.nodeCount = latitudes.length;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.firstOut = firstOut;
+        this.head = head;
+        this.weight = weight;
+        this.snapCells = buildSnapCells();
+    }
+
+    /**
+     * 从本地文件加载路网，边权为通行毫秒数
+     */
+    public static RoadGraph load(Path file) throws IOException {
+        Map<Long, Integer> nodeIndex = new HashMap<>();
+        double[] lats = new double[1024];
+        double[] lngs = new double[1024];
+        int n = 0;
+
+        int[] from = new int[4096];
+        int[] to = new int[4096];
+        int[] w = new int[4096];
+        int m = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNo = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+                line = line.trim();
+                if (line.isEmpty() || line.charAt(0) == '#') {
+                    continue;
+                }
+                String[] parts = line.split("\\s+");
+                if ("v".equals(parts[0]) && parts.length >= 4) {
+                    if (n == lats.length) {
+                        lats = Arrays.copyOf(lats, n * 2);
+                        lngs = Arrays.copyOf(lngs, n * 2);
+                    }
+                    nodeIndex.put(Long.parseLong(parts[1]), n);
+                    lats[n] = Double.parseDouble(parts[2]);
+                    lngs[n] = Double.parseDouble(parts[3]);
+                    n++;
+                } else if ("e".equals(parts[0]) && parts.length >= 4) {
+                    Integer u = nodeIndex.get(Long.parseLong(parts[1]));
+                    Integer v = nodeIndex.get(Long.parseLong(parts[2]));
+                    if (u == null || v == null) {
+                        throw new IOException("路网文件第 " + lineNo + " 行引用了未定义的节点");
+                    }
+                    int millis = (int) Math.max(1, Math.round(Double.parseDouble(parts[3]) * 1000));
+                    boolean oneway = parts.length >= 5 && "1".equals(parts[4]);
+                    if (m + 2 > from.length) {
+                        from = Arrays.copyOf(from, from.length * 2);
+                        to = Arrays.copyOf(to, to.length * 2);
+                        w = Arrays.copyOf(w, w.length * 2);
+                    }
+                    from[m] = u;
+                    to[m] = v;
+                    w[m] = millis;
+                    m++;
+                    if (!oneway) {
+                        from[m] = v;
+                        to[m] = u;
+                        w[m] = millis;
+                        m++;
+                    }
+                }
+            }
+        }
+        return fromEdges(Arrays.copyOf(lats, n), Arrays.copyOf(lngs, n), from, to, w, m);
+    }
+
+    /**
+     * 由边列表构建CSR
+     */
+    public static RoadGraph fromEdges(double[] lats, double[] lngs, int[] from, int[] to, int[] w, int edgeCount) {
+        int n = lats.length;
+        int[] firstOut = new int[n + 1];
+        for (int i = 0; i < edgeCount; i++) {
+            firstOut[from[i] + 1]++;
+        }
+        for (int u = 0; u < n; u++) {
+            firstOut[u + 1] += firstOut[u];
+        }
+        int[] head = new int[edgeCount];
+        int[] weight = new int[edgeCount];
+        int[] cursor = Arrays.copyOf(firstOut, n);
+        for (int i = 0; i < edgeCount; i++) {
+            int pos = cursor[from[i]]++;
+            head[pos] = to[i];
+            weight[pos] = w[i];
+        }
+        return new RoadGraph(lats, lngs, firstOut, head, weight);
+    }
+
+    private Map<Long, int[]> buildSnapCells() {
+        Map<Long, int[]> counts = new HashMap<>();
+        long[] keys = new long[nodeCount];
+        for (int v = 0; v < nodeCount; v++) {
+            keys[v] = GeoGridUtil.cellKey(latitudes[v], longitudes[v], SNAP_CELL_DEGREES);
+            counts.computeIfAbsent(keys[v], k -> new int[1])[0]++;
+        }
+        Map<Long, int[]> cells = new HashMap<>(counts.size() * 2);
+        Map<Long, int[]> fill = new HashMap<>(counts.size() * 2);
+        for (Map.Entry<Long, int[]> entry : counts.entrySet()) {
+            cells.put(entry.getKey(), new int[entry.getValue()[0]]);
+            fill.put(entry.getKey(), new int[1]);
+        }
+        for (int v = 0; v < nodeCount; v++) {
+            int[] cell = cells.get(keys[v]);
+            int[] pos = fill.get(keys[v]);
+            cell[pos[0]++] = v;
+        }
+        return cells;
+    }
+
+    /**
+     * 查找距坐标最近的节点，maxMeters范围内没有节点时返回-1
+     */
+    public int nearestNode(double latitude, double longitude, double maxMeters) {
+        int centerLat = GeoGridUtil.latIndex(latitude, SNAP_CELL_DEGREES);
+        int centerLng = GeoGridUtil.lngIndex(longitude, SNAP_CELL_DEGREES);
+        double ringMeters = SNAP_CELL_DEGREES * GeoGridUtil.KM_PER_DEGREE * 1000
+            * Math.max(0.01, Math.cos(Math.toRadians(latitude)));
+        int maxRing = (int) Math.ceil(maxMeters / ringMeters) + 1;
+
+        int best = -1;
+        double bestMeters = maxMeters;
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // 已找到的节点比当前环可能的最近距离更近时停止扩展
+            if (best >= 0 && (ring - 1) * ringMeters > bestMeters) {
+                break;
+            }
+            for (int dLat = -ring; dLat <= ring; dLat++) {
+                for (int dLng = -ring; dLng <= ring; dLng++) {
+                    if (Math.abs(dLat) != ring && Math.abs(dLng) != ring) {
+                        continue;
+                    }
+                    int[] cell = snapCells.get(GeoGridUtil.cellKey(centerLat + dLat, centerLng + dLng));
+                    if (cell == null) {
+                        continue;
+                    }
+                    for (int v : cell) {
+                        double meters = GeoGridUtil.distanceMeters(latitude, longitude, latitudes[v], longitudes[v]);
+                        if (meters <= bestMeters) {
+                            bestMeters = meters;
+                            best = v;
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getEdgeCount() {
+        return head.length;
+    }
+
+    public double getLatitude(int node) {
+        return latitudes[node];
+    }
+
+    public double getLongitude(int node) {
+        return longitudes[node];
+    }
+
+    public int firstOut(int node) {
+        return firstOut[node];
+    }
+
+    public int endOut(int node) {
+        return firstOut[node + 1];
+    }
+
+    public int head(int edge) {
+        return head[edge];
+    }
+
+    public int weight(int edge) {
+        return weight[edge];
+    }
+}
@@ -0,0 +1,251 @@
+package com.taxi.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+
+/**
+ * 按键分道的有界执行器
+ * 键按哈希固定分配到若干条道，每条道由单个线程按提交顺序处理，同一个键的任务因此严格有序。
+ * 每条道内同一个键最多只有一个待处理任务：新任务到达时与待处理任务合并（默认新的覆盖旧的），并保持原来的排队位置，
+ * 所以积压时内存只与待处理的键数有关；待处理键数达到道容量时新键的任务被丢弃。
+ *
+ * @param <T> 任务数据类型
+ */
+public class StripedLaneExecutor<T> {
+
+    private final String name;
+    private final List<Lane> lanes;
+    private final int laneCapacity;
+    private final Consumer<T> handler;
+    private final BinaryOperator<T> merger;
+    private volatile boolean running = true;
+
+    /**
+     * 一个待处理任务
+     */
+    private final class Pending {
+        T item;
+        final long enqueueNanos;
+
+        Pending(T item, long enqueueNanos) {
+            this.item = item;
+            this.enqueueNanos = enqueueNanos;
+        }
+    }
+
+    /**
+     * 一条道：待处理键的先进先出队列 + 键到任务的映射，只由本道线程消费
+     */
+    private final class Lane {
+        final int index;
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition notEmpty = lock.newCondition();
+        final ArrayDeque<Long> order = new ArrayDeque<>();
+        final Map<Long, Pending> pending = new HashMap<>();
+        final Thread worker;
+
+        // 统计信息
+        final AtomicLong submitted = new AtomicLong();
+        final AtomicLong processed = new AtomicLong();
+        final AtomicLong coalesced = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        volatile long lastLagMicros;
+        volatile long maxLagMicros;
+
+        Lane(int index) {
+            this.index = index;
+            this.worker = new Thread(this::run, name + "-lane-" + index);
+            this.worker.setDaemon(true);
+        }
+
+        boolean offer(long key, T item) {
+            lock.lock();
+            try {
+                submitted.incrementAndGet();
+                Pending existing = pending.get(key);
+                if (existing != null) {
+                    existing.item = merger.apply(existing.item, item);
+                    coalesced.incrementAndGet();
+                    return true;
+                }
+                if (pending.size() >= laneCapacity) {
+                    dropped.incrementAndGet();
+                    return false;
+                }
+                pending.put(key, new Pending(item, System.nanoTime()));
+                order.addLast(key);
+                notEmpty.signal();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void run() {
+            while (true) {
+                Pending next;
+                lock.lock();
+                try {
+                    // 停止后处理完已排队的任务再退出
+                    while (order.isEmpty()) {
+                        if (!running) {
+                            return;
+                        }
+                        notEmpty.await(100, TimeUnit.MILLISECONDS);
+                    }
+                    next = pending.remove(order.pollFirst());
+                } catch (InterruptedException e) {
+                    if (!running) {
+                        return;
+                    }
+                    continue;
+                } finally {
+                    lock.unlock();
+                }
+
+                long lagMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - next.enqueueNanos);
+                lastLagMicros = lagMicros;
+                if (lagMicros > maxLagMicros) {
+                    maxLagMicros = lagMicros;
+                }
+                try {
+                    handler.accept(next.item);
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                    System.err.println("执行器 " + name + " 第" + index + "道任务失败: " + e.getMessage());
+                }
+                processed.incrementAndGet();
+            }
+        }
+
+        Map<String, Object> stats() {
+            int depth;
+            long oldestLagMicros = 0;
+            lock.lock();
+            try {
+                depth = order.size();
+                Long head = order.peekFirst();
+                if (head != null) {
+                    oldestLagMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - pending.get(head).enqueueNanos);
+                }
+            } finally {
+                lock.unlock();
+            }
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("lane", index);
+            stats.put("queueDepth", depth);
+            stats.put("oldestLagMicros", oldestLagMicros);
+            stats.put("lastLagMicros", lastLagMicros);
+            stats.put("maxLagMicros", maxLagMicros);
+            stats.put("submitted", submitted.get());
+            stats.put("processed", processed.get());
+            stats.put("coalesced", coalesced.get());
+            stats.put("dropped", dropped.get());
+            stats.put("failures", failures.get());
+            return stats;
+        }
+    }
+
+    /**
+     * @param name         执行器名称（用于线程名）
+     * @param laneCount    道数
+     * @param laneCapacity 每条道最多待处理的键数
+     * @param handler      任务处理函数
+     * @param merger       同一个键的待处理任务与新任务的合并函数，参数依次为旧任务、新任务
+     */
+    public StripedLaneExecutor(String name, int laneCount, int laneCapacity, Consumer<T> handler, BinaryOperator<T> merger) {
+        if (laneCount <= 0 || laneCapacity <= 0) {
+            throw new IllegalArgumentException("道数和道容量必须大于0");
+        }
+        this.name = name;
+        this.laneCapacity = laneCapacity;
+        this.handler = handler;
+        this.merger = merger != null ? merger : (older, newer) -> newer;
+        this.lanes = new ArrayList<>(laneCount);
+        for (int i = 0; i < laneCount; i++) {
+            lanes.add(new Lane(i));
+        }
+        for (Lane lane : lanes) {
+            lane.worker.start();
+        }
+    }
+
+    /**
+     * 提交任务，返回false表示所在道已满被丢弃
+     */
+    public boolean submit(long key, T item) {
+        if (!running) {
+            return false;
+        }
+        return lanes.get(laneOf(key)).offer(key, item);
+    }
+
+    /**
+     * 停止接收新任务，等待各道处理完已排队的任务
+     */
+    public void shutdown(long timeout, TimeUnit unit) {
+        running = false;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Lane lane : lanes) {
+            try {
+                lane.worker.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private int laneOf(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) ((h >>> 32) % lanes.size());
+    }
+
+    /**
+     * 获取各道统计
+     */
+    public List<Map<String, Object>> getLaneStats() {
+        List<Map<String, Object>> stats = new ArrayList<>(lanes.size());
+        for (Lane lane : lanes) {
+            stats.add(lane.stats());
+        }
+        return stats;
+    }
+
+    /**
+     * 获取汇总统计
+     */
+    public Map<String, Object> getStats() {
+        long depth = 0, submitted = 0, processed = 0, coalesced = 0, dropped = 0, maxLag = 0;
+        for (Map<String, Object> lane : getLaneStats()) {
+            depth += (Integer) lane.get("queueDepth");
+            submitted += (Long) lane.get("submitted");
+            processed += (Long) lane.get("processed");
+            coalesced += (Long) lane.get("coalesced");
+            dropped += (Long) lane.get("dropped");
+            maxLag = Math.max(maxLag, (Long) lane.get("maxLagMicros"));
+        }
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("name", name);
+        stats.put("lanes", lanes.size());
+        stats.put("laneCapacity", laneCapacity);
+        stats.put("queueDepth", depth);
+        stats.put("submitted", submitted);
+        stats.put("processed", processed);
+        stats.put("coalesced", coalesced);
+        stats.put("dropped", dropped);
+        stats.put("maxLagMicros", maxLag);
+        stats.put("laneDetails", getLaneStats());
+        return stats;
+    }
+}
@@ -0,0 +1,61 @@
+package com.taxi.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 轨迹点编解码
+ * 坐标按 × 10^6 转为定点整数（约0.1米精度），时间为毫秒时间戳。
+ * 一个轨迹块内第一个点写绝对值，之后的点只写与前一点的差值；所有整数按zigzag + varint编码，
+ * 城市内行驶时每个点通常只占5~7字节。
+ * <pre>
+ * 块 = 订单ID(varint) 点数(varint) 纬度 经度 时间 { Δ纬度 Δ经度 Δ时间 }*
+ * </pre>
+ */
+public final class TrajectoryCodec {
+
+    /** 坐标定点缩放系数 */
+    public static final double COORDINATE_SCALE = 1e6;
+
+    /** 单个varint最大字节数 */
+    public static final int MAX_VARINT_BYTES = 10;
+
+    private TrajectoryCodec() {
+    }
+
+    public static int toFixed(double coordinate) {
+        return (int) Math.round(coordinate * COORDINATE_SCALE);
+    }
+
+    public static double fromFixed(long fixed) {
+        return fixed / COORDINATE_SCALE;
+    }
+
+    public static void writeVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    public static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("varint过长");
+    }
+
+    public static void writeSignedVarLong(ByteBuffer buffer, long value) {
+        writeVarLong(buffer, (value << 1) ^ (value >> 63));
+    }
+
+    public static long readSignedVarLong(ByteBuffer buffer) {
+        long raw = readVarLong(buffer);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+}
@@ -0,0 +1,163 @@
+package com.taxi.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按类型注册的RabbitMQ消息转换器
+ * 每个消息类型注册时预先构建好Jackson的ObjectReader/ObjectWriter，编码时写入 x-msg-type / x-msg-version 消息头，
+ * 解码时按消息头直接找到对应类型的reader，从字节反序列化为记录对象，不经过Map中间结构，也不依赖 __TypeId__ 类名。
+ * 带类型头但类型未注册、或版本高于本地支持版本的消息在读取消息体之前就抛出MessageConversionException，
+ * 由监听容器直接拒绝，不重新入队。没有类型头的消息（订单ID等基本类型和旧格式消息）交给默认转换器处理。
+ */
+public class TypedMessageConverter implements MessageConverter {
+
+    public static final String TYPE_HEADER = "x-msg-type";
+    public static final String VERSION_HEADER = "x-msg-version";
+
+    /**
+     * 一个已注册的消息类型
+     */
+    private static final class Registration {
+        final String type;
+        final int version;
+        final ObjectReader reader;
+        final ObjectWriter writer;
+        final AtomicLong encoded = new AtomicLong();
+        final AtomicLong decoded = new AtomicLong();
+
+        Registration(String type, int version, ObjectReader reader, ObjectWriter writer) {
+            this.type = type;
+            this.version = version;
+            this.reader = reader;
+            this.writer = writer;
+        }
+    }
+
+    private final ObjectMapper objectMapper;
+    private final MessageConverter fallback;
+    private final Map<String, Registration> byType = new ConcurrentHashMap<>();
+    private final Map<Class<?>, Registration> byClass = new ConcurrentHashMap<>();
+
+    // 统计信息
+    private final AtomicLong totalFallbackEncoded = new AtomicLong();
+    private final AtomicLong totalFallbackDecoded = new AtomicLong();
+    private final AtomicLong totalRejected = new AtomicLong();
+
+    /**
+     * @param objectMapper 构建各类型reader/writer使用的ObjectMapper
+     * @param fallback     未注册类型和无类型头消息使用的转换器
+     */
+    public TypedMessageConverter(ObjectMapper objectMapper, MessageConverter fallback) {
+        this.objectMapper = objectMapper;
+        this.fallback = fallback;
+    }
+
+    /**
+     * 注册消息类型
+     *
+     * @param type    类型名（写入消息头，与类名无关，类改名不影响已发送的消息）
+     * @param version 当前版本，低于或等于该版本的消息都可以解码
+     * @param clazz   消息类
+     */
+    public <T> TypedMessageConverter register(String type, int version, Class<T> clazz) {
+        Registration registration = new Registration(type, version,
+            objectMapper.readerFor(clazz), objectMapper.writerFor(clazz));
+        byType.put(type, registration);
+        byClass.put(clazz, registration);
+        return this;
+    }
+
+    @Override
+    public Message toMessage(Object object, MessageProperties messageProperties) throws MessageConversionException {
+        Registration registration = byClass.get(object.getClass());
+        if (registration == null) {
+            totalFallbackEncoded.incrementAndGet();
+            return fallback.toMessage(object, messageProperties);
+        }
+        try {
+            byte[] body = registration.writer.writeValueAsBytes(object);
+            messageProperties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+            messageProperties.setContentEncoding("UTF-8");
+            messageProperties.setContentLength(body.length);
+            messageProperties.setHeader(TYPE_HEADER, registration.type);
+            messageProperties.setHeader(VERSION_HEADER, registration.version);
+            registration.encoded.incrementAndGet();
+            return new Message(body, messageProperties);
+        } catch (Exception e) {
+            throw new MessageConversionException("编码消息失败: " + registration.type, e);
+        }
+    }
+
+    @Override
+    public Object fromMessage(Message message) throws MessageConversionException {
+        Object type = message.getMessageProperties().getHeader(TYPE_HEADER);
+        if (type == null) {
+            totalFallbackDecoded.incrementAndGet();
+            return fallback.fromMessage(message);
+        }
+        Registration registration = byType.get(type.toString());
+        if (registration == null) {
+            totalRejected.incrementAndGet();
+            throw new MessageConversionException("未知消息类型: " + type);
+        }
+        int version = versionOf(message.getMessageProperties().getHeader(VERSION_HEADER));
+        if (version > registration.version) {
+            totalRejected.incrementAndGet();
+            throw new MessageConversionException("不支持的消息版本: " + type + " v" + version
+                + "，当前支持到 v" + registration.version);
+        }
+        try {
+            Object value = registration.reader.readValue(message.getBody());
+            registration.decoded.incrementAndGet();
+            return value;
+        } catch (Exception e) {
+            totalRejected.incrementAndGet();
+            throw new MessageConversionException("解码消息失败: " + type, e);
+        }
+    }
+
+    private static int versionOf(Object header) {
+        if (header instanceof Number) {
+            return ((Number) header).intValue();
+        }
+        if (header == null) {
+            return 1;
+        }
+        try {
+            return Integer.parseInt(header.toString());
+        } catch (NumberFormatException e) {
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * 获取编解码统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> types = new HashMap<>();
+        for (Registration registration : byType.values()) {
+            Map<String, Object> typeStats = new HashMap<>();
+            typeStats.put("version", registration.version);
+            typeStats.put("encoded", registration.encoded.get());
+            typeStats.put("decoded", registration.decoded.get());
+            types.put(registration.type, typeStats);
+        }
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("types", types);
+        stats.put("fallbackEncoded", totalFallbackEncoded.get());
+        stats.put("fallbackDecoded", totalFallbackDecoded.get());
+        stats.put("rejected", totalRejected.get());
+        return stats;
+    }
+}
@@ -0,0 +1,169 @@
+package com.taxi.benchmark;
+
+import com.taxi.service.DriverLocationSink;
+import com.taxi.service.DriverRedisService;
+import com.taxi.support.EmbeddedRedis;
+import com.taxi.support.TestDrivers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 司机位置批量写入吞吐基准（嵌入式Redis）
+ * 预先上线一批司机（部分忙碌、部分已下线），每次调用写入UPDATES条位置。
+ * synchronous 是引入批量写入器之前的路径：逐条调用 DriverRedisService.updateDriverLocation，每条一次脚本往返；
+ * batched 提交到批量写入器并等待全部写入完成，maxBatch 为每批最多合并的条数。
+ * 运行：mvn test-compile exec:exec -Pbenchmark -Dbenchmark=DriverLocationSinkBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DriverLocationSinkBenchmark {
+
+    private static final int UPDATES = 1000;
+
+    // 与DriverRedisService中的key一致
+    private static final String DRIVER_HOT_KEY = "driver_hot:";
+
+    private static final double CENTER_LAT = 39.9042;
+    private static final double CENTER_LNG = 116.4074;
+
+    @Param({"5000"})
+    int drivers;
+
+    // 提交位置时已下线的司机比例（脚本跳过这些司机）
+    @Param({"0.1"})
+    double offlineRatio;
+
+    // 同步路径每条位置都打印日志，测量时丢弃输出
+    private static final PrintStream SILENT = new PrintStream(OutputStream.nullOutputStream());
+
+    private DriverRedisService driverRedisService;
+    private long[] driverIds;
+    private double[] latitudes;
+    private double[] longitudes;
+    private BigDecimal[] latitudeDecimals;
+    private BigDecimal[] longitudeDecimals;
+    private int next;
+
+    /**
+     * 批量写入器，只有 batched 使用
+     */
+    @State(Scope.Benchmark)
+    public static class SinkState {
+
+        @Param({"50", "500"})
+        int maxBatch;
+
+        DriverLocationSink sink;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            sink = new DriverLocationSink();
+            ReflectionTestUtils.setField(sink, "stringRedisTemplate", EmbeddedRedis.stringRedisTemplate());
+            ReflectionTestUtils.setField(sink, "enabled", true);
+            ReflectionTestUtils.setField(sink, "drainIntervalMs", 1L);
+            ReflectionTestUtils.setField(sink, "maxBatch", maxBatch);
+            sink.init();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            sink.shutdown();
+            System.out.println();
+            System.out.println("批量写入统计: " + sink.getStats());
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        EmbeddedRedis.flushAll();
+        StringRedisTemplate stringRedisTemplate = EmbeddedRedis.stringRedisTemplate();
+        Random random = new Random(42);
+        for (long id = 1; id <= drivers; id++) {
+            if (random.nextDouble() < offlineRatio) {
+                continue;
+            }
+            Map<String, String> hot = new HashMap<>();
+            hot.put("online", "1");
+            hot.put("busy", random.nextDouble() < 0.3 ? "1" : "0");
+            stringRedisTemplate.opsForHash().putAll(DRIVER_HOT_KEY + id, hot);
+        }
+
+        // 位置序列预先生成，同一批中会有同一司机的多次上报
+        int length = UPDATES * 16;
+        driverIds = new long[length];
+        latitudes = new double[length];
+        longitudes = new double[length];
+        latitudeDecimals = new BigDecimal[length];
+        longitudeDecimals = new BigDecimal[length];
+        for (int i = 0; i < length; i++) {
+            driverIds[i] = 1 + random.nextInt(drivers);
+            latitudes[i] = CENTER_LAT + (random.nextDouble() - 0.5) * 0.2;
+            longitudes[i] = CENTER_LNG + (random.nextDouble() - 0.5) * 0.2;
+            latitudeDecimals[i] = BigDecimal.valueOf(latitudes[i]);
+            longitudeDecimals[i] = BigDecimal.valueOf(longitudes[i]);
+        }
+
+        driverRedisService = TestDrivers.driverRedisService();
+    }
+
+    /**
+     * 同步路径每秒写入的位置条数
+     */
+    @Benchmark
+    @OperationsPerInvocation(UPDATES)
+    public void synchronous() {
+        PrintStream out = System.out;
+        System.setOut(SILENT);
+        try {
+            for (int i = 0; i < UPDATES; i++) {
+                int index = next;
+                next = (next + 1) % driverIds.length;
+                driverRedisService.updateDriverLocation(driverIds[index], latitudeDecimals[index], longitudeDecimals[index], 9000);
+            }
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    /**
+     * 批量写入每秒写入的位置条数
+     */
+    @Benchmark
+    @OperationsPerInvocation(UPDATES)
+    public void batched(SinkState state) {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[UPDATES];
+        for (int i = 0; i < UPDATES; i++) {
+            int index = next;
+            next = (next + 1) % driverIds.length;
+            futures[i] = state.sink.submit(driverIds[index], latitudes[index], longitudes[index], 9000);
+        }
+        CompletableFuture.allOf(futures).join();
+    }
+}
@@ -0,0 +1,102 @@
+package com.taxi.benchmark;
+
+import com.taxi.util.GeoGridUtil;
+import com.taxi.util.HungarianAlgorithm;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量匹配求解耗时基准
+ * 按BatchMatchingService的方式构造代价矩阵（一个区域内的订单 × 候选司机，超过最大接驾距离为不可行），
+ * 对比匈牙利算法和逐单取最近司机的贪心做法。
+ * 运行：mvn test-compile exec:exec -Pbenchmark -Dbenchmark=HungarianAlgorithmBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HungarianAlgorithmBenchmark {
+
+    // 单次求解的订单数，400为max-orders-per-solve默认值
+    @Param({"50", "100", "200", "400"})
+    int orders;
+
+    // 候选司机数与订单数之比
+    @Param({"1.5"})
+    double driverRatio;
+
+    private static final double CENTER_LAT = 39.9042;
+    private static final double CENTER_LNG = 116.4074;
+    private static final double REGION_DEGREES = 0.05;
+    private static final double MAX_PICKUP_METERS = 5000;
+
+    private double[] cost;
+    private int cols;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        cols = (int) Math.ceil(orders * driverRatio);
+        double[] orderLat = new double[orders];
+        double[] orderLng = new double[orders];
+        for (int r = 0; r < orders; r++) {
+            orderLat[r] = CENTER_LAT + random.nextDouble() * REGION_DEGREES;
+            orderLng[r] = CENTER_LNG + random.nextDouble() * REGION_DEGREES;
+        }
+        // 候选司机分布在区域及其周边一圈
+        double[] driverLat = new double[cols];
+        double[] driverLng = new double[cols];
+        for (int c = 0; c < cols; c++) {
+            driverLat[c] = CENTER_LAT - REGION_DEGREES + random.nextDouble() * REGION_DEGREES * 3;
+            driverLng[c] = CENTER_LNG - REGION_DEGREES + random.nextDouble() * REGION_DEGREES * 3;
+        }
+        cost = new double[orders * cols];
+        for (int r = 0; r < orders; r++) {
+            for (int c = 0; c < cols; c++) {
+                double distance = GeoGridUtil.distanceMeters(orderLat[r], orderLng[r], driverLat[c], driverLng[c]);
+                cost[r * cols + c] = distance <= MAX_PICKUP_METERS ? distance : HungarianAlgorithm.INFEASIBLE;
+            }
+        }
+    }
+
+    @Benchmark
+    public int[] hungarian() {
+        return HungarianAlgorithm.solve(cost, orders, cols);
+    }
+
+    @Benchmark
+    public int[] greedyNearest() {
+        int[] assignment = new int[orders];
+        boolean[] taken = new boolean[cols];
+        for (int r = 0; r < orders; r++) {
+            int best = -1;
+            double bestCost = HungarianAlgorithm.INFEASIBLE;
+            int base = r * cols;
+            for (int c = 0; c < cols; c++) {
+                if (!taken[c] && cost[base + c] < bestCost) {
+                    bestCost = cost[base + c];
+                    best = c;
+                }
+            }
+            if (best >= 0) {
+                taken[best] = true;
+            }
+            assignment[r] = best;
+        }
+        return assignment;
+    }
+}
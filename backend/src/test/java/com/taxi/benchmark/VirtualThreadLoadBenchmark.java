@@ -0,0 +1,195 @@
+package com.taxi.benchmark;
+
+import com.taxi.entity.Driver;
+import com.taxi.service.DriverRedisService;
+import com.taxi.service.VirtualThreadPinningMonitor;
+import com.taxi.support.EmbeddedRedis;
+import com.taxi.support.TestDrivers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * 虚拟线程与平台线程负载对比（嵌入式Redis）
+ * 模拟派单请求：查询附近空闲司机（真实的DriverRedisService Lua脚本路径，阻塞等待Redis），
+ * 再阻塞 dbMillis 毫秒代替写订单的数据库调用。
+ * platform 使用与Tomcat默认最大线程数相同的200线程池，virtual 每个请求一个虚拟线程。
+ * 每次调用同时发起 REQUESTS 个请求并等待全部完成；每轮迭代结束打印从提交到完成的p50/p99延迟，
+ * 试验结束打印VirtualThreadPinningMonitor记录的线程固定次数（阈值0ms，记录所有固定）。
+ * 运行：mvn test-compile exec:exec -Pbenchmark -Dbenchmark=VirtualThreadLoadBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 4, time = 3)
+@Fork(1)
+public class VirtualThreadLoadBenchmark {
+
+    private static final int REQUESTS = 2000;
+    private static final int PLATFORM_THREADS = 200;
+    private static final int DRIVERS = 2000;
+
+    private static final double CENTER_LAT = 39.9042;
+    private static final double CENTER_LNG = 116.4074;
+
+    // 延迟直方图：100微秒一格，最长10秒
+    private static final long BUCKET_NANOS = 100_000;
+    private static final int BUCKETS = 100_000;
+
+    @Param({"platform", "virtual"})
+    String threads;
+
+    // 模拟数据库调用的阻塞时间（毫秒），200ms时200线程池最多每秒完成1000个请求
+    @Param({"5", "200"})
+    long dbMillis;
+
+    private ExecutorService executor;
+    private DriverRedisService driverRedisService;
+    private VirtualThreadPinningMonitor pinningMonitor;
+    private BigDecimal[] latitudes;
+    private BigDecimal[] longitudes;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicLongArray latencies = new AtomicLongArray(BUCKETS);
+
+    @Setup(Level.Trial)
+    public void setup() {
+        EmbeddedRedis.flushAll();
+        driverRedisService = TestDrivers.driverRedisService();
+
+        // 上线流程打印的调试日志较多
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Random random = new Random(42);
+        try {
+            for (long id = 1; id <= DRIVERS; id++) {
+                Driver driver = new Driver();
+                driver.setId(id);
+                driver.setName("司机" + id);
+                driver.setCurrentLatitude(BigDecimal.valueOf(CENTER_LAT + (random.nextDouble() - 0.5) * 0.2));
+                driver.setCurrentLongitude(BigDecimal.valueOf(CENTER_LNG + (random.nextDouble() - 0.5) * 0.2));
+                driverRedisService.driverGoOnline(driver);
+            }
+        } finally {
+            System.setOut(out);
+        }
+
+        latitudes = new BigDecimal[REQUESTS * 4];
+        longitudes = new BigDecimal[REQUESTS * 4];
+        for (int i = 0; i < latitudes.length; i++) {
+            latitudes[i] = BigDecimal.valueOf(CENTER_LAT + (random.nextDouble() - 0.5) * 0.15);
+            longitudes[i] = BigDecimal.valueOf(CENTER_LNG + (random.nextDouble() - 0.5) * 0.15);
+        }
+
+        pinningMonitor = new VirtualThreadPinningMonitor();
+        ReflectionTestUtils.setField(pinningMonitor, "virtualThreads", true);
+        ReflectionTestUtils.setField(pinningMonitor, "enabled", true);
+        ReflectionTestUtils.setField(pinningMonitor, "thresholdMillis", 0L);
+        pinningMonitor.init();
+
+        executor = "virtual".equals(threads)
+            ? Executors.newVirtualThreadPerTaskExecutor()
+            : Executors.newFixedThreadPool(PLATFORM_THREADS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        executor.shutdownNow();
+        // JFR事件流按批投递，等最后一批事件到达
+        Thread.sleep(2000);
+        System.out.println();
+        System.out.println("[" + threads + "] 线程固定统计: " + pinningMonitor.getStats());
+        pinningMonitor.shutdown();
+    }
+
+    @Setup(Level.Iteration)
+    public void resetLatencies() {
+        for (int i = 0; i < BUCKETS; i++) {
+            latencies.set(i, 0);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void printLatencies() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += latencies.get(i);
+        }
+        System.out.println();
+        System.out.println("[" + threads + "] 请求数: " + total + ", p50: " + percentileMillis(total, 0.50)
+            + "ms, p99: " + percentileMillis(total, 0.99) + "ms");
+    }
+
+    /**
+     * 每秒完成的请求数
+     */
+    @Benchmark
+    @OperationsPerInvocation(REQUESTS)
+    public void dispatchRequests() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(REQUESTS);
+        for (int i = 0; i < REQUESTS; i++) {
+            // 延迟从提交算起，包含在线程池队列中等待的时间
+            long submitted = System.nanoTime();
+            executor.execute(() -> {
+                try {
+                    handleRequest();
+                } finally {
+                    long bucket = Math.min(BUCKETS - 1, (System.nanoTime() - submitted) / BUCKET_NANOS);
+                    latencies.incrementAndGet((int) bucket);
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+    }
+
+    private void handleRequest() {
+        int index = Math.floorMod(next.getAndIncrement(), latitudes.length);
+        List<Driver> nearby = driverRedisService.getNearbyOnlineDrivers(latitudes[index], longitudes[index], 3.0);
+        if (nearby.isEmpty()) {
+            throw new IllegalStateException("附近没有司机");
+        }
+        try {
+            Thread.sleep(dbMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private double percentileMillis(long total, double percentile) {
+        long target = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += latencies.get(i);
+            if (seen >= target) {
+                return (i + 1) * BUCKET_NANOS / 1e6;
+            }
+        }
+        return BUCKETS * BUCKET_NANOS / 1e6;
+    }
+}
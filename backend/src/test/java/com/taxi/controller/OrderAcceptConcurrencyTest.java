@@ -0,0 +1,403 @@
+package com.taxi.controller;
+
+import com.taxi.common.Result;
+import com.taxi.entity.Driver;
+import com.taxi.entity.Order;
+import com.taxi.mapper.DriverMapper;
+import com.taxi.mapper.OrderMapper;
+import com.taxi.mapper.UserMapper;
+import com.taxi.service.DispatchRetryWheel;
+import com.taxi.service.DriverRedisService;
+import com.taxi.service.OrderDispatchService;
+import com.taxi.service.OrderOutboxService;
+import com.taxi.service.OrderRetryScheduler;
+import com.taxi.service.PendingOrderService;
+import com.taxi.service.TripBindingCache;
+import com.taxi.service.WebSocketNotificationService;
+import com.taxi.support.EmbeddedRedis;
+import com.taxi.support.TestDrivers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.BeanUtils;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * 并发接单压力测试
+ * 司机占用走真实的Redis Lua脚本（嵌入式Redis），订单条件更新用内存中的CAS模拟
+ * "UPDATE orders SET status='ASSIGNED' ... WHERE id=? AND status='PENDING'"，并带有模拟的数据库往返延迟
+ */
+class OrderAcceptConcurrencyTest {
+
+    private static final String DRIVER_HOT_KEY = "driver_hot:";
+
+    // 模拟数据库条件更新的往返延迟
+    private static final long DB_LATENCY_NANOS = TimeUnit.MICROSECONDS.toNanos(300);
+
+    // 乘客可以取消的订单状态，与OrderMapper.cancelIfNotStarted一致
+    private static final Set<String> CANCELLABLE = Set.of("SCHEDULED", "PENDING", "ASSIGNED", "PICKUP");
+
+    private final Map<Long, Order> orders = new ConcurrentHashMap<>();
+    private final Map<Long, Driver> drivers = new ConcurrentHashMap<>();
+    private StringRedisTemplate stringRedisTemplate;
+    private OrderController controller;
+    private PrintStream originalOut;
+
+    @BeforeEach
+    void setUp() {
+        EmbeddedRedis.flushAll();
+        stringRedisTemplate = EmbeddedRedis.stringRedisTemplate();
+
+        OrderMapper orderMapper = mock(OrderMapper.class, withSettings().stubOnly());
+        when(orderMapper.selectById(anyLong())).thenAnswer(invocation -> copy(orders.get(invocation.<Long>getArgument(0))));
+        when(orderMapper.selectByDriverId(anyLong())).thenAnswer(invocation -> {
+            Long driverId = invocation.getArgument(0);
+            return orders.values().stream()
+                .filter(order -> driverId.equals(order.getDriverId()))
+                .map(OrderAcceptConcurrencyTest::copy)
+                .collect(Collectors.toList());
+        });
+        DriverMapper driverMapper = mock(DriverMapper.class, withSettings().stubOnly());
+        when(driverMapper.selectById(anyLong())).thenAnswer(invocation -> drivers.get(invocation.<Long>getArgument(0)));
+
+        OrderOutboxService orderOutboxService = mock(OrderOutboxService.class, withSettings().stubOnly());
+        when(orderOutboxService.assignDriverIfPending(anyLong(), anyLong(), any())).thenAnswer(invocation -> {
+            LockSupport.parkNanos(DB_LATENCY_NANOS);
+            Long orderId = invocation.getArgument(0);
+            Long driverId = invocation.getArgument(1);
+            boolean[] updated = new boolean[1];
+            orders.computeIfPresent(orderId, (id, order) -> {
+                if (!"PENDING".equals(order.getStatus())) {
+                    return order;
+                }
+                Order assigned = copy(order);
+                assigned.setStatus("ASSIGNED");
+                assigned.setDriverId(driverId);
+                updated[0] = true;
+                return assigned;
+            });
+            return updated[0];
+        });
+        when(orderOutboxService.cancelIfNotStarted(anyLong(), any(), any())).thenAnswer(invocation -> {
+            LockSupport.parkNanos(DB_LATENCY_NANOS);
+            Long orderId = invocation.getArgument(0);
+            Order[] cancelled = new Order[1];
+            orders.computeIfPresent(orderId, (id, order) -> {
+                if (!CANCELLABLE.contains(order.getStatus())) {
+                    return order;
+                }
+                Order updated = copy(order);
+                updated.setStatus("CANCELLED");
+                updated.setCancelReason(invocation.getArgument(1));
+                cancelled[0] = updated;
+                return updated;
+            });
+            return copy(cancelled[0]);
+        });
+
+        DriverRedisService driverRedisService = TestDrivers.driverRedisService();
+
+        OrderDispatchService orderDispatchService = new OrderDispatchService();
+        ReflectionTestUtils.setField(orderDispatchService, "orderMapper", orderMapper);
+        ReflectionTestUtils.setField(orderDispatchService, "driverMapper", driverMapper);
+        ReflectionTestUtils.setField(orderDispatchService, "userMapper", stub(UserMapper.class));
+        ReflectionTestUtils.setField(orderDispatchService, "driverRedisService", driverRedisService);
+        ReflectionTestUtils.setField(orderDispatchService, "orderOutboxService", orderOutboxService);
+        ReflectionTestUtils.setField(orderDispatchService, "webSocketNotificationService", stub(WebSocketNotificationService.class));
+        ReflectionTestUtils.setField(orderDispatchService, "pendingOrderService", stub(PendingOrderService.class));
+        ReflectionTestUtils.setField(orderDispatchService, "dispatchRetryWheel", stub(DispatchRetryWheel.class));
+        ReflectionTestUtils.setField(orderDispatchService, "orderRetryScheduler", stub(OrderRetryScheduler.class));
+        ReflectionTestUtils.setField(orderDispatchService, "tripBindingCache", stub(TripBindingCache.class));
+        ReflectionTestUtils.setField(orderDispatchService, "redisTemplate", EmbeddedRedis.redisTemplate());
+
+        controller = new OrderController();
+        ReflectionTestUtils.setField(controller, "orderMapper", orderMapper);
+        ReflectionTestUtils.setField(controller, "driverMapper", driverMapper);
+        ReflectionTestUtils.setField(controller, "orderDispatchService", orderDispatchService);
+        ReflectionTestUtils.setField(controller, "orderOutboxService", orderOutboxService);
+        ReflectionTestUtils.setField(controller, "driverRedisService", driverRedisService);
+        ReflectionTestUtils.setField(controller, "webSocketNotificationService", stub(WebSocketNotificationService.class));
+
+        // 接单路径每次调用都会打印日志，压测期间不输出
+        originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.setOut(originalOut);
+    }
+
+    @Test
+    void manyDriversRaceForOneOrder() throws Exception {
+        addOrder(1L);
+        for (long driverId = 1; driverId <= 200; driverId++) {
+            addDriver(driverId);
+        }
+
+        List<Long> driverIds = new ArrayList<>(drivers.keySet());
+        List<Result<String>> results = race(driverIds.size(), i -> controller.acceptOrder(1L, driverIds.get(i)));
+
+        List<Long> winners = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++) {
+            Result<String> result = results.get(i);
+            if (result.getCode() == 200) {
+                winners.add(driverIds.get(i));
+            } else {
+                assertTrue(result.getMessage().equals("订单已被接") || result.getMessage().startsWith("订单状态不允许接单"),
+                    result.getMessage());
+            }
+        }
+        assertEquals(1, winners.size());
+        Long winner = winners.get(0);
+        assertEquals(winner, orders.get(1L).getDriverId());
+        // 输掉条件更新的司机占用全部回滚
+        for (Long driverId : driverIds) {
+            Map<Object, Object> hot = stringRedisTemplate.opsForHash().entries(DRIVER_HOT_KEY + driverId);
+            if (driverId.equals(winner)) {
+                assertEquals("1", hot.get("busy"));
+                assertEquals("1", hot.get("currentOrder"));
+            } else {
+                assertEquals("0", hot.get("busy"), "司机 " + driverId + " 占用未回滚");
+                assertNull(hot.get("currentOrder"));
+            }
+        }
+    }
+
+    @Test
+    void oneDriverRacesForManyOrders() throws Exception {
+        addDriver(1L);
+        for (long orderId = 1; orderId <= 100; orderId++) {
+            addOrder(orderId);
+        }
+
+        List<Result<String>> results = race(100, i -> controller.acceptOrder((long) i + 1, 1L));
+
+        long accepted = results.stream().filter(r -> r.getCode() == 200).count();
+        assertEquals(1, accepted);
+        results.stream().filter(r -> r.getCode() != 200)
+            .forEach(r -> assertEquals("司机正在处理其他订单", r.getMessage()));
+        List<Order> assigned = orders.values().stream()
+            .filter(order -> "ASSIGNED".equals(order.getStatus()))
+            .collect(Collectors.toList());
+        assertEquals(1, assigned.size());
+        assertEquals(String.valueOf(assigned.get(0).getId()),
+            stringRedisTemplate.opsForHash().get(DRIVER_HOT_KEY + 1, "currentOrder"));
+    }
+
+    @Test
+    void passengerCancelRacesDriverAccept() throws Exception {
+        int pairs = 200;
+        for (long id = 1; id <= pairs; id++) {
+            addOrder(id);
+            addDriver(id);
+        }
+
+        // 每个订单由对应司机接单，同时乘客取消；偶数下标接单，奇数下标取消
+        List<Result<String>> results = race(pairs * 2, i -> {
+            long id = i / 2 + 1;
+            return i % 2 == 0 ? controller.acceptOrder(id, id) : controller.cancelOrderByPassenger(id);
+        });
+
+        for (long id = 1; id <= pairs; id++) {
+            Order order = orders.get(id);
+            boolean accepted = results.get((int) (id - 1) * 2).getCode() == 200;
+            boolean cancelled = results.get((int) (id - 1) * 2 + 1).getCode() == 200;
+            Map<Object, Object> hot = stringRedisTemplate.opsForHash().entries(DRIVER_HOT_KEY + id);
+            if ("CANCELLED".equals(order.getStatus())) {
+                // 取消赢了：无论接单先后，司机都不能停留在忙碌状态
+                assertTrue(cancelled, "订单 " + id + " 已取消但取消请求失败");
+                assertEquals("0", hot.get("busy"), "订单 " + id + " 已取消但司机仍忙碌");
+                assertNull(hot.get("currentOrder"));
+            } else {
+                // 接单在取消之后：订单不能被改回取消，司机保持占用
+                assertEquals("ASSIGNED", order.getStatus());
+                assertTrue(accepted);
+                assertTrue(!cancelled, "订单 " + id + " 已分配但取消请求成功");
+                assertEquals("1", hot.get("busy"));
+                assertEquals(String.valueOf(id), hot.get("currentOrder"));
+            }
+        }
+    }
+
+    @Test
+    void randomAcceptStormKeepsOneToOneAssignment() throws Exception {
+        int orderCount = 2000;
+        int driverCount = 1000;
+        // 线程数按CPU核数取，避免单核环境下线程排队时间淹没接单本身的延迟
+        int threads = Math.max(8, Runtime.getRuntime().availableProcessors() * 4);
+        int attemptsPerThread = 12800 / threads;
+
+        // 预热：加载Lua脚本、JIT编译接单路径，预热数据不计入结果
+        for (long id = 1; id <= 200; id++) {
+            addOrder(id);
+            addDriver(id);
+        }
+        storm(threads, 100, 200, 200);
+        orders.clear();
+        drivers.clear();
+        EmbeddedRedis.flushAll();
+
+        for (long orderId = 1; orderId <= orderCount; orderId++) {
+            addOrder(orderId);
+        }
+        for (long driverId = 1; driverId <= driverCount; driverId++) {
+            addDriver(driverId);
+        }
+
+        long wallStart = System.nanoTime();
+        long[] latencies = storm(threads, attemptsPerThread, orderCount, driverCount);
+        long wallNanos = System.nanoTime() - wallStart;
+
+        Arrays.sort(latencies);
+        double p50 = latencies[latencies.length / 2] / 1e6;
+        double p99 = latencies[(int) (latencies.length * 0.99)] / 1e6;
+        double max = latencies[latencies.length - 1] / 1e6;
+        Map<Long, Long> assignedByDriver = new HashMap<>();
+        for (Order order : orders.values()) {
+            if ("ASSIGNED".equals(order.getStatus())) {
+                Long previous = assignedByDriver.put(order.getDriverId(), order.getId());
+                assertNull(previous, "司机 " + order.getDriverId() + " 同时接了两个订单");
+            }
+        }
+        originalOut.printf("并发接单压测 - 线程: %d, 请求: %d, 吞吐: %.0f 次/秒, 成功接单: %d%n"
+                + "  延迟 p50: %.3fms, p99: %.3fms, max: %.3fms%n",
+            threads, latencies.length, latencies.length / (wallNanos / 1e9), assignedByDriver.size(), p50, p99, max);
+
+        // Redis中的司机占用与订单分配一一对应
+        Set<Long> busyDrivers = new HashSet<>();
+        for (long driverId = 1; driverId <= driverCount; driverId++) {
+            Map<Object, Object> hot = stringRedisTemplate.opsForHash().entries(DRIVER_HOT_KEY + driverId);
+            if ("1".equals(hot.get("busy"))) {
+                busyDrivers.add(driverId);
+                assertEquals(String.valueOf(assignedByDriver.get(driverId)), hot.get("currentOrder"));
+            }
+        }
+        assertEquals(assignedByDriver.keySet(), busyDrivers);
+        assertTrue(p99 < 100, "p99接单延迟过高: " + p99 + "ms");
+    }
+
+    /**
+     * 多个线程随机挑选订单和司机调用接单接口，返回每次调用的耗时（纳秒）
+     * 一半请求集中在前1/4的订单上，制造同一订单的争抢
+     */
+    private long[] storm(int threads, int attemptsPerThread, int orderCount, int driverCount) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<long[]>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                long[] latencies = new long[attemptsPerThread];
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < attemptsPerThread; i++) {
+                    long orderId = 1 + random.nextInt(random.nextBoolean() ? orderCount / 4 : orderCount);
+                    long driverId = 1 + random.nextInt(driverCount);
+                    long begin = System.nanoTime();
+                    controller.acceptOrder(orderId, driverId);
+                    latencies[i] = System.nanoTime() - begin;
+                }
+                return latencies;
+            }));
+        }
+        start.countDown();
+        long[] all = new long[threads * attemptsPerThread];
+        int n = 0;
+        for (Future<long[]> future : futures) {
+            long[] latencies = future.get(120, TimeUnit.SECONDS);
+            System.arraycopy(latencies, 0, all, n, latencies.length);
+            n += latencies.length;
+        }
+        pool.shutdown();
+        return all;
+    }
+
+    private interface Attempt {
+        Result<String> run(int index);
+    }
+
+    /**
+     * 所有请求在同一时刻放行，返回按下标排列的结果
+     */
+    private static List<Result<String>> race(int count, Attempt attempt) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(count);
+        CountDownLatch ready = new CountDownLatch(count);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Result<String>>> futures = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int index = i;
+            futures.add(pool.submit(() -> {
+                ready.countDown();
+                start.await();
+                return attempt.run(index);
+            }));
+        }
+        ready.await();
+        start.countDown();
+        List<Result<String>> results = new ArrayList<>();
+        for (Future<Result<String>> future : futures) {
+            results.add(future.get(30, TimeUnit.SECONDS));
+        }
+        pool.shutdown();
+        return results;
+    }
+
+    private void addOrder(long orderId) {
+        Order order = new Order();
+        order.setId(orderId);
+        order.setOrderNumber("T" + orderId);
+        order.setPassengerId(orderId);
+        order.setStatus("PENDING");
+        orders.put(orderId, order);
+    }
+
+    private void addDriver(long driverId) {
+        Driver driver = new Driver();
+        driver.setId(driverId);
+        driver.setIsOnline(true);
+        drivers.put(driverId, driver);
+        stringRedisTemplate.opsForHash().putAll(DRIVER_HOT_KEY + driverId, Map.of("online", "1", "busy", "0"));
+    }
+
+    private static Order copy(Order order) {
+        if (order == null) {
+            return null;
+        }
+        Order copy = new Order();
+        BeanUtils.copyProperties(order, copy);
+        return copy;
+    }
+
+    private static <T> T stub(Class<T> type) {
+        return mock(type, withSettings().stubOnly());
+    }
+}
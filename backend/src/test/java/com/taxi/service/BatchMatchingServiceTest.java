@@ -0,0 +1,265 @@
+package com.taxi.service;
+
+import com.taxi.entity.Driver;
+import com.taxi.entity.Order;
+import com.taxi.util.GeoGridUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 批量匹配测试
+ * 司机位置由内存中的车队模拟，附近司机查询与Redis路径一致：半径内空闲司机按距离升序，最多50个
+ */
+class BatchMatchingServiceTest {
+
+    private static final double CENTER_LAT = 39.9042;
+    private static final double CENTER_LNG = 116.4074;
+    private static final double MAX_PICKUP_KM = 5.0;
+    private static final int NEARBY_LIMIT = 50;
+
+    // 接单意愿随接驾距离衰减：p = exp(-d / 2.5km)
+    private static final double ACCEPT_DECAY_METERS = 2500;
+
+    private final Map<Long, Driver> freeDrivers = new ConcurrentHashMap<>();
+    private final Map<Long, Long> offers = new ConcurrentHashMap<>();
+    private final AtomicInteger duplicateOffers = new AtomicInteger();
+    private BatchMatchingService service;
+
+    @BeforeEach
+    void setUp() {
+        DriverRedisService driverRedisService = mock(DriverRedisService.class);
+        when(driverRedisService.getNearbyOnlineDrivers(any(), any(), anyDouble())).thenAnswer(invocation -> nearby(
+            ((BigDecimal) invocation.getArgument(0)).doubleValue(),
+            ((BigDecimal) invocation.getArgument(1)).doubleValue(),
+            invocation.getArgument(2)));
+
+        service = new BatchMatchingService();
+        ReflectionTestUtils.setField(service, "driverRedisService", driverRedisService);
+        ReflectionTestUtils.setField(service, "enabled", true);
+        // 窗口由测试手动触发
+        ReflectionTestUtils.setField(service, "windowMs", 3_600_000L);
+        ReflectionTestUtils.setField(service, "regionSizeDegrees", 0.05);
+        ReflectionTestUtils.setField(service, "maxPickupKm", MAX_PICKUP_KM);
+        ReflectionTestUtils.setField(service, "maxOrdersPerSolve", 400);
+        service.init();
+        service.setOfferHandler((driver, order) -> {
+            if (offers.put(driver.getId(), order.getId()) != null) {
+                duplicateOffers.incrementAndGet();
+            }
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void chunksOfOneRegionDoNotShareDrivers() {
+        ReflectionTestUtils.setField(service, "maxOrdersPerSolve", 2);
+        for (long i = 1; i <= 8; i++) {
+            addDriver(i, CENTER_LAT + i * 0.001, CENTER_LNG);
+            service.submit(order(i, CENTER_LAT, CENTER_LNG));
+        }
+
+        service.runWindow();
+
+        // 4个块依次求解，后面的块拿不到前面块已分配的司机，8个订单全部匹配到不同司机
+        assertEquals(8, offers.size());
+        assertEquals(8, new HashSet<>(offers.values()).size());
+        assertEquals(8L, service.getStats().get("totalMatched"));
+        assertEquals(0, duplicateOffers.get());
+    }
+
+    @Test
+    void driverOnRegionBorderIsOfferedOnce() {
+        // 两个订单分属相邻区域，只有一个司机在两者的接驾范围内
+        addDriver(1, CENTER_LAT, 116.45);
+        service.submit(order(1, CENTER_LAT, 116.449));
+        service.submit(order(2, CENTER_LAT, 116.451));
+
+        service.runWindow();
+
+        assertEquals(1, offers.size());
+        assertEquals(1L, service.getStats().get("totalMatched"));
+        assertEquals(0, duplicateOffers.get());
+    }
+
+    /**
+     * 回放同一组订单和司机到达序列，对比批量指派与逐单贪心（按下单顺序取最近空闲司机）的接驾距离和预期接单率
+     */
+    @Test
+    void replayAgainstGreedyDispatch() {
+        // 整个城市作为一个区域，排除区域边界先到先得带来的不确定性，只比较求解方式
+        ReflectionTestUtils.setField(service, "regionSizeDegrees", 1.0);
+        List<List<Order>> windows = new ArrayList<>();
+        List<List<Driver>> arrivals = new ArrayList<>();
+        generateReplay(new Random(20240601L), 40, windows, arrivals);
+
+        ReplayResult batch = replay(windows, arrivals, true);
+        ReplayResult greedy = replay(windows, arrivals, false);
+
+        System.out.println("回放对比 - 订单: " + batch.orders
+            + "\n  批量指派: 匹配 " + batch.matched + ", 平均接驾 " + Math.round(batch.avgPickupMeters()) + "m"
+            + ", 预期接单率 " + String.format("%.3f", batch.acceptanceRate())
+            + "\n  逐单贪心: 匹配 " + greedy.matched + ", 平均接驾 " + Math.round(greedy.avgPickupMeters()) + "m"
+            + ", 预期接单率 " + String.format("%.3f", greedy.acceptanceRate()));
+
+        assertEquals(0, duplicateOffers.get());
+        assertTrue(batch.matched >= greedy.matched, "批量指派匹配数不应少于贪心");
+        assertTrue(batch.avgPickupMeters() < greedy.avgPickupMeters(), "批量指派平均接驾距离应小于贪心");
+        assertTrue(batch.acceptanceRate() > greedy.acceptanceRate(), "批量指派预期接单率应高于贪心");
+    }
+
+    private void generateReplay(Random random, int windowCount, List<List<Order>> windows, List<List<Driver>> arrivals) {
+        // 订单集中在几个热点，司机分布更分散
+        double[][] hotspots = {{0.00, 0.00}, {0.03, 0.05}, {-0.04, 0.02}, {0.02, -0.05}};
+        long orderId = 1;
+        long driverId = 1;
+        for (int w = 0; w < windowCount; w++) {
+            List<Order> windowOrders = new ArrayList<>();
+            int orderCount = 20 + random.nextInt(40);
+            for (int i = 0; i < orderCount; i++) {
+                double[] hotspot = hotspots[random.nextInt(hotspots.length)];
+                windowOrders.add(order(orderId++,
+                    CENTER_LAT + hotspot[0] + random.nextGaussian() * 0.01,
+                    CENTER_LNG + hotspot[1] + random.nextGaussian() * 0.01));
+            }
+            windows.add(windowOrders);
+
+            List<Driver> windowDrivers = new ArrayList<>();
+            int driverCount = (w == 0 ? 60 : 15) + random.nextInt(30);
+            for (int i = 0; i < driverCount; i++) {
+                windowDrivers.add(driver(driverId++,
+                    CENTER_LAT + (random.nextDouble() - 0.5) * 0.12,
+                    CENTER_LNG + (random.nextDouble() - 0.5) * 0.16));
+            }
+            arrivals.add(windowDrivers);
+        }
+    }
+
+    private ReplayResult replay(List<List<Order>> windows, List<List<Driver>> arrivals, boolean batch) {
+        freeDrivers.clear();
+        ReplayResult result = new ReplayResult();
+        for (int w = 0; w < windows.size(); w++) {
+            for (Driver driver : arrivals.get(w)) {
+                freeDrivers.put(driver.getId(), driver);
+            }
+            Map<Long, Long> assignment = new LinkedHashMap<>();
+            if (batch) {
+                offers.clear();
+                for (Order order : windows.get(w)) {
+                    service.submit(order);
+                }
+                service.runWindow();
+                offers.forEach((driverId, orderId) -> assignment.put(orderId, driverId));
+            } else {
+                for (Order order : windows.get(w)) {
+                    List<Driver> nearby = nearby(order.getPickupLatitude().doubleValue(),
+                        order.getPickupLongitude().doubleValue(), MAX_PICKUP_KM);
+                    if (!nearby.isEmpty()) {
+                        assignment.put(order.getId(), nearby.get(0).getId());
+                        freeDrivers.remove(nearby.get(0).getId());
+                    }
+                }
+            }
+
+            for (Order order : windows.get(w)) {
+                result.orders++;
+                Long driverId = assignment.get(order.getId());
+                if (driverId == null) {
+                    continue;
+                }
+                Driver driver = batch ? freeDrivers.remove(driverId) : findDriver(arrivals, driverId);
+                double meters = GeoGridUtil.distanceMeters(
+                    order.getPickupLatitude().doubleValue(), order.getPickupLongitude().doubleValue(),
+                    driver.getCurrentLatitude().doubleValue(), driver.getCurrentLongitude().doubleValue());
+                result.matched++;
+                result.pickupMeters += meters;
+                result.expectedAccepted += Math.exp(-meters / ACCEPT_DECAY_METERS);
+            }
+        }
+        return result;
+    }
+
+    private static Driver findDriver(List<List<Driver>> arrivals, long driverId) {
+        for (List<Driver> drivers : arrivals) {
+            for (Driver driver : drivers) {
+                if (driver.getId() == driverId) {
+                    return driver;
+                }
+            }
+        }
+        throw new IllegalStateException("未知司机 " + driverId);
+    }
+
+    private List<Driver> nearby(double latitude, double longitude, double radiusKm) {
+        double radiusMeters = radiusKm * 1000;
+        List<Driver> result = new ArrayList<>();
+        for (Driver driver : freeDrivers.values()) {
+            double meters = GeoGridUtil.distanceMeters(latitude, longitude,
+                driver.getCurrentLatitude().doubleValue(), driver.getCurrentLongitude().doubleValue());
+            if (meters <= radiusMeters) {
+                result.add(driver);
+            }
+        }
+        result.sort(Comparator.comparingDouble(driver -> GeoGridUtil.distanceMeters(latitude, longitude,
+            driver.getCurrentLatitude().doubleValue(), driver.getCurrentLongitude().doubleValue())));
+        return result.size() > NEARBY_LIMIT ? new ArrayList<>(result.subList(0, NEARBY_LIMIT)) : result;
+    }
+
+    private void addDriver(long id, double latitude, double longitude) {
+        freeDrivers.put(id, driver(id, latitude, longitude));
+    }
+
+    private static Driver driver(long id, double latitude, double longitude) {
+        Driver driver = new Driver();
+        driver.setId(id);
+        driver.setCurrentLatitude(BigDecimal.valueOf(latitude));
+        driver.setCurrentLongitude(BigDecimal.valueOf(longitude));
+        return driver;
+    }
+
+    private static Order order(long id, double latitude, double longitude) {
+        Order order = new Order();
+        order.setId(id);
+        order.setPickupLatitude(BigDecimal.valueOf(latitude));
+        order.setPickupLongitude(BigDecimal.valueOf(longitude));
+        return order;
+    }
+
+    private static final class ReplayResult {
+        int orders;
+        int matched;
+        double pickupMeters;
+        double expectedAccepted;
+
+        double avgPickupMeters() {
+            return matched == 0 ? 0 : pickupMeters / matched;
+        }
+
+        double acceptanceRate() {
+            return orders == 0 ? 0 : expectedAccepted / orders;
+        }
+    }
+}
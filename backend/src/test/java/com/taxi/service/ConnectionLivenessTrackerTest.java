@@ -0,0 +1,127 @@
+package com.taxi.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 连接存活跟踪测试
+ * 超时1秒、tick 50毫秒；后台扫描线程在初始化后立即停止，由测试推进注入的时间并直接调用sweep，不依赖真实时间
+ */
+class ConnectionLivenessTrackerTest {
+
+    private final PrintStream originalOut = System.out;
+    private final List<Long> expired = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong nanos = new AtomicLong(1_000_000_000L);
+    private ConnectionLivenessTracker tracker;
+
+    @BeforeEach
+    void setUp() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        tracker = new ConnectionLivenessTracker();
+        ReflectionTestUtils.setField(tracker, "timeoutSeconds", 1L);
+        ReflectionTestUtils.setField(tracker, "tickMillis", 50L);
+        ReflectionTestUtils.setField(tracker, "nanoClock", (LongSupplier) nanos::get);
+        tracker.init();
+        tracker.shutdown();
+        tracker.addExpirationListener(expired::add);
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.setOut(originalOut);
+    }
+
+    @Test
+    void touchedEntryIsRescheduledInsteadOfExpired() {
+        tracker.register(1L);
+        tracker.register(2L);
+        advance(700);
+        tracker.touch(1L);
+        advance(500);
+
+        // 两个连接的原到期桶都已到达：有心跳的重新落桶，没有心跳的超时
+        tracker.sweep();
+
+        assertEquals(List.of(2L), expired);
+        assertEquals(1L, stat("totalRescheduled"));
+        assertEquals(1, stat("trackedConnections"));
+
+        // 按新的到期时间（心跳后1秒）超时
+        advance(499);
+        tracker.sweep();
+        assertEquals(List.of(2L), expired);
+        advance(1);
+        tracker.sweep();
+        assertEquals(List.of(2L, 1L), expired);
+    }
+
+    @Test
+    void idleEntryExpiresExactlyOnce() {
+        tracker.register(1L);
+        advance(950);
+        tracker.sweep();
+        assertTrue(expired.isEmpty());
+
+        // 恰好到达超时时间
+        advance(50);
+        tracker.sweep();
+        assertEquals(List.of(1L), expired);
+
+        // 之后的扫描（包括跨过整圈桶）不会再次通知
+        advance(200);
+        tracker.sweep();
+        tracker.touch(1L);
+        advance(5000);
+        tracker.sweep();
+
+        assertEquals(List.of(1L), expired);
+        assertEquals(1L, stat("totalExpired"));
+        assertEquals(0, stat("trackedConnections"));
+    }
+
+    @Test
+    void staleBucketEntryIsIgnoredAfterReRegister() {
+        tracker.register(1L);
+        advance(300);
+        tracker.unregister(1L);
+        tracker.register(1L);
+
+        // 旧条目的到期桶已到达但被跳过，新条目尚未到期
+        advance(900);
+        tracker.sweep();
+        assertTrue(expired.isEmpty());
+        assertEquals(1, stat("lastSweepVisited"));
+        assertEquals(0L, stat("totalRescheduled"));
+        assertEquals(1, stat("trackedConnections"));
+
+        // 新条目按自己的到期时间超时，且只通知一次
+        advance(100);
+        tracker.sweep();
+        assertEquals(List.of(1L), expired);
+        advance(1000);
+        tracker.sweep();
+        assertEquals(List.of(1L), expired);
+    }
+
+    private void advance(long millis) {
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    private Object stat(String name) {
+        return tracker.getStats().get(name);
+    }
+}
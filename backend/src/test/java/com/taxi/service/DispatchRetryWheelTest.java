@@ -0,0 +1,88 @@
+package com.taxi.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 派单重试时间轮测试：每个订单只保留一个待执行重试，按订单ID取消
+ * 不按固定时长等待：轮询到期望的任务执行为止，再用到期计数确认被替换或取消的任务没有到期
+ */
+class DispatchRetryWheelTest {
+
+    private final PrintStream originalOut = System.out;
+    private final List<String> fired = Collections.synchronizedList(new ArrayList<>());
+    private DispatchRetryWheel retryWheel;
+
+    @BeforeEach
+    void setUp() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        retryWheel = new DispatchRetryWheel();
+        ReflectionTestUtils.setField(retryWheel, "tickMillis", 10L);
+        ReflectionTestUtils.setField(retryWheel, "wheelSize", 64);
+        ReflectionTestUtils.setField(retryWheel, "workerThreads", 2);
+        retryWheel.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        retryWheel.shutdown();
+        System.setOut(originalOut);
+    }
+
+    @Test
+    void rescheduleReplacesPendingRetry() throws Exception {
+        retryWheel.schedule(1L, 1, () -> fired.add("first"));
+        retryWheel.schedule(1L, 0, () -> fired.add("second"));
+        // 在被替换的任务之后安排，到期时被替换的任务也已到期
+        retryWheel.schedule(2L, 1, () -> fired.add("sentinel"));
+
+        waitUntil(() -> fired.contains("sentinel"), 5000);
+        assertEquals(List.of("second", "sentinel"), fired);
+        assertFalse(retryWheel.hasPendingRetry(1L));
+        assertEquals(0, retryWheel.getStats().get("trackedOrders"));
+        assertEquals(1L, retryWheel.getStats().get("totalCancelled"));
+        assertEquals(2L, retryWheel.getStats().get("totalExpired"));
+    }
+
+    @Test
+    void cancelBeforeExpiry() throws Exception {
+        retryWheel.schedule(1L, 1, () -> fired.add("cancelled"));
+        retryWheel.schedule(2L, 1, () -> fired.add("kept"));
+        assertTrue(retryWheel.hasPendingRetry(1L));
+
+        assertTrue(retryWheel.cancel(1L));
+        assertFalse(retryWheel.cancel(1L));
+        assertFalse(retryWheel.hasPendingRetry(1L));
+
+        waitUntil(() -> fired.contains("kept"), 5000);
+        assertEquals(List.of("kept"), fired);
+        assertEquals(1L, retryWheel.getStats().get("totalExpired"));
+        assertFalse(retryWheel.cancel(2L));
+    }
+
+    /**
+     * 轮询等待条件成立，超过期限视为失败
+     */
+    private static void waitUntil(BooleanSupplier condition, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("等待超时");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
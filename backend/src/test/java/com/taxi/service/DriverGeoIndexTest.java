@@ -0,0 +1,173 @@
+package com.taxi.service;
+
+import com.taxi.entity.Driver;
+import com.taxi.support.EmbeddedRedis;
+import com.taxi.support.TestDrivers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 司机内存网格索引测试
+ * 通过DriverRedisService同时写入嵌入式Redis和索引，附近查询结果与Redis GEO的结果对照；网格0.01度
+ */
+class DriverGeoIndexTest {
+
+    private static final int LIMIT = 20;
+
+    private final PrintStream originalOut = System.out;
+    private final PrintStream originalErr = System.err;
+    private DriverGeoIndex driverGeoIndex;
+    private DriverRedisService driverRedisService;
+
+    @BeforeEach
+    void setUp() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+        EmbeddedRedis.flushAll();
+
+        driverGeoIndex = new DriverGeoIndex();
+        ReflectionTestUtils.setField(driverGeoIndex, "enabled", true);
+        ReflectionTestUtils.setField(driverGeoIndex, "cellSizeDegrees", 0.01);
+        ReflectionTestUtils.setField(driverGeoIndex, "stripeCount", 64);
+        ReflectionTestUtils.setField(driverGeoIndex, "singleInstance", true);
+        driverGeoIndex.init();
+        driverGeoIndex.markReady();
+
+        driverRedisService = TestDrivers.driverRedisService();
+        ReflectionTestUtils.setField(driverRedisService, "driverGeoIndex", driverGeoIndex);
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.setOut(originalOut);
+        System.setErr(originalErr);
+    }
+
+    @Test
+    void queryAcrossCellBordersMatchesRedis() {
+        // 查询点在网格(30.00~30.01, 120.00~120.01)的东北角附近，司机分布在相邻的四个网格中
+        online(1L, 30.0098, 120.0098);
+        online(2L, 30.0102, 120.0098);
+        online(3L, 30.0098, 120.0102);
+        online(4L, 30.0102, 120.0102);
+        // 同一网格内但比相邻网格的司机更远
+        online(5L, 30.0010, 120.0010);
+        // 隔两个网格，半径外
+        online(6L, 30.0300, 120.0300);
+
+        List<Long> indexed = indexIds(30.0099, 120.0099, 1.5, LIMIT);
+        assertEquals(List.of(1L, 3L, 2L, 4L, 5L), indexed);
+        assertEquals(redisIds(30.0099, 120.0099, 1.5), indexed);
+
+        // 最近的司机在相邻网格：只取1个时不能停在查询点所在网格
+        online(7L, 30.0099, 120.0050);
+        assertEquals(List.of(7L), indexIds(30.0101, 120.0050, 1.5, 1));
+        assertEquals(7L, redisIds(30.0101, 120.0050, 1.5).get(0));
+    }
+
+    @Test
+    void radiusBoundaryUsesDriverPositionNotCell() {
+        // 半径1公里约0.009度纬度：边界两侧的司机按实际距离取舍，与所在网格无关
+        online(1L, 30.0000, 120.0000);
+        online(2L, 30.0089, 120.0000);
+        online(3L, 30.0091, 120.0000);
+        online(4L, 29.9912, 120.0000);
+
+        List<Long> indexed = indexIds(30.0000, 120.0000, 1.0, LIMIT);
+        assertEquals(List.of(1L, 4L, 2L), indexed);
+        assertEquals(redisIds(30.0000, 120.0000, 1.0), indexed);
+    }
+
+    @Test
+    void driverMovesBetweenCells() {
+        online(1L, 30.0050, 120.0050);
+        assertEquals(List.of(1L), indexIds(30.0050, 120.0050, 0.3, LIMIT));
+
+        // 移动到东边相隔三个网格的位置：原位置查不到，新位置返回最新坐标
+        move(1L, 30.0050, 120.0350);
+        assertEquals(List.of(), indexIds(30.0050, 120.0050, 0.3, LIMIT));
+        List<Driver> moved = driverGeoIndex.findNearbyFreeDrivers(30.0050, 120.0350, 0.3, LIMIT);
+        assertEquals(1, moved.size());
+        assertEquals(0, new BigDecimal("120.035").compareTo(moved.get(0).getCurrentLongitude()));
+        assertEquals(List.of(1L), redisIds(30.0050, 120.0350, 0.3));
+        assertEquals(1, driverGeoIndex.getStats().get("cells"));
+
+        // 忙碌期间移动，恢复空闲后出现在新网格
+        driverRedisService.markDriverBusy(1L);
+        move(1L, 30.0250, 120.0350);
+        assertEquals(List.of(), indexIds(30.0250, 120.0350, 0.3, LIMIT));
+        assertEquals(0, driverGeoIndex.getStats().get("cells"));
+        driverRedisService.markDriverFree(1L);
+        assertEquals(List.of(1L), indexIds(30.0250, 120.0350, 0.3, LIMIT));
+        assertEquals(List.of(), indexIds(30.0050, 120.0350, 0.3, LIMIT));
+        assertEquals(List.of(1L), redisIds(30.0250, 120.0350, 0.3));
+
+        // 在同一网格内移动不产生新网格
+        move(1L, 30.0259, 120.0359);
+        assertEquals(1, driverGeoIndex.getStats().get("cells"));
+        assertTrue(driverGeoIndex.isOnlineAndFree(1L));
+    }
+
+    @Test
+    void offlineDriverIsRemovedAndLateUpdatesIgnored() {
+        online(1L, 30.0050, 120.0050);
+        online(2L, 30.0051, 120.0051);
+
+        driverRedisService.driverGoOffline(1L);
+        assertEquals(List.of(2L), indexIds(30.0050, 120.0050, 1.0, LIMIT));
+        assertEquals(List.of(2L), redisIds(30.0050, 120.0050, 1.0));
+        assertFalse(driverGeoIndex.isOnlineAndFree(1L));
+
+        // 下线后迟到的位置和状态变化不会把司机重新加入索引
+        driverGeoIndex.updateLocation(1L, 30.0052, 120.0052);
+        driverGeoIndex.markBusy(1L, false);
+        assertEquals(List.of(2L), indexIds(30.0050, 120.0050, 1.0, LIMIT));
+        assertEquals(1, driverGeoIndex.size());
+
+        driverRedisService.driverGoOffline(2L);
+        assertEquals(List.of(), indexIds(30.0050, 120.0050, 1.0, LIMIT));
+        assertEquals(0, driverGeoIndex.size());
+        assertEquals(0, driverGeoIndex.getStats().get("cells"));
+
+        // 重新上线后恢复
+        online(1L, 30.0050, 120.0050);
+        assertEquals(List.of(1L), indexIds(30.0050, 120.0050, 1.0, LIMIT));
+    }
+
+    private void online(long id, double latitude, double longitude) {
+        Driver driver = new Driver();
+        driver.setId(id);
+        driver.setName("司机" + id);
+        driver.setCurrentLatitude(BigDecimal.valueOf(latitude));
+        driver.setCurrentLongitude(BigDecimal.valueOf(longitude));
+        driverRedisService.driverGoOnline(driver);
+    }
+
+    private void move(long id, double latitude, double longitude) {
+        driverRedisService.updateDriverLocation(id, BigDecimal.valueOf(latitude), BigDecimal.valueOf(longitude));
+    }
+
+    private List<Long> indexIds(double latitude, double longitude, double radiusKm, int limit) {
+        return driverGeoIndex.findNearbyFreeDrivers(latitude, longitude, radiusKm, limit).stream()
+            .map(Driver::getId)
+            .toList();
+    }
+
+    private List<Long> redisIds(double latitude, double longitude, double radiusKm) {
+        return driverRedisService.getNearbyOnlineDriversFromRedis(BigDecimal.valueOf(latitude), BigDecimal.valueOf(longitude), radiusKm)
+            .stream()
+            .map(Driver::getId)
+            .toList();
+    }
+}
@@ -0,0 +1,128 @@
+package com.taxi.service;
+
+import com.taxi.entity.Driver;
+import com.taxi.entity.Order;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * 监听司机路由测试：订单按附近司机顺序分配给监听中的司机，成功后发送分配通知并结束监听
+ */
+class DriverListenerServiceTest {
+
+    private final PrintStream originalOut = System.out;
+    private final PrintStream originalErr = System.err;
+    private DriverRedisService driverRedisService;
+    private OrderDispatchService orderDispatchService;
+    private WebSocketNotificationService webSocketNotificationService;
+    private DriverListenerService listenerService;
+
+    @BeforeEach
+    void setUp() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+        driverRedisService = mock(DriverRedisService.class);
+        orderDispatchService = mock(OrderDispatchService.class);
+        webSocketNotificationService = mock(WebSocketNotificationService.class);
+        listenerService = new DriverListenerService();
+        ReflectionTestUtils.setField(listenerService, "driverRedisService", driverRedisService);
+        ReflectionTestUtils.setField(listenerService, "orderDispatchService", orderDispatchService);
+        ReflectionTestUtils.setField(listenerService, "webSocketNotificationService", webSocketNotificationService);
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.setOut(originalOut);
+        System.setErr(originalErr);
+    }
+
+    @Test
+    void noListenersFallsThroughToDispatch() {
+        assertFalse(listenerService.offerOrder(order(100L)));
+        verifyNoInteractions(driverRedisService, orderDispatchService, webSocketNotificationService);
+    }
+
+    @Test
+    void assignedDriverGetsAssignmentNoticeAndStopsListening() {
+        Order order = order(100L);
+        nearby(1L, 2L, 3L);
+        listenerService.startListening(2L);
+        listenerService.startListening(3L);
+        when(orderDispatchService.acceptOrder(100L, 2L)).thenReturn(false);
+        when(orderDispatchService.acceptOrder(100L, 3L)).thenReturn(true);
+
+        assertTrue(listenerService.offerOrder(order));
+
+        // 司机1未监听不参与；司机2分配失败恢复监听；司机3接到订单后结束监听
+        verify(orderDispatchService, never()).acceptOrder(100L, 1L);
+        verify(webSocketNotificationService).notifyDriverOrderAssigned(3L, order);
+        verify(webSocketNotificationService, never()).notifyDriverNewOrder(anyLong(), any(), anyDouble());
+        assertTrue(listenerService.isDriverListening(2L));
+        assertFalse(listenerService.isDriverListening(3L));
+        assertEquals(1L, listenerService.getStats().get("totalAssigned"));
+        assertEquals(2L, listenerService.getStats().get("totalAttempts"));
+    }
+
+    @Test
+    void failedAttemptsRestoreSessions() {
+        nearby(1L, 2L);
+        listenerService.startListening(1L);
+        listenerService.startListening(2L);
+        when(orderDispatchService.acceptOrder(eq(100L), anyLong())).thenThrow(new RuntimeException("数据库不可用"));
+
+        assertFalse(listenerService.offerOrder(order(100L)));
+
+        assertEquals(2, listenerService.getActiveListenerCount());
+        verifyNoInteractions(webSocketNotificationService);
+    }
+
+    @Test
+    void stoppedDriverIsNotOffered() {
+        nearby(1L);
+        listenerService.startListening(1L);
+        listenerService.stopListening(1L);
+
+        assertFalse(listenerService.offerOrder(order(100L)));
+        verify(orderDispatchService, never()).acceptOrder(anyLong(), anyLong());
+    }
+
+    private void nearby(Long... driverIds) {
+        List<Driver> drivers = new ArrayList<>();
+        for (Long driverId : driverIds) {
+            Driver driver = new Driver();
+            driver.setId(driverId);
+            drivers.add(driver);
+        }
+        when(driverRedisService.getNearbyOnlineDrivers(any(), any(), anyDouble())).thenReturn(drivers);
+    }
+
+    private static Order order(Long orderId) {
+        Order order = new Order();
+        order.setId(orderId);
+        order.setOrderNumber("ORD" + orderId);
+        order.setPickupLatitude(new BigDecimal("31.2304"));
+        order.setPickupLongitude(new BigDecimal("121.4737"));
+        return order;
+    }
+}
@@ -0,0 +1,191 @@
+package com.taxi.service;
+
+import com.taxi.entity.Driver;
+import com.taxi.support.EmbeddedRedis;
+import com.taxi.support.TestDrivers;
+import com.taxi.util.DriverLocationFrame;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 司机位置批量写入测试（嵌入式Redis）
+ * 批量写入器的定时任务间隔足够长，由测试调用drain控制写入时机
+ */
+class DriverLocationSinkTest {
+
+    private final PrintStream originalOut = System.out;
+    private StringRedisTemplate stringRedisTemplate;
+    private DriverLocationSink sink;
+    private DriverRedisService driverRedisService;
+
+    @BeforeEach
+    void setUp() {
+        EmbeddedRedis.flushAll();
+        stringRedisTemplate = EmbeddedRedis.stringRedisTemplate();
+
+        sink = new DriverLocationSink();
+        ReflectionTestUtils.setField(sink, "stringRedisTemplate", EmbeddedRedis.stringRedisTemplate());
+        ReflectionTestUtils.setField(sink, "enabled", true);
+        ReflectionTestUtils.setField(sink, "drainIntervalMs", 3_600_000L);
+        ReflectionTestUtils.setField(sink, "maxBatch", 500);
+        sink.init();
+
+        driverRedisService = TestDrivers.driverRedisService(sink);
+
+        // 上线、下线流程打印的调试日志较多
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.setOut(originalOut);
+        sink.shutdown();
+    }
+
+    @Test
+    void writesOnlineDriversAndMaintainsFreeSet() {
+        driverRedisService.driverGoOnline(driver(1L, 30.0, 120.0));
+        driverRedisService.driverGoOnline(driver(2L, 30.0, 120.0));
+        stringRedisTemplate.opsForHash().put(DriverRedisService.DRIVER_HOT_KEY + 2, DriverRedisService.HOT_BUSY, "1");
+        stringRedisTemplate.expire(DriverRedisService.DRIVER_HOT_KEY + 1, Duration.ofSeconds(60));
+
+        CompletableFuture<Void> first = submit(1L, 30.1, 120.1, 9000);
+        CompletableFuture<Void> second = submit(2L, 30.2, 120.2, DriverLocationFrame.HEADING_UNKNOWN);
+        sink.drain();
+
+        assertTrue(first.isDone() && !first.isCompletedExceptionally());
+        assertTrue(second.isDone() && !second.isCompletedExceptionally());
+        assertEquals(30.1, geoLatitude(DriverRedisService.DRIVER_GEO_KEY, 1L), 1e-5);
+        assertEquals(30.1, geoLatitude(DriverRedisService.DRIVER_GEO_FREE_KEY, 1L), 1e-5);
+        assertEquals("9000", hot(1L, DriverRedisService.HOT_HEADING));
+        assertEquals("30.1", hot(1L, DriverRedisService.HOT_LATITUDE));
+        // 忙碌司机只更新司机GEO，不进入空闲集合
+        assertEquals(30.2, geoLatitude(DriverRedisService.DRIVER_GEO_KEY, 2L), 1e-5);
+        assertNull(geoPosition(DriverRedisService.DRIVER_GEO_FREE_KEY, 2L));
+        assertNull(hot(2L, DriverRedisService.HOT_HEADING));
+        assertEquals(2L, sink.getStats().get("totalWritten"));
+        // 写入位置时刷新可变状态的过期时间
+        assertTrue(stringRedisTemplate.getExpire(DriverRedisService.DRIVER_HOT_KEY + 1) > 3600);
+        assertEquals(0L, sink.getStats().get("totalSkippedOffline"));
+    }
+
+    @Test
+    void drainAfterGoOfflineDoesNotResurrectDriver() {
+        driverRedisService.driverGoOnline(driver(1L, 30.0, 120.0));
+        driverRedisService.driverGoOnline(driver(2L, 30.0, 120.0));
+        CompletableFuture<Void> offline = submit(1L, 30.1, 120.1, 9000);
+        submit(2L, 30.2, 120.2, 9000);
+        // 位置已入队但尚未写入时司机下线
+        driverRedisService.driverGoOffline(1L);
+
+        sink.drain();
+
+        assertTrue(offline.isDone() && !offline.isCompletedExceptionally());
+        assertNull(geoPosition(DriverRedisService.DRIVER_GEO_KEY, 1L));
+        assertNull(geoPosition(DriverRedisService.DRIVER_GEO_FREE_KEY, 1L));
+        assertFalse(stringRedisTemplate.hasKey(DriverRedisService.DRIVER_HOT_KEY + 1));
+        // 同批在线司机正常写入
+        assertEquals(30.2, geoLatitude(DriverRedisService.DRIVER_GEO_FREE_KEY, 2L), 1e-5);
+        assertEquals(1L, sink.getStats().get("totalSkippedOffline"));
+    }
+
+    @Test
+    void laterPositionReplacesPendingOne() {
+        driverRedisService.driverGoOnline(driver(1L, 30.0, 120.0));
+        CompletableFuture<Void> older = submit(1L, 30.1, 120.1, 9000);
+        CompletableFuture<Void> newer = submit(1L, 30.3, 120.3, 9100);
+        assertEquals(1, sink.getStats().get("queueDepth"));
+
+        sink.drain();
+
+        // 被覆盖的位置随最新位置一起结束，只写入最新位置
+        assertTrue(older.isDone() && !older.isCompletedExceptionally());
+        assertTrue(newer.isDone() && !newer.isCompletedExceptionally());
+        assertEquals(30.3, geoLatitude(DriverRedisService.DRIVER_GEO_KEY, 1L), 1e-5);
+        assertEquals("9100", hot(1L, DriverRedisService.HOT_HEADING));
+        assertEquals(1L, sink.getStats().get("totalWritten"));
+        assertEquals(1L, sink.getStats().get("totalCoalesced"));
+    }
+
+    @Test
+    void singleWriteFallbackSkipsOfflineDriver() {
+        driverRedisService.driverGoOnline(driver(1L, 30.0, 120.0));
+        driverRedisService.driverGoOffline(1L);
+
+        driverRedisService.updateDriverLocation(1L, new BigDecimal("30.1"), new BigDecimal("120.1"), 9000);
+
+        assertNull(geoPosition(DriverRedisService.DRIVER_GEO_KEY, 1L));
+        assertFalse(stringRedisTemplate.hasKey(DriverRedisService.DRIVER_HOT_KEY + 1));
+    }
+
+    @Test
+    void invalidCoordinatesAreDroppedBeforeEnqueue() {
+        driverRedisService.driverGoOnline(driver(1L, 30.0, 120.0));
+        driverRedisService.driverGoOnline(driver(2L, 30.0, 120.0));
+
+        CompletableFuture<Void> badLatitude = submit(1L, 86.0, 120.0, 0);
+        CompletableFuture<Void> badLongitude = submit(1L, 30.0, -180.5, 0);
+        CompletableFuture<Void> direct = sink.submit(1L, Double.NaN, 120.0, 0);
+        CompletableFuture<Void> good = submit(2L, 30.2, 120.2, 0);
+
+        assertTrue(badLatitude.isCompletedExceptionally());
+        assertTrue(badLongitude.isCompletedExceptionally());
+        assertTrue(direct.isCompletedExceptionally());
+        assertEquals(1, sink.getStats().get("queueDepth"));
+
+        // 非法坐标没有进入批次，同批合法位置不会因GEOADD报错而失败
+        sink.drain();
+        assertTrue(good.isDone() && !good.isCompletedExceptionally());
+        assertEquals(30.0, geoLatitude(DriverRedisService.DRIVER_GEO_KEY, 1L), 1e-5);
+        assertEquals(30.2, geoLatitude(DriverRedisService.DRIVER_GEO_KEY, 2L), 1e-5);
+        assertEquals(1L, sink.getStats().get("totalInvalid"));
+        assertEquals(0L, sink.getStats().get("totalFailures"));
+    }
+
+    private CompletableFuture<Void> submit(long driverId, double latitude, double longitude, int heading) {
+        CompletableFuture<Void> future = driverRedisService.submitDriverLocation(driverId,
+            BigDecimal.valueOf(latitude), BigDecimal.valueOf(longitude), heading);
+        assertNotNull(future);
+        return future;
+    }
+
+    private String hot(long driverId, String field) {
+        return (String) stringRedisTemplate.opsForHash().get(DriverRedisService.DRIVER_HOT_KEY + driverId, field);
+    }
+
+    private Point geoPosition(String key, long driverId) {
+        List<Point> positions = stringRedisTemplate.opsForGeo().position(key, DriverRedisService.geoMember(driverId));
+        return positions == null || positions.isEmpty() ? null : positions.get(0);
+    }
+
+    private double geoLatitude(String key, long driverId) {
+        Point position = geoPosition(key, driverId);
+        assertNotNull(position, "司机 " + driverId + " 不在 " + key + " 中");
+        return position.getY();
+    }
+
+    private static Driver driver(long id, double latitude, double longitude) {
+        Driver driver = new Driver();
+        driver.setId(id);
+        driver.setCurrentLatitude(BigDecimal.valueOf(latitude));
+        driver.setCurrentLongitude(BigDecimal.valueOf(longitude));
+        return driver;
+    }
+}
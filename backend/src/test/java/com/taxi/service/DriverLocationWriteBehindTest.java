@@ -0,0 +1,319 @@
+package com.taxi.service;
+
+import com.taxi.entity.Driver;
+import com.taxi.mapper.DriverMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 司机位置延迟写入测试
+ * DriverMapper替换为记录每次批量更新的桩，可以按需让写库失败
+ */
+class DriverLocationWriteBehindTest {
+
+    // 每次batchUpdateLocations调用写入的行
+    private final List<List<Driver>> writes = new ArrayList<>();
+    // 接下来需要失败的写库次数
+    private final AtomicInteger failuresToInject = new AtomicInteger();
+    // 写库时执行的额外动作（模拟写库期间收到新位置）
+    private Runnable duringWrite;
+
+    private DriverMapper driverMapper;
+    private DriverLocationWriteBehind writeBehind;
+
+    @BeforeEach
+    void setUp() {
+        driverMapper = mock(DriverMapper.class);
+        when(driverMapper.batchUpdateLocations(anyList())).thenAnswer(invocation -> {
+            List<Driver> rows = new ArrayList<>(invocation.getArgument(0));
+            Runnable action = duringWrite;
+            duringWrite = null;
+            if (action != null) {
+                action.run();
+            }
+            if (failuresToInject.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                throw new IllegalStateException("模拟数据库不可用");
+            }
+            writes.add(rows);
+            return rows.size();
+        });
+        writeBehind = create(16);
+    }
+
+    @AfterEach
+    void tearDown() {
+        writeBehind.shutdown();
+    }
+
+    @Test
+    void coalescesRepeatedUpdatesOfOneDriver() {
+        for (int i = 1; i <= 100; i++) {
+            writeBehind.record(7L, 30.0 + i * 0.001, 120.0);
+        }
+        writeBehind.record(8L, 31.0, 121.0);
+
+        writeBehind.flush();
+
+        Map<Long, Driver> written = lastWrites();
+        assertEquals(1, writes.size());
+        assertEquals(2, written.size());
+        assertEquals(0, new BigDecimal("30.1").compareTo(written.get(7L).getCurrentLatitude()));
+        assertEquals(101L, stat("totalRecorded"));
+        assertEquals(99L, stat("totalCoalesced"));
+        assertEquals(0L, stat("pending"));
+
+        // 没有新位置时不再写库
+        writeBehind.flush();
+        assertEquals(1, writes.size());
+    }
+
+    @Test
+    void failedBatchIsRemarkedDirtyAndRetried() {
+        for (long id = 1; id <= 10; id++) {
+            writeBehind.record(id, 30.0, 120.0);
+        }
+        failuresToInject.set(1);
+
+        writeBehind.flush();
+
+        assertTrue(writes.isEmpty());
+        assertEquals(1L, stat("totalFailures"));
+        assertEquals(10L, stat("pending"));
+
+        // 重试前又收到其中一个司机的新位置
+        writeBehind.record(3L, 30.5, 120.5);
+        writeBehind.flush();
+
+        Map<Long, Driver> written = lastWrites();
+        assertEquals(10, written.size());
+        assertEquals(0, new BigDecimal("30.5").compareTo(written.get(3L).getCurrentLatitude()));
+        assertEquals(0L, stat("pending"));
+        assertEquals(10L, stat("totalFlushedRows"));
+    }
+
+    @Test
+    void positionRecordedDuringFailedWriteIsFlushedOnce() {
+        writeBehind.record(1L, 30.0, 120.0);
+        writeBehind.record(2L, 30.0, 120.0);
+        // 写库进行中司机1上报新位置，随后这次写库失败
+        duringWrite = () -> writeBehind.record(1L, 30.9, 120.9);
+        failuresToInject.set(1);
+
+        writeBehind.flush();
+        assertEquals(2L, stat("pending"));
+
+        writeBehind.flush();
+
+        Map<Long, Driver> written = lastWrites();
+        assertEquals(1, writes.size());
+        assertEquals(2, written.size());
+        assertEquals(0, new BigDecimal("30.9").compareTo(written.get(1L).getCurrentLatitude()));
+        assertEquals(0L, stat("pending"));
+    }
+
+    @Test
+    void tableGrowthKeepsLatestPositionsAndDirtyFlags() {
+        writeBehind.shutdown();
+        // 单分段，所有司机落在同一张开放寻址表中，从64个槽位扩容到16384个
+        writeBehind = create(1);
+
+        for (long id = 1; id <= 100; id++) {
+            writeBehind.record(id, 10.0, 100.0);
+        }
+        writeBehind.flush();
+        writes.clear();
+
+        // 扩容期间前100个司机是干净的，不应被重新写入
+        for (long id = 101; id <= 5000; id++) {
+            writeBehind.record(id, id * 0.001, 100.0 + id * 0.001);
+        }
+        long[] keys = (long[]) ReflectionTestUtils.getField(stripe(), "keys");
+        assertTrue(keys.length >= 16384);
+
+        writeBehind.flush();
+
+        Map<Long, Driver> written = lastWrites();
+        assertEquals(4900, written.size());
+        for (long id = 101; id <= 5000; id++) {
+            Driver driver = written.get(id);
+            assertEquals(0, BigDecimal.valueOf(id * 0.001).compareTo(driver.getCurrentLatitude()), "司机 " + id);
+        }
+        // 扩容后仍能找到扩容前写入的司机
+        Driver probe = new Driver();
+        probe.setId(42L);
+        writeBehind.applyPending(probe);
+        assertEquals(0, new BigDecimal("10.0").compareTo(probe.getCurrentLatitude()));
+        assertEquals(0L, stat("pending"));
+    }
+
+    @Test
+    void largeFlushIsSplitIntoBatches() {
+        for (long id = 1; id <= 1200; id++) {
+            writeBehind.record(id, 30.0, 120.0);
+        }
+
+        writeBehind.flush();
+
+        assertEquals(3, writes.size());
+        assertEquals(1200, lastWrites().size());
+        assertTrue(writes.stream().allMatch(rows -> rows.size() <= 500));
+    }
+
+    @Test
+    void shutdownFlushesRemainingPositions() {
+        for (long id = 1; id <= 50; id++) {
+            writeBehind.record(id, 30.0, 120.0);
+        }
+        assertTrue(writes.isEmpty());
+
+        writeBehind.shutdown();
+
+        assertEquals(50, lastWrites().size());
+        assertEquals(0L, stat("pending"));
+    }
+
+    @Test
+    void flushedIdleEntriesAreEvicted() {
+        writeBehind.shutdown();
+        writeBehind = create(1);
+        // 已写库且在本轮刷新开始前没有新位置的条目都视为空闲
+        ReflectionTestUtils.setField(writeBehind, "idleEvictMs", 0L);
+
+        for (long id = 1; id <= 100; id++) {
+            writeBehind.record(id, id * 0.01, 120.0);
+        }
+        writeBehind.flush();
+        assertEquals(100L, stat("tracked"));
+
+        // 前50个司机有新位置，后50个写库后没有变化
+        for (long id = 1; id <= 50; id++) {
+            writeBehind.record(id, id * 0.01 + 1, 120.0);
+        }
+        writeBehind.flush();
+
+        assertEquals(50L, stat("tracked"));
+        assertEquals(50L, stat("totalEvicted"));
+        for (long id = 1; id <= 50; id++) {
+            assertEquals(0, BigDecimal.valueOf(id * 0.01 + 1).compareTo(pendingLatitude(id)), "司机 " + id);
+        }
+        assertNull(pendingLatitude(75L));
+
+        // 下一轮全部空闲，移除后可以重新记录
+        writeBehind.flush();
+        assertEquals(0L, stat("tracked"));
+        writeBehind.record(75L, 5.0, 120.0);
+        assertEquals(0, new BigDecimal("5.0").compareTo(pendingLatitude(75L)));
+    }
+
+    @Test
+    void unwrittenEntryIsNotEvicted() {
+        ReflectionTestUtils.setField(writeBehind, "idleEvictMs", 0L);
+        writeBehind.record(1L, 30.0, 120.0);
+        failuresToInject.set(1);
+
+        writeBehind.flush();
+        writeBehind.forget(1L);
+
+        // 写库失败的条目仍是脏的：下线和空闲检查都不移除，下一轮照常写入
+        assertEquals(1L, stat("tracked"));
+        writeBehind.flush();
+        assertEquals(1, lastWrites().size());
+        assertEquals(1L, stat("tracked"));
+
+        writeBehind.flush();
+        assertEquals(0L, stat("tracked"));
+        assertEquals(0L, stat("pending"));
+    }
+
+    @Test
+    void forgetRemovesWrittenEntryAndKeepsProbeChains() {
+        writeBehind.shutdown();
+        // 单分段，删除时后面的条目前移，其中包括仍在脏列表中的条目
+        writeBehind = create(1);
+        for (long id = 1; id <= 1000; id++) {
+            writeBehind.record(id, id * 0.001, 120.0);
+        }
+        writeBehind.flush();
+        writes.clear();
+        for (long id = 2; id <= 1000; id += 2) {
+            writeBehind.record(id, id * 0.001 + 1, 120.0);
+        }
+
+        // 奇数司机下线（已写库），偶数司机有未写库的新位置
+        for (long id = 1; id <= 1000; id += 2) {
+            writeBehind.forget(id);
+        }
+        assertEquals(500L, stat("tracked"));
+        assertEquals(500L, stat("totalEvicted"));
+        for (long id = 2; id <= 1000; id += 2) {
+            assertEquals(0, BigDecimal.valueOf(id * 0.001 + 1).compareTo(pendingLatitude(id)), "司机 " + id);
+        }
+
+        writeBehind.flush();
+        Map<Long, Driver> written = lastWrites();
+        assertEquals(500, written.size());
+        for (long id = 2; id <= 1000; id += 2) {
+            assertEquals(0, BigDecimal.valueOf(id * 0.001 + 1).compareTo(written.get(id).getCurrentLatitude()), "司机 " + id);
+        }
+        assertEquals(0L, stat("pending"));
+    }
+
+    private BigDecimal pendingLatitude(long driverId) {
+        Driver probe = new Driver();
+        probe.setId(driverId);
+        writeBehind.applyPending(probe);
+        return probe.getCurrentLatitude();
+    }
+
+    private DriverLocationWriteBehind create(int stripes) {
+        DriverLocationWriteBehind created = new DriverLocationWriteBehind();
+        ReflectionTestUtils.setField(created, "driverMapper", driverMapper);
+        ReflectionTestUtils.setField(created, "enabled", true);
+        // 定时刷新间隔足够长，刷新时机由测试控制
+        ReflectionTestUtils.setField(created, "flushIntervalMs", 3_600_000L);
+        ReflectionTestUtils.setField(created, "batchSize", 500);
+        ReflectionTestUtils.setField(created, "maxPending", 100_000);
+        ReflectionTestUtils.setField(created, "stripeCount", stripes);
+        ReflectionTestUtils.setField(created, "idleEvictMs", 3_600_000L);
+        created.init();
+        return created;
+    }
+
+    private Object stripe() {
+        Object[] stripes = (Object[]) ReflectionTestUtils.getField(writeBehind, "stripes");
+        return stripes[0];
+    }
+
+    private long stat(String name) {
+        return ((Number) writeBehind.getStats().get(name)).longValue();
+    }
+
+    /**
+     * 汇总所有已写入的行，同一司机取最后一次写入
+     */
+    private Map<Long, Driver> lastWrites() {
+        Map<Long, Driver> latest = new HashMap<>();
+        for (List<Driver> rows : writes) {
+            for (Driver row : rows) {
+                latest.put(row.getId(), row);
+            }
+        }
+        return latest;
+    }
+}
@@ -0,0 +1,154 @@
+package com.taxi.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.taxi.dto.DriverOfferMessage;
+import com.taxi.util.TypedMessageConverter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerEndpoint;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistrar;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 旧通知队列兼容测试：切换前生产者发送的HashMap通知、字符串通知和新的类型化通知都能被消费
+ */
+class DriverNotificationConsumerTest {
+
+    private final PrintStream originalOut = System.out;
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private Jackson2JsonMessageConverter legacyConverter;
+    private TypedMessageConverter typedConverter;
+    private DriverNotificationConsumer consumer;
+
+    @BeforeEach
+    void setUp() {
+        System.setOut(new PrintStream(output, true, StandardCharsets.UTF_8));
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new JavaTimeModule());
+        legacyConverter = new Jackson2JsonMessageConverter(objectMapper);
+        typedConverter = new TypedMessageConverter(objectMapper, legacyConverter)
+                .register(DriverOfferMessage.TYPE, DriverOfferMessage.VERSION, DriverOfferMessage.class);
+        consumer = new DriverNotificationConsumer();
+        ReflectionTestUtils.setField(consumer, "messageConverter", typedConverter);
+        ReflectionTestUtils.setField(consumer, "objectMapper", objectMapper);
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.setOut(originalOut);
+    }
+
+    @Test
+    void legacyMapOfferIsHandled() {
+        // 旧OrderDispatchService.notifyDriver发送的HashMap，经Jackson转换器带 __TypeId__=java.util.HashMap
+        Map<String, Object> legacy = new HashMap<>();
+        legacy.put("driverId", 7L);
+        legacy.put("orderId", 100L);
+        legacy.put("orderNumber", "ORD1000");
+        legacy.put("orderType", "RESERVATION");
+        legacy.put("pickupAddress", "人民广场");
+        legacy.put("destinationAddress", "虹桥机场");
+        legacy.put("distance", 850.5);
+        legacy.put("estimatedFare", new BigDecimal("35.50"));
+        legacy.put("scheduledTime", LocalDateTime.of(2024, 5, 1, 8, 30));
+        legacy.put("timestamp", System.currentTimeMillis());
+        Message message = legacyConverter.toMessage(legacy, new MessageProperties());
+        assertEquals("java.util.HashMap", message.getMessageProperties().getHeader("__TypeId__"));
+
+        consumer.handleLegacyNotification(message);
+
+        assertTrue(printed().contains("=== 发送通知给司机 7 ==="), printed());
+        assertTrue(printed().contains("ORD1000 (100)"), printed());
+        assertTrue(printed().contains("距离: 850.5, 预估费用: 35.5"), printed());
+    }
+
+    @Test
+    void legacyJsonStringNotificationIsHandled() {
+        // 旧生产者通过Jackson转换器发送字符串：JSON字符串体 + __TypeId__=java.lang.String，没有类型头
+        Message message = legacyConverter.toMessage("司机7，您有新订单：ORD1001", new MessageProperties());
+
+        consumer.handleLegacyNotification(message);
+
+        assertTrue(printed().contains("=== 发送通知给司机 7 ==="), printed());
+        assertTrue(printed().contains("ORD1001"), printed());
+    }
+
+    @Test
+    void legacyPlainTextNotificationIsHandled() {
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(MessageProperties.CONTENT_TYPE_TEXT_PLAIN);
+        Message message = new Message("司机8，您有新订单：ORD1002".getBytes(StandardCharsets.UTF_8), properties);
+
+        consumer.handleLegacyNotification(message);
+
+        assertTrue(printed().contains("=== 发送通知给司机 8 ==="), printed());
+        assertTrue(printed().contains("ORD1002"), printed());
+    }
+
+    @Test
+    void typedOfferOnLegacyQueueIsHandled() {
+        DriverOfferMessage offer = new DriverOfferMessage(9L, 100L, "ORD1003", "IMMEDIATE",
+                "人民广场", "虹桥机场", 850.0, new BigDecimal("35.50"), null, System.currentTimeMillis());
+        Message message = typedConverter.toMessage(offer, new MessageProperties());
+
+        consumer.handleLegacyNotification(message);
+
+        assertTrue(printed().contains("=== 发送通知给司机 9 ==="), printed());
+        assertTrue(printed().contains("ORD1003 (100)"), printed());
+    }
+
+    @Test
+    void unknownPayloadIsRejected() {
+        Message message = legacyConverter.toMessage(42, new MessageProperties());
+
+        assertThrows(MessageConversionException.class, () -> consumer.handleLegacyNotification(message));
+    }
+
+    @Test
+    void nullPayloadOnPartitionQueueIsRejected() {
+        // 转换器对空消息体返回null：分区监听器拒绝消息，不抛出空指针
+        MessageConverter converter = mock(MessageConverter.class);
+        ReflectionTestUtils.setField(consumer, "messageConverter", converter);
+        DriverNotificationRouter router = mock(DriverNotificationRouter.class);
+        when(router.queueNames()).thenReturn(new String[]{"driver_notification_queue.0"});
+        ReflectionTestUtils.setField(consumer, "driverNotificationRouter", router);
+        ReflectionTestUtils.setField(consumer, "partitionConcurrency", "1-4");
+        RabbitListenerEndpointRegistrar registrar = mock(RabbitListenerEndpointRegistrar.class);
+
+        consumer.configureRabbitListeners(registrar);
+
+        ArgumentCaptor<SimpleRabbitListenerEndpoint> endpoint = ArgumentCaptor.forClass(SimpleRabbitListenerEndpoint.class);
+        verify(registrar).registerEndpoint(endpoint.capture());
+        Message message = new Message(new byte[0], new MessageProperties());
+        MessageConversionException rejected = assertThrows(MessageConversionException.class,
+                () -> endpoint.getValue().getMessageListener().onMessage(message));
+        assertTrue(rejected.getMessage().endsWith("null"), rejected.getMessage());
+    }
+
+    private String printed() {
+        return output.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,177 @@
+package com.taxi.service;
+
+import com.taxi.entity.Driver;
+import com.taxi.support.EmbeddedRedis;
+import com.taxi.support.TestDrivers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 司机上线缓存测试（嵌入式Redis）
+ */
+class DriverRedisServiceTest {
+
+    private final PrintStream originalOut = System.out;
+    private final PrintStream originalErr = System.err;
+    private StringRedisTemplate stringRedisTemplate;
+    private DriverRedisService driverRedisService;
+
+    @BeforeEach
+    void setUp() {
+        EmbeddedRedis.flushAll();
+        stringRedisTemplate = EmbeddedRedis.stringRedisTemplate();
+
+        driverRedisService = TestDrivers.driverRedisService();
+
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.setOut(originalOut);
+        System.setErr(originalErr);
+    }
+
+    @Test
+    void swappedCoordinatesAreCorrectedInHotState() {
+        // 纬度字段里存的是经度
+        driverRedisService.driverGoOnline(driver(1L, "116.4074", "39.9042"));
+
+        Map<Object, Object> hot = hot(1L);
+        assertEquals("1", hot.get(DriverRedisService.HOT_ONLINE));
+        assertEquals(39.9042, Double.parseDouble((String) hot.get(DriverRedisService.HOT_LATITUDE)), 1e-9);
+        assertEquals(116.4074, Double.parseDouble((String) hot.get(DriverRedisService.HOT_LONGITUDE)), 1e-9);
+
+        Point position = geoPosition(DriverRedisService.DRIVER_GEO_FREE_KEY, 1L);
+        assertNotNull(position);
+        assertEquals(39.9042, position.getY(), 1e-5);
+        assertEquals(116.4074, position.getX(), 1e-5);
+    }
+
+    @Test
+    void outOfRangeCoordinatesStillBringDriverOnlineWithoutPosition() {
+        driverRedisService.driverGoOnline(driver(1L, "88.0", "120.0"));
+
+        // 资料和在线状态照常写入，可变状态中不带坐标，也不进入GEO
+        assertTrue(stringRedisTemplate.hasKey(DriverRedisService.DRIVER_INFO_KEY + 1));
+        Map<Object, Object> hot = hot(1L);
+        assertEquals("1", hot.get(DriverRedisService.HOT_ONLINE));
+        assertEquals("0", hot.get(DriverRedisService.HOT_BUSY));
+        assertFalse(hot.containsKey(DriverRedisService.HOT_LATITUDE));
+        assertFalse(hot.containsKey(DriverRedisService.HOT_LONGITUDE));
+        assertTrue(stringRedisTemplate.getExpire(DriverRedisService.DRIVER_HOT_KEY + 1) > 0);
+        assertNull(geoPosition(DriverRedisService.DRIVER_GEO_KEY, 1L));
+        assertNull(geoPosition(DriverRedisService.DRIVER_GEO_FREE_KEY, 1L));
+    }
+
+    @Test
+    void markDriverFreeRestoresOnlineDriver() {
+        driverRedisService.driverGoOnline(driver(1L, "30.0", "120.0"));
+        assertTrue(driverRedisService.tryClaimDriverForOrder(1L, 100L));
+        assertNull(geoPosition(DriverRedisService.DRIVER_GEO_FREE_KEY, 1L));
+
+        driverRedisService.markDriverFree(1L);
+
+        Map<Object, Object> hot = hot(1L);
+        assertEquals("1", hot.get(DriverRedisService.HOT_ONLINE));
+        assertEquals("0", hot.get(DriverRedisService.HOT_BUSY));
+        assertFalse(hot.containsKey(DriverRedisService.HOT_CURRENT_ORDER));
+        assertNotNull(geoPosition(DriverRedisService.DRIVER_GEO_FREE_KEY, 1L));
+    }
+
+    @Test
+    void markDriverFreeAfterGoOfflineDoesNotRecreateHotState() {
+        driverRedisService.driverGoOnline(driver(1L, "30.0", "120.0"));
+        assertTrue(driverRedisService.tryClaimDriverForOrder(1L, 100L));
+        driverRedisService.driverGoOffline(1L);
+
+        // 行程结束时司机已下线：不重建只有busy字段的可变状态，也不放回空闲集合
+        driverRedisService.markDriverFree(1L);
+
+        assertFalse(stringRedisTemplate.hasKey(DriverRedisService.DRIVER_HOT_KEY + 1));
+        assertNull(geoPosition(DriverRedisService.DRIVER_GEO_FREE_KEY, 1L));
+    }
+
+    @Test
+    void markDriverBusyAfterGoOfflineDoesNotRecreateHotState() {
+        driverRedisService.driverGoOnline(driver(1L, "30.0", "120.0"));
+        driverRedisService.driverGoOffline(1L);
+
+        // 下线后迟到的忙碌标记不重建没有过期时间的可变状态，附近查询和在线检查都不会看到该司机
+        driverRedisService.markDriverBusy(1L);
+
+        assertFalse(stringRedisTemplate.hasKey(DriverRedisService.DRIVER_HOT_KEY + 1));
+        assertNull(geoPosition(DriverRedisService.DRIVER_GEO_FREE_KEY, 1L));
+        assertFalse(driverRedisService.tryClaimDriverForOrder(1L, 100L));
+        assertFalse(stringRedisTemplate.hasKey(DriverRedisService.DRIVER_HOT_KEY + 1));
+    }
+
+    @Test
+    void hotStateWritesRefreshExpiry() {
+        driverRedisService.driverGoOnline(driver(1L, "30.0", "120.0"));
+
+        expireSoon(1L);
+        driverRedisService.updateDriverLocation(1L, new BigDecimal("30.01"), new BigDecimal("120.01"));
+        assertExpiryRefreshed(1L);
+
+        expireSoon(1L);
+        driverRedisService.markDriverBusy(1L);
+        assertEquals("1", hot(1L).get(DriverRedisService.HOT_BUSY));
+        assertNull(geoPosition(DriverRedisService.DRIVER_GEO_FREE_KEY, 1L));
+        assertExpiryRefreshed(1L);
+
+        expireSoon(1L);
+        driverRedisService.markDriverFree(1L);
+        assertExpiryRefreshed(1L);
+
+        expireSoon(1L);
+        assertTrue(driverRedisService.tryClaimDriverForOrder(1L, 100L));
+        assertExpiryRefreshed(1L);
+
+        expireSoon(1L);
+        driverRedisService.releaseDriverClaim(1L, 100L);
+        assertExpiryRefreshed(1L);
+    }
+
+    private void expireSoon(long driverId) {
+        stringRedisTemplate.expire(DriverRedisService.DRIVER_HOT_KEY + driverId, Duration.ofSeconds(60));
+    }
+
+    private void assertExpiryRefreshed(long driverId) {
+        assertTrue(stringRedisTemplate.getExpire(DriverRedisService.DRIVER_HOT_KEY + driverId) > 3600);
+    }
+
+    private Map<Object, Object> hot(long driverId) {
+        return stringRedisTemplate.opsForHash().entries(DriverRedisService.DRIVER_HOT_KEY + driverId);
+    }
+
+    private Point geoPosition(String key, long driverId) {
+        List<Point> positions = stringRedisTemplate.opsForGeo().position(key, DriverRedisService.geoMember(driverId));
+        return positions == null || positions.isEmpty() ? null : positions.get(0);
+    }
+
+    private static Driver driver(long id, String latitude, String longitude) {
+        Driver driver = new Driver();
+        driver.setId(id);
+        driver.setCurrentLatitude(new BigDecimal(latitude));
+        driver.setCurrentLongitude(new BigDecimal(longitude));
+        return driver;
+    }
+}
@@ -0,0 +1,153 @@
+package com.taxi.service;
+
+import com.taxi.util.DriverLocationFrame;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 位置上报过滤测试
+ * 按默认配置：空闲死区20米、载客5米、朝向25度、最长静默60秒；纬度每0.0001度约11米。
+ * 评估时间由测试传入，不依赖系统时钟
+ */
+class LocationUpdateFilterTest {
+
+    private static final long T0 = 1_700_000_000_000L;
+    private static final int NO_HEADING = DriverLocationFrame.HEADING_UNKNOWN;
+
+    private LocationUpdateFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        filter = new LocationUpdateFilter();
+        ReflectionTestUtils.setField(filter, "enabled", true);
+        ReflectionTestUtils.setField(filter, "minDistanceMeters", 20.0);
+        ReflectionTestUtils.setField(filter, "busyMinDistanceMeters", 5.0);
+        ReflectionTestUtils.setField(filter, "minHeadingDegrees", 25.0);
+        ReflectionTestUtils.setField(filter, "maxSilenceSeconds", 60L);
+        ReflectionTestUtils.setField(filter, "metersPerReport", 50.0);
+        ReflectionTestUtils.setField(filter, "minIntervalSeconds", 2);
+        ReflectionTestUtils.setField(filter, "idleIntervalSeconds", 30);
+        ReflectionTestUtils.setField(filter, "busyMaxIntervalSeconds", 5);
+    }
+
+    @Test
+    void movesInsideDeadZoneAreSuppressed() {
+        assertTrue(report(1L, 30.0, NO_HEADING, false, T0));
+
+        // 11米：空闲司机不转发，载客司机转发
+        assertFalse(report(1L, 30.0001, NO_HEADING, false, T0 + 1000));
+        assertTrue(report(1L, 30.0001, NO_HEADING, true, T0 + 2000));
+
+        // 相对上次转发的位置再移动22米
+        assertTrue(report(1L, 30.0003, NO_HEADING, false, T0 + 3000));
+        assertEquals(4L, filter.getStats().get("totalReports"));
+        assertEquals(3L, filter.getStats().get("totalForwarded"));
+    }
+
+    @Test
+    void headingChangeBeyondThresholdIsForwarded() {
+        assertTrue(report(1L, 30.0, 9000, false, T0));
+        assertFalse(report(1L, 30.0, 10000, false, T0 + 1000));
+        // 跨过0度的变化按较小的一侧计算：350度到15度为25度
+        assertTrue(report(1L, 30.0, 12000, false, T0 + 2000));
+        assertTrue(report(2L, 30.0, 35000, false, T0));
+        assertTrue(report(2L, 30.0, 1500, false, T0 + 1000));
+        assertFalse(report(2L, 30.0, 500, false, T0 + 2000));
+    }
+
+    @Test
+    void maxSilenceForcesForward() {
+        assertTrue(report(1L, 30.0, NO_HEADING, false, T0));
+        assertFalse(report(1L, 30.0, NO_HEADING, false, T0 + 59_000));
+        assertTrue(report(1L, 30.0, NO_HEADING, false, T0 + 60_000));
+        assertFalse(report(1L, 30.0, NO_HEADING, false, T0 + 61_000));
+    }
+
+    @Test
+    void droppedForwardIsNotCommitted() {
+        assertTrue(report(1L, 30.0, NO_HEADING, false, T0));
+
+        // 移动22米需要转发，但下游丢弃了任务，未提交
+        LocationUpdateFilter.Decision dropped = filter.evaluate(1L, 30.0002, 120.0, NO_HEADING, false, T0 + 1000);
+        assertTrue(dropped.isForward());
+
+        // 下一次上报仍与实际写入的旧位置比较
+        assertTrue(report(1L, 30.0002, NO_HEADING, false, T0 + 2000));
+        assertFalse(report(1L, 30.0002, NO_HEADING, false, T0 + 3000));
+        assertEquals(2L, filter.getStats().get("totalForwarded"));
+    }
+
+    @Test
+    void firstReportStaysForwardedUntilCommitted() {
+        assertTrue(filter.evaluate(1L, 30.0, 120.0, NO_HEADING, false, T0).isForward());
+        assertTrue(filter.evaluate(1L, 30.0, 120.0, NO_HEADING, false, T0 + 1000).isForward());
+    }
+
+    @Test
+    void olderCommitDoesNotOverwriteNewerOne() {
+        assertTrue(report(1L, 30.0, NO_HEADING, false, T0));
+        LocationUpdateFilter.Decision older = filter.evaluate(1L, 30.0002, 120.0, NO_HEADING, false, T0 + 1000);
+        LocationUpdateFilter.Decision newer = filter.evaluate(1L, 30.0004, 120.0, NO_HEADING, false, T0 + 2000);
+        assertTrue(older.isForward());
+        assertTrue(newer.isForward());
+
+        // 提交顺序与评估顺序相反，保留较新的转发位置
+        filter.markForwarded(1L, newer);
+        filter.markForwarded(1L, older);
+
+        assertFalse(report(1L, 30.0004, NO_HEADING, false, T0 + 3000));
+    }
+
+    @Test
+    void suggestedIntervalFollowsSpeedAndBusyState() {
+        LocationUpdateFilter.Decision first = evaluateAndCommit(1L, 30.0, NO_HEADING, false, T0);
+        assertEquals(30, first.getNextIntervalSeconds());
+        assertTrue(first.isIntervalChanged());
+
+        // 10秒移动约100米，平滑后约5米/秒，按每50米上报一次为10秒
+        LocationUpdateFilter.Decision moving = evaluateAndCommit(1L, 30.0009, NO_HEADING, false, T0 + 10_000);
+        assertEquals(10, moving.getNextIntervalSeconds());
+        assertTrue(moving.isIntervalChanged());
+
+        // 载客中停车不超过载客上限
+        LocationUpdateFilter.Decision busyStopped = evaluateAndCommit(2L, 30.0, NO_HEADING, true, T0);
+        assertEquals(5, busyStopped.getNextIntervalSeconds());
+        LocationUpdateFilter.Decision busyStill = evaluateAndCommit(2L, 30.0, NO_HEADING, true, T0 + 5000);
+        assertEquals(5, busyStill.getNextIntervalSeconds());
+        assertFalse(busyStill.isIntervalChanged());
+    }
+
+    @Test
+    void disabledFilterForwardsEveryReport() {
+        ReflectionTestUtils.setField(filter, "enabled", false);
+        assertTrue(report(1L, 30.0, NO_HEADING, false, T0));
+        assertTrue(report(1L, 30.0, NO_HEADING, false, T0 + 1000));
+        assertTrue(report(1L, 30.0, NO_HEADING, false, T0 + 2000));
+    }
+
+    @Test
+    void forgetClearsState() {
+        assertTrue(report(1L, 30.0, NO_HEADING, false, T0));
+        filter.forget(1L);
+        assertTrue(report(1L, 30.0, NO_HEADING, false, T0 + 1000));
+        assertEquals(1, filter.getStats().get("trackedDrivers"));
+    }
+
+    /**
+     * 评估一次上报，需要转发时按下游已接收提交，返回是否转发
+     */
+    private boolean report(long driverId, double latitude, int heading, boolean busy, long now) {
+        return evaluateAndCommit(driverId, latitude, heading, busy, now).isForward();
+    }
+
+    private LocationUpdateFilter.Decision evaluateAndCommit(long driverId, double latitude, int heading, boolean busy, long now) {
+        LocationUpdateFilter.Decision decision = filter.evaluate(driverId, latitude, 120.0, heading, busy, now);
+        filter.markForwarded(driverId, decision);
+        return decision;
+    }
+}
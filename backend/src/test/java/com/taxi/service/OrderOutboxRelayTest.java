@@ -0,0 +1,338 @@
+package com.taxi.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.taxi.entity.OrderOutboxEvent;
+import com.taxi.mapper.OrderOutboxMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitOperations;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.LongConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 订单事件发件箱中继测试
+ * 发件箱表用内存实现代替，占用、标记和释放的条件与OrderOutboxMapper.xml中的SQL一致；
+ * RabbitTemplate替换为按事件ID决定broker确认结果的桩，多个中继实例共用同一张表
+ */
+class OrderOutboxRelayTest {
+
+    // broker拒绝（nack）的事件ID
+    private final Set<Long> nacked = new HashSet<>();
+    // 所有实例按发送顺序记录的事件ID
+    private final List<Long> sentIds = new ArrayList<>();
+
+    private InMemoryOutbox outbox;
+    private OrderOutboxMapper mapper;
+
+    @BeforeEach
+    void setUp() {
+        outbox = new InMemoryOutbox();
+        mapper = spy(outbox);
+    }
+
+    @Test
+    void fullyAckedBatchIsMarkedByRange() {
+        OrderOutboxRelay relay = relay(500, 10, null);
+        add(1, 100L);
+        add(2, 200L);
+        add(3, 100L);
+
+        // 每个订单每轮只发送最早的未发送事件
+        assertEquals(2, relay.relayOnce());
+        verify(mapper).markPublishedRange(anyString(), eq(1L), eq(2L), any());
+        assertEquals(1, relay.relayOnce());
+
+        assertEquals(List.of(1L, 2L, 3L), sentIds);
+        assertEquals(List.of(1L, 2L, 3L), outbox.publishedOrder);
+        verify(mapper, never()).markPublished(anyString(), anyList(), any());
+        verify(mapper, never()).releaseFailed(anyString(), anyList());
+    }
+
+    @Test
+    void laterEventsOfAnOrderWaitForItsFailedEvent() {
+        OrderOutboxRelay relay = relay(500, 10, null);
+        add(1, 100L);
+        add(2, 100L);
+        add(3, 200L);
+        nacked.add(1L);
+
+        relay.relayOnce();
+        // 事件1未确认，事件2没有被占用和发送
+        assertEquals(List.of(1L, 3L), sentIds);
+        assertEquals(List.of(3L), outbox.publishedOrder);
+        assertEquals(1, outbox.rows.get(1L).getAttempts());
+        assertNull(outbox.rows.get(1L).getClaimOwner());
+
+        nacked.clear();
+        relay.relayOnce();
+        relay.relayOnce();
+        assertEquals(List.of(1L, 3L, 1L, 2L), sentIds);
+        assertEquals(List.of(3L, 1L, 2L), outbox.publishedOrder);
+        assertEquals(1L, relay.getStats().get("totalFailed"));
+        assertEquals(3L, relay.getStats().get("totalPublished"));
+    }
+
+    @Test
+    void markAndReleaseAreScopedToTheClaimOwner() {
+        OrderOutboxRelay relay = relay(500, 10, null);
+        String owner = (String) ReflectionTestUtils.getField(relay, "owner");
+        add(1, 100L);
+        add(2, 200L);
+        nacked.add(2L);
+
+        relay.relayOnce();
+
+        verify(mapper).markPublished(eq(owner), eq(List.of(1L)), any());
+        verify(mapper).releaseFailed(owner, List.of(2L));
+    }
+
+    @Test
+    void secondRelayDoesNotOvertakeAnEventInFlightOnTheFirst() {
+        add(1, 100L);
+        add(2, 200L);
+        add(3, 100L);
+        nacked.add(1L);
+
+        // 实例B在实例A发送事件1、尚未确认时运行
+        List<Long> sentByB = new ArrayList<>();
+        OrderOutboxRelay relayB = relay(500, 10, sentByB::add);
+        OrderOutboxRelay[] relayBRef = {relayB};
+        OrderOutboxRelay relayA = relay(1, 10, id -> {
+            if (id == 1L) {
+                assertEquals(1, relayBRef[0].relayOnce());
+            }
+        });
+
+        relayA.relayOnce();
+        // B只能占用订单200的事件，订单100的事件3要等事件1
+        assertEquals(List.of(2L), sentByB);
+        assertEquals(List.of(2L), outbox.publishedOrder);
+
+        nacked.clear();
+        relayB.relayOnce();
+        relayA.relayOnce();
+        assertEquals(List.of(2L, 1L, 3L), outbox.publishedOrder);
+    }
+
+    @Test
+    void deadLetteredEventKeepsBlockingItsOrder() {
+        OrderOutboxRelay relay = relay(500, 2, null);
+        add(1, 100L);
+        add(2, 100L);
+        add(3, 200L);
+        nacked.add(1L);
+
+        for (int round = 0; round < 4; round++) {
+            relay.relayOnce();
+        }
+
+        // 事件1失败两次后不再重发，事件2一直没有发送
+        assertEquals(List.of(1L, 3L, 1L), sentIds);
+        assertEquals(List.of(3L), outbox.publishedOrder);
+        assertEquals(1L, relay.getStats().get("deadLettered"));
+        assertEquals(2L, relay.getStats().get("unpublished"));
+    }
+
+    @Test
+    void unparseablePayloadBlocksOnlyItsOwnOrder() {
+        OrderOutboxRelay relay = relay(500, 10, null);
+        add(1, 100L);
+        outbox.rows.get(1L).setPayload("不是JSON");
+        add(2, 100L);
+        add(3, 200L);
+
+        relay.relayOnce();
+
+        assertEquals(List.of(3L), sentIds);
+        assertEquals(List.of(3L), outbox.publishedOrder);
+        assertEquals(1, outbox.rows.get(1L).getAttempts());
+        assertNull(outbox.rows.get(2L).getPublishedAt());
+    }
+
+    @SuppressWarnings("unchecked")
+    private OrderOutboxRelay relay(int batchSize, int maxAttempts, LongConsumer onSend) {
+        RabbitOperations operations = mock(RabbitOperations.class);
+        doAnswer(invocation -> {
+            CorrelationData correlation = invocation.getArgument(3);
+            long id = Long.parseLong(correlation.getId().substring("order-outbox-".length()));
+            sentIds.add(id);
+            if (onSend != null) {
+                onSend.accept(id);
+            }
+            correlation.getFuture().complete(new CorrelationData.Confirm(!nacked.contains(id), null));
+            return null;
+        }).when(operations).send(anyString(), anyString(), any(Message.class), any(CorrelationData.class));
+
+        RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
+        when(rabbitTemplate.getMessageConverter()).thenReturn(new Jackson2JsonMessageConverter());
+        when(rabbitTemplate.invoke(any(RabbitOperations.OperationsCallback.class))).thenAnswer(invocation ->
+            ((RabbitOperations.OperationsCallback<Object>) invocation.getArgument(0)).doInRabbit(operations));
+
+        OrderOutboxRelay relay = new OrderOutboxRelay();
+        ReflectionTestUtils.setField(relay, "orderOutboxMapper", mapper);
+        ReflectionTestUtils.setField(relay, "rabbitTemplate", rabbitTemplate);
+        ReflectionTestUtils.setField(relay, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(relay, "enabled", false);
+        ReflectionTestUtils.setField(relay, "batchSize", batchSize);
+        ReflectionTestUtils.setField(relay, "leaseSeconds", 30L);
+        ReflectionTestUtils.setField(relay, "confirmTimeoutMs", 1000L);
+        ReflectionTestUtils.setField(relay, "maxAttempts", maxAttempts);
+        ReflectionTestUtils.setField(relay, "confirms", true);
+        relay.init();
+        return relay;
+    }
+
+    private void add(long id, long orderId) {
+        OrderOutboxEvent event = new OrderOutboxEvent();
+        event.setId(id);
+        event.setOrderId(orderId);
+        event.setEventType("ORDER_CREATED");
+        event.setDestination("order.events");
+        event.setPayload("{\"eventType\":\"ORDER_CREATED\",\"orderId\":" + orderId + ",\"timestamp\":1}");
+        event.setAttempts(0);
+        event.setCreatedAt(LocalDateTime.now());
+        outbox.rows.put(id, event);
+    }
+
+    /**
+     * 内存发件箱表，按ID排序
+     */
+    static class InMemoryOutbox implements OrderOutboxMapper {
+
+        final TreeMap<Long, OrderOutboxEvent> rows = new TreeMap<>();
+        // 按标记先后记录的已发送事件ID
+        final List<Long> publishedOrder = new ArrayList<>();
+
+        @Override
+        public int insert(OrderOutboxEvent event) {
+            rows.put(event.getId(), event);
+            return 1;
+        }
+
+        @Override
+        public int claimBatch(String owner, LocalDateTime claimUntil, LocalDateTime now, int maxAttempts, int limit) {
+            Set<Long> seenOrders = new HashSet<>();
+            int claimed = 0;
+            for (OrderOutboxEvent row : rows.values()) {
+                if (row.getPublishedAt() != null || !seenOrders.add(row.getOrderId())) {
+                    continue;
+                }
+                // 订单最早的未发送事件
+                boolean free = row.getClaimUntil() == null || row.getClaimUntil().isBefore(now);
+                if (free && row.getAttempts() < maxAttempts && claimed < limit) {
+                    row.setClaimOwner(owner);
+                    row.setClaimUntil(claimUntil);
+                    claimed++;
+                }
+            }
+            return claimed;
+        }
+
+        @Override
+        public List<OrderOutboxEvent> selectClaimed(String owner, int limit) {
+            List<OrderOutboxEvent> claimed = new ArrayList<>();
+            for (OrderOutboxEvent row : rows.values()) {
+                if (row.getPublishedAt() == null && owner.equals(row.getClaimOwner()) && claimed.size() < limit) {
+                    claimed.add(copy(row));
+                }
+            }
+            return claimed;
+        }
+
+        @Override
+        public int markPublishedRange(String owner, Long fromId, Long toId, LocalDateTime publishedAt) {
+            return publish(owner, new ArrayList<>(rows.subMap(fromId, true, toId, true).keySet()), publishedAt);
+        }
+
+        @Override
+        public int markPublished(String owner, List<Long> ids, LocalDateTime publishedAt) {
+            return publish(owner, ids, publishedAt);
+        }
+
+        private int publish(String owner, List<Long> ids, LocalDateTime publishedAt) {
+            int updated = 0;
+            for (Long id : ids) {
+                OrderOutboxEvent row = rows.get(id);
+                if (row != null && owner.equals(row.getClaimOwner()) && row.getPublishedAt() == null) {
+                    row.setPublishedAt(publishedAt);
+                    release(row);
+                    publishedOrder.add(id);
+                    updated++;
+                }
+            }
+            return updated;
+        }
+
+        @Override
+        public int releaseFailed(String owner, List<Long> ids) {
+            int updated = 0;
+            for (Long id : ids) {
+                OrderOutboxEvent row = rows.get(id);
+                if (row != null && owner.equals(row.getClaimOwner())) {
+                    row.setAttempts(row.getAttempts() + 1);
+                    release(row);
+                    updated++;
+                }
+            }
+            return updated;
+        }
+
+        @Override
+        public int deletePublishedBefore(LocalDateTime before, int limit) {
+            return 0;
+        }
+
+        @Override
+        public long countUnpublished() {
+            return rows.values().stream().filter(row -> row.getPublishedAt() == null).count();
+        }
+
+        @Override
+        public long countDeadLettered(int maxAttempts) {
+            return rows.values().stream()
+                .filter(row -> row.getPublishedAt() == null && row.getAttempts() >= maxAttempts)
+                .count();
+        }
+
+        private static void release(OrderOutboxEvent row) {
+            row.setClaimOwner(null);
+            row.setClaimUntil(null);
+        }
+
+        private static OrderOutboxEvent copy(OrderOutboxEvent row) {
+            OrderOutboxEvent event = new OrderOutboxEvent();
+            event.setId(row.getId());
+            event.setOrderId(row.getOrderId());
+            event.setEventType(row.getEventType());
+            event.setDestination(row.getDestination());
+            event.setPayload(row.getPayload());
+            event.setAttempts(row.getAttempts());
+            event.setCreatedAt(row.getCreatedAt());
+            return event;
+        }
+    }
+}
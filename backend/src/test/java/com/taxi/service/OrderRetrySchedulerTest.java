@@ -0,0 +1,305 @@
+package com.taxi.service;
+
+import com.taxi.support.EmbeddedRedis;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Redis订单重试队列测试（嵌入式Redis）
+ * 每个OrderRetryScheduler实例模拟一个服务实例，租约缩短为1秒；
+ * 到期时间和租约使用各实例共用的测试时钟，由测试推进，只在等待后台轮询和执行时按期限轮询
+ */
+class OrderRetrySchedulerTest {
+
+    private static final String QUEUE_KEY = "order_retry_queue";
+    private static final String PROCESSING_KEY = "order_retry_processing";
+    private static final String INFO_KEY = "order_retry_info:";
+
+    private final List<OrderRetryScheduler> instances = new ArrayList<>();
+    private final CountDownLatch blockHandlers = new CountDownLatch(1);
+    private final TestClock clock = new TestClock();
+    private StringRedisTemplate stringRedisTemplate;
+
+    @BeforeEach
+    void setUp() {
+        EmbeddedRedis.flushAll();
+        stringRedisTemplate = EmbeddedRedis.stringRedisTemplate();
+    }
+
+    @AfterEach
+    void tearDown() {
+        blockHandlers.countDown();
+        instances.forEach(OrderRetryScheduler::shutdown);
+    }
+
+    @Test
+    void resumesAfterRestartWithoutDoubleDispatch() throws Exception {
+        // 实例A领取全部到期任务后宕机（处理器卡住、不再续租），另有一批任务尚未到期
+        Map<Long, AtomicInteger> handledByA = new ConcurrentHashMap<>();
+        OrderRetryScheduler a = start((orderId, round) -> {
+            handledByA.computeIfAbsent(orderId, k -> new AtomicInteger()).incrementAndGet();
+            awaitQuietly(blockHandlers);
+        }, 50);
+        for (long orderId = 1; orderId <= 50; orderId++) {
+            a.schedule(orderId, 1, 0);
+        }
+        for (long orderId = 51; orderId <= 70; orderId++) {
+            a.schedule(orderId, 2, 2);
+        }
+        waitUntil(() -> stringRedisTemplate.opsForZSet().zCard(PROCESSING_KEY) == 50, 5000);
+        a.shutdown();
+        instances.remove(a);
+
+        // 实例B启动时A的租约已过期、其余任务已到期：全部由B执行，每个订单只执行一次
+        clock.advance(2001);
+        Map<Long, AtomicInteger> handledByB = new ConcurrentHashMap<>();
+        Map<Long, Integer> rounds = new ConcurrentHashMap<>();
+        start((orderId, round) -> {
+            handledByB.computeIfAbsent(orderId, k -> new AtomicInteger()).incrementAndGet();
+            rounds.put(orderId, round);
+        }, 10);
+        waitUntil(() -> handledByB.size() == 70, 10000);
+        waitUntil(() -> stringRedisTemplate.opsForZSet().zCard(PROCESSING_KEY) == 0, 5000);
+        // 再过一个租约周期，确认没有重复执行
+        clock.advance(1500);
+        awaitCompletedPolls();
+
+        assertTrue(handledByA.size() <= 50);
+        assertEquals(70, handledByB.size());
+        handledByB.forEach((orderId, count) -> assertEquals(1, count.get(), "订单 " + orderId + " 被重复执行"));
+        assertEquals(1, rounds.get(1L));
+        assertEquals(2, rounds.get(70L));
+        assertEquals(0L, stringRedisTemplate.opsForZSet().zCard(QUEUE_KEY));
+        assertEquals(0L, stringRedisTemplate.opsForZSet().zCard(PROCESSING_KEY));
+    }
+
+    @Test
+    void futureRetryWaitsUntilDue() throws Exception {
+        Map<Long, AtomicInteger> handled = new ConcurrentHashMap<>();
+        OrderRetryScheduler a = start((orderId, round) ->
+            handled.computeIfAbsent(orderId, k -> new AtomicInteger()).incrementAndGet(), 10);
+        a.schedule(1L, 1, 5);
+
+        // 等待轮询时时钟再推进2毫秒，到期前1毫秒
+        clock.advance(4997);
+        awaitCompletedPolls();
+        assertTrue(handled.isEmpty());
+
+        clock.advance(1);
+        waitUntil(() -> handled.containsKey(1L), 5000);
+    }
+
+    @Test
+    void instancesShareQueueWithoutDuplicates() throws Exception {
+        Map<Long, AtomicInteger> handled = new ConcurrentHashMap<>();
+        BiConsumer<Long, Integer> handler = (orderId, round) ->
+            handled.computeIfAbsent(orderId, k -> new AtomicInteger()).incrementAndGet();
+        OrderRetryScheduler a = start(handler, 10);
+        start(handler, 10);
+        start(handler, 10);
+        for (long orderId = 1; orderId <= 300; orderId++) {
+            a.schedule(orderId, 0, 0);
+        }
+
+        waitUntil(() -> handled.size() == 300, 10000);
+        waitUntil(() -> stringRedisTemplate.opsForZSet().zCard(PROCESSING_KEY) == 0, 5000);
+        clock.advance(1500);
+        awaitCompletedPolls();
+
+        handled.forEach((orderId, count) -> assertEquals(1, count.get(), "订单 " + orderId + " 被重复执行"));
+    }
+
+    @Test
+    void busyInstanceLeavesBacklogForOthers() throws Exception {
+        // 实例A的处理器卡住，本地最多持有一个批量，其余到期任务留在队列中
+        Map<Long, AtomicInteger> handledByA = new ConcurrentHashMap<>();
+        OrderRetryScheduler a = start((orderId, round) -> {
+            handledByA.computeIfAbsent(orderId, k -> new AtomicInteger()).incrementAndGet();
+            awaitQuietly(blockHandlers);
+        }, 10);
+        for (long orderId = 1; orderId <= 50; orderId++) {
+            a.schedule(orderId, 0, 0);
+        }
+        waitUntil(() -> handledByA.size() == 10, 5000);
+        awaitCompletedPolls();
+        assertEquals(10, handledByA.size());
+        assertEquals(40L, stringRedisTemplate.opsForZSet().zCard(QUEUE_KEY));
+
+        // 实例B处理剩余的任务
+        Map<Long, AtomicInteger> handledByB = new ConcurrentHashMap<>();
+        start((orderId, round) -> handledByB.computeIfAbsent(orderId, k -> new AtomicInteger()).incrementAndGet(), 10);
+        waitUntil(() -> handledByB.size() == 40, 5000);
+        handledByB.keySet().forEach(orderId -> assertFalse(handledByA.containsKey(orderId)));
+    }
+
+    @Test
+    void longRunningHandlerKeepsItsLease() throws Exception {
+        Map<Long, AtomicInteger> handled = new ConcurrentHashMap<>();
+        CountDownLatch started = new CountDownLatch(1);
+        BiConsumer<Long, Integer> slowHandler = (orderId, round) -> {
+            handled.computeIfAbsent(orderId, k -> new AtomicInteger()).incrementAndGet();
+            started.countDown();
+            awaitQuietly(blockHandlers);
+        };
+        OrderRetryScheduler a = start(slowHandler, 10);
+        start(slowHandler, 10);
+        a.schedule(1L, 0, 0);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // 处理时间推进到租约的3倍以上：每次推进不超过租约，推进后等待按新时间完成的续租
+        for (int i = 0; i < 5; i++) {
+            long now = clock.advance(700);
+            waitUntil(() -> leaseOf(1L) == now + 1000, 5000);
+            awaitCompletedPolls();
+        }
+        assertEquals(1, handled.get(1L).get());
+        assertTrue(totalRenewed() >= 5);
+
+        blockHandlers.countDown();
+        waitUntil(() -> stringRedisTemplate.opsForZSet().zCard(PROCESSING_KEY) == 0, 5000);
+        assertEquals(1, handled.get(1L).get());
+    }
+
+    @Test
+    void cancelRemovesQueuedAndInFlightState() throws Exception {
+        Map<Long, AtomicInteger> handled = new ConcurrentHashMap<>();
+        OrderRetryScheduler a = start((orderId, round) -> {
+            handled.computeIfAbsent(orderId, k -> new AtomicInteger()).incrementAndGet();
+            awaitQuietly(blockHandlers);
+        }, 10);
+        a.schedule(1L, 0, 60);
+        a.schedule(2L, 0, 0);
+        waitUntil(() -> handled.containsKey(2L), 5000);
+
+        a.cancel(1L);
+        a.cancel(2L);
+
+        assertNull(stringRedisTemplate.opsForZSet().score(QUEUE_KEY, "1"));
+        assertNull(stringRedisTemplate.opsForZSet().score(PROCESSING_KEY, "2"));
+        assertFalse(stringRedisTemplate.hasKey(INFO_KEY + 1));
+        assertFalse(stringRedisTemplate.hasKey(INFO_KEY + 2));
+
+        // 取消后处理中的任务不会因续租或租约过期被放回队列
+        long renewed = totalRenewed();
+        clock.advance(1500);
+        awaitCompletedPolls();
+        blockHandlers.countDown();
+        waitUntil(() -> (Integer) a.getStats().get("inFlight") == 0, 5000);
+        assertEquals(renewed, totalRenewed());
+        assertEquals(1, handled.get(2L).get());
+        assertFalse(handled.containsKey(1L));
+        assertEquals(0L, stringRedisTemplate.opsForZSet().zCard(QUEUE_KEY));
+        assertEquals(0L, stringRedisTemplate.opsForZSet().zCard(PROCESSING_KEY));
+    }
+
+    private OrderRetryScheduler start(BiConsumer<Long, Integer> handler, int batchSize) {
+        OrderRetryScheduler scheduler = new OrderRetryScheduler();
+        ReflectionTestUtils.setField(scheduler, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(scheduler, "redisTemplate", EmbeddedRedis.redisTemplate());
+        ReflectionTestUtils.setField(scheduler, "retryMode", "redis");
+        ReflectionTestUtils.setField(scheduler, "pollIntervalMs", 50L);
+        ReflectionTestUtils.setField(scheduler, "batchSize", batchSize);
+        ReflectionTestUtils.setField(scheduler, "leaseSeconds", 1L);
+        ReflectionTestUtils.setField(scheduler, "workerThreads", 64);
+        ReflectionTestUtils.setField(scheduler, "clock", clock);
+        scheduler.setRetryHandler(handler);
+        scheduler.init();
+        instances.add(scheduler);
+        return scheduler;
+    }
+
+    /**
+     * 推进1毫秒后等待各实例完成一次新的轮询：轮询按固定间隔串行执行，
+     * 两次推进后都轮询过，说明第一次推进之后开始的轮询已经执行完
+     */
+    private void awaitCompletedPolls() throws InterruptedException {
+        for (int i = 0; i < 2; i++) {
+            long now = clock.advance(1);
+            for (OrderRetryScheduler instance : instances) {
+                waitUntil(() -> (Long) instance.getStats().get("lastPollTime") >= now, 5000);
+            }
+        }
+    }
+
+    private long leaseOf(long orderId) {
+        Double score = stringRedisTemplate.opsForZSet().score(PROCESSING_KEY, String.valueOf(orderId));
+        return score == null ? -1 : score.longValue();
+    }
+
+    private long totalRenewed() {
+        return instances.stream().mapToLong(s -> (Long) s.getStats().get("totalRenewed")).sum();
+    }
+
+    private static void waitUntil(BooleanSupplier condition, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("等待超时");
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 测试控制的时钟，所有实例共用，租约和到期时间只随测试推进
+     */
+    private static final class TestClock extends Clock {
+
+        private final AtomicLong millis = new AtomicLong(System.currentTimeMillis());
+
+        long advance(long delta) {
+            return millis.addAndGet(delta);
+        }
+
+        @Override
+        public long millis() {
+            return millis.get();
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis.get());
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
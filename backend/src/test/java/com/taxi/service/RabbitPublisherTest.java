@@ -0,0 +1,236 @@
+package com.taxi.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.AmqpIOException;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitOperations;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * RabbitMQ异步批量发送测试
+ * 不启动发送线程，由测试从缓冲取出一批调用sendBatch；RabbitTemplate.invoke换成记录CorrelationData的桩，
+ * broker确认由测试完成对应的future；确认超时时间在扫描前调为0，不依赖等待
+ */
+class RabbitPublisherTest {
+
+    private final PrintStream originalOut = System.out;
+    private final PrintStream originalErr = System.err;
+    // 按发送顺序记录的待确认消息
+    private final List<CorrelationData> correlations = new ArrayList<>();
+    private RabbitTemplate rabbitTemplate;
+    private RabbitOperations operations;
+    private RabbitPublisher publisher;
+
+    @BeforeEach
+    void setUp() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+        operations = mock(RabbitOperations.class);
+        doAnswer(invocation -> {
+            correlations.add(invocation.getArgument(3));
+            return null;
+        }).when(operations).convertAndSend(anyString(), anyString(), any(Object.class), any(CorrelationData.class));
+
+        ConnectionFactory connectionFactory = mock(ConnectionFactory.class);
+        when(connectionFactory.isPublisherConfirms()).thenReturn(true);
+        rabbitTemplate = mock(RabbitTemplate.class);
+        when(rabbitTemplate.getConnectionFactory()).thenReturn(connectionFactory);
+        when(rabbitTemplate.invoke(any(RabbitOperations.OperationsCallback.class))).thenAnswer(invocation ->
+            ((RabbitOperations.OperationsCallback<Object>) invocation.getArgument(0)).doInRabbit(operations));
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (publisher != null) {
+            publisher.shutdown();
+        }
+        System.setOut(originalOut);
+        System.setErr(originalErr);
+    }
+
+    @Test
+    void ackedBatchIsConfirmed() {
+        publisher = publisher(16, 3);
+        publisher.publish("q.a", "m1");
+        publisher.publish("q.b", "m2");
+
+        assertEquals(2, sendQueued());
+        verify(operations).convertAndSend(eq(""), eq("q.a"), eq("m1"), any(CorrelationData.class));
+        verify(operations).convertAndSend(eq(""), eq("q.b"), eq("m2"), any(CorrelationData.class));
+        assertEquals(2, stats().get("inFlight"));
+
+        ack(0);
+        ack(1);
+        assertEquals(2L, stats().get("totalConfirmed"));
+        assertEquals(1L, stats().get("totalBatches"));
+        assertEquals(0, stats().get("inFlight"));
+    }
+
+    @Test
+    void nackedMessageIsRetriedThenGivenUp() {
+        publisher = publisher(16, 2);
+        publisher.publish("q.a", "m1");
+
+        // 首次发送和两次重试都被拒绝：前两次重新入队，第三次放弃
+        for (int attempt = 1; attempt <= 3; attempt++) {
+            Object message = ring().peek();
+            assertEquals(1, sendQueued());
+            assertEquals(attempt, attempts(message));
+            nack(attempt - 1);
+        }
+
+        assertEquals(0, ring().size());
+        assertEquals(0, stats().get("inFlight"));
+        assertEquals(3L, stats().get("totalNacked"));
+        assertEquals(2L, stats().get("totalRetried"));
+        assertEquals(1L, stats().get("totalFailed"));
+        assertEquals(0L, stats().get("totalConfirmed"));
+    }
+
+    @Test
+    void unconfirmedMessageIsRetriedAfterTimeoutAndLateConfirmIgnored() {
+        publisher = publisher(16, 3);
+        publisher.publish("q.a", "m1");
+        sendQueued();
+
+        // 还没超时时扫描不处理
+        invokeSweep();
+        assertEquals(1, stats().get("inFlight"));
+
+        ReflectionTestUtils.setField(publisher, "confirmTimeoutMs", 0L);
+        invokeSweep();
+        assertEquals(0, stats().get("inFlight"));
+        assertEquals(1L, stats().get("totalTimedOut"));
+        assertEquals(1L, stats().get("totalRetried"));
+        assertEquals(1, ring().size());
+
+        // 超时后才到达的确认不重复处理
+        ack(0);
+        assertEquals(0L, stats().get("totalConfirmed"));
+
+        // 重试发送后正常确认
+        sendQueued();
+        ack(1);
+        assertEquals(1L, stats().get("totalConfirmed"));
+        assertEquals(0, ring().size());
+    }
+
+    @Test
+    void channelFailureRetriesUnsentMessagesOnly() {
+        publisher = publisher(16, 3);
+        doAnswer(invocation -> {
+            throw new AmqpIOException(new IOException("通道已关闭"));
+        }).when(operations).convertAndSend(anyString(), eq("q.b"), any(Object.class), any(CorrelationData.class));
+        publisher.publish("q.a", "m1");
+        publisher.publish("q.b", "m2");
+
+        sendQueued();
+
+        // 已发出的m1等待确认，未发出的m2重新入队
+        assertEquals(1, stats().get("inFlight"));
+        assertEquals(1, ring().size());
+        assertEquals(1L, stats().get("totalSent"));
+        assertEquals(1L, stats().get("totalRetried"));
+    }
+
+    @Test
+    void fullRingFallsBackToCallerThread() {
+        publisher = publisher(2, 3);
+        publisher.publish("q.a", "m1");
+        publisher.publish("q.a", "m2");
+        publisher.publish("q.a", "m3");
+
+        // 第三条在调用线程同步发送，不进入缓冲
+        verify(rabbitTemplate).convertAndSend("", "q.a", "m3");
+        verify(rabbitTemplate, never()).convertAndSend("", "q.a", "m1");
+        assertEquals(2, ring().size());
+        assertEquals(2L, stats().get("totalEnqueued"));
+        assertEquals(1L, stats().get("totalCallerRuns"));
+    }
+
+    @Test
+    void disabledPublisherSendsSynchronously() {
+        publisher = new RabbitPublisher();
+        ReflectionTestUtils.setField(publisher, "rabbitTemplate", rabbitTemplate);
+        ReflectionTestUtils.setField(publisher, "enabled", false);
+        publisher.init();
+
+        publisher.publish("q.a", "m1");
+
+        verify(rabbitTemplate).convertAndSend("", "q.a", "m1");
+        assertEquals(0L, stats().get("totalEnqueued"));
+    }
+
+    private RabbitPublisher publisher(int capacity, int maxRetries) {
+        RabbitPublisher publisher = new RabbitPublisher();
+        ReflectionTestUtils.setField(publisher, "rabbitTemplate", rabbitTemplate);
+        ReflectionTestUtils.setField(publisher, "enabled", true);
+        ReflectionTestUtils.setField(publisher, "capacity", capacity);
+        ReflectionTestUtils.setField(publisher, "batchSize", 100);
+        // 不启动发送线程，由测试驱动发送
+        ReflectionTestUtils.setField(publisher, "threads", 0);
+        ReflectionTestUtils.setField(publisher, "maxRetries", maxRetries);
+        // 定时扫描间隔远大于测试时长，超时由测试调用扫描触发
+        ReflectionTestUtils.setField(publisher, "confirmTimeoutMs", 600_000L);
+        publisher.init();
+        return publisher;
+    }
+
+    /**
+     * 取出缓冲中的消息作为一批发送，返回本批条数
+     */
+    private int sendQueued() {
+        List<Object> batch = new ArrayList<>();
+        ring().drainTo(batch);
+        ReflectionTestUtils.invokeMethod(publisher, "sendBatch", batch);
+        return batch.size();
+    }
+
+    private void invokeSweep() {
+        ReflectionTestUtils.invokeMethod(publisher, "expireUnconfirmed");
+    }
+
+    private void ack(int index) {
+        correlations.get(index).getFuture().complete(new CorrelationData.Confirm(true, null));
+    }
+
+    private void nack(int index) {
+        correlations.get(index).getFuture().complete(new CorrelationData.Confirm(false, "队列已满"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private ArrayBlockingQueue<Object> ring() {
+        return (ArrayBlockingQueue<Object>) ReflectionTestUtils.getField(publisher, "ring");
+    }
+
+    private static int attempts(Object message) {
+        return ((AtomicInteger) ReflectionTestUtils.getField(message, "attempts")).get();
+    }
+
+    private Map<String, Object> stats() {
+        return publisher.getStats();
+    }
+}
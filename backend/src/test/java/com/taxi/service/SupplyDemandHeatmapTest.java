@@ -0,0 +1,246 @@
+package com.taxi.service;
+
+import com.taxi.util.GeoGridUtil;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 供需热力图测试：分钟桶滚动、并发增减、半径统计的边界
+ * 网格0.01度；到达数的分钟由注入的时钟决定
+ */
+class SupplyDemandHeatmapTest {
+
+    private static final double CELL = 0.01;
+    // 整分钟起点
+    private static final long MINUTE = 28_333_340L;
+
+    @Test
+    void arrivalBucketsRollOverAcrossMinutes() {
+        SupplyDemandHeatmap heatmap = heatmap(1024);
+        at(heatmap, MINUTE, 0);
+        heatmap.orderOpened(1L, 30.005, 120.005);
+        heatmap.orderOpened(2L, 30.005, 120.005);
+        at(heatmap, MINUTE, 59);
+        heatmap.orderOpened(3L, 30.005, 120.005);
+        // 重复派单不重复计到达
+        heatmap.orderOpened(1L, 30.005, 120.005);
+        assertEquals(3, heatmap.getArrivals(30.005, 120.005, 1));
+        assertEquals(3, heatmap.getOpenOrders(30.005, 120.005));
+
+        // 进入下一分钟：1分钟窗口只包含新桶
+        at(heatmap, MINUTE + 1, 0);
+        heatmap.orderOpened(4L, 30.005, 120.005);
+        assertEquals(1, heatmap.getArrivals(30.005, 120.005, 1));
+        assertEquals(4, heatmap.getArrivals(30.005, 120.005, 5));
+
+        // 5分钟后第一分钟的桶滑出5分钟窗口，仍在15分钟窗口内
+        at(heatmap, MINUTE + 5, 0);
+        heatmap.orderOpened(5L, 30.005, 120.005);
+        assertEquals(2, heatmap.getArrivals(30.005, 120.005, 5));
+        assertEquals(5, heatmap.getArrivals(30.005, 120.005, 15));
+
+        // 15分钟后复用第一分钟的桶：旧计数被替换，不累加到新分钟
+        at(heatmap, MINUTE + 15, 0);
+        heatmap.orderOpened(6L, 30.005, 120.005);
+        assertEquals(1, heatmap.getArrivals(30.005, 120.005, 1));
+        assertEquals(3, heatmap.getArrivals(30.005, 120.005, 15));
+
+        // 超过15分钟没有到达，窗口为空；待分配数不受影响
+        at(heatmap, MINUTE + 30, 0);
+        assertEquals(0, heatmap.getArrivals(30.005, 120.005, 15));
+        assertEquals(6, heatmap.getOpenOrders(30.005, 120.005));
+        Map<String, Object> cell = heatmap.snapshot(null, null, null, null).get(0);
+        assertEquals(0, cell.get("arrivals15m"));
+        assertEquals(6, cell.get("openOrders"));
+    }
+
+    @Test
+    void concurrentEventsKeepCountsConsistent() throws Exception {
+        SupplyDemandHeatmap heatmap = heatmap(1024);
+        at(heatmap, MINUTE, 0);
+        int threads = 8;
+        int driversPerThread = 200;
+        int orders = 1000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    // 每个线程负责自己的司机：A网格上线、接单、移动到B网格、完单，偶数司机下线
+                    for (int i = 0; i < driversPerThread; i++) {
+                        long driverId = (long) thread * driversPerThread + i;
+                        heatmap.driverOnline(driverId, 30.005, 120.005);
+                        heatmap.driverBusy(driverId, true);
+                        heatmap.driverLocation(driverId, 30.015, 120.005);
+                        heatmap.driverBusy(driverId, false);
+                        if (driverId % 2 == 0) {
+                            heatmap.driverOffline(driverId);
+                        }
+                    }
+                    // 所有线程同时派发同一批订单，模拟重复派单
+                    for (long orderId = 0; orderId < orders; orderId++) {
+                        heatmap.orderOpened(orderId, 30.005, 120.005);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+
+            futures.clear();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    // 同一订单被多个线程关闭只减一次
+                    for (long orderId = thread % 2; orderId < orders; orderId += 2) {
+                        heatmap.orderClosed(orderId);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        int remaining = threads * driversPerThread / 2;
+        assertEquals(0, heatmap.getFreeDrivers(30.005, 120.005));
+        assertEquals(0, heatmap.getBusyDrivers(30.005, 120.005));
+        assertEquals(remaining, heatmap.getFreeDrivers(30.015, 120.005));
+        assertEquals(0, heatmap.getBusyDrivers(30.015, 120.005));
+        assertEquals(remaining, heatmap.getTrackedDrivers());
+        assertEquals(orders, heatmap.getArrivals(30.005, 120.005, 15));
+        assertEquals(0, heatmap.getOpenOrders(30.005, 120.005));
+        assertEquals(0, heatmap.getTrackedOrders());
+    }
+
+    @Test
+    void countWithinMatchesCellCentersOnBothPaths() {
+        SupplyDemandHeatmap heatmap = heatmap(1024);
+        List<double[]> centers = new ArrayList<>();
+        long driverId = 0;
+        // 10x10网格，每个网格一个空闲司机，共100个已用槽位
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 10; j++) {
+                double latitude = 30.005 + i * CELL;
+                double longitude = 120.005 + j * CELL;
+                heatmap.driverOnline(driverId++, latitude, longitude);
+                long cellKey = GeoGridUtil.cellKey(latitude, longitude, CELL);
+                centers.add(new double[]{GeoGridUtil.cellCenterLatitude(cellKey, CELL), GeoGridUtil.cellCenterLongitude(cellKey, CELL)});
+            }
+        }
+
+        // 小半径按外接矩形查槽位，大半径改为扫描已用槽位，结果都与逐个网格中心比较一致
+        double latitude = 30.043;
+        double longitude = 120.047;
+        for (double radiusKm : new double[]{0.3, 1, 2, 3, 4, 5, 6, 8, 50}) {
+            int expected = 0;
+            for (double[] center : centers) {
+                if (GeoGridUtil.distanceMeters(latitude, longitude, center[0], center[1]) <= radiusKm * 1000) {
+                    expected++;
+                }
+            }
+            assertArrayEquals(new int[]{expected, 0, 0}, heatmap.countWithin(latitude, longitude, radiusKm), "radius " + radiusKm);
+        }
+    }
+
+    @Test
+    void countWithinUsesCellCenterAtRadiusEdge() {
+        // 已用槽位多：外接矩形路径
+        SupplyDemandHeatmap dense = heatmap(1024);
+        for (int i = 0; i < 50; i++) {
+            dense.driverOnline(1000 + i, 31.005 + i * CELL, 121.005);
+        }
+        assertRadiusEdge(dense);
+
+        // 只有一个槽位：扫描路径
+        assertRadiusEdge(heatmap(1024));
+    }
+
+    @Test
+    void eventsBeyondMaxCellsAreIgnored() {
+        SupplyDemandHeatmap heatmap = heatmap(2);
+        heatmap.driverOnline(1L, 30.005, 120.005);
+        heatmap.driverOnline(2L, 30.015, 120.005);
+        heatmap.driverOnline(3L, 30.025, 120.005);
+        heatmap.orderOpened(1L, 30.025, 120.005);
+        // 已追踪的司机移动到没有槽位的网格时保持原位置
+        heatmap.driverLocation(1L, 30.025, 120.005);
+
+        assertEquals(2, heatmap.getTrackedDrivers());
+        assertEquals(0, heatmap.getTrackedOrders());
+        assertEquals(0, heatmap.getFreeDrivers(30.025, 120.005));
+        assertEquals(1, heatmap.getFreeDrivers(30.005, 120.005));
+        // 小半径走外接矩形路径，跳过没有分到槽位的网格；大半径扫描已用槽位
+        assertArrayEquals(new int[]{0, 0, 0}, heatmap.countWithin(30.025, 120.005, 0.1));
+        assertArrayEquals(new int[]{1, 0, 0}, heatmap.countWithin(30.005, 120.005, 0.1));
+        assertArrayEquals(new int[]{2, 0, 0}, heatmap.countWithin(30.015, 120.005, 50));
+    }
+
+    @Test
+    void snapshotFiltersByCellCenter() {
+        SupplyDemandHeatmap heatmap = heatmap(1024);
+        heatmap.driverOnline(1L, 30.005, 120.005);
+        heatmap.driverOnline(2L, 30.015, 120.005);
+        heatmap.driverOnline(3L, 30.025, 120.005);
+        heatmap.driverOffline(3L);
+
+        // 空网格不返回；边界按网格中心判断
+        assertEquals(2, heatmap.snapshot(null, null, null, null).size());
+        List<Map<String, Object>> cells = heatmap.snapshot(30.01, null, null, 120.006);
+        assertEquals(1, cells.size());
+        assertEquals(1, cells.get(0).get("freeDrivers"));
+        assertEquals(0, heatmap.snapshot(null, null, 120.006, null).size());
+    }
+
+    /**
+     * 网格中心恰好在半径内计入，半径缩短1毫米后不计入；司机在网格内的实际位置不影响结果
+     */
+    private static void assertRadiusEdge(SupplyDemandHeatmap heatmap) {
+        heatmap.driverOnline(1L, 30.0199, 120.0101);
+        heatmap.orderOpened(1L, 30.0101, 120.0199);
+        long cellKey = GeoGridUtil.cellKey(30.0199, 120.0101, CELL);
+        double distance = GeoGridUtil.distanceMeters(30.003, 120.004,
+            GeoGridUtil.cellCenterLatitude(cellKey, CELL), GeoGridUtil.cellCenterLongitude(cellKey, CELL));
+        double radiusKm = distance / 1000;
+
+        assertArrayEquals(new int[]{1, 0, 1}, heatmap.countWithin(30.003, 120.004, radiusKm + 0.000001));
+        assertArrayEquals(new int[]{0, 0, 0}, heatmap.countWithin(30.003, 120.004, radiusKm - 0.000001));
+    }
+
+    private static SupplyDemandHeatmap heatmap(int maxCells) {
+        SupplyDemandHeatmap heatmap = new SupplyDemandHeatmap();
+        ReflectionTestUtils.setField(heatmap, "cellSizeDegrees", CELL);
+        ReflectionTestUtils.setField(heatmap, "maxCells", maxCells);
+        heatmap.init();
+        at(heatmap, MINUTE, 0);
+        return heatmap;
+    }
+
+    private static void at(SupplyDemandHeatmap heatmap, long minute, int second) {
+        Instant instant = Instant.ofEpochMilli(minute * 60_000 + second * 1000L);
+        ReflectionTestUtils.setField(heatmap, "clock", Clock.fixed(instant, ZoneId.systemDefault()));
+    }
+}
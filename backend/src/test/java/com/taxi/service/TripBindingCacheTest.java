@@ -0,0 +1,74 @@
+package com.taxi.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.mock;
+
+/**
+ * 行程绑定缓存过期测试：有效期设为0秒，绑定写入后立即过期
+ */
+class TripBindingCacheTest {
+
+    private TripBindingCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new TripBindingCache();
+        ReflectionTestUtils.setField(cache, "stringRedisTemplate", mock(StringRedisTemplate.class));
+        ReflectionTestUtils.setField(cache, "channel", "taxi:trip-binding");
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 0L);
+    }
+
+    @Test
+    void expiredBindingIsReloadedOnRead() throws Exception {
+        cache.bind(1L, 100L, 200L);
+        Thread.sleep(5);
+
+        // 过期后按未命中处理：司机已无行程时不再返回旧绑定
+        assertNull(cache.get(1L, driverId -> null));
+        assertEquals(1L, cache.getStats().get("totalExpired"));
+
+        // 仍有行程时重新加载并回填
+        AtomicInteger loads = new AtomicInteger();
+        TripBindingCache.Binding reloaded = new TripBindingCache.Binding(101L, 200L);
+        assertSame(reloaded, cache.get(1L, driverId -> {
+            loads.incrementAndGet();
+            return reloaded;
+        }));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void sweepRemovesExpiredBindings() throws Exception {
+        cache.bind(1L, 100L, 200L);
+        cache.bind(2L, 101L, 201L);
+        Thread.sleep(5);
+
+        cache.sweep();
+
+        assertEquals(0, cache.getStats().get("bindings"));
+        assertEquals(2L, cache.getStats().get("totalExpired"));
+    }
+
+    @Test
+    void freshBindingIsServedFromMemory() {
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 300L);
+        cache.bind(1L, 100L, 200L);
+
+        cache.sweep();
+        TripBindingCache.Binding binding = cache.get(1L, driverId -> {
+            throw new AssertionError("未过期的绑定不应重新加载");
+        });
+
+        assertEquals(100L, binding.getOrderId());
+        assertEquals(0L, cache.getStats().get("totalExpired"));
+    }
+}
@@ -0,0 +1,268 @@
+package com.taxi.service;
+
+import com.taxi.entity.Order;
+import com.taxi.util.GeoGridUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 行程轨迹存储测试（临时目录中的段文件）
+ * 写入线程的定时间隔足够长，由测试调用flush控制写入时机；日期由注入的时钟决定
+ */
+class TripTrajectoryStoreTest {
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+    private static final LocalDate TODAY = LocalDate.of(2024, 5, 1);
+
+    @TempDir
+    Path directory;
+
+    private final PrintStream originalOut = System.out;
+    private final List<TripTrajectoryStore> stores = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        for (TripTrajectoryStore store : stores) {
+            store.shutdown();
+        }
+        System.setOut(originalOut);
+    }
+
+    @Test
+    void segmentIsReloadedAndAppendedAfterRestart() throws Exception {
+        TripTrajectoryStore store = open(TODAY);
+        store.append(1L, 30.0, 120.0, 1000);
+        store.append(2L, 31.0, 121.0, 1000);
+        store.append(1L, 30.001, 120.001, 2000);
+        store.flush();
+        close(store);
+
+        TripTrajectoryStore reopened = open(TODAY);
+        assertEquals(List.of("30.0,120.0,1000", "30.001,120.001,2000"), points(reopened, 1L));
+        assertEquals(List.of("31.0,121.0,1000"), points(reopened, 2L));
+
+        // 当天最后一个段继续追加，不新建段
+        reopened.append(1L, 30.002, 120.002, 3000);
+        reopened.flush();
+        assertEquals(3, points(reopened, 1L).size());
+        assertEquals(1, reopened.getStats().get("segments"));
+        assertEquals(1, segmentFiles().size());
+    }
+
+    @Test
+    void truncatedRecordIsIgnoredOnReload() throws Exception {
+        TripTrajectoryStore store = open(TODAY);
+        store.append(1L, 30.0, 120.0, 1000);
+        store.flush();
+        store.append(2L, 31.0, 121.0, 1000);
+        store.append(2L, 31.001, 121.001, 2000);
+        store.flush();
+        close(store);
+
+        // 第二个块写到一半时崩溃：文件在块内容中间截断
+        Path segment = segmentFiles().get(0);
+        int second = secondBlockOffset(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(second + 6);
+        }
+
+        TripTrajectoryStore reopened = open(TODAY);
+        assertEquals(List.of("30.0,120.0,1000"), points(reopened, 1L));
+        assertFalse(reopened.hasTrajectory(2L));
+
+        // 截断后的段容量不足，新数据写入新段
+        reopened.append(2L, 31.0, 121.0, 3000);
+        reopened.flush();
+        assertEquals(List.of("31.0,121.0,3000"), points(reopened, 2L));
+        assertEquals(2, segmentFiles().size());
+    }
+
+    @Test
+    void blockWithoutLengthIsOverwrittenAfterReload() throws Exception {
+        TripTrajectoryStore store = open(TODAY);
+        store.append(1L, 30.0, 120.0, 1000);
+        store.flush();
+        store.append(2L, 31.0, 121.0, 1000);
+        store.flush();
+        close(store);
+
+        // 内容已写入但长度还没写入时崩溃：长度为0，视为段内数据结束
+        Path segment = segmentFiles().get(0);
+        int second = secondBlockOffset(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4), second);
+        }
+
+        TripTrajectoryStore reopened = open(TODAY);
+        assertEquals(List.of("30.0,120.0,1000"), points(reopened, 1L));
+        assertFalse(reopened.hasTrajectory(2L));
+
+        // 从未完成的块处继续写入同一个段
+        reopened.append(3L, 32.0, 122.0, 1000);
+        reopened.flush();
+        assertEquals(List.of("32.0,122.0,1000"), points(reopened, 3L));
+        assertEquals(List.of("30.0,120.0,1000"), points(reopened, 1L));
+        assertEquals(1, segmentFiles().size());
+        assertEquals(second, secondBlockOffset(segment));
+    }
+
+    @Test
+    void segmentsRollDailyAndExpireAfterRetention() throws Exception {
+        TripTrajectoryStore store = open(TODAY);
+        store.append(1L, 30.0, 120.0, 1000);
+        store.flush();
+
+        // 跨天写入新段，前一天的轨迹仍可读取
+        ReflectionTestUtils.setField(store, "clock", clockAt(TODAY.plusDays(1)));
+        store.append(2L, 31.0, 121.0, 1000);
+        store.flush();
+        assertEquals(2, segmentFiles().size());
+        assertTrue(store.hasTrajectory(1L));
+
+        // 第一天的段超过30天保留期，在跨天滚动时删除
+        ReflectionTestUtils.setField(store, "clock", clockAt(TODAY.plusDays(31)));
+        store.append(3L, 32.0, 122.0, 1000);
+        store.flush();
+        assertFalse(store.hasTrajectory(1L));
+        assertEquals(List.of("31.0,121.0,1000"), points(store, 2L));
+        assertEquals(2, segmentFiles().size());
+        assertFalse(segmentFiles().stream().anyMatch(path -> path.toString().contains(day(TODAY))));
+    }
+
+    @Test
+    void expiredSegmentsAreDeletedOnStartup() throws Exception {
+        TripTrajectoryStore store = open(TODAY);
+        store.append(1L, 30.0, 120.0, 1000);
+        store.flush();
+        ReflectionTestUtils.setField(store, "clock", clockAt(TODAY.plusDays(1)));
+        store.append(2L, 31.0, 121.0, 1000);
+        store.flush();
+        close(store);
+
+        // 重启时第一天的段已超过保留期，第二天的段只读加载
+        TripTrajectoryStore reopened = open(TODAY.plusDays(31));
+        assertFalse(reopened.hasTrajectory(1L));
+        assertEquals(List.of("31.0,121.0,1000"), points(reopened, 2L));
+        assertEquals(1, segmentFiles().size());
+
+        // 已有段不是当天的，新数据写入当天的新段
+        reopened.append(3L, 32.0, 122.0, 1000);
+        reopened.flush();
+        assertEquals(2, segmentFiles().size());
+    }
+
+    @Test
+    void actualDistanceSkipsPointsBeforePickupAndJumps() {
+        TripTrajectoryStore store = open(TODAY);
+        LocalDateTime pickup = LocalDateTime.of(2024, 5, 1, 8, 0);
+        long start = pickup.atZone(ZONE).toInstant().toEpochMilli();
+
+        // 上车前的点不计入
+        store.append(1L, 29.9, 120.0, start - 60_000);
+        // 每10秒向北约111米
+        store.append(1L, 30.000, 120.0, start);
+        store.append(1L, 30.001, 120.0, start + 10_000);
+        // 定位漂移：10秒跳到5公里外，隐含速度超过70米/秒，丢弃
+        store.append(1L, 30.046, 120.0, start + 20_000);
+        store.append(1L, 30.002, 120.0, start + 30_000);
+        store.append(1L, 30.003, 120.0, start + 40_000);
+        store.flush();
+
+        Order order = new Order();
+        order.setId(1L);
+        order.setPickupTime(pickup);
+        double expectedMeters = GeoGridUtil.distanceMeters(30.000, 120.0, 30.003, 120.0);
+        BigDecimal expected = BigDecimal.valueOf(expectedMeters / 1000).setScale(2, RoundingMode.HALF_UP);
+        assertEquals(expected, store.actualDistanceKm(order));
+
+        // 不足两个点时没有实际距离
+        store.append(2L, 30.0, 120.0, start);
+        store.flush();
+        Order single = new Order();
+        single.setId(2L);
+        single.setPickupTime(pickup);
+        assertNull(store.actualDistanceKm(single));
+    }
+
+    private TripTrajectoryStore open(LocalDate today) {
+        TripTrajectoryStore store = new TripTrajectoryStore();
+        ReflectionTestUtils.setField(store, "enabled", true);
+        ReflectionTestUtils.setField(store, "directory", directory.toString());
+        ReflectionTestUtils.setField(store, "segmentSizeMb", 1);
+        ReflectionTestUtils.setField(store, "flushIntervalMs", 3_600_000L);
+        ReflectionTestUtils.setField(store, "maxQueue", 100_000);
+        ReflectionTestUtils.setField(store, "retentionDays", 30);
+        ReflectionTestUtils.setField(store, "clock", clockAt(today));
+        store.init();
+        stores.add(store);
+        return store;
+    }
+
+    private void close(TripTrajectoryStore store) {
+        store.shutdown();
+        stores.remove(store);
+    }
+
+    private static Clock clockAt(LocalDate day) {
+        return Clock.fixed(day.atTime(12, 0).atZone(ZONE).toInstant(), ZONE);
+    }
+
+    private static String day(LocalDate date) {
+        return date.format(DateTimeFormatter.BASIC_ISO_DATE);
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".seg")).sorted().toList();
+        }
+    }
+
+    /**
+     * 第一个块之后的偏移：块长度(4字节) + 块内容
+     */
+    private static int secondBlockOffset(Path segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            channel.read(header, 0);
+            return 4 + header.getInt(0);
+        }
+    }
+
+    private static List<String> points(TripTrajectoryStore store, long orderId) throws IOException {
+        List<String> points = new ArrayList<>();
+        store.forEachPoint(orderId, (latitude, longitude, timestamp) -> points.add(latitude + "," + longitude + "," + timestamp));
+        return points;
+    }
+}
@@ -0,0 +1,86 @@
+package com.taxi.support;
+
+import com.taxi.config.RedisConfig;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+
+/**
+ * 测试用嵌入式Redis
+ * 整个测试JVM共用一个Redis 6.2进程（随机端口），模板的序列化配置与应用中的RedisConfig一致
+ */
+public final class EmbeddedRedis {
+
+    private static RedisServer server;
+    private static LettuceConnectionFactory connectionFactory;
+
+    private EmbeddedRedis() {
+    }
+
+    public static synchronized RedisConnectionFactory connectionFactory() {
+        if (connectionFactory == null) {
+            try {
+                int port;
+                try (ServerSocket socket = new ServerSocket(0)) {
+                    port = socket.getLocalPort();
+                }
+                server = RedisServer.newRedisServer()
+                    .port(port)
+                    .setting("bind 127.0.0.1")
+                    .setting("save \"\"")
+                    .setting("appendonly no")
+                    .build();
+                server.start();
+                LettuceConnectionFactory factory = new LettuceConnectionFactory(
+                    new RedisStandaloneConfiguration("127.0.0.1", port));
+                factory.afterPropertiesSet();
+                connectionFactory = factory;
+                Runtime.getRuntime().addShutdownHook(new Thread(EmbeddedRedis::stop, "embedded-redis-stop"));
+            } catch (IOException e) {
+                throw new UncheckedIOException("启动嵌入式Redis失败", e);
+            }
+        }
+        return connectionFactory;
+    }
+
+    public static StringRedisTemplate stringRedisTemplate() {
+        StringRedisTemplate template = new StringRedisTemplate(connectionFactory());
+        template.afterPropertiesSet();
+        return template;
+    }
+
+    public static RedisTemplate<String, Object> redisTemplate() {
+        return new RedisConfig().redisTemplate(connectionFactory());
+    }
+
+    /**
+     * 清空所有数据，每个测试开始前调用
+     */
+    public static void flushAll() {
+        stringRedisTemplate().execute((RedisCallback<Void>) connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        });
+    }
+
+    private static synchronized void stop() {
+        try {
+            if (connectionFactory != null) {
+                connectionFactory.destroy();
+            }
+            if (server != null) {
+                server.stop();
+            }
+        } catch (IOException e) {
+            System.err.println("停止嵌入式Redis失败: " + e.getMessage());
+        }
+    }
+}
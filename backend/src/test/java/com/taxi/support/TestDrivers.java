@@ -0,0 +1,48 @@
+package com.taxi.support;
+
+import com.taxi.service.DriverGeoIndex;
+import com.taxi.service.DriverLocationSink;
+import com.taxi.service.DriverRedisService;
+import com.taxi.service.SupplyDemandHeatmap;
+import com.taxi.service.TripBindingCache;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * 测试用司机缓存服务
+ * 连接嵌入式Redis，内存索引、热力图、行程绑定缓存为空实现，配置项取application.yml中的默认值
+ */
+public final class TestDrivers {
+
+    private TestDrivers() {
+    }
+
+    public static DriverRedisService driverRedisService() {
+        return driverRedisService(stub(DriverLocationSink.class));
+    }
+
+    /**
+     * 使用给定的位置批量写入器（需要真实写入Redis的测试）
+     */
+    public static DriverRedisService driverRedisService(DriverLocationSink driverLocationSink) {
+        DriverRedisService service = new DriverRedisService();
+        ReflectionTestUtils.setField(service, "stringRedisTemplate", EmbeddedRedis.stringRedisTemplate());
+        ReflectionTestUtils.setField(service, "redisTemplate", EmbeddedRedis.redisTemplate());
+        ReflectionTestUtils.setField(service, "driverGeoIndex", stub(DriverGeoIndex.class));
+        ReflectionTestUtils.setField(service, "supplyDemandHeatmap", stub(SupplyDemandHeatmap.class));
+        ReflectionTestUtils.setField(service, "tripBindingCache", stub(TripBindingCache.class));
+        ReflectionTestUtils.setField(service, "driverLocationSink", driverLocationSink);
+        ReflectionTestUtils.setField(service, "geoIndexRedisFallback", true);
+        ReflectionTestUtils.setField(service, "luaCandidateFetchEnabled", true);
+        ReflectionTestUtils.setField(service, "profileTtlHours", 72L);
+        ReflectionTestUtils.setField(service, "nearbyInitialRadiusKm", 1.0);
+        return service;
+    }
+
+    // 并发测试中大量调用，不记录调用历史
+    private static <T> T stub(Class<T> type) {
+        return mock(type, withSettings().stubOnly());
+    }
+}
@@ -0,0 +1,113 @@
+package com.taxi.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 收缩层次正确性测试：随机小路网上与普通Dijkstra的结果逐一比对
+ */
+class ContractionHierarchyTest {
+
+    @Test
+    void manyToOneMatchesDijkstraOnRandomGraphs() {
+        Random random = new Random(20240601L);
+        for (int round = 0; round < 20; round++) {
+            RoadGraph graph = randomGraph(random, 30 + random.nextInt(120));
+            ContractionHierarchy hierarchy = ContractionHierarchy.build(graph);
+            ContractionHierarchy.Query query = hierarchy.newQuery();
+
+            int n = graph.getNodeCount();
+            int[] sources = new int[n];
+            for (int i = 0; i < n; i++) {
+                sources[i] = i;
+            }
+            for (int t = 0; t < 10; t++) {
+                int target = random.nextInt(n);
+                int[] expected = new int[n];
+                for (int source = 0; source < n; source++) {
+                    expected[source] = dijkstra(graph, source, target);
+                }
+                // 同一个查询对象重复使用，验证版本号复用不会串数据
+                assertArrayEquals(expected, query.manyToOne(sources, target),
+                    "第 " + round + " 个路网，终点 " + target);
+            }
+        }
+    }
+
+    @Test
+    void negativeSourceIsUnreachable() {
+        RoadGraph graph = randomGraph(new Random(7L), 20);
+        int[] result = ContractionHierarchy.build(graph).newQuery().manyToOne(new int[]{-1, 0}, 0);
+        assertEquals(ContractionHierarchy.UNREACHABLE, result[0]);
+        assertEquals(0, result[1]);
+    }
+
+    /**
+     * 随机路网：节点坐标在北京附近，约三分之一的边为单行道，少量节点可能不可达
+     */
+    private static RoadGraph randomGraph(Random random, int n) {
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        for (int i = 0; i < n; i++) {
+            lats[i] = 39.9 + random.nextDouble() * 0.1;
+            lngs[i] = 116.3 + random.nextDouble() * 0.1;
+        }
+        int maxEdges = n * 8;
+        int[] from = new int[maxEdges];
+        int[] to = new int[maxEdges];
+        int[] w = new int[maxEdges];
+        int m = 0;
+        for (int i = 0; i < n * 3; i++) {
+            int u = random.nextInt(n);
+            int v = random.nextInt(n);
+            if (u == v) {
+                continue;
+            }
+            int millis = 1 + random.nextInt(120_000);
+            from[m] = u;
+            to[m] = v;
+            w[m] = millis;
+            m++;
+            if (random.nextInt(3) != 0) {
+                from[m] = v;
+                to[m] = u;
+                w[m] = millis;
+                m++;
+            }
+        }
+        return RoadGraph.fromEdges(lats, lngs, from, to, w, m);
+    }
+
+    private static int dijkstra(RoadGraph graph, int source, int target) {
+        long[] dist = new long[graph.getNodeCount()];
+        Arrays.fill(dist, Long.MAX_VALUE);
+        dist[source] = 0;
+        PriorityQueue<long[]> heap = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+        heap.add(new long[]{0, source});
+        while (!heap.isEmpty()) {
+            long[] top = heap.poll();
+            int u = (int) top[1];
+            if (top[0] > dist[u]) {
+                continue;
+            }
+            if (u == target) {
+                return (int) top[0];
+            }
+            for (int e = graph.firstOut(u); e < graph.endOut(u); e++) {
+                int v = graph.head(e);
+                long nd = top[0] + graph.weight(e);
+                if (nd < dist[v]) {
+                    dist[v] = nd;
+                    heap.add(new long[]{nd, v});
+                }
+            }
+        }
+        return ContractionHierarchy.UNREACHABLE;
+    }
+}
@@ -0,0 +1,121 @@
+package com.taxi.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 司机位置二进制帧编解码测试
+ */
+class DriverLocationFrameTest {
+
+    @Test
+    void roundTripsMultipleFrames() {
+        byte[] data = new byte[DriverLocationFrame.FRAME_SIZE * 3];
+        DriverLocationFrame.encode(data, 0, 1L, 39.9042123, 116.4074321, 0, 1L);
+        DriverLocationFrame.encode(data, 1, Long.MAX_VALUE, -33.8688197, -151.2092955, 35999, 0xFFFF_FFFF_FFFFL);
+        DriverLocationFrame.encode(data, 2, 42L, 85.0511287, 180.0, DriverLocationFrame.HEADING_UNKNOWN,
+            1_700_000_000_000L);
+
+        assertEquals(3, DriverLocationFrame.frameCount(data));
+
+        assertEquals(1L, DriverLocationFrame.driverId(data, 0));
+        assertEquals(39.9042123, DriverLocationFrame.latitude(data, 0), 1e-7);
+        assertEquals(116.4074321, DriverLocationFrame.longitude(data, 0), 1e-7);
+        assertEquals(0, DriverLocationFrame.headingCentiDegrees(data, 0));
+        assertEquals(1L, DriverLocationFrame.timestamp(data, 0));
+
+        assertEquals(Long.MAX_VALUE, DriverLocationFrame.driverId(data, 1));
+        assertEquals(-33.8688197, DriverLocationFrame.latitude(data, 1), 1e-7);
+        assertEquals(-151.2092955, DriverLocationFrame.longitude(data, 1), 1e-7);
+        assertEquals(35999, DriverLocationFrame.headingCentiDegrees(data, 1));
+        assertEquals(0xFFFF_FFFF_FFFFL, DriverLocationFrame.timestamp(data, 1));
+
+        assertEquals(42L, DriverLocationFrame.driverId(data, 2));
+        assertEquals(DriverLocationFrame.HEADING_UNKNOWN, DriverLocationFrame.headingCentiDegrees(data, 2));
+        assertEquals(1_700_000_000_000L, DriverLocationFrame.timestamp(data, 2));
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(DriverLocationFrame.isValid(data, i), "第 " + i + " 帧");
+        }
+    }
+
+    @Test
+    void rejectsMalformedLength() {
+        assertEquals(-1, DriverLocationFrame.frameCount(null));
+        assertEquals(-1, DriverLocationFrame.frameCount(new byte[0]));
+        assertEquals(-1, DriverLocationFrame.frameCount(new byte[DriverLocationFrame.FRAME_SIZE + 1]));
+    }
+
+    @Test
+    void rejectsOutOfRangeHeading() {
+        // 36000 ~ 0xFFFE 都不是合法朝向
+        for (int heading : new int[]{36000, 40000, 0xFFFE}) {
+            byte[] data = validFrame();
+            writeHeading(data, heading);
+            assertFalse(DriverLocationFrame.isValid(data, 0), "朝向 " + heading);
+        }
+        assertThrows(IllegalArgumentException.class,
+            () -> DriverLocationFrame.encode(new byte[DriverLocationFrame.FRAME_SIZE], 0, 1L, 30.0, 120.0, 36000, 1L));
+        assertThrows(IllegalArgumentException.class,
+            () -> DriverLocationFrame.encode(new byte[DriverLocationFrame.FRAME_SIZE], 0, 1L, 30.0, 120.0, -1, 1L));
+    }
+
+    @Test
+    void rejectsOutOfRangeCoordinates() {
+        // 纬度超出Redis GEO范围、经度超出±180
+        int[][] raw = {
+            {(int) Math.round(85.06 * DriverLocationFrame.COORDINATE_SCALE), 0},
+            {(int) Math.round(-89.0 * DriverLocationFrame.COORDINATE_SCALE), 0},
+            {0, (int) Math.round(180.0000001 * DriverLocationFrame.COORDINATE_SCALE)},
+            {0, Integer.MIN_VALUE},
+        };
+        for (int[] coordinate : raw) {
+            byte[] data = validFrame();
+            writeInt(data, 8, coordinate[0]);
+            writeInt(data, 12, coordinate[1]);
+            assertFalse(DriverLocationFrame.isValid(data, 0),
+                "坐标 " + coordinate[0] + "," + coordinate[1]);
+        }
+        assertThrows(IllegalArgumentException.class,
+            () -> DriverLocationFrame.encode(new byte[DriverLocationFrame.FRAME_SIZE], 0, 1L, 86.0, 120.0, 0, 1L));
+        // 量化后会越过纬度上限的坐标在编码时就拒绝
+        assertThrows(IllegalArgumentException.class,
+            () -> DriverLocationFrame.encode(new byte[DriverLocationFrame.FRAME_SIZE], 0, 1L, 85.05112878, 120.0, 0, 1L));
+        assertThrows(IllegalArgumentException.class,
+            () -> DriverLocationFrame.encode(new byte[DriverLocationFrame.FRAME_SIZE], 0, 1L, 30.0, Double.NaN, 0, 1L));
+    }
+
+    @Test
+    void validatesEachFrameIndependently() {
+        byte[] data = new byte[DriverLocationFrame.FRAME_SIZE * 2];
+        DriverLocationFrame.encode(data, 0, 1L, 30.0, 120.0, 9000, 1L);
+        DriverLocationFrame.encode(data, 1, 1L, 30.0, 120.0, 9000, 2L);
+        writeInt(data, DriverLocationFrame.FRAME_SIZE + 8, Integer.MAX_VALUE);
+
+        assertTrue(DriverLocationFrame.isValid(data, 0));
+        assertFalse(DriverLocationFrame.isValid(data, 1));
+    }
+
+    private static byte[] validFrame() {
+        byte[] data = new byte[DriverLocationFrame.FRAME_SIZE];
+        DriverLocationFrame.encode(data, 0, 1L, 30.0, 120.0, 9000, 1L);
+        assertTrue(DriverLocationFrame.isValid(data, 0));
+        return data;
+    }
+
+    private static void writeHeading(byte[] data, int heading) {
+        data[16] = (byte) (heading >>> 8);
+        data[17] = (byte) heading;
+    }
+
+    private static void writeInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+}
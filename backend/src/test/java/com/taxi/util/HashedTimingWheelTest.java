@@ -0,0 +1,123 @@
+package com.taxi.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 哈希时间轮测试
+ * 8个槽、每tick 20毫秒，一圈160毫秒；到期任务直接在时间轮线程上执行，便于模拟时间轮线程被阻塞
+ */
+class HashedTimingWheelTest {
+
+    private static final long TICK_MILLIS = 20;
+
+    private final HashedTimingWheel wheel = new HashedTimingWheel("test", TICK_MILLIS, TimeUnit.MILLISECONDS, 8, Runnable::run);
+    // 任务名 -> 从提交到执行经过的毫秒数
+    private final Map<String, Long> elapsed = new ConcurrentHashMap<>();
+    private final List<String> fired = Collections.synchronizedList(new ArrayList<>());
+
+    @AfterEach
+    void tearDown() {
+        wheel.stop();
+    }
+
+    @Test
+    void timersFireInTheirTickAcrossRounds() throws Exception {
+        // 分别落在第一圈、第二圈、第三圈
+        schedule("50", 50);
+        schedule("170", 170);
+        schedule("400", 400);
+        waitUntil(() -> fired.size() == 3, 2000);
+
+        assertEquals(List.of("50", "170", "400"), fired);
+        for (long delay : new long[]{50, 170, 400}) {
+            long actual = elapsed.get(String.valueOf(delay));
+            // 不早于延迟，也不晚一圈（剩余圈数算错会提前或推迟整圈）
+            assertTrue(actual >= delay, "延迟 " + delay + "ms 的任务提前在 " + actual + "ms 执行");
+            assertTrue(actual < delay + 5 * TICK_MILLIS, "延迟 " + delay + "ms 的任务推迟到 " + actual + "ms 执行");
+        }
+        assertEquals(3L, wheel.getTotalExpired());
+        assertEquals(0L, wheel.getPendingTimeouts());
+    }
+
+    @Test
+    void cancelledTimerDoesNotFire() throws Exception {
+        HashedTimingWheel.Timeout cancelled = schedule("cancelled", 100);
+        // 超过一圈的任务在剩余圈数减到0之前取消
+        HashedTimingWheel.Timeout cancelledLater = schedule("cancelledLater", 300);
+        schedule("kept", 120);
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel());
+        Thread.sleep(200);
+        assertTrue(cancelledLater.cancel());
+
+        Thread.sleep(300);
+        assertEquals(List.of("kept"), fired);
+        assertTrue(cancelled.isCancelled());
+        assertTrue(cancelledLater.isCancelled());
+        assertEquals(2L, wheel.getTotalCancelled());
+        assertEquals(0L, wheel.getPendingTimeouts());
+    }
+
+    @Test
+    void delayedTickCatchesUpWithoutLosingTimers() throws Exception {
+        // 第一个任务阻塞时间轮线程300毫秒，其间到期的任务在恢复后按到期顺序补执行
+        schedule("blocker", 20, 300);
+        for (int i = 1; i <= 10; i++) {
+            schedule("t" + i, 20 + i * 20L);
+        }
+        waitUntil(() -> fired.size() == 11, 2000);
+
+        List<String> expected = new ArrayList<>();
+        expected.add("blocker");
+        for (int i = 1; i <= 10; i++) {
+            expected.add("t" + i);
+            long delay = 20 + i * 20L;
+            assertTrue(elapsed.get("t" + i) >= delay, "任务 t" + i + " 提前执行");
+        }
+        assertEquals(expected, fired);
+        assertTrue(wheel.getMaxTickLagMillis() >= 200, "阻塞期间的tick没有记录延迟");
+        assertEquals(11L, wheel.getTotalExpired());
+    }
+
+    private HashedTimingWheel.Timeout schedule(String name, long delayMillis) {
+        return schedule(name, delayMillis, 0);
+    }
+
+    private HashedTimingWheel.Timeout schedule(String name, long delayMillis, long blockMillis) {
+        long start = System.nanoTime();
+        return wheel.schedule(() -> {
+            elapsed.put(name, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            fired.add(name);
+            if (blockMillis > 0) {
+                try {
+                    Thread.sleep(blockMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static void waitUntil(BooleanSupplier condition, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("等待超时");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
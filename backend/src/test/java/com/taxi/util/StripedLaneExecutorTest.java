@@ -0,0 +1,152 @@
+package com.taxi.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 按键分道执行器测试：同键有序、道满丢弃新键、停止时处理完已排队任务
+ * 任务数据为"键 * 10000 + 序号"的列表，合并函数把新任务追加到待处理任务后面，便于检查每个序号都按顺序处理过
+ */
+class StripedLaneExecutorTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch started = new CountDownLatch(1);
+    private StripedLaneExecutor<List<Integer>> executor;
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        if (executor != null) {
+            executor.shutdown(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void tasksForSameKeyRunInSubmitOrder() throws Exception {
+        Map<Long, List<Integer>> handled = new ConcurrentHashMap<>();
+        executor = new StripedLaneExecutor<>("test", 4, 1024, items -> {
+            long key = items.get(0) / 10_000;
+            handled.computeIfAbsent(key, k -> Collections.synchronizedList(new ArrayList<>())).addAll(items);
+        }, StripedLaneExecutorTest::append);
+
+        // 每个提交线程负责一组键，同一个键的序号在提交线程内递增
+        int keysPerThread = 25;
+        int perKey = 400;
+        List<Thread> submitters = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int firstKey = t * keysPerThread;
+            Thread submitter = new Thread(() -> {
+                for (int seq = 0; seq < perKey; seq++) {
+                    for (int key = firstKey; key < firstKey + keysPerThread; key++) {
+                        assertTrue(executor.submit(key, item(key, seq)));
+                    }
+                }
+            });
+            submitters.add(submitter);
+            submitter.start();
+        }
+        for (Thread submitter : submitters) {
+            submitter.join();
+        }
+        executor.shutdown(5, TimeUnit.SECONDS);
+
+        assertEquals(4 * keysPerThread, handled.size());
+        handled.forEach((key, items) -> {
+            assertEquals(perKey, items.size(), "键 " + key);
+            for (int seq = 0; seq < perKey; seq++) {
+                assertEquals(key * 10_000 + seq, (long) items.get(seq), "键 " + key + " 的任务乱序");
+            }
+        });
+    }
+
+    @Test
+    void newKeysAreDroppedWhenLaneIsFull() throws Exception {
+        List<Integer> handled = Collections.synchronizedList(new ArrayList<>());
+        executor = new StripedLaneExecutor<>("test", 1, 2, blockingHandler(handled), StripedLaneExecutorTest::append);
+
+        // 键1正在处理，键2、3占满容量
+        assertTrue(executor.submit(1, item(1, 0)));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(executor.submit(2, item(2, 0)));
+        assertTrue(executor.submit(3, item(3, 0)));
+
+        // 新键被丢弃，已在排队的键仍可合并
+        assertFalse(executor.submit(4, item(4, 0)));
+        assertTrue(executor.submit(2, item(2, 1)));
+        assertEquals(1L, executor.getStats().get("dropped"));
+        assertEquals(1L, executor.getStats().get("coalesced"));
+        assertEquals(2L, executor.getStats().get("queueDepth"));
+
+        release.countDown();
+        executor.shutdown(5, TimeUnit.SECONDS);
+        assertEquals(List.of(10_000, 20_000, 20_001, 30_000), handled);
+    }
+
+    @Test
+    void shutdownDrainsQueuedTasks() throws Exception {
+        List<Integer> handled = Collections.synchronizedList(new ArrayList<>());
+        executor = new StripedLaneExecutor<>("test", 1, 64, blockingHandler(handled), StripedLaneExecutorTest::append);
+        assertTrue(executor.submit(1, item(1, 0)));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (int key = 2; key <= 10; key++) {
+            assertTrue(executor.submit(key, item(key, 0)));
+        }
+
+        // 停止期间不再接收新任务，已排队的任务全部处理完后才返回
+        Thread stopper = new Thread(() -> executor.shutdown(5, TimeUnit.SECONDS));
+        stopper.start();
+        while (stopper.getState() != Thread.State.TIMED_WAITING) {
+            assertTrue(stopper.isAlive());
+            Thread.sleep(1);
+        }
+        assertFalse(executor.submit(11, item(11, 0)));
+        release.countDown();
+        stopper.join(5000);
+
+        assertFalse(stopper.isAlive());
+        assertEquals(10, handled.size());
+        for (int key = 1; key <= 10; key++) {
+            assertEquals(key * 10_000, (int) handled.get(key - 1));
+        }
+        assertEquals(0L, executor.getStats().get("queueDepth"));
+    }
+
+    /**
+     * 第一个任务开始时通知测试线程，并阻塞到测试放行
+     */
+    private Consumer<List<Integer>> blockingHandler(List<Integer> handled) {
+        return items -> {
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            handled.addAll(items);
+        };
+    }
+
+    private static List<Integer> item(long key, int seq) {
+        List<Integer> items = new ArrayList<>(1);
+        items.add((int) (key * 10_000 + seq));
+        return items;
+    }
+
+    private static List<Integer> append(List<Integer> older, List<Integer> newer) {
+        older.addAll(newer);
+        return older;
+    }
+}
@@ -0,0 +1,22 @@
+-- 添加订单事件发件箱表
+-- 订单状态变更与事件在同一事务中写入，由后端中继按ID顺序批量发送到RabbitMQ并等待broker确认
+
+USE taxi_operation_system;
+
+CREATE TABLE IF NOT EXISTS order_outbox (
+    id BIGINT PRIMARY KEY AUTO_INCREMENT COMMENT '事件ID',
+    order_id BIGINT NOT NULL COMMENT '订单ID',
+    event_type VARCHAR(32) NOT NULL COMMENT '事件类型',
+    destination VARCHAR(100) NOT NULL COMMENT '目标队列（默认交换机的路由键）',
+    payload TEXT NOT NULL COMMENT '事件内容（JSON）',
+    attempts INT NOT NULL DEFAULT 0 COMMENT '发送失败次数',
+    claim_owner VARCHAR(64) COMMENT '当前占用的中继实例',
+    claim_until DATETIME(3) COMMENT '占用到期时间',
+    published_at DATETIME(3) COMMENT '发送确认时间，为空表示未发送',
+    created_at DATETIME(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3) COMMENT '创建时间',
+    INDEX idx_published_id (published_at, id),
+    INDEX idx_published_order (published_at, order_id)
+) COMMENT '订单事件发件箱';
+
+-- 显示表结构确认
+DESCRIBE order_outbox;